@@ -10,6 +10,7 @@ public class Constants {
 		String inputDir = System.getProperty("workshop.binFiles.inputDir");
 		String outputDir = System.getProperty("workshop.binFiles.outputDir");
 		String modelDir = System.getProperty("workshop.modelDir");
+		String threadsNum = System.getProperty("workshop.threadsNum");
 		
 		if (inputDir == null){
 			NETFLIX_INPUT_DIR = "E:/FinalProject/DataSets/Netflix/Full/training_set/"; 
@@ -31,6 +32,13 @@ public class Constants {
 		else{
 			NETFLIX_MODEL_DIR =  modelDir; 
 		}
+		
+		if (threadsNum == null){
+			THREADS_NUM = Runtime.getRuntime().availableProcessors();
+		}
+		else{
+			THREADS_NUM = Integer.parseInt(threadsNum);
+		}
 	}
 	
 	public static final short NUM_MOVIES = 17770;
@@ -49,6 +57,11 @@ public class Constants {
 	
 	public static final String NETFLIX_MODEL_DIR;
 	
+	/**
+	 * The number of threads used by the parallel calculations (the number of available processors by default)
+	 */
+	public static final int THREADS_NUM;
+	
 	public static final String DEFAULT_USER_INDEXED_MODEL_FILE_NAME = "cleanedUserIndexedSlabDates.data";
 	
 	public static final String DEFAULT_MOVIE_INDEXED_MODEL_FILE_NAME = "cleanedMovieIndexedSlabDates.data";
@@ -57,6 +70,8 @@ public class Constants {
 	
 	public static final String DEFAULT_PROBE_FILE_NAME = "probe.data";
 	
+	public static final String DEFAULT_TEMPORAL_STATISTICS_FILE_NAME = "temporalStatistics.data";
+	
 	public static final String DEFAULT_PREDICTORS_FLODER_NAME = "Predictions";
 	
 	public static final int PROBES_NUM = 1408395;
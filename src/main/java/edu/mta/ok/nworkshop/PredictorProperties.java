@@ -2,6 +2,7 @@ package edu.mta.ok.nworkshop;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -9,6 +10,9 @@ import java.util.StringTokenizer;
 
 /**
  * The class holds a map with all the predictors properties loaded from an external property file 
+ * 
+ * The single instance is created once the class is first used and the properties can't be changed after they are
+ * loaded, so the instance can be used by several threads.
  */
 public class PredictorProperties {
 
@@ -17,15 +21,30 @@ public class PredictorProperties {
 		PREDICTIONS_FILE("predictionsFile"),
 		RESIDUALS_MODEL("globalEffectResiduals"),
 		NEIGHBORS_NUM("neighborsNum"),
+		NEIGHBORS_INDEX_FILE("neighborsIndexFile"),
+		NEIGHBORS_INDEX_SIZE("neighborsIndexSize"),
+		SOLVER("solver"),
+		SOLVER_MAX_ITERATIONS("solverMaxIterations"),
+		SOLVER_WARM_START("solverWarmStart"),
 		FEATURES_NUM("featuresNum"),
 		MAX_EPHOCS_NUM("maxEphocsNum"),
+		REGULARIZATION("regularization"),
+		TRAINING_THREADS_NUM("trainingThreadsNum"),
+		FLOAT_FEATURES("floatFeatures"),
+		TRAINING_ORDER("trainingOrder"),
+		TRAINING_BLOCK_USERS("trainingBlockUsers"),
+		TRAINING_BLOCK_MOVIES("trainingBlockMovies"),
 		INTERPOLATION_FILE_NAME("interpolationFile"),
 		MOVIE_MODEL_FILE_NAME("movieModelFile"),
 		USER_MODEL_FILE_NAME("userModelFile"),
 		USER_MAPPING_FILE("userMapFile"),
 		PROBE_FILE("probeFile"),
+		TEMPORAL_STATISTICS_FILE("temporalStatisticsFile"),
 		GLOBAL_EFFECTS_FILE("effectFile"),
-		GLOBAL_EFFECT_PROBE_FILE("effectProbeFile");
+		GLOBAL_EFFECT_PROBE_FILE("effectProbeFile"),
+		IN_MEMORY("inMemory"),
+		RESIDUAL_SNAPSHOTS("residualSnapshots"),
+		FLOAT_RESIDUALS("floatResiduals");
 		
 		private String propertyName;
 		
@@ -46,6 +65,8 @@ public class PredictorProperties {
 		IMPROVED_KNN("improvedKNN"),
 		SVD("svd"),
 		IMPROVED_SVD("improvedSVD"),
+		ALS("als"),
+		GLOBAL_EFFECTS("globalEffects"),
 		KNN_SVD("knnSVD");
 		
 		private String name;
@@ -61,7 +82,14 @@ public class PredictorProperties {
 	}
 	
 	private final Map<Predictors, Map<String, String>> predictorsProperties = new HashMap<Predictors, Map<String,String>>();
-	private static PredictorProperties instance = null;
+	
+	/**
+	 * Holds the single instance of the class. The instance is created (safely) by the class loader the first time
+	 * {@link #getInstance()} is called
+	 */
+	private static class InstanceHolder{
+		private static final PredictorProperties INSTANCE = new PredictorProperties();
+	}
 	
 	private PredictorProperties(){
 		initPredictorsProperties();
@@ -101,7 +129,7 @@ public class PredictorProperties {
 				}
 			}
 			
-			predictorsProperties.put(currPred, currPredictorsMap);
+			predictorsProperties.put(currPred, Collections.unmodifiableMap(currPredictorsMap));
 		}
 	}
 	
@@ -109,7 +137,7 @@ public class PredictorProperties {
 	 * Return a map with all the properties a certain predictor has
 	 * 
 	 * @param predictor a predictor we want to get his properties
-	 * @return Map with all the given predictors properties loaded from the file
+	 * @return a read only map with all the given predictors properties loaded from the file
 	 */
 	public Map<String, String> getPredictorProperties(Predictors predictor){
 		return predictorsProperties.get(predictor);
@@ -126,6 +154,12 @@ public class PredictorProperties {
 		return retVal;
 	}
 	
+	public double getPredictorDoubleProperty(Predictors predictor, PropertyKeys key, double defaultValue){
+		String value = getPredictorStringProperty(predictor, key, null);
+		
+		return (value != null) ? Double.valueOf(value.trim()) : defaultValue;
+	}
+	
 	public String getPredictorStringProperty(Predictors predictor, PropertyKeys key){
 		return this.getPredictorStringProperty(predictor, key, null);
 	}
@@ -169,15 +203,19 @@ public class PredictorProperties {
 		return Constants.NETFLIX_OUTPUT_DIR + getPredictorStringProperty(Predictors.GENERAL, PropertyKeys.PROBE_FILE, Constants.DEFAULT_PROBE_FILE_NAME);
 	}
 	
+	/**
+	 * 
+	 * @return the configured temporal statistics file name or the constant value if non is configured in the properties file
+	 */
+	public String getTemporalStatisticsFile(){
+		return Constants.NETFLIX_OUTPUT_DIR + getPredictorStringProperty(Predictors.GENERAL, PropertyKeys.TEMPORAL_STATISTICS_FILE, Constants.DEFAULT_TEMPORAL_STATISTICS_FILE_NAME);
+	}
+	
 	/**
 	 * 
 	 * @return the single instance of the class
 	 */
 	public static PredictorProperties getInstance(){
-		if (instance == null){
-			instance = new PredictorProperties();			
-		}
-		
-		return instance;
+		return InstanceHolder.INSTANCE;
 	}
 }
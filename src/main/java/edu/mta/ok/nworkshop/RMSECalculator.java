@@ -64,6 +64,17 @@ public class RMSECalculator {
 		return retVal;
 	}
 	
+	/**
+	 * Adds a sum of error values calculated elsewhere (for example by another thread) to the errors sum.
+	 * 
+	 * @param errorSum the sum of the squared errors of several predictions
+	 * @param errorsNum the number of predictions
+	 */
+	public void addErrorSum(double errorSum, int errorsNum){
+		error += errorSum;
+		elementsNum += errorsNum;
+	}
+	
 	/**
 	 * @return final RMSE value
 	 */
@@ -18,6 +18,15 @@ public class Effect1 extends EffectAbstract{
 		initProbe();
 	}
 	
+	/**
+	 * Creates the effect as the first effect of a pipeline, which already holds the probe data
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect1(GlobalEffectsPipeline pipeline){
+		super(pipeline, 0);
+	}
+	
 	private void initProbe(){
 		Object[] data = ModelUtils.loadProbeData(PredictorProperties.getInstance().getProbeFile());
 		trainingUserIDs = (int[])data[0];
@@ -57,38 +66,93 @@ public class Effect1 extends EffectAbstract{
 	@Override
 	protected void saveResidualModels() {
 		
-		movieIndexedResiduals = new double[movieIndexedRatings.length][];
+		// Initialize the residual store of the pipeline with the same residuals the movie and the user indexed 
+		// residuals matrices are initialized with below
+		if (residualStore != null){
+			
+			forEachObject(movieIndexedRatings.length, new ObjectKernel() {
+				
+				@Override
+				public void calculate(int movieInd) {
+					byte[] ratings = movieIndexedRatings[movieInd];
+					
+					for (int ratingInd = 0; ratingInd < ratings.length; ratingInd++){
+						residualStore.initResidual(movieInd, ratingInd, ratings[ratingInd] - 3.6033f, ratings[ratingInd] - 3.6033);
+					}
+				}
+			});
+			
+			saveResidualSnapshots();
+			
+			return;
+		}
 		
-		int counter = 0;
+		if (floatResiduals){
+			movieIndexedFloatResiduals = new float[movieIndexedRatings.length][];
+		}
+		else{
+			movieIndexedResiduals = new double[movieIndexedRatings.length][];
+		}
 		
 		// Initialize the movie indexed residuals by subtracting the average prediction from the original movie indexed ratings matrix
-		for (byte[] ratings : movieIndexedRatings){
-			movieIndexedResiduals[counter] = new double[ratings.length];
-			int ratingInd = 0;
+		forEachObject(movieIndexedRatings.length, new ObjectKernel() {
 			
-			for (byte rating : ratings){
-				movieIndexedResiduals[counter][ratingInd++] = rating - 3.6033f;
+			@Override
+			public void calculate(int movieInd) {
+				byte[] ratings = movieIndexedRatings[movieInd];
+				
+				if (floatResiduals){
+					movieIndexedFloatResiduals[movieInd] = new float[ratings.length];
+					
+					for (int ratingInd = 0; ratingInd < ratings.length; ratingInd++){
+						movieIndexedFloatResiduals[movieInd][ratingInd] = ratings[ratingInd] - 3.6033f;
+					}
+					
+					return;
+				}
+				
+				movieIndexedResiduals[movieInd] = new double[ratings.length];
+				
+				for (int ratingInd = 0; ratingInd < ratings.length; ratingInd++){
+					movieIndexedResiduals[movieInd][ratingInd] = ratings[ratingInd] - 3.6033f;
+				}
 			}
-			
-			counter++;
-		}
+		});
 		
 		saveMovieIndexedResiduals();
 		
-		userIndexedResiduals = new double[userIndexedRatings.length][];
-		counter = 0;
+		if (floatResiduals){
+			userIndexedFloatResiduals = new float[userIndexedRatings.length][];
+		}
+		else{
+			userIndexedResiduals = new double[userIndexedRatings.length][];
+		}
 		
 		// Initialize the user indexed residuals by subtracting the average prediction from the original user indexed ratings matrix		
-		for (byte[] ratings : userIndexedRatings){
-			userIndexedResiduals[counter] = new double[ratings.length];
-			int ratingInd = 0;
+		forEachObject(userIndexedRatings.length, new ObjectKernel() {
 			
-			for (byte rating : ratings){
-				userIndexedResiduals[counter][ratingInd++] = rating - 3.6033;
+			@Override
+			public void calculate(int userInd) {
+				byte[] ratings = userIndexedRatings[userInd];
+				
+				if (floatResiduals){
+					userIndexedFloatResiduals[userInd] = new float[ratings.length];
+					
+					for (int ratingInd = 0; ratingInd < ratings.length; ratingInd++){
+						// The same mean as the float movie indexed residuals, which the residual store holds for both models
+						userIndexedFloatResiduals[userInd][ratingInd] = ratings[ratingInd] - 3.6033f;
+					}
+					
+					return;
+				}
+				
+				userIndexedResiduals[userInd] = new double[ratings.length];
+				
+				for (int ratingInd = 0; ratingInd < ratings.length; ratingInd++){
+					userIndexedResiduals[userInd][ratingInd] = ratings[ratingInd] - 3.6033;
+				}
 			}
-			
-			counter++;
-		}
+		});
 		
 		saveUserIndexedResiduals();
 	}
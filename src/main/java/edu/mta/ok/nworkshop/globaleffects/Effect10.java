@@ -1,7 +1,5 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
 
 /**
@@ -20,19 +18,26 @@ public class Effect10 extends EffectAbstract {
 				userResidualFileName, probeFileName, 90);
 	}
 
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect10(GlobalEffectsPipeline pipeline){
+		super(pipeline, 90);
+	}
+
 	@Override
 	protected void calculateEffect() {
 		
 		int currMovie = 0;
 		avgMovieRatings = new double[Constants.NUM_MOVIES];
 		avgUserRatings = new double[Constants.NUM_USERS];
-		Arrays.fill(avgMovieRatings, 0.0);		
-		Arrays.fill(avgUserRatings, 0.0);
 		
 		int[] userRatingsNum = new int[Constants.NUM_USERS];
-		Arrays.fill(userRatingsNum, 0);
 		
-		// Find the average ratings for every movie
+		// Find the average ratings for every movie, and sum the ratings of every user (a user rates many movies, so the 
+		// movies aren't scanned in parallel)
 		for (byte[] ratings : movieIndexedRatings){
 
 			int currInd = 0;
@@ -57,35 +62,14 @@ public class Effect10 extends EffectAbstract {
 			currUser++;
 		}
 		
-		currMovie = 0;
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		currUser = 0;
-		
 		// Calculate teta hat
-		for (double[] residuals : movieIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.MOVIE_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
-				currXi = avgUserRatings[movieIndexedUserIDs[currMovie][currInd]] - avgMovieRatings[currMovie];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+			@Override
+			public double getValue(int currMovie, int currInd) {
+				return avgUserRatings[movieIndexedUserIDs[currMovie][currInd]] - avgMovieRatings[currMovie];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currMovie);
-			
-			currMovie++;
-			
-		}
+		});
 	}
 	
 	@Override
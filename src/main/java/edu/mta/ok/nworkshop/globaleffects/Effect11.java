@@ -1,9 +1,6 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
 
 /**
  * Implementation of the 11th global effect described in Bellkor abstract (Movie x User support)
@@ -21,54 +18,45 @@ public class Effect11 extends EffectAbstract {
 				userResidualFileName, probeFileName, 90);
 	}
 
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect11(GlobalEffectsPipeline pipeline){
+		super(pipeline, 90);
+	}
+
 	@Override
 	protected void calculateEffect() {
 		
-		int currMovie = 0;
 		supportAvg = new double[Constants.NUM_MOVIES];
-		Arrays.fill(supportAvg, 0.0);		
 		
-		Object[] retVal = ModelUtils.loadUserIndexedModel(userModelFileName, false);
-		userRatings = (byte[][])retVal[1];
-		retVal = null;
+		userRatings = getUserIndexedRatings();
 		
 		// Find the average support for every user
-		for (int[] ids : movieIndexedUserIDs){
+		forEachObject(movieIndexedUserIDs.length, new ObjectKernel() {
 			
-			for(int id : ids){
-				supportAvg[currMovie] += Math.sqrt(userRatings[id].length);
+			@Override
+			public void calculate(int currMovie) {
+				int[] ids = movieIndexedUserIDs[currMovie];
+				
+				for(int id : ids){
+					supportAvg[currMovie] += Math.sqrt(userRatings[id].length);
+				}
+				
+				supportAvg[currMovie] /= ids.length;
 			}
-			
-			supportAvg[currMovie] /= ids.length;
-			currMovie++;
-		}
-
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		currMovie = 0;
+		});
 		
 		// Calculate teta hat
-		for (double[] residuals : movieIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.MOVIE_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
-				currXi = Math.sqrt(userRatings[movieIndexedUserIDs[currMovie][currInd]].length) - supportAvg[currMovie];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+			@Override
+			public double getValue(int currMovie, int currInd) {
+				return Math.sqrt(userRatings[movieIndexedUserIDs[currMovie][currInd]].length) - supportAvg[currMovie];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currMovie);
-			
-			currMovie++;
-		}
+		});
 	}
 	
 	@Override
@@ -10,23 +10,34 @@ public class Effect2 extends EffectAbstract {
 	public Effect2(String userFileName, String movieFileName, String movieResidualFileName, String userResidualFileName, String probeFileName){
 		super(userFileName, movieFileName, movieResidualFileName, userResidualFileName, probeFileName, 25);
 	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect2(GlobalEffectsPipeline pipeline){
+		super(pipeline, 25);
+	}
 	
 	@Override
 	protected void calculateEffect(){
 		
-		float tetaHatI = 0;		
-				
-		for (int currMovie = 0; currMovie < movieIndexedResiduals.length; currMovie++){
-			
-			tetaHatI = 0;			
+		forEachObject(movieIndexedUserIDs.length, new ObjectKernel() {
 			
-			// Calculate the tetaI for the current movie
-			for (double rating : movieIndexedResiduals[currMovie]){
-				tetaHatI += rating;
+			@Override
+			public void calculate(int currMovie) {
+				float tetaHatI = 0;
+				int residualsNum = getResidualsNum(WantedModel.MOVIE_INDEXED_MODEL, currMovie);
+				
+				// Calculate the tetaI for the current movie
+				for (int ratingInd = 0; ratingInd < residualsNum; ratingInd++){
+					tetaHatI += getResidual(WantedModel.MOVIE_INDEXED_MODEL, currMovie, ratingInd);
+				}
+				
+				calculateTetaI(residualsNum, (tetaHatI / residualsNum), currMovie);
 			}
-			
-			calculateTetaI(movieIndexedResiduals[currMovie].length, (tetaHatI / movieIndexedResiduals[currMovie].length), currMovie);
-		}
+		});
 	}
 	
 	@Override
@@ -10,22 +10,33 @@ public class Effect3 extends EffectAbstract {
 	public Effect3(String userFileName, String movieFileName, String movieResidualFileName, String userResidualFileName, String probeFileName){
 		super(userFileName, movieFileName, movieResidualFileName, userResidualFileName, probeFileName, 7);
 	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect3(GlobalEffectsPipeline pipeline){
+		super(pipeline, 7);
+	}
 	
 	protected void calculateEffect(){
 		
-		float tetaHatI = 0;		
-				
-		for (int currUser = 0; currUser < userIndexedResiduals.length; currUser++){
-			
-			tetaHatI = 0;			
+		forEachObject(userIndexedMovieIDs.length, new ObjectKernel() {
 			
-			// Calculate the tetaI for the current User
-			for (double rating : userIndexedResiduals[currUser]){	
-				tetaHatI += rating;
+			@Override
+			public void calculate(int currUser) {
+				float tetaHatI = 0;
+				int residualsNum = getResidualsNum(WantedModel.USER_INDEXED_MODEL, currUser);
+				
+				// Calculate the tetaI for the current User
+				for (int ratingInd = 0; ratingInd < residualsNum; ratingInd++){
+					tetaHatI += getResidual(WantedModel.USER_INDEXED_MODEL, currUser, ratingInd);
+				}
+				
+				calculateTetaI(residualsNum, (tetaHatI / residualsNum), currUser);
 			}
-			
-			calculateTetaI(userIndexedResiduals[currUser].length, (tetaHatI / userIndexedResiduals[currUser].length), currUser);
-		}
+		});
 	}
 	
 	@Override
@@ -1,9 +1,7 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
 
 /**
  * Implementation of the 4th global effect described in Bellkor abstract (User x Time(user)^0.5)
@@ -21,81 +19,40 @@ public class Effect4 extends EffectAbstract {
 		super(userModelFileName, movieModelFileName, movieResidualFileName,
 				userResidualFileName, probeFileName, 550);
 		
-		minDates = new short[Constants.NUM_USERS];
-		Arrays.fill(minDates, Short.MAX_VALUE);
+		loadProbeDates();
+	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect4(GlobalEffectsPipeline pipeline){
+		super(pipeline, 550);
 		
 		loadProbeDates();
 	}
 
 	private void loadProbeDates() {
-		Object[] probe = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + "probe.data");
-		trainingDates = (short[])probe[3];
-		probe = null;
+		trainingDates = getProbeDates();
 	}
 
 	@Override
 	protected void calculateEffect() {
-	
-		int currUser = 0;
-		avgDatesDiff = new double[Constants.NUM_USERS];
-		Arrays.fill(avgDatesDiff, 0.0);
-		
-		// Find the minimum rate date for each user
-		for (short[] dates : userIndexedDates){
-			for (short date : dates){
-				if (date < minDates[currUser]){
-					minDates[currUser] = date;
-				}
-			}
-			
-			currUser++;
-		}
-
-		currUser = 0;
 		
-		// Calculate the average of square differences between rate date and minimum for each user
-		for (short[] dates : userIndexedDates){						
-			
-			int counter2 = 0;
-			
-			for (short date : dates){
-				
-				avgDatesDiff[currUser] += Math.sqrt(date - minDates[currUser]);
-				counter2++;
-			}
-			
-			avgDatesDiff[currUser] /= dates.length;
-			
-			currUser++;
-		}
+		// The minimum rate date for each user, and the average of square differences between rate date and minimum for each user
+		TemporalStatistics statistics = getTemporalStatistics();
+		minDates = statistics.getUserMinDates();
+		avgDatesDiff = statistics.getUserSqrtOffsetMeans();
 		
-		currUser = 0;		
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		
-		for (double[] residuals : userIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		// Calculate teta hat
+		calculateRegressionTeta(WantedModel.USER_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
-				currXi = Math.sqrt(userIndexedDates[currUser][currInd] - minDates[currUser]) - avgDatesDiff[currUser];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += (currXi * currXi);
-				
-				currInd++;
+			@Override
+			public double getValue(int currUser, int currInd) {
+				return Math.sqrt(userIndexedDates[currUser][currInd] - minDates[currUser]) - avgDatesDiff[currUser];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currUser);
-			
-			currUser++;
-			
-		}
+		});
 	}
 
 	/**
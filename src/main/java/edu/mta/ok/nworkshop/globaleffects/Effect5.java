@@ -1,9 +1,7 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
 
 /**
  * Implementation of the 5th global effect described in Bellkor abstract (User x Time(movie)^0.5)
@@ -21,89 +19,44 @@ public class Effect5 extends EffectAbstract {
 		super(userModelFileName, movieModelFileName, movieResidualFileName,
 				userResidualFileName, probeFileName, 150);
 		
-		minDates = new short[Constants.NUM_MOVIES];
-		Arrays.fill(minDates, Short.MAX_VALUE);
+		loadProbeDates();
+	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect5(GlobalEffectsPipeline pipeline){
+		super(pipeline, 150);
+		
 		loadProbeDates();
 	}
 
 	private void loadProbeDates() {
-		Object[] probe = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + "probe.data");
-		trainingDates = (short[])probe[3];
-		probe = null;
+		trainingDates = getProbeDates();
 	}
 	
 
 	@Override
 	protected void calculateEffect() {
 		
-		int currUser = 0;
-		avgDatesDiff = new double[Constants.NUM_USERS];
-		Arrays.fill(avgDatesDiff, 0.0);		
-		int userRatingInd = 0;
-		
-		// Find the minimum rate date for each movie by running on the user indexed model
-		for (short[] dates : userIndexedDates){
-			
-			userRatingInd = 0;
-			
-			for (short date : dates){
-				if (date < minDates[userIndexedMovieIDs[currUser][userRatingInd] - 1]){
-					minDates[userIndexedMovieIDs[currUser][userRatingInd] - 1] = date;
-				}
-				
-				userRatingInd++;
-			}
-			
-			currUser++;
-		}
-
-		currUser = 0;
-		
-		// Calculate the sum of square differences between each user rate date and minimum rate date for each movie
-		for (short[] dates : userIndexedDates){
-			
-			userRatingInd = 0;
-			
-			for (short date : dates){
-				avgDatesDiff[currUser] += Math.sqrt(date - minDates[userIndexedMovieIDs[currUser][userRatingInd] - 1]);
-				userRatingInd++;
-			}
-			
-			avgDatesDiff[currUser] /= dates.length;
-			
-			currUser++;
-		}
-		
-		currUser = 0;		
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
+		// The minimum rate date for each movie, and the average of square differences between each user rate date and minimum 
+		// rate date of the rated movie
+		TemporalStatistics statistics = getTemporalStatistics();
+		minDates = statistics.getMovieMinDates();
+		avgDatesDiff = statistics.getUserSqrtMovieOffsetMeans();
 		
 		// Calculate teta hat
-		for (double[] residuals : userIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.USER_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
+			@Override
+			public double getValue(int currUser, int currInd) {
 				// Subtract the squared root of the difference between the user rating date and the movie minimum rating date, with
 				// the saverage value of the difference dates between the users ratings dates and the current movie minimum rating date
-				currXi = Math.sqrt(userIndexedDates[currUser][currInd] - minDates[userIndexedMovieIDs[currUser][currInd] - 1]) - avgDatesDiff[currUser];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+				return Math.sqrt(userIndexedDates[currUser][currInd] - minDates[userIndexedMovieIDs[currUser][currInd] - 1]) - avgDatesDiff[currUser];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currUser);
-			
-			currUser++;
-			
-		}
+		});
 	}
 	
 	@Override
@@ -1,9 +1,7 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
 
 /**
  * Implementation of the 6th global effect described in Bellkor abstract (Movie x Time(movie)^0.5)
@@ -21,78 +19,40 @@ public class Effect6 extends EffectAbstract {
 		super(userModelFileName, movieModelFileName, movieResidualFileName,
 				userResidualFileName, probeFileName, 4000);
 		
-		minDates = new short[Constants.NUM_MOVIES];
-		Arrays.fill(minDates, Short.MAX_VALUE);
+		loadProbeDates();
+	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect6(GlobalEffectsPipeline pipeline){
+		super(pipeline, 4000);
 		
 		loadProbeDates();
 	}
 	
 	private void loadProbeDates() {
-		Object[] probe = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + "probe.data");
-		trainingDates = (short[])probe[3];
-		probe = null;
+		trainingDates = getProbeDates();
 	}
 
 	@Override
 	protected void calculateEffect() {
 		
-		int currMovie = 0;
-		avgDatesDiff = new double[Constants.NUM_MOVIES];
-		Arrays.fill(avgDatesDiff, 0.0);
+		// The minimum rate date for each movie, and the average of square differences between rate date and minimum for each movie
+		TemporalStatistics statistics = getTemporalStatistics();
+		minDates = statistics.getMovieMinDates();
+		avgDatesDiff = statistics.getMovieSqrtOffsetMeans();
 		
-		// Find the minimum rate date for each movie
-		for (short[] dates : movieIndexedDates){
-			for (short date : dates){
-				if (date < minDates[currMovie]){
-					minDates[currMovie] = date;
-				}
-			}
+		// Calculate teta hat
+		calculateRegressionTeta(WantedModel.MOVIE_INDEXED_MODEL, new RatingVariable() {
 			
-			currMovie++;
-		}
-
-		currMovie = 0;
-		
-		// Calculate the average of square differences between rate date and minimum for each movie
-		for (short[] dates : movieIndexedDates){
-			
-			for (short date : dates){
-				avgDatesDiff[currMovie] += Math.sqrt(date - minDates[currMovie]); 
+			@Override
+			public double getValue(int currMovie, int currInd) {
+				return Math.sqrt(movieIndexedDates[currMovie][currInd] - minDates[currMovie]) - avgDatesDiff[currMovie];
 			}
-			
-			avgDatesDiff[currMovie] /= dates.length;
-			
-			currMovie++;
-		}
-		
-		currMovie = 0;		
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		
-		for (double[] residuals : movieIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
-			
-			for (double residual : residuals){								
-				
-				currXi = Math.sqrt(movieIndexedDates[currMovie][currInd] - minDates[currMovie]) - avgDatesDiff[currMovie];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
-			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currMovie);
-			
-			currMovie++;
-			
-		}
+		});
 	}
 	
 	@Override
@@ -1,9 +1,7 @@
 package edu.mta.ok.nworkshop.globaleffects;
 
-import java.util.Arrays;
-
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
 
 /**
  * Implementation of the 7th global effect described in Bellkor abstract (Movie x Time(user)^0.5)
@@ -21,95 +19,43 @@ public class Effect7 extends EffectAbstract {
 		super(userModelFileName, movieModelFileName, movieResidualFileName,
 				userResidualFileName, probeFileName, 500);
 		
-		minDates = new short[Constants.NUM_USERS];
-		Arrays.fill(minDates, Short.MAX_VALUE);
+		loadProbeDates();
+	}
+
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect7(GlobalEffectsPipeline pipeline){
+		super(pipeline, 500);
 		
 		loadProbeDates();
 	}
 	
 	private void loadProbeDates() {
-		Object[] probe = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + "probe.data");
-		trainingDates = (short[])probe[3];
-		probe = null;
+		trainingDates = getProbeDates();
 	}
 
 	@Override
 	protected void calculateEffect() {
 		
-		int currMovie = 0;
-		avgDatesDiff = new double[Constants.NUM_MOVIES];
-		Arrays.fill(avgDatesDiff, 0.0);		
-		int movieRatingInd = 0;
-		
-		// Find the minimum rate date for each user by running on the movie indexed model
-		for (short[] dates : movieIndexedDates){
-			
-			movieRatingInd = 0;
-			
-			for (short date : dates){
-				if (date < minDates[movieIndexedUserIDs[currMovie][movieRatingInd]]){
-					minDates[movieIndexedUserIDs[currMovie][movieRatingInd]] = date;
-				}
-				
-				movieRatingInd++;
-			}
-			
-			currMovie++;
-		}
-
-		currMovie = 0;
-		
-		// Create an array that will hold the number of movies that were rated by each user (we need it for the average calculation
-		// because we don't have the user indexed model)
-		int[] userRatingsNum = new int[Constants.NUM_MOVIES];
-		Arrays.fill(userRatingsNum, 0);
-		
-		// Calculate the sum of square differences between a movie rate date and minimum rate date for every user
-		for (short[] dates : movieIndexedDates){
-			
-			movieRatingInd = 0;
-			
-			for (short date : dates){
-				avgDatesDiff[currMovie] += Math.sqrt(date - minDates[movieIndexedUserIDs[currMovie][movieRatingInd]]);
-				movieRatingInd++;
-			}
-			
-			avgDatesDiff[currMovie] /= dates.length;
-			currMovie++;
-		}
-		
-		// Free up consumed space
-		userRatingsNum = null;
-		
-		currMovie = 0;		
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
+		// The minimum rate date for each user, and the average of square differences between a movie rate date and minimum 
+		// rate date of the rating user
+		TemporalStatistics statistics = getTemporalStatistics();
+		minDates = statistics.getUserMinDates();
+		avgDatesDiff = statistics.getMovieSqrtUserOffsetMeans();
 		
 		// Calculate teta hat
-		for (double[] residuals : movieIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.MOVIE_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
+			@Override
+			public double getValue(int currMovie, int currInd) {
 				// Subtract the squared root of the difference between the user rating date and the movie minimum rating date, with
 				// the saverage value of the difference dates between the users ratings dates and the current movie minimum rating date
-				currXi = Math.sqrt(movieIndexedDates[currMovie][currInd] - minDates[movieIndexedUserIDs[currMovie][currInd]]) - avgDatesDiff[currMovie];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+				return Math.sqrt(movieIndexedDates[currMovie][currInd] - minDates[movieIndexedUserIDs[currMovie][currInd]]) - avgDatesDiff[currMovie];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currMovie);
-			
-			currMovie++;
-		}
+		});
 	}
 	
 	@Override
@@ -3,7 +3,6 @@ package edu.mta.ok.nworkshop.globaleffects;
 import java.util.Arrays;
 
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
 
 /**
  * Implementation of the 8th global effect described in Bellkor abstract (User x Movie average)
@@ -24,60 +23,48 @@ public class Effect8 extends EffectAbstract {
 		Arrays.fill(minDates, Short.MAX_VALUE);
 	}
 
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect8(GlobalEffectsPipeline pipeline){
+		super(pipeline, 90);
+		
+		minDates = new short[Constants.NUM_MOVIES];
+		Arrays.fill(minDates, Short.MAX_VALUE);
+	}
+
 	@Override
 	protected void calculateEffect() {
 		
-		int currMovie = 0;
 		avgRatings = new double[Constants.NUM_MOVIES];
-		Arrays.fill(avgRatings, 0.0);		
 		
-		Object[] retVal = ModelUtils.loadMovieIndexedModel(movieModelFileName, false, false);
-		byte[][] movieIndexRatings = (byte[][])retVal[1];
-		retVal = null;
+		final byte[][] movieIndexRatings = getMovieIndexedRatings();
 		
 		// Find the average ratings for every movie
-		for (byte[] ratings : movieIndexRatings){
+		forEachObject(movieIndexRatings.length, new ObjectKernel() {
 			
-			for (byte rating : ratings){
-				avgRatings[currMovie] += rating;
+			@Override
+			public void calculate(int currMovie) {
+				byte[] ratings = movieIndexRatings[currMovie];
+				
+				for (byte rating : ratings){
+					avgRatings[currMovie] += rating;
+				}
+				
+				avgRatings[currMovie] /= ratings.length;
 			}
-			
-			avgRatings[currMovie] /= ratings.length;
-			currMovie++;
-		}
-		
-		// Free up memory
-		movieIndexRatings = null;
-
-		currMovie = 0;
-		
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		int currUser = 0;
+		});
 		
 		// Calculate teta hat
-		for (double[] residuals : userIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.USER_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
-				currXi = avgRatings[userIndexedMovieIDs[currUser][currInd] - 1] - 3.6033;
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+			@Override
+			public double getValue(int currUser, int currInd) {
+				return avgRatings[userIndexedMovieIDs[currUser][currInd] - 1] - 3.6033;
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currUser);
-			
-			currUser++;
-			
-		}
+		});
 	}
 	
 	@Override
@@ -3,7 +3,6 @@ package edu.mta.ok.nworkshop.globaleffects;
 import java.util.Arrays;
 
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
 
 /**
  * Implementation of the 9th global effect described in Bellkor abstract (User x Movie support)
@@ -25,54 +24,48 @@ public class Effect9 extends EffectAbstract {
 		Arrays.fill(minDates, Short.MAX_VALUE);
 	}
 
+	/**
+	 * Creates the effect as part of a pipeline of effects calculated in memory
+	 * 
+	 * @param pipeline the pipeline the effect is calculated in
+	 */
+	public Effect9(GlobalEffectsPipeline pipeline){
+		super(pipeline, 90);
+		
+		minDates = new short[Constants.NUM_MOVIES];
+		Arrays.fill(minDates, Short.MAX_VALUE);
+	}
+
 	@Override
 	protected void calculateEffect() {
 		
-		int currUser = 0;
 		supportAvg = new double[Constants.NUM_USERS];
-		Arrays.fill(supportAvg, 0.0);		
 		
-		Object[] retVal = ModelUtils.loadMovieIndexedModel(movieModelFileName, false, false);
-		movieRatings = (byte[][])retVal[1];
-		retVal = null;
+		movieRatings = getMovieIndexedRatings();
 		
 		// Find the average support for every user
-		for (short[] ids : userIndexedMovieIDs){
+		forEachObject(userIndexedMovieIDs.length, new ObjectKernel() {
 			
-			for(short id : ids){
-				supportAvg[currUser] += Math.sqrt(movieRatings[id - 1].length);
+			@Override
+			public void calculate(int currUser) {
+				short[] ids = userIndexedMovieIDs[currUser];
+				
+				for(short id : ids){
+					supportAvg[currUser] += Math.sqrt(movieRatings[id - 1].length);
+				}
+				
+				supportAvg[currUser] /= ids.length;
 			}
-			
-			supportAvg[currUser] /= ids.length;
-			currUser++;
-		}
-
-		double tetaHatDenominator = 0;
-		double tetaHatNumerator = 0;
-		double currXi = 0;
-		double tetaHat;
-		currUser = 0;
+		});
 		
 		// Calculate teta hat
-		for (double[] residuals : userIndexedResiduals){
-			int currInd = 0;
-			tetaHatDenominator = 0;
-			tetaHatNumerator = 0;
+		calculateRegressionTeta(WantedModel.USER_INDEXED_MODEL, new RatingVariable() {
 			
-			for (double residual : residuals){
-				currXi = Math.sqrt(movieRatings[userIndexedMovieIDs[currUser][currInd] - 1].length) - supportAvg[currUser];
-				
-				tetaHatNumerator += (residual * currXi);
-				tetaHatDenominator += Math.pow(currXi, 2);
-				
-				currInd++;
+			@Override
+			public double getValue(int currUser, int currInd) {
+				return Math.sqrt(movieRatings[userIndexedMovieIDs[currUser][currInd] - 1].length) - supportAvg[currUser];
 			}
-			
-			tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
-			calculateTetaI(residuals.length, tetaHat, currUser);
-			
-			currUser++;
-		}
+		});
 	}
 	
 	@Override
@@ -4,13 +4,17 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
 
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
 import edu.mta.ok.nworkshop.RMSECalculator;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
 import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
 
 /**
  * An abstract class that all the different global effects classes inherit from.
@@ -34,6 +38,17 @@ public abstract class EffectAbstract {
 	
 	protected double[][] userIndexedResiduals = null;
 	
+	// The residuals matrices, in case the residuals are held as float (see the globalEffects.floatResiduals property)
+	protected float[][] movieIndexedFloatResiduals = null;
+	
+	protected float[][] userIndexedFloatResiduals = null;
+	
+	// true if the residuals are held, loaded and saved as float instead of double
+	protected boolean floatResiduals;
+	
+	// The residuals of both models, used instead of the residuals matrices when the effect is calculated in a pipeline
+	protected ResidualStore residualStore = null;
+	
 	protected short[][] userIndexedDates = null;
 	
 	// Training data
@@ -53,7 +68,7 @@ public abstract class EffectAbstract {
 	
 	private String userResidualsFileName;
 	
-	protected HashMap<Integer, Integer> userIndices = new HashMap<Integer, Integer>();
+	protected UserIndexMap userIndices;
 	
 	protected int alpha;
 	
@@ -63,6 +78,12 @@ public abstract class EffectAbstract {
 	
 	private RMSECalculator calculator = new RMSECalculator();
 	
+	// The pipeline the effect is calculated in, or null in case the effect loads its data from files
+	private GlobalEffectsPipeline pipeline = null;
+	
+	// The statistics of the rating dates, loaded by the time effects when not calculated in a pipeline
+	private TemporalStatistics temporalStatistics = null;
+	
 	public static final String MAIN_DIR_NAME = "globalEffects\\";
 	
 	public static final String MOVIE_INDEXED_RESIDUAL_FILE_NAME = MAIN_DIR_NAME + "movieIndexedResidual";
@@ -81,11 +102,54 @@ public abstract class EffectAbstract {
 		this.movieResidualsFileName = movieResidualFileName;
 		this.userResidualsFileName = userResidualFileName;
 		this.alpha = alpha;				
+		this.floatResiduals = isFloatResidualsConfigured();
 		
 		initModels();
 		initProbe(probeFileName);
 		initTeta();
 	}
+	
+	/**
+	 * Creates an effect calculated in memory as part of a pipeline of effects. The models, the residuals and the probe 
+	 * predictions are taken from the pipeline instead of being loaded from files.
+	 * 
+	 * @param pipeline the pipeline holding the data calculated by the previous effects
+	 * @param alpha the regularization factor of the effect
+	 */
+	protected EffectAbstract(GlobalEffectsPipeline pipeline, int alpha){
+		super();
+		this.pipeline = pipeline;
+		this.userModelFileName = pipeline.getUserModelFileName();
+		this.movieModelFileName = pipeline.getMovieModelFileName();
+		this.alpha = alpha;
+		this.floatResiduals = pipeline.residualStore.isFloatResiduals();
+		
+		movieIndexedUserIDs = pipeline.movieIndexedUserIDs;
+		movieIndexedRatings = pipeline.movieIndexedRatings;
+		movieIndexedDates = pipeline.movieIndexedDates;
+		
+		userIndexedMovieIDs = pipeline.userIndexedMovieIDs;
+		userIndexedRatings = pipeline.userIndexedRatings;
+		userIndexedDates = pipeline.userIndexedDates;
+		
+		trainingUserIDs = pipeline.probeUserIDs;
+		trainingMoviesIDs = pipeline.probeMovieIDs;
+		trainingRatings = pipeline.probeRatings;
+		trainingPredictions = pipeline.probePredictions;
+		residuals = pipeline.previousTeta;
+		
+		userIndices = pipeline.userIndices;
+		residualStore = pipeline.residualStore;
+		
+		initTeta();
+	}
+
+	/**
+	 * @return true if the residuals should be held as float, according to the globalEffects.floatResiduals property
+	 */
+	public static boolean isFloatResidualsConfigured(){
+		return PredictorProperties.getInstance().getPredictorIntProperty(Predictors.GLOBAL_EFFECTS, PropertyKeys.FLOAT_RESIDUALS, 0) == 1;
+	}
 
 	/**
 	 * Initialize the models data according to the wanted model type (movie/user indexed or both)
@@ -106,7 +170,7 @@ public abstract class EffectAbstract {
 		
 		System.out.println("finished initializing models");
 		
-		userIndices = FileUtils.loadDataFromFile(PredictorProperties.getInstance().getUserIndicesMappingFile());
+		userIndices = UserIndexMap.load(PredictorProperties.getInstance().getUserIndicesMappingFile());
 	}
 
 	/**
@@ -135,7 +199,15 @@ public abstract class EffectAbstract {
 		}
 		
 		if (userResidualsFileName != null && userResidualsFileName.length() > 0){
-			userIndexedResiduals = FileUtils.loadDataFromFile(userResidualsFileName);
+			Object[] model = FileUtils.loadDataFromFile(userResidualsFileName);
+			
+			// The residuals file may hold either double or float residuals
+			if (floatResiduals){
+				userIndexedFloatResiduals = ModelUtils.toFloatModel(model);
+			}
+			else{
+				userIndexedResiduals = ModelUtils.toDoubleModel(model);
+			}
 		}		
 	}
 
@@ -168,7 +240,15 @@ public abstract class EffectAbstract {
 		retVal[1] = null;
 		
 		if (movieResidualsFileName != null && movieResidualsFileName.length() > 0){
-			movieIndexedResiduals = FileUtils.loadDataFromFile(movieResidualsFileName);
+			Object[] model = FileUtils.loadDataFromFile(movieResidualsFileName);
+			
+			// The residuals file may hold either double or float residuals
+			if (floatResiduals){
+				movieIndexedFloatResiduals = ModelUtils.toFloatModel(model);
+			}
+			else{
+				movieIndexedResiduals = ModelUtils.toDoubleModel(model);
+			}
 		}
 	}
 	
@@ -235,9 +315,17 @@ public abstract class EffectAbstract {
 	 * 
 	 * @see #updateMovieResidualsMatrix()
 	 * @see #updateUserResidualsMatrix()
+	 * @see #updateResidualStore()
 	 */
 	protected void saveResidualModels(){
 
+		if (residualStore != null){
+			updateResidualStore();
+			saveResidualSnapshots();
+			
+			return;
+		}
+		
 		// Check which model is already in the memory to save space
 		if (getWantedModel().equals(WantedModel.MOVIE_INDEXED_MODEL)){
 			updateMovieResidualsMatrix();
@@ -255,72 +343,318 @@ public abstract class EffectAbstract {
 	}
 
 	protected final void saveUserIndexedResiduals() {
-		FileUtils.saveDataToFile(userIndexedResiduals, Constants.NETFLIX_OUTPUT_DIR + USER_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
+		Object[] model = (userIndexedFloatResiduals != null) ? userIndexedFloatResiduals : userIndexedResiduals;
+		FileUtils.saveDataToFile(model, getOutputDir() + USER_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
 		
 		// Free space
 		userIndexedResiduals = null;
+		userIndexedFloatResiduals = null;
 		userIndexedMovieIDs = null;
 		userIndexedDates = null;
 	}
 
 	protected final void saveMovieIndexedResiduals() {
-		FileUtils.saveDataToFile(movieIndexedResiduals, Constants.NETFLIX_OUTPUT_DIR + MOVIE_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
+		Object[] model = (movieIndexedFloatResiduals != null) ? movieIndexedFloatResiduals : movieIndexedResiduals;
+		FileUtils.saveDataToFile(model, getOutputDir() + MOVIE_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
 		
 		// Free space
 		movieIndexedResiduals = null;
+		movieIndexedFloatResiduals = null;
 		movieIndexedUserIDs = null;
 		movieIndexedDates = null;
 	}
 	
 	/**
-	 * Updates the movie residual matrix by substracting the teta array from the previous residual matrix, and save the result to a file
+	 * Saves the residuals held in the residual store as residuals matrices, in case the pipeline the effect is 
+	 * calculated in should save the residuals of the effect. The saved files are the same as the ones saved by 
+	 * {@link #saveMovieIndexedResiduals()} and {@link #saveUserIndexedResiduals()} (float matrices in case the store 
+	 * holds float residuals).
+	 */
+	protected final void saveResidualSnapshots(){
+		
+		if (pipeline.isSnapshotSaved(this)){
+			Object[] movieModel = (floatResiduals) ? residualStore.toMovieIndexedFloatResiduals() : residualStore.toMovieIndexedResiduals();
+			FileUtils.saveDataToFile(movieModel, getOutputDir() + MOVIE_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
+			movieModel = null;
+			
+			Object[] userModel = (floatResiduals) ? residualStore.toUserIndexedFloatResiduals() : residualStore.toUserIndexedResiduals();
+			FileUtils.saveDataToFile(userModel, getOutputDir() + USER_INDEXED_RESIDUAL_FILE_NAME + this.getClass().getSimpleName() + ".data");
+		}
+	}
+	
+	/**
+	 * Updates the residual store by substracting the teta array from the residuals. The teta value of every rating is
+	 * calculated once, through the movie indexed model, and is subtracted from the residual of both views of the 
+	 * store. The movies are updated in parallel.
+	 */
+	private void updateResidualStore(){
+		
+		forEachObject(movieIndexedUserIDs.length, new ObjectKernel() {
+			
+			@Override
+			public void calculate(int movieInd) {
+				int[] userIDs = movieIndexedUserIDs[movieInd];
+				short movieID = (short)(movieInd + 1);
+				
+				for (int ind = 0; ind < userIDs.length; ind++){
+					residualStore.subtractFromResidual(movieInd, ind, getRatingTetaVal(userIDs[ind], movieID, WantedModel.MOVIE_INDEXED_MODEL, ind));
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Updates the movie residual matrix by substracting the teta array from the previous residual matrix, and save the result to a file.
+	 * The movies are updated in parallel.
 	 */
 	private void updateMovieResidualsMatrix(){
 		
 		initMovieIndexedModel();
 		
-		int counter = 0;
-		
-		for (double[] residuals : movieIndexedResiduals){
+		forEachObject(movieIndexedUserIDs.length, new ObjectKernel() {
 			
-			int ind = 0;
-			
-			for (double residual : residuals){
+			@Override
+			public void calculate(int movieInd) {
+				int[] userIDs = movieIndexedUserIDs[movieInd];
+				short movieID = (short)(movieInd + 1);
 				
-				movieIndexedResiduals[counter][ind] = residual - getRatingTetaVal(movieIndexedUserIDs[counter][ind], (short)(counter + 1), WantedModel.MOVIE_INDEXED_MODEL, ind);
-				ind++;
+				if (movieIndexedFloatResiduals != null){
+					float[] residuals = movieIndexedFloatResiduals[movieInd];
+					
+					for (int ind = 0; ind < residuals.length; ind++){
+						residuals[ind] = (float)(residuals[ind] - getRatingTetaVal(userIDs[ind], movieID, WantedModel.MOVIE_INDEXED_MODEL, ind));
+					}
+				}
+				else{
+					double[] residuals = movieIndexedResiduals[movieInd];
+					
+					for (int ind = 0; ind < residuals.length; ind++){
+						residuals[ind] -= getRatingTetaVal(userIDs[ind], movieID, WantedModel.MOVIE_INDEXED_MODEL, ind);
+					}
+				}
 			}
-			
-			counter++;
-		}
+		});
 	}
 	
 	/**
-	 * Updates the user residual matrix by substracting the teta array from the previous residual matrix, and save the result to a file
+	 * Updates the user residual matrix by substracting the teta array from the previous residual matrix, and save the result to a file.
+	 * The users are updated in parallel.
 	 */
 	private void updateUserResidualsMatrix(){
 		
 		initUserIndexedModel();
 		
-		int counter = 0;
-		
-		for (double[] residuals : userIndexedResiduals){
+		forEachObject(userIndexedMovieIDs.length, new ObjectKernel() {
 			
-			int ind = 0;
-			
-			for (double residual : residuals){
+			@Override
+			public void calculate(int userInd) {
+				short[] movieIDs = userIndexedMovieIDs[userInd];
 				
-				// In case the residual is indexed according to the movie id then we need to fetch the data by movie id of 
-				// the current rating
+				if (userIndexedFloatResiduals != null){
+					float[] residuals = userIndexedFloatResiduals[userInd];
+					
+					for (int ind = 0; ind < residuals.length; ind++){
+						residuals[ind] = (float)(residuals[ind] - getRatingTetaVal(userInd, movieIDs[ind], WantedModel.USER_INDEXED_MODEL, ind));
+					}
+				}
+				else{
+					double[] residuals = userIndexedResiduals[userInd];
 					
-				userIndexedResiduals[counter][ind] = residual - getRatingTetaVal(counter, userIndexedMovieIDs[counter][ind], WantedModel.USER_INDEXED_MODEL, ind); 
-				ind++;
+					for (int ind = 0; ind < residuals.length; ind++){
+						residuals[ind] -= getRatingTetaVal(userInd, movieIDs[ind], WantedModel.USER_INDEXED_MODEL, ind);
+					}
+				}
 			}
+		});
+	}
+		
+	/**
+	 * @param model the model the object belongs to (movie or user indexed)
+	 * @param objectInd the index of a movie (the movie id - 1) or a user
+	 * @return the number of ratings the object has in the given model
+	 */
+	protected final int getResidualsNum(WantedModel model, int objectInd){
+		
+		if (model.equals(WantedModel.MOVIE_INDEXED_MODEL)){
+			return movieIndexedUserIDs[objectInd].length;
+		}
+		
+		return userIndexedMovieIDs[objectInd].length;
+	}
+	
+	/**
+	 * Returns a single residual of an object. The residual is read from wherever the residuals are held (the residual
+	 * store, or the float or double residuals matrices), so the residuals of the object aren't copied into a new array.
+	 * 
+	 * @param model the model the object belongs to (movie or user indexed)
+	 * @param objectInd the index of a movie (the movie id - 1) or a user
+	 * @param ratingInd the index of the rating in the object's row of the given model
+	 * @return the residual of the rating
+	 */
+	protected final double getResidual(WantedModel model, int objectInd, int ratingInd){
+		
+		if (model.equals(WantedModel.MOVIE_INDEXED_MODEL)){
 			
-			counter++;
+			if (residualStore != null){
+				return residualStore.getMovieResidual(objectInd, ratingInd);
+			}
+			
+			return (movieIndexedFloatResiduals != null) ? movieIndexedFloatResiduals[objectInd][ratingInd] : 
+				movieIndexedResiduals[objectInd][ratingInd];
+		}
+		
+		if (residualStore != null){
+			return residualStore.getUserResidual(objectInd, ratingInd);
+		}
+		
+		return (userIndexedFloatResiduals != null) ? userIndexedFloatResiduals[objectInd][ratingInd] : 
+			userIndexedResiduals[objectInd][ratingInd];
+	}
+	
+	/**
+	 * @return the movie indexed ratings, loaded from the movie indexed model file in case they aren't held in memory
+	 */
+	protected byte[][] getMovieIndexedRatings(){
+		
+		if (movieIndexedRatings != null){
+			return movieIndexedRatings;
 		}
+		
+		return (byte[][])ModelUtils.loadMovieIndexedModel(movieModelFileName, false, false)[1];
+	}
+	
+	/**
+	 * @return the user indexed ratings, loaded from the user indexed model file in case they aren't held in memory
+	 */
+	protected byte[][] getUserIndexedRatings(){
+		
+		if (userIndexedRatings != null){
+			return userIndexedRatings;
+		}
+		
+		return (byte[][])ModelUtils.loadUserIndexedModel(userModelFileName, false)[1];
+	}
+	
+	/**
+	 * @return the rating dates of the probe entries, taken from the temporal statistics in case the effect isn't calculated in a pipeline
+	 */
+	protected short[] getProbeDates(){
+		
+		if (pipeline != null){
+			return pipeline.probeDates;
+		}
+		
+		return getTemporalStatistics().getProbeDates();
+	}
+	
+	/**
+	 * Returns the statistics of the rating dates (the first rating date of every user and movie, and the averages used by 
+	 * the time effects). In case the effect isn't calculated in a pipeline, the statistics are loaded from the temporal 
+	 * statistics file, or calculated from the model files in case the file isn't up to date or doesn't match the sizes of
+	 * the loaded model and probe entries.
+	 * 
+	 * @return the statistics of the rating dates of the models
+	 */
+	protected TemporalStatistics getTemporalStatistics(){
+		
+		if (pipeline != null){
+			return pipeline.getTemporalStatistics();
+		}
+		
+		if (temporalStatistics == null){
+			
+			// Only the sizes of the loaded model are known, the other model isn't loaded by the effect
+			int usersNum = (userIndexedDates != null) ? userIndexedDates.length : -1;
+			int moviesNum = (movieIndexedDates != null) ? movieIndexedDates.length : -1;
+			int ratingsNum = (userIndexedDates != null) ? TemporalStatistics.countRatings(userIndexedDates) : 
+				(movieIndexedDates != null) ? TemporalStatistics.countRatings(movieIndexedDates) : -1;
+			
+			temporalStatistics = TemporalStatistics.loadOrCreate(PredictorProperties.getInstance().getTemporalStatisticsFile(), 
+					userModelFileName, movieModelFileName, Constants.NETFLIX_OUTPUT_DIR + "probe.data", usersNum, moviesNum, 
+					ratingsNum, trainingRatings.length);
+		}
+		
+		return temporalStatistics;
+	}
+	
+	/**
+	 * A calculation performed on a single object (a movie or a user) of the effect.
+	 * The objects are calculated in parallel, so the calculation of an object should only change the data of the object itself.
+	 */
+	protected interface ObjectKernel{
+		
+		/**
+		 * @param objectInd the index of the calculated object (the movie id - 1 or the user index)
+		 */
+		public void calculate(int objectInd);
+	}
+	
+	/**
+	 * The variable (x_ui in the Bellkor abstract) that an effect explains the residuals of an object with
+	 */
+	protected interface RatingVariable{
+		
+		/**
+		 * @param objectInd the index of the object (the movie id - 1 or the user index)
+		 * @param ratingInd the index of the rating in the object's row of the model
+		 * @return the value of the variable for the rating
+		 */
+		public double getValue(int objectInd, int ratingInd);
 	}
+	
+	/**
+	 * Runs the given calculation on all the objects in parallel, on the shared fork-join pool (see {@link ParallelUtils})
+	 * 
+	 * @param objectsNum the number of objects (movies or users)
+	 * @param kernel the calculation performed on every object
+	 */
+	protected final void forEachObject(int objectsNum, final ObjectKernel kernel){
 		
+		ParallelUtils.forEachRange(0, objectsNum, new ParallelUtils.RangeTask() {
+			
+			@Override
+			public void run(int from, int to) {
+				for (int objectInd = from; objectInd < to; objectInd++){
+					kernel.calculate(objectInd);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Calculates the teta of every object of the given model in parallel. The teta hat of an object is the regression 
+	 * coefficient of its residuals on the given variable (sum(r_ui * x_ui) / sum(x_ui^2)), and it's shrunk by 
+	 * {@link #calculateTetaI(int, double, int)}. The sums of every object are calculated in the order of its ratings, 
+	 * so the result doesn't depend on the number of threads.
+	 * 
+	 * @param model the model whose objects the teta is calculated for
+	 * @param variable the variable the residuals are explained with
+	 */
+	protected final void calculateRegressionTeta(final WantedModel model, final RatingVariable variable){
+		
+		int objectsNum = (model.equals(WantedModel.MOVIE_INDEXED_MODEL)) ? movieIndexedUserIDs.length : userIndexedMovieIDs.length;
+		
+		forEachObject(objectsNum, new ObjectKernel() {
+			
+			@Override
+			public void calculate(int objectInd) {
+				int residualsNum = getResidualsNum(model, objectInd);
+				double tetaHatNumerator = 0;
+				double tetaHatDenominator = 0;
+				
+				for (int ratingInd = 0; ratingInd < residualsNum; ratingInd++){
+					double currXi = variable.getValue(objectInd, ratingInd);
+					
+					tetaHatNumerator += (getResidual(model, objectInd, ratingInd) * currXi);
+					tetaHatDenominator += (currXi * currXi);
+				}
+				
+				double tetaHat = (tetaHatDenominator == 0 && tetaHatNumerator == 0) ? 0 : (tetaHatNumerator / tetaHatDenominator);
+				calculateTetaI(residualsNum, tetaHat, objectInd);
+			}
+		});
+	}
+	
 	/**
 	 * Calculate the effects data according to the current effect formula
 	 */
@@ -389,32 +723,42 @@ public abstract class EffectAbstract {
 	}
 	
 	/**
-	 * Calculate the predictions using the calculated effect data
+	 * Calculate the predictions using the calculated effect data. The probe entries are predicted in parallel.
 	 */
 	protected void updatePredictions(){
 		
-		int counter = 0;
-		
-		do{
-			trainingPredictions[counter] = getPrediction(counter);
+		ParallelUtils.forEachRange(0, trainingRatings.length, new ParallelUtils.RangeTask() {
 			
-			if (trainingPredictions[counter] > 5){
-				trainingPredictions[counter] = 5;
-			}			
-			else if (trainingPredictions[counter] < 1){
-				trainingPredictions[counter] = 1;
+			@Override
+			public void run(int from, int to) {
+				for (int counter = from; counter < to; counter++){
+					trainingPredictions[counter] = getPrediction(counter);
+					
+					if (trainingPredictions[counter] > 5){
+						trainingPredictions[counter] = 5;
+					}			
+					else if (trainingPredictions[counter] < 1){
+						trainingPredictions[counter] = 1;
+					}
+				}
 			}
-			
-			counter++;
-		} while (counter < trainingRatings.length);
+		});
 	}
 
+	/**
+	 * @return the directory the effect data and the residuals matrices are saved in (the output directory of the 
+	 * pipeline the effect is calculated in, or the binary files directory)
+	 */
+	protected final String getOutputDir(){
+		return (pipeline != null) ? pipeline.getOutputDir() : Constants.NETFLIX_OUTPUT_DIR;
+	}
+	
 	/**
 	 * Saves the calculated effect data into a binary file
 	 */
 	private void saveData(){
 		
-		boolean success = ModelUtils.saveEffectData(Constants.NETFLIX_OUTPUT_DIR + MAIN_DIR_NAME + getClass().getSimpleName() + ".data", trainingUserIDs, trainingMoviesIDs, trainingRatings, 
+		boolean success = ModelUtils.saveEffectData(getOutputDir() + MAIN_DIR_NAME + getClass().getSimpleName() + ".data", trainingUserIDs, trainingMoviesIDs, trainingRatings, 
 				trainingPredictions, teta);
 		
 		if (!success){
@@ -0,0 +1,106 @@
+package edu.mta.ok.nworkshop.globaleffects;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import edu.mta.ok.nworkshop.PredictorProperties;
+
+/**
+ * Validates the global effects calculated with float residuals against the ones calculated with double residuals
+ * (see the globalEffects.floatResiduals property).
+ *
+ * The effects are calculated twice by {@link GlobalEffectsPipeline}, once holding the residuals as double and once as
+ * float. The probe RMSE of every effect is reported for both runs together with their difference, the biggest
+ * difference between the final probe predictions, and the memory taken by the residuals. The validation fails (with
+ * an IllegalStateException) in case a difference exceeds its tolerance, or in case the float residuals don't take
+ * less memory.
+ *
+ * Both runs save the effects data files and the configured residual snapshots into their own sub directory (double
+ * and float) of the output directory, which is given as the first argument, or a new temporary directory otherwise,
+ * so the files of the binary files directory aren't overwritten.
+ *
+ * Arguments: [output directory]
+ */
+public class FloatResidualsValidation {
+
+	// The biggest allowed difference between the probe RMSE of an effect in both runs
+	private static final double MAX_RMSE_DIFF = 1.e-6;
+
+	// The biggest allowed difference between a final probe prediction of both runs
+	private static final double MAX_PREDICTION_DIFF = 1.e-4;
+
+	private static Object[] runPipeline(boolean floatResiduals, File outputDir){
+		long start = System.currentTimeMillis();
+
+		GlobalEffectsPipeline pipeline = new GlobalEffectsPipeline(PredictorProperties.getInstance().getUserIndexedModelFile(),
+				PredictorProperties.getInstance().getMovieIndexedModelFile(), PredictorProperties.getInstance().getProbeFile(),
+				GlobalEffectsPipeline.getConfiguredSnapshots(), floatResiduals);
+
+		// The effects files are saved in a globalEffects sub directory of the output directory
+		new File(outputDir, EffectAbstract.MAIN_DIR_NAME.replace("\\", "")).mkdirs();
+		pipeline.setOutputDir(outputDir.getPath() + File.separator);
+
+		pipeline.startCalculation();
+
+		long time = System.currentTimeMillis() - start;
+
+		return new Object[]{pipeline.getEffectsRMSE().clone(), pipeline.getProbePredictions().clone(),
+				pipeline.getResidualStore().getMemoryBytes(), time};
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		File outputDir = (args.length > 0) ? new File(args[0]) : Files.createTempDirectory("floatResidualsValidation").toFile();
+
+		System.out.println("Saving the effects files in " + outputDir.getPath());
+
+		Object[] doubleRun = runPipeline(false, new File(outputDir, "double"));
+		Object[] floatRun = runPipeline(true, new File(outputDir, "float"));
+
+		double[] doubleRMSE = (double[])doubleRun[0];
+		double[] floatRMSE = (double[])floatRun[0];
+		StringBuilder failures = new StringBuilder();
+
+		System.out.println();
+		System.out.println("effect\tdouble RMSE\tfloat RMSE\tdifference");
+
+		for (int i = 0; i < GlobalEffectsPipeline.EFFECTS_NUM; i++){
+			System.out.println("Effect" + (i + 1) + "\t" + String.format("%.8f\t%.8f\t%.2e", doubleRMSE[i], floatRMSE[i],
+					floatRMSE[i] - doubleRMSE[i]));
+
+			if (Math.abs(floatRMSE[i] - doubleRMSE[i]) > MAX_RMSE_DIFF){
+				failures.append("\n\tThe RMSE of Effect" + (i + 1) + " differs by more than " + MAX_RMSE_DIFF);
+			}
+		}
+
+		double[] doublePredictions = (double[])doubleRun[1];
+		double[] floatPredictions = (double[])floatRun[1];
+		double maxDiff = 0;
+
+		for (int i = 0; i < doublePredictions.length; i++){
+			maxDiff = Math.max(maxDiff, Math.abs(doublePredictions[i] - floatPredictions[i]));
+		}
+
+		if (maxDiff > MAX_PREDICTION_DIFF){
+			failures.append("\n\tThe final predictions differ by up to " + maxDiff + ", more than " + MAX_PREDICTION_DIFF);
+		}
+
+		long doubleBytes = (Long)doubleRun[2];
+		long floatBytes = (Long)floatRun[2];
+
+		if (floatBytes >= doubleBytes){
+			failures.append("\n\tThe float residuals take " + floatBytes + " bytes, not less than the double residuals");
+		}
+
+		System.out.println("Max final prediction difference: " + String.format("%.2e", maxDiff));
+		System.out.println("Residuals memory: double " + (doubleBytes >> 20) + " MB, float " + (floatBytes >> 20) + " MB");
+		System.out.println("Calculation time: double " + doubleRun[3] + " ms, float " + floatRun[3] + " ms");
+
+		if (failures.length() > 0){
+			throw new IllegalStateException("Float residuals validation failed:" + failures);
+		}
+
+		System.out.println("The float residuals are within the tolerances");
+	}
+}
@@ -0,0 +1,317 @@
+package edu.mta.ok.nworkshop.globaleffects;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
+import edu.mta.ok.nworkshop.model.TemporalStatistics;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
+
+/**
+ * Calculates all the global effects (Effect1 - Effect11) one after the other in memory.
+ *
+ * When every effect is run on its own, it loads the user and movie indexed models, and the residuals saved by the
+ * previous effect, and saves its own residuals matrices. The pipeline loads the models (with the ratings and the dates)
+ * and the probe data once, and the residuals are held in a single {@link ResidualStore} that gives both the movie
+ * indexed and the user indexed view of the residuals. Every effect updates the residuals of the store once, and passes
+ * them on to the next effect together with the probe predictions. The residuals matrices of an effect are saved only
+ * in case the effect was chosen to be saved (see the globalEffects.residualSnapshots property).
+ *
+ * The effects data files (the teta values and the probe predictions) are saved for every effect, and are the same as
+ * the ones saved by running every effect on its own.
+ *
+ * In case the globalEffects.floatResiduals property is set, the store holds the residuals as float (see
+ * {@link ResidualStore}), and the saved residuals matrices are float matrices. The sums of the effects are still
+ * calculated in double.
+ */
+public class GlobalEffectsPipeline {
+
+	/**
+	 * The number of global effects calculated by the pipeline
+	 */
+	public static final int EFFECTS_NUM = 11;
+
+	/**
+	 * A snapshots value marking that the residuals of all the effects should be saved
+	 */
+	public static final String ALL_SNAPSHOTS = "all";
+
+	private String userModelFileName;
+
+	private String movieModelFileName;
+
+	private String probeFileName;
+
+	private Set<String> snapshots;
+
+	private TemporalStatistics temporalStatistics;
+
+	private boolean floatResiduals;
+
+	private String outputDir = Constants.NETFLIX_OUTPUT_DIR;
+
+	// The RMSE of every calculated effect, not rounded
+	private double[] effectsRMSE = new double[EFFECTS_NUM];
+
+	// The data shared by the effects (see EffectAbstract)
+	int[][] movieIndexedUserIDs;
+	byte[][] movieIndexedRatings;
+	short[][] movieIndexedDates;
+
+	short[][] userIndexedMovieIDs;
+	byte[][] userIndexedRatings;
+	short[][] userIndexedDates;
+
+	ResidualStore residualStore;
+
+	int[] probeUserIDs;
+	short[] probeMovieIDs;
+	byte[] probeRatings;
+	short[] probeDates;
+	double[] probePredictions;
+	double[] previousTeta;
+
+	UserIndexMap userIndices;
+
+	/**
+	 * @param userModelFileName the user indexed model file, including the ratings dates
+	 * @param movieModelFileName the movie indexed model file, including the ratings dates
+	 * @param probeFileName the probe file, including the ratings dates
+	 * @param snapshots the names of the effects (for example Effect11) whose residuals matrices should be saved,
+	 * or {@link #ALL_SNAPSHOTS}
+	 */
+	public GlobalEffectsPipeline(String userModelFileName, String movieModelFileName, String probeFileName, Set<String> snapshots){
+		this(userModelFileName, movieModelFileName, probeFileName, snapshots, EffectAbstract.isFloatResidualsConfigured());
+	}
+
+	/**
+	 * @param userModelFileName the user indexed model file, including the ratings dates
+	 * @param movieModelFileName the movie indexed model file, including the ratings dates
+	 * @param probeFileName the probe file, including the ratings dates
+	 * @param snapshots the names of the effects (for example Effect11) whose residuals matrices should be saved,
+	 * or {@link #ALL_SNAPSHOTS}
+	 * @param floatResiduals true if the residuals should be held as float, or false to hold them as double
+	 */
+	public GlobalEffectsPipeline(String userModelFileName, String movieModelFileName, String probeFileName, Set<String> snapshots,
+			boolean floatResiduals){
+		this.userModelFileName = userModelFileName;
+		this.movieModelFileName = movieModelFileName;
+		this.probeFileName = probeFileName;
+		this.snapshots = snapshots;
+		this.floatResiduals = floatResiduals;
+
+		initModels();
+		initProbe(probeFileName);
+	}
+
+	/**
+	 * Creates a pipeline over the model and probe files set in the properties file, saving the residuals of the
+	 * effects set by the globalEffects.residualSnapshots property
+	 */
+	public GlobalEffectsPipeline(){
+		this(PredictorProperties.getInstance().getUserIndexedModelFile(), PredictorProperties.getInstance().getMovieIndexedModelFile(),
+				PredictorProperties.getInstance().getProbeFile(), getConfiguredSnapshots());
+	}
+
+	/**
+	 * @return the names of the effects set by the globalEffects.residualSnapshots property (a comma separated list)
+	 */
+	public static Set<String> getConfiguredSnapshots(){
+		Set<String> retVal = new HashSet<String>();
+		String value = PredictorProperties.getInstance().getPredictorStringProperty(Predictors.GLOBAL_EFFECTS, PropertyKeys.RESIDUAL_SNAPSHOTS, "");
+
+		for (String name : value.split(",")){
+			if (name.trim().length() > 0){
+				retVal.add(name.trim());
+			}
+		}
+
+		return retVal;
+	}
+
+	private void initModels(){
+
+		Object[] retVal = ModelUtils.loadMovieIndexedModel(movieModelFileName, true, false);
+
+		movieIndexedUserIDs = (int[][])retVal[0];
+		movieIndexedRatings = (byte[][])retVal[1];
+		movieIndexedDates = (short[][])retVal[2];
+
+		retVal = ModelUtils.loadUserIndexedModel(userModelFileName, true);
+
+		userIndexedMovieIDs = (short[][])retVal[0];
+		userIndexedRatings = (byte[][])retVal[1];
+		userIndexedDates = (short[][])retVal[2];
+
+		residualStore = new ResidualStore(movieIndexedUserIDs, userIndexedMovieIDs, floatResiduals);
+
+		System.out.println("finished initializing models");
+
+		userIndices = UserIndexMap.load(PredictorProperties.getInstance().getUserIndicesMappingFile());
+	}
+
+	private void initProbe(String probeFileName){
+		Object[] data = ModelUtils.loadProbeData(probeFileName);
+
+		probeUserIDs = (int[])data[0];
+		probeMovieIDs = (short[])data[1];
+		probeRatings = (byte[])data[2];
+		probeDates = (short[])data[3];
+		probePredictions = new double[Constants.PROBES_NUM];
+	}
+
+	/**
+	 * Creates an effect over the data of the pipeline
+	 *
+	 * @param effectNum the number of the effect (1 - 11)
+	 * @return the effect
+	 */
+	private EffectAbstract createEffect(int effectNum){
+
+		switch (effectNum){
+			case 1: return new Effect1(this);
+			case 2: return new Effect2(this);
+			case 3: return new Effect3(this);
+			case 4: return new Effect4(this);
+			case 5: return new Effect5(this);
+			case 6: return new Effect6(this);
+			case 7: return new Effect7(this);
+			case 8: return new Effect8(this);
+			case 9: return new Effect9(this);
+			case 10: return new Effect10(this);
+			case 11: return new Effect11(this);
+			default: throw new IllegalArgumentException("Unknown global effect: " + effectNum);
+		}
+	}
+
+	/**
+	 * Calculates all the effects one after the other.
+	 *
+	 * @return the RMSE of the last effect
+	 */
+	public double startCalculation(){
+		double retVal = 0;
+
+		for (int effectNum = 1; effectNum <= EFFECTS_NUM; effectNum++){
+
+			System.out.println("Calculating global effect " + effectNum);
+
+			EffectAbstract effect = createEffect(effectNum);
+			retVal = effect.startEffectCalculation();
+			effectsRMSE[effectNum - 1] = calculateProbeRMSE();
+
+			previousTeta = effect.teta;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Returns the statistics of the rating dates used by the time effects. The statistics are loaded from the temporal
+	 * statistics file in case it's up to date and matches the models, otherwise they are calculated from the models held
+	 * by the pipeline and saved to the file.
+	 *
+	 * @return the statistics of the rating dates of the models
+	 */
+	synchronized TemporalStatistics getTemporalStatistics(){
+
+		if (temporalStatistics == null){
+			String fileName = PredictorProperties.getInstance().getTemporalStatisticsFile();
+
+			if (TemporalStatistics.isUpToDate(fileName, userModelFileName, movieModelFileName, probeFileName)){
+				temporalStatistics = TemporalStatistics.load(fileName);
+
+				if (temporalStatistics != null && !temporalStatistics.matches(userIndexedDates.length, movieIndexedDates.length,
+						TemporalStatistics.countRatings(movieIndexedDates), probeDates.length)){
+					temporalStatistics = null;
+				}
+			}
+
+			if (temporalStatistics == null){
+				temporalStatistics = new TemporalStatistics(movieIndexedUserIDs, movieIndexedDates, userIndexedMovieIDs, userIndexedDates,
+						probeDates, TemporalStatistics.DEFAULT_BINS_NUM);
+				temporalStatistics.save(fileName);
+			}
+		}
+
+		return temporalStatistics;
+	}
+
+	/**
+	 * @param effect a calculated effect
+	 * @return true if the residuals matrices calculated by the effect should be saved to files
+	 */
+	boolean isSnapshotSaved(EffectAbstract effect){
+		return snapshots.contains(ALL_SNAPSHOTS) || snapshots.contains(effect.getClass().getSimpleName());
+	}
+
+	/**
+	 * @return the RMSE of the current probe predictions, not rounded like the RMSE reported by the effects
+	 */
+	private double calculateProbeRMSE(){
+		double sum = 0;
+
+		for (int i = 0; i < probeRatings.length; i++){
+			double error = probePredictions[i] - probeRatings[i];
+			sum += error * error;
+		}
+
+		return Math.sqrt(sum / probeRatings.length);
+	}
+
+	/**
+	 * @return the RMSE of every effect (the RMSE of Effect1 is at index 0), not rounded, or 0 for the effects that
+	 * weren't calculated yet
+	 */
+	public double[] getEffectsRMSE(){
+		return effectsRMSE;
+	}
+
+	/**
+	 * @return the final probe predictions, the predictions of the last calculated effect
+	 */
+	public double[] getProbePredictions(){
+		return probePredictions;
+	}
+
+	/**
+	 * @return the residual store holding the residuals of the pipeline
+	 */
+	public ResidualStore getResidualStore(){
+		return residualStore;
+	}
+
+	/**
+	 * @return the directory the effects data files and the residuals matrices are saved in
+	 */
+	public String getOutputDir() {
+		return outputDir;
+	}
+
+	/**
+	 * Sets the directory the effects data files and the residuals matrices are saved in (by default the binary files
+	 * directory). The models, the probe and the temporal statistics files are still taken from their own locations.
+	 *
+	 * @param outputDir a directory path, ending with a path separator
+	 */
+	public void setOutputDir(String outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	public String getUserModelFileName() {
+		return userModelFileName;
+	}
+
+	public String getMovieModelFileName() {
+		return movieModelFileName;
+	}
+
+	public static void main(String[] args) {
+		GlobalEffectsPipeline pipeline = new GlobalEffectsPipeline();
+		pipeline.startCalculation();
+	}
+}
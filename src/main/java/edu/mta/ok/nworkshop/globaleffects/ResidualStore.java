@@ -0,0 +1,305 @@
+package edu.mta.ok.nworkshop.globaleffects;
+
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Holds the residuals of all the ratings once, in a single array ordered by movies, and gives both the movie indexed
+ * and the user indexed view of the residuals.
+ *
+ * The movie indexed view reads the array directly (the residuals of every movie are consecutive, in the order of the
+ * movie indexed model). The user indexed view reads the array through a permutation that holds, for every rating in
+ * the order of the user indexed model, its position in the array. So the teta value of a rating is calculated once,
+ * and both views see the update.
+ *
+ * The residuals are held either as double or as float (see the globalEffects.floatResiduals property). When every
+ * effect is run on its own, Effect1 initializes the double movie indexed residuals with the global mean rounded to a
+ * float, and the double user indexed residuals with the exact global mean. So in case of double residuals, the user 
+ * view keeps its own residuals in a second array (in the order of the movie indexed view), which is updated together
+ * with the movie indexed residuals. Float residuals are initialized with the same mean in both models, so they're
+ * held in a single array that takes a quarter of the memory of two double residuals matrices (the permutation takes
+ * another 4 bytes per rating). Every float residual is rounded to a float when it's set.
+ *
+ * The residuals matrices saved by the global effects are created from the store when needed
+ * (see {@link #toMovieIndexedResiduals()} and {@link #toUserIndexedResiduals()}).
+ */
+public class ResidualStore {
+
+	private final int[] movieStarts;
+
+	private final int[] userStarts;
+
+	private final double[] residuals;
+
+	// The residuals of the user indexed view, in case the residuals are held as double (in the order of residuals)
+	private final double[] userResiduals;
+
+	// The residuals, in case they are held as float (residuals and userResiduals are null then)
+	private final float[] floatResiduals;
+
+	// The position in the residuals array of every rating of the user indexed model
+	private final int[] userPositions;
+
+	/**
+	 * Creates a store of the given ratings, with all the residuals set to 0
+	 *
+	 * @param movieIndexedUserIDs the user indices that rated every movie (movie id - 1 is the row index)
+	 * @param userIndexedMovieIDs the movie ids rated by every user
+	 * @param floatResiduals true if the residuals should be held as float, or false to hold them as double
+	 */
+	public ResidualStore(int[][] movieIndexedUserIDs, short[][] userIndexedMovieIDs, boolean floatResiduals){
+
+		movieStarts = new int[movieIndexedUserIDs.length + 1];
+
+		for (int movieInd = 0; movieInd < movieIndexedUserIDs.length; movieInd++){
+			movieStarts[movieInd + 1] = movieStarts[movieInd] + movieIndexedUserIDs[movieInd].length;
+		}
+
+		userStarts = new int[userIndexedMovieIDs.length + 1];
+
+		for (int userInd = 0; userInd < userIndexedMovieIDs.length; userInd++){
+			userStarts[userInd + 1] = userStarts[userInd] + userIndexedMovieIDs[userInd].length;
+		}
+
+		int ratingsNum = movieStarts[movieStarts.length - 1];
+
+		residuals = (floatResiduals) ? null : new double[ratingsNum];
+		userResiduals = (floatResiduals) ? null : new double[ratingsNum];
+		this.floatResiduals = (floatResiduals) ? new float[ratingsNum] : null;
+		userPositions = new int[ratingsNum];
+
+		// The movies are scanned in ascending order, so in case the user rows are sorted by the movie ids (like the
+		// models created by the installer), the ratings of every user are found in the order of the user row
+		int[] cursors = new int[userIndexedMovieIDs.length];
+
+		for (int movieInd = 0; movieInd < movieIndexedUserIDs.length; movieInd++){
+			short movieID = (short)(movieInd + 1);
+			int[] userIDs = movieIndexedUserIDs[movieInd];
+
+			for (int i = 0; i < userIDs.length; i++){
+				int userInd = userIDs[i];
+				int userRatingInd = cursors[userInd];
+				short[] ratedMovies = userIndexedMovieIDs[userInd];
+
+				if (userRatingInd < ratedMovies.length && ratedMovies[userRatingInd] == movieID){
+					cursors[userInd]++;
+				}
+				else{
+					userRatingInd = indexOf(ratedMovies, movieID);
+				}
+
+				userPositions[userStarts[userInd] + userRatingInd] = movieStarts[movieInd] + i;
+			}
+		}
+	}
+
+	private static int indexOf(short[] ratedMovies, short movieID){
+
+		for (int i = 0; i < ratedMovies.length; i++){
+			if (ratedMovies[i] == movieID){
+				return i;
+			}
+		}
+
+		throw new IllegalArgumentException("Movie " + movieID + " is missing from the user indexed model");
+	}
+
+	/**
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @return the number of ratings the movie got
+	 */
+	public int getMovieRatingsNum(int movieInd){
+		return movieStarts[movieInd + 1] - movieStarts[movieInd];
+	}
+
+	/**
+	 * @param userInd the index of a user
+	 * @return the number of ratings the user gave
+	 */
+	public int getUserRatingsNum(int userInd){
+		return userStarts[userInd + 1] - userStarts[userInd];
+	}
+
+	/**
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @param ratingInd the index of the rating in the movie row of the movie indexed model
+	 * @return the residual of the rating
+	 */
+	public double getMovieResidual(int movieInd, int ratingInd){
+		return get(movieStarts[movieInd] + ratingInd);
+	}
+
+	/**
+	 * Sets the initial residual of a rating in both views
+	 *
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @param ratingInd the index of the rating in the movie row of the movie indexed model
+	 * @param movieResidual the residual of the rating in the movie indexed view
+	 * @param userResidual the residual of the rating in the user indexed view (ignored in case the residuals are held
+	 * as float, and the movie residual is used in both views)
+	 */
+	public void initResidual(int movieInd, int ratingInd, double movieResidual, double userResidual){
+		int position = movieStarts[movieInd] + ratingInd;
+
+		if (residuals != null){
+			residuals[position] = movieResidual;
+			userResiduals[position] = userResidual;
+		}
+		else{
+			floatResiduals[position] = (float)movieResidual;
+		}
+	}
+
+	/**
+	 * Subtracts a teta value from the residual of a rating in both views
+	 *
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @param ratingInd the index of the rating in the movie row of the movie indexed model
+	 * @param tetaVal the value to subtract from the residual
+	 */
+	public void subtractFromResidual(int movieInd, int ratingInd, double tetaVal){
+		int position = movieStarts[movieInd] + ratingInd;
+
+		if (residuals != null){
+			residuals[position] -= tetaVal;
+			userResiduals[position] -= tetaVal;
+		}
+		else{
+			floatResiduals[position] = (float)(floatResiduals[position] - tetaVal);
+		}
+	}
+
+	/**
+	 * @param userInd the index of a user
+	 * @param ratingInd the index of the rating in the user row of the user indexed model
+	 * @return the residual of the rating
+	 */
+	public double getUserResidual(int userInd, int ratingInd){
+		return getUser(userPositions[userStarts[userInd] + ratingInd]);
+	}
+
+	private double get(int position){
+		return (residuals != null) ? residuals[position] : floatResiduals[position];
+	}
+
+	private double getUser(int position){
+		return (userResiduals != null) ? userResiduals[position] : floatResiduals[position];
+	}
+
+	/**
+	 * @return true if the residuals are held as float
+	 */
+	public boolean isFloatResiduals(){
+		return residuals == null;
+	}
+
+	/**
+	 * @return the number of bytes taken by the residuals (of both views) and the user view permutation
+	 */
+	public long getMemoryBytes(){
+		long residualBytes = (residuals != null) ? 16L * residuals.length : 4L * floatResiduals.length;
+
+		return residualBytes + 4L * userPositions.length;
+	}
+
+	/**
+	 * @return the residuals as a movie indexed residuals matrix
+	 */
+	public double[][] toMovieIndexedResiduals(){
+		final double[][] retVal = new double[movieStarts.length - 1][];
+
+		ParallelUtils.forEachRange(0, retVal.length, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int movieInd = from; movieInd < to; movieInd++){
+					double[] row = new double[getMovieRatingsNum(movieInd)];
+
+					for (int i = 0; i < row.length; i++){
+						row[i] = get(movieStarts[movieInd] + i);
+					}
+
+					retVal[movieInd] = row;
+				}
+			}
+		});
+
+		return retVal;
+	}
+
+	/**
+	 * @return the residuals as a user indexed residuals matrix, gathered through the permutation
+	 */
+	public double[][] toUserIndexedResiduals(){
+		final double[][] retVal = new double[userStarts.length - 1][];
+
+		ParallelUtils.forEachRange(0, retVal.length, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int userInd = from; userInd < to; userInd++){
+					double[] row = new double[getUserRatingsNum(userInd)];
+					int start = userStarts[userInd];
+
+					for (int i = 0; i < row.length; i++){
+						row[i] = getUser(userPositions[start + i]);
+					}
+
+					retVal[userInd] = row;
+				}
+			}
+		});
+
+		return retVal;
+	}
+
+	/**
+	 * @return the residuals as a movie indexed float residuals matrix
+	 */
+	public float[][] toMovieIndexedFloatResiduals(){
+		final float[][] retVal = new float[movieStarts.length - 1][];
+
+		ParallelUtils.forEachRange(0, retVal.length, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int movieInd = from; movieInd < to; movieInd++){
+					float[] row = new float[getMovieRatingsNum(movieInd)];
+
+					for (int i = 0; i < row.length; i++){
+						row[i] = (float)get(movieStarts[movieInd] + i);
+					}
+
+					retVal[movieInd] = row;
+				}
+			}
+		});
+
+		return retVal;
+	}
+
+	/**
+	 * @return the residuals as a user indexed float residuals matrix, gathered through the permutation
+	 */
+	public float[][] toUserIndexedFloatResiduals(){
+		final float[][] retVal = new float[userStarts.length - 1][];
+
+		ParallelUtils.forEachRange(0, retVal.length, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int userInd = from; userInd < to; userInd++){
+					float[] row = new float[getUserRatingsNum(userInd)];
+					int start = userStarts[userInd];
+
+					for (int i = 0; i < row.length; i++){
+						row[i] = (float)getUser(userPositions[start + i]);
+					}
+
+					retVal[userInd] = row;
+				}
+			}
+		});
+
+		return retVal;
+	}
+}
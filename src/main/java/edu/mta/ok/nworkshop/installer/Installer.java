@@ -10,20 +10,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.HashMap;
-import java.util.HashSet;
 
 import edu.mta.ok.nworkshop.Constants;
-import edu.mta.ok.nworkshop.utils.DateUtils;
-import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
+import edu.mta.ok.nworkshop.utils.ColumnarModelFile;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
-import edu.mta.ok.nworkshop.utils.ProgressOutput;
-import edu.mta.ok.nworkshop.utils.TimeProgressOutput;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
 
 /**
  * Loads the data from the original download folder supplied by Netflix, Generates extra information
@@ -33,7 +28,7 @@ import edu.mta.ok.nworkshop.utils.TimeProgressOutput;
  */
 public class Installer {
 
-	private HashMap<Integer, Integer> userIndices = new HashMap<Integer, Integer>();
+	private UserIndexMap userIndices;
 
 	private String downloadFolder;
 	private String outputFolder;
@@ -60,21 +55,10 @@ public class Installer {
 	private static byte[] probeRatings;
 	private static short[] probeDates;
 	
-	private Calendar minCal;
-	
-	private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");	
-	
-	public Installer(String downloadFolder, String outputFolder, boolean getDate) throws ParseException {
+	public Installer(String downloadFolder, String outputFolder, boolean getDate) {
 		this.downloadFolder = downloadFolder;
 		this.outputFolder = outputFolder;
 		this.getDate = getDate;
-		
-		this.minCal = Calendar.getInstance();
-		this.minCal.setTime(dateFormat.parse(Constants.MIN_DATE_STR));
-		minCal.set(Calendar.SECOND, 0);
-		minCal.set(Calendar.MINUTE, 0);
-		minCal.set(Calendar.HOUR, 0);
-		minCal.set(Calendar.MILLISECOND, 0);
 	}
 
 	/**
@@ -98,10 +82,15 @@ public class Installer {
 	}
 
 	/**
-	 * Removes the probe data from the user/movie models created from the Netflix data files
+	 * Removes the probe data from the user/movie models created from the Netflix data files.
+	 * 
+	 * The probe entries are grouped by movie and by user, and then every movie row and every user row is compacted 
+	 * once (in parallel) without its probe entries. The probe ratings dates are taken from the removed entries, so
+	 * the training models and the probe model are produced in the same pass.
 	 */
 	private void scrubProbe() {
 		// Remove the probe data
+		loadMovieIndexedRatings();
 		loadUserIndexedRatings();
 		loadUserIndices();
 		loadTrainingData();		
@@ -109,110 +98,226 @@ public class Installer {
 		final int trainingLength = probeUserIDs.length;
 		
 		System.out.println("Scrubbing probe from data");
-		ProgressOutput po = new TimeProgressOutput("Finished %d entries, took %d millis", 100000);
+		long start = System.currentTimeMillis();
+		
+		// Group the probe entries by movie index and by user index
+		final int[] probeUserIndices = new int[trainingLength];
+		final int[] movieProbeOffsets = new int[Constants.NUM_MOVIES + 1];
+		final int[] userProbeOffsets = new int[Constants.NUM_USERS + 1];
 		
 		for (int i = 0; i < trainingLength; i++) {
-			short movieID = probeMovieIDs[i];
-			int userID = probeUserIDs[i];
-			removeRating(movieID, userID);
-			po.incrementProgressCounter();
+			probeUserIndices[i] = userIndices.get(probeUserIDs[i]);
+			
+			if (probeUserIndices[i] == UserIndexMap.NO_INDEX) {
+				throw new RuntimeException("Invalid probe user ID: " + probeUserIDs[i]);
+			}
+			
+			movieProbeOffsets[probeMovieIDs[i]]++;
+			userProbeOffsets[probeUserIndices[i] + 1]++;
 		}
 		
-		System.out.println("Finished scrubing probe from data!");
-
-		probeScrubbed = true;
-		blitMovies();
-		blitUsers();
-	}
-
-	/**
-	 * Removes a certain rating from the movie and user models according to a given
-	 * movie + user IDs pair
-	 * 
-	 * @param movieID the id of the movie we want to remove the rating for 
-	 * @param userID the id of the user we want to remove the rating for
-	 */
-	private void removeRating(short movieID, int userID) {
-		// Remove by movie-indexed
-		int userIndex = userIndices.get(userID);
-		int[] userIDs = movieIndexedUserIDs[movieID - 1];
-
-		byte[] mRatings = movieIndexedRatings[movieID - 1];
-		short[] mDates = null;		
+		for (int i = 0; i < Constants.NUM_MOVIES; i++) {
+			movieProbeOffsets[i + 1] += movieProbeOffsets[i];
+		}
+		
+		for (int i = 0; i < Constants.NUM_USERS; i++) {
+			userProbeOffsets[i + 1] += userProbeOffsets[i];
+		}
 		
-		movieIndexedUserIDs[movieID - 1] = new int[userIDs.length - 1];
-		movieIndexedRatings[movieID - 1] = new byte[userIDs.length - 1];
+		final int[] movieProbeEntries = new int[trainingLength];
+		final int[] userProbeEntries = new int[trainingLength];
+		int[] movieCursor = Arrays.copyOf(movieProbeOffsets, Constants.NUM_MOVIES);
+		int[] userCursor = Arrays.copyOf(userProbeOffsets, Constants.NUM_USERS);
 		
-		if (getDate){
-			mDates = movieIndexedDates[movieID - 1];
-			movieIndexedDates[movieID - 1] = new short[userIDs.length - 1];
+		for (int i = 0; i < trainingLength; i++) {
+			movieProbeEntries[movieCursor[probeMovieIDs[i] - 1]++] = i;
+			userProbeEntries[userCursor[probeUserIndices[i]]++] = i;
 		}
-
-		int curIndex = 0;
-		int i = -1;
 		
-		for (int currUser : userIDs){
-			
-			i++;
-			
-			if (currUser == userIndex){
-				continue;
+		// Compact the movie rows. Every thread marks the users of the current movie probe entries 
+		// (holding the probe index + 1) in its own array, and clears the marks while compacting the row.
+		final ThreadLocal<int[]> userMarks = new ThreadLocal<int[]>(){
+			@Override
+			protected int[] initialValue() {
+				return new int[Constants.NUM_USERS];
 			}
+		};
+		
+		ParallelUtils.forEachRange(0, Constants.NUM_MOVIES, new ParallelUtils.RangeTask() {
 			
-			movieIndexedUserIDs[movieID - 1][curIndex] = currUser;
-			movieIndexedRatings[movieID - 1][curIndex] = mRatings[i];
+			@Override
+			public void run(int from, int to) {
+				int[] marks = userMarks.get();
 				
-			if (getDate){
-				movieIndexedDates[movieID - 1][curIndex] = mDates[i];
+				for (int movieInd = from; movieInd < to; movieInd++) {
+					int probesFrom = movieProbeOffsets[movieInd];
+					int probesTo = movieProbeOffsets[movieInd + 1];
+					
+					if (probesFrom == probesTo) {
+						continue;
+					}
+					
+					for (int p = probesFrom; p < probesTo; p++) {
+						marks[probeUserIndices[movieProbeEntries[p]]] = movieProbeEntries[p] + 1;
+					}
+					
+					int[] userIDs = movieIndexedUserIDs[movieInd];
+					byte[] ratings = movieIndexedRatings[movieInd];
+					short[] dates = getDate ? movieIndexedDates[movieInd] : null;
+					int newLength = userIDs.length - (probesTo - probesFrom);
+					
+					int[] newUserIDs = new int[newLength];
+					byte[] newRatings = new byte[newLength];
+					short[] newDates = getDate ? new short[newLength] : null;
+					int curIndex = 0;
+					
+					for (int i = 0; i < userIDs.length; i++) {
+						int probeInd = marks[userIDs[i]] - 1;
+						
+						if (probeInd >= 0) {
+							marks[userIDs[i]] = 0;
+							
+							if (getDate) {
+								probeDates[probeInd] = dates[i];
+							}
+							
+							continue;
+						}
+						
+						if (curIndex == newLength) {
+							curIndex++;
+							break;
+						}
+						
+						newUserIDs[curIndex] = userIDs[i];
+						newRatings[curIndex] = ratings[i];
+						
+						if (getDate) {
+							newDates[curIndex] = dates[i];
+						}
+						
+						curIndex++;
+					}
+					
+					if (curIndex != newLength) {
+						System.err.println("Invalid number of entries (movie): " + curIndex + "/" + newLength);
+						
+						// Clear the marks of probe entries that weren't found in the row
+						for (int p = probesFrom; p < probesTo; p++) {
+							marks[probeUserIndices[movieProbeEntries[p]]] = 0;
+						}
+						
+						continue;
+					}
+					
+					movieIndexedUserIDs[movieInd] = newUserIDs;
+					movieIndexedRatings[movieInd] = newRatings;
+					
+					if (getDate) {
+						movieIndexedDates[movieInd] = newDates;
+					}
+				}
 			}
-			curIndex++;			
-		}
-
-		if (curIndex != movieIndexedUserIDs[movieID - 1].length) {
-			System.err.println("Invalid number of entries (movie): " + curIndex
-					+ "/" + movieIndexedUserIDs[movieID - 1].length);
-		}
-		// Remove by user-indexed
-		short[] movieIDs = userIndexedMovieIDs[userIndex];
-		byte[] uRatings = userIndexedRatings[userIndex];
-		
-		userIndexedMovieIDs[userIndex] = new short[movieIDs.length - 1];
-		userIndexedRatings[userIndex] = new byte[movieIDs.length - 1];
+		});
 		
-		if (getDate){
-			mDates = userIndexedDates[userIndex];
-			userIndexedDates[userIndex] = new short[movieIDs.length - 1];
-		}
+		// Compact the user rows the same way, marking the movies of the current user probe entries
+		final ThreadLocal<int[]> movieMarks = new ThreadLocal<int[]>(){
+			@Override
+			protected int[] initialValue() {
+				return new int[Constants.NUM_MOVIES + 1];
+			}
+		};
 		
-		curIndex = 0;
-		i = -1;
-
-		for (short currMovie : movieIDs){
+		ParallelUtils.forEachRange(0, Constants.NUM_USERS, new ParallelUtils.RangeTask() {
 			
-			i++;
-			
-			if (currMovie == movieID) {
-				continue;
+			@Override
+			public void run(int from, int to) {
+				int[] marks = movieMarks.get();
+				
+				for (int userInd = from; userInd < to; userInd++) {
+					int probesFrom = userProbeOffsets[userInd];
+					int probesTo = userProbeOffsets[userInd + 1];
+					
+					if (probesFrom == probesTo) {
+						continue;
+					}
+					
+					for (int p = probesFrom; p < probesTo; p++) {
+						marks[probeMovieIDs[userProbeEntries[p]]] = userProbeEntries[p] + 1;
+					}
+					
+					short[] movieIDs = userIndexedMovieIDs[userInd];
+					byte[] ratings = userIndexedRatings[userInd];
+					short[] dates = getDate ? userIndexedDates[userInd] : null;
+					int newLength = movieIDs.length - (probesTo - probesFrom);
+					
+					short[] newMovieIDs = new short[newLength];
+					byte[] newRatings = new byte[newLength];
+					short[] newDates = getDate ? new short[newLength] : null;
+					int curIndex = 0;
+					
+					for (int i = 0; i < movieIDs.length; i++) {
+						
+						if (marks[movieIDs[i]] != 0) {
+							marks[movieIDs[i]] = 0;
+							continue;
+						}
+						
+						if (curIndex == newLength) {
+							curIndex++;
+							break;
+						}
+						
+						newMovieIDs[curIndex] = movieIDs[i];
+						newRatings[curIndex] = ratings[i];
+						
+						if (getDate) {
+							newDates[curIndex] = dates[i];
+						}
+						
+						curIndex++;
+					}
+					
+					if (curIndex != newLength) {
+						System.err.println("Invalid number of entries (user): " + curIndex + "/" + newLength);
+						
+						// Clear the marks of probe entries that weren't found in the row
+						for (int p = probesFrom; p < probesTo; p++) {
+							marks[probeMovieIDs[userProbeEntries[p]]] = 0;
+						}
+						
+						continue;
+					}
+					
+					userIndexedMovieIDs[userInd] = newMovieIDs;
+					userIndexedRatings[userInd] = newRatings;
+					
+					if (getDate) {
+						userIndexedDates[userInd] = newDates;
+					}
+				}
 			}
-			
-			userIndexedMovieIDs[userIndex][curIndex] = currMovie;
-			userIndexedRatings[userIndex][curIndex] = uRatings[i];
-			
-			if (getDate){
-				userIndexedDates[userIndex][curIndex] = mDates[i];
+		});
+		
+		System.out.println("Finished scrubing probe from data! took " + (System.currentTimeMillis() - start) + " millis");
+		
+		if (getDate) {
+			for (int i = 0; i < trainingLength; i++) {
+				if (probeDates[i] < 0) {
+					System.err.println("Error getting probe " + i + " rating date");
+				}
 			}
-				
-			curIndex++;
 		}
 		
-		if (curIndex != userIndexedMovieIDs[userIndex].length) {
-			System.err.println("Invalid number of entries (user): " + curIndex
-					+ "/" + userIndexedMovieIDs[userIndex].length);
-		}
+		saveProbeData();
+
+		probeScrubbed = true;
+		blitMovies();
+		blitUsers();
 	}
 
 	/**
-	 * Loads the probe data, convert it and saves it in a binary file for easy access
+	 * Loads the probe data from the probe text file
 	 */
 	private void loadTrainingData() {
 		String filename = Constants.NETFLIX_MODEL_DIR + "betterprobe.txt";
@@ -266,23 +371,8 @@ public class Installer {
 					probeRatings[count] = rating;
 					
 					if (getDate){
-						
+						// The date is set while the probe is scrubbed from the models
 						probeDates[count] = -1;
-						
-						int counter2 = 0;
-						int userInd = userIndices.get(userID);
-						
-							for (short movieId : userIndexedMovieIDs[userInd]){
-								if (movieId == movieID){
-									probeDates[count] = userIndexedDates[userInd][counter2];
-									break;
-								}
-								
-								counter2++;
-							}
-						if (probeDates[count] < 0){
-							System.err.println("Error getting probe " + count + " rating date");
-						}							
 					}
 					count++;
 				}
@@ -295,7 +385,12 @@ public class Installer {
 			System.out.println(e);
 		}
 		System.out.println("Loaded " + count + " entries in the probe set.");
-		
+	}
+	
+	/**
+	 * Saves the probe data in a binary file for easy access
+	 */
+	private void saveProbeData() {
 		boolean sucess = ModelUtils.saveProbeData(Constants.NETFLIX_OUTPUT_DIR + "probe.data", probeUserIDs, probeMovieIDs, probeRatings, probeDates);
 		
 		if (sucess){
@@ -336,8 +431,10 @@ public class Installer {
 
 	/**
 	 * Creates a movie indexed model
+	 * 
+	 * @throws IOException in case of an error reading the Netflix movie files
 	 */
-	private void createMovieIndexedRatings() {
+	private void createMovieIndexedRatings() throws IOException {
 		// Check if the movie Indexed slab has been created
 		boolean movieFileCreated = false;
 
@@ -360,13 +457,9 @@ public class Installer {
 			System.out.println("There are " + listOfFiles.length
 					+ " files to load.");
 			System.out.println("Start loading data from movie files");
-			ProgressOutput po = new TimeProgressOutput("Finished loading %d movies files, took %d millis", 1000);
-
-			for (File f : listOfFiles) {
-				// parse each file
-				parseFile(f, getDate);
-				po.incrementProgressCounter();
-			}
+			
+			// parse the files in parallel
+			new TrainingSetParser(getDate).parse(listOfFiles, movieIndexedUserIDs, movieIndexedRatings, movieIndexedDates);
 			
 			System.out.println("Finished Loading data from movie files!");
 
@@ -386,41 +479,55 @@ public class Installer {
 	private void createUserIndices() {
 		System.out.print("Obtaining user indexes...");		
 
-		// Iterate through all the ratings we have, getting new indices as we go
-		HashSet<Integer> allUserIDs = new HashSet<Integer>();
-		for (short movieID = 1; movieID <= Constants.NUM_MOVIES; movieID++) {
-			int L = movieIndexedUserIDs[movieID - 1].length;
-			for (int j = 0; j < L; j++) {
-				Integer userID = movieIndexedUserIDs[movieID - 1][j];
-				allUserIDs.add(userID);
+		// Find the biggest user id, so the ids can be marked in a direct address table
+		int maxUserID = 0;
+		for (int[] movieUserIDs : movieIndexedUserIDs) {
+			for (int userID : movieUserIDs) {
+				maxUserID = Math.max(maxUserID, userID);
 			}
 		}
+		
+		// Iterate through all the ratings we have, marking every user id we find
+		final boolean[] foundUserIDs = new boolean[maxUserID + 1];
+		ParallelUtils.forEachRange(0, Constants.NUM_MOVIES, new ParallelUtils.RangeTask() {
+			
+			@Override
+			public void run(int from, int to) {
+				for (int movieInd = from; movieInd < to; movieInd++) {
+					for (int userID : movieIndexedUserIDs[movieInd]) {
+						foundUserIDs[userID] = true;
+					}
+				}
+			}
+		});
+		
+		// Find all the unique userIDs (the marks are scanned in ascending order, so the ids come out sorted)
+		int usersNum = 0;
+		for (boolean found : foundUserIDs) {
+			if (found) {
+				usersNum++;
+			}
+		}
+		
 		// Check we have the correct number of user IDs
-		if (allUserIDs.size() != Constants.NUM_USERS) {
-			int difference = Constants.NUM_USERS - allUserIDs.size();
+		if (usersNum != Constants.NUM_USERS) {
+			int difference = Constants.NUM_USERS - usersNum;
 			System.err.println("Invalid number of user IDs found: delta of "
 					+ difference);
 		}
 		
 		System.out.println("Done!");
 		
-		// Find all the unique userIDs
-		userIDs = new int[allUserIDs.size()];
+		userIDs = new int[usersNum];
 		int index = 0;
-		for (int userID : allUserIDs) {
-			userIDs[index] = userID;
-			index++;
+		for (int userID = 0; userID < foundUserIDs.length; userID++) {
+			if (foundUserIDs[userID]) {
+				userIDs[index++] = userID;
+			}
 		}
 
-		// Sort the user indexes
-		Arrays.sort(userIDs);
-
-		// Create a new hashmap for the sequential IDs
-		userIndices = new HashMap<Integer, Integer>();
-		for (int i = 0; i < userIDs.length; i++) {
-			// this gives each value a sequential ID
-			userIndices.put(userIDs[i], i);
-		}
+		// Create a new mapping for the sequential IDs, this gives each value a sequential ID
+		userIndices = new UserIndexMap(userIDs);
 
 		// Save the user IDs and their indexes to a file
 		String indexfilename = outputFolder + "userIndexes.data";
@@ -443,23 +550,29 @@ public class Installer {
 		
 		System.out.print("Blitting indices map to file...");
 		String indexMapFileName = outputFolder + "userIndexesMap.data";
-		FileUtils.saveDataToFile(userIndices, indexMapFileName);
+		userIndices.save(indexMapFileName);
 		System.out.println("Done!");
 
 		// Iterate through all ratings, replacing userID with userIndex
 		System.out.print("Replacing user IDs with indices...");
 		
-		for (short movieID = 0; movieID < Constants.NUM_MOVIES; movieID++) {
-			int L = movieIndexedUserIDs[movieID].length;
-			for (int i = 0; i < L; i++) {
-				int ui = userIndices.get(movieIndexedUserIDs[movieID][i]);
-				if (ui == -1) {
-					throw new RuntimeException("Invalid user index: "
-							+ movieIndexedUserIDs[movieID][i]);
+		ParallelUtils.forEachRange(0, Constants.NUM_MOVIES, new ParallelUtils.RangeTask() {
+			
+			@Override
+			public void run(int from, int to) {
+				for (int movieID = from; movieID < to; movieID++) {
+					int L = movieIndexedUserIDs[movieID].length;
+					for (int i = 0; i < L; i++) {
+						int ui = userIndices.get(movieIndexedUserIDs[movieID][i]);
+						if (ui == UserIndexMap.NO_INDEX) {
+							throw new RuntimeException("Invalid user index: "
+									+ movieIndexedUserIDs[movieID][i]);
+						}
+						movieIndexedUserIDs[movieID][i] = ui;
+					}
 				}
-				movieIndexedUserIDs[movieID][i] = ui;
 			}
-		}
+		});
 		
 		this.userIndexesDataLoaded = true;
 		
@@ -490,21 +603,13 @@ public class Installer {
 			// Get the user indexes here from file
 			loadUserIndices();
 
-			// Find out how many ratings each user has
-			System.out.print("Obtaining rating counts...");
-			int[] numRatings = new int[Constants.NUM_USERS];
-			
-			Arrays.fill(numRatings, 0);
-			
-			for (short movieID = 1; movieID <= Constants.NUM_MOVIES; movieID++) {
-				for (int i = 0; i < movieIndexedUserIDs[movieID - 1].length; i++) {
-					int userIndex = movieIndexedUserIDs[movieID - 1][i];
-					numRatings[userIndex]++;
-				}
-			}
+			// Transpose the movie indexed model. The user rows come out sorted by the movie ids
+			System.out.print("Indexing by user...");
+			final UserIndexedModelCSR userModel = ModelTransposer.transpose(movieIndexedUserIDs, movieIndexedRatings, 
+					getDate ? movieIndexedDates : null, Constants.NUM_USERS);
 			System.out.println("Done!");
 
-			// Create the arrays that the ratings will go in.
+			// Split the transposed model into the user rows
 			System.out.print("Initializing arrays...");
 			userIndexedMovieIDs = new short[Constants.NUM_USERS][];
 			userIndexedRatings = new byte[Constants.NUM_USERS][];
@@ -513,45 +618,29 @@ public class Installer {
 				userIndexedDates = new short[Constants.NUM_USERS][];
 			}
 			
-			for (int i = 0; i < userIDs.length; i++) {
-				userIndexedMovieIDs[i] = new short[numRatings[i]];
-				userIndexedRatings[i] = new byte[numRatings[i]];
+			ParallelUtils.forEachRange(0, Constants.NUM_USERS, new ParallelUtils.RangeTask() {
 				
-				if (getDate){
-					userIndexedDates[i] = new short[numRatings[i]];
-				}
-			}
-
-			// Index stores where we are up to with each uesr's ratings
-			int[] index = new int[Constants.NUM_USERS];
-			for (int i = 0; i < index.length; i++) {
-				index[i] = 0;
-			}
-			System.out.println("Done!");
-			
-			// Now put all of the ratings into the proper user-indexed buckets
-			System.out.print("Indexing by user...");
-			for (short movieID = 1; movieID <= Constants.NUM_MOVIES; movieID++) {
-				for (int i = 0; i < movieIndexedUserIDs[movieID - 1].length; i++) {
-					int userIndex = movieIndexedUserIDs[movieID - 1][i];
-					byte rating = movieIndexedRatings[movieID - 1][i];
-					// Save the rating to user indexed
-					userIndexedMovieIDs[userIndex][index[userIndex]] = (short) (movieID);
-					userIndexedRatings[userIndex][index[userIndex]] = rating;
-					
-					if (getDate){
-						userIndexedDates[userIndex][index[userIndex]] = movieIndexedDates[movieID - 1][i];
+				@Override
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						int rowStart = userModel.getRowStart(i);
+						int rowEnd = userModel.getRowEnd(i);
+						
+						userIndexedMovieIDs[i] = Arrays.copyOfRange(userModel.getMovieIdsColumn(), rowStart, rowEnd);
+						userIndexedRatings[i] = Arrays.copyOfRange(userModel.getRatingsColumn(), rowStart, rowEnd);
+						
+						if (getDate){
+							userIndexedDates[i] = Arrays.copyOfRange(userModel.getDatesColumn(), rowStart, rowEnd);
+						}
 					}
-					
-					index[userIndex]++;
 				}
-			}
+			});
 			System.out.println("Done!");
 
 			// Verify that we found all ratings
 			System.out.print("Verifying indexes...");
-			for (int i = 0; i < numRatings.length; i++) {
-				if (index[i] != numRatings[i] || numRatings[i] == 0) {
+			for (int i = 0; i < Constants.NUM_USERS; i++) {
+				if (userIndexedMovieIDs[i].length == 0) {
 					System.err
 							.println("Did not get enough ratings for user index: "
 									+ i);
@@ -575,39 +664,31 @@ public class Installer {
 		if (userIndexedLoaded) {
 			return;
 		}
-		ObjectInputStream ois = null;
 		System.out.print("Loading user indexed ratings...");
-		try {			
-			String movieFilename = outputFolder
-					+ "userIndexedSlab.data";
-			
-			if (getDate){
-				movieFilename = outputFolder
-				+ "userIndexedSlabDates.data";
-			}
-			
-			ois = new ObjectInputStream(new FileInputStream(movieFilename));
-			userIndexedMovieIDs = (short[][]) ois.readObject();
-			userIndexedRatings = (byte[][]) ois.readObject();
-			
-			if (getDate){			
-				userIndexedDates = (short[][]) ois.readObject();
-			}
-			
-			ois.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+		String movieFilename = outputFolder
+				+ "userIndexedSlab.data";
+		
+		if (getDate){
+			movieFilename = outputFolder
+			+ "userIndexedSlabDates.data";
+		}
+		
+		// Reads both the columnar files and the serialized slabs of older installations
+		Object[] model = ModelUtils.loadUserIndexedModel(movieFilename, getDate);
+		userIndexedMovieIDs = (short[][]) model[0];
+		userIndexedRatings = (byte[][]) model[1];
+		
+		if (getDate){			
+			userIndexedDates = (short[][]) model[2];
 		}
 		System.out.println("done");
 		userIndexedLoaded = true;
 	}
 
 	/**
-	 * Saves a movie indexed model into a binary file
+	 * Saves a movie indexed model into a columnar model file
+	 * 
+	 * @see ColumnarModelFile
 	 */
 	private void blitMovies() {
 		String filename = outputFolder + "movieIndexedSlab.data";
@@ -621,103 +702,16 @@ public class Installer {
 			}
 		}
 		System.out.print("Blitting to movie index to file...");
-		BufferedOutputStream out = null;
-		ObjectOutputStream oos = null;
 		try {
-			out = new BufferedOutputStream(new FileOutputStream(filename));
-			oos = new ObjectOutputStream(out);
 			// Write the arrays to the file
-			oos.writeObject(movieIndexedUserIDs);
-			oos.writeObject(movieIndexedRatings);
-			if (getDate) {
-				oos.writeObject(movieIndexedDates);
-			}
-			oos.close();
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			ColumnarModelFile.write(filename, movieIndexedUserIDs, movieIndexedRatings, 
+					getDate ? movieIndexedDates : null);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		System.out.println("Done!");
 	}
 
-	/**
-	 * Parse a given movie data text file 
-	 * 
-	 * @param f a File object that points a movie data file for parsing
-	 * @param getDate mark if we need to load the rating dates data from the file
-	 */
-	private void parseFile(File f, boolean getDate) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(f));
-			if (!in.ready())
-				throw new IOException();
-			// First line is the movie number: "200:\n"
-			String line = in.readLine();
-			// Get the movieID only
-			short movieID = Short.parseShort(line.substring(0,
-					line.length() - 1));
-
-			// Load all of the rest of the lines into memory
-			ArrayList<String> lines = new ArrayList<String>();
-			// System.out.print("Movie: " + movieID);
-			while ((line = in.readLine()) != null) {
-				lines.add(line);
-			}
-
-			// Setup the array
-			movieIndexedUserIDs[movieID - 1] = new int[lines.size()];
-			movieIndexedRatings[movieID - 1] = new byte[lines.size()];
-			if (getDate) {
-				movieIndexedDates[movieID - 1] = new short[lines.size()];
-			}
-
-			Calendar date = Calendar.getInstance();
-			int i = 0;
-			for (String curLine : lines) {
-				// Create the ratings
-				ArrayList<String> tokens = splitLine(curLine, ',');
-				movieIndexedUserIDs[movieID - 1][i] = Integer.parseInt(tokens
-						.get(0));
-				movieIndexedRatings[movieID - 1][i] = Byte.parseByte(tokens
-						.get(1));
-				if (getDate) {
-					
-					try {
-						date.setTime(dateFormat.parse(tokens.get(2)));
-						movieIndexedDates[movieID - 1][i] = DateUtils.calculateDiffBetweenDates(minCal, date);
-					} catch (ParseException e) {						
-						System.out.println("Error getting date. movieId = " + movieID + ", i = " + i + e.getMessage());						
-					}
-				}
-				i++;
-			}
-
-			in.close();
-		} catch (IOException e) {
-			System.out.println(e);
-		}
-	}
-
-	private ArrayList<String> splitLine(String line, char separator) {
-		ArrayList<String> tokens = new ArrayList<String>();
-		String cur = "";
-		for (char c : line.toCharArray()) {
-			if (c == separator) {
-				// Separator found, new token
-				tokens.add(cur);
-				cur = "";
-			} else {
-				// Append to cur String
-				cur += c;
-			}
-		}
-		// Add the last token
-		tokens.add(cur);
-		return tokens;
-	}
-
 	/**
 	 * Load a movie indexed model from a file
 	 */
@@ -725,31 +719,22 @@ public class Installer {
 		if (movieIndexedLoaded) {
 			return;
 		}
-		ObjectInputStream ois = null;
 		System.out.print("Loading movie indexed ratings...");
-		try {
-			String movieFilename = outputFolder
-					+ "movieIndexedSlab.data";
-			
-			if (getDate){
-				movieFilename = outputFolder
-				+ "movieIndexedSlabDates.data";
-			}
-			
-			ois = new ObjectInputStream(new FileInputStream(movieFilename));
-			movieIndexedUserIDs = (int[][]) ois.readObject();
-			movieIndexedRatings = (byte[][]) ois.readObject();
-			
-			if (getDate){			
-				movieIndexedDates = (short[][]) ois.readObject();
-			}
-			ois.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+		String movieFilename = outputFolder
+				+ "movieIndexedSlab.data";
+		
+		if (getDate){
+			movieFilename = outputFolder
+			+ "movieIndexedSlabDates.data";
+		}
+		
+		// Reads both the columnar files and the serialized slabs of older installations
+		Object[] model = ModelUtils.loadMovieIndexedModel(movieFilename, getDate, false);
+		movieIndexedUserIDs = (int[][]) model[0];
+		movieIndexedRatings = (byte[][]) model[1];
+		
+		if (getDate){			
+			movieIndexedDates = (short[][]) model[2];
 		}
 		System.out.println("done");
 		movieIndexedLoaded = true;
@@ -799,22 +784,22 @@ public class Installer {
 		}
 		System.out.println("Done!");
 
-		// Now load them into our hashMap for fast retrieval
-		userIndices = new HashMap<Integer, Integer>();
-		int i = 0;
+		// Now load them into our index map for fast retrieval
 		for (int userID : userIDs) {
 			if (userID < 0) {
 				throw new RuntimeException(
 						"Invalid User ID found in index file");
 			}
-			userIndices.put(userID, i++);
 		}
+		userIndices = new UserIndexMap(userIDs);
 		
 		userIndexesDataLoaded = true;
 	}
 
 	/**
-	 * Saves the user indexed model in a binary file
+	 * Saves the user indexed model in a columnar model file
+	 * 
+	 * @see ColumnarModelFile
 	 */
 	private void blitUsers() {
 		String filename = outputFolder + "userIndexedSlab.data";
@@ -828,30 +813,17 @@ public class Installer {
 			}
 		}
 		System.out.print("Blitting to user index model...");
-		BufferedOutputStream out = null;
-		ObjectOutputStream oos = null;
 		try {
-			
-			out = new BufferedOutputStream(new FileOutputStream(filename));
-			oos = new ObjectOutputStream(out);
 			// Write the arrays to the file
-			oos.writeObject(userIndexedMovieIDs);
-			oos.writeObject(userIndexedRatings);
-
-			if (getDate) {
-				oos.writeObject(userIndexedDates);
-			}
-			oos.close();
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			ColumnarModelFile.write(filename, userIndexedMovieIDs, userIndexedRatings, 
+					getDate ? userIndexedDates : null);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		System.out.println("Done!");
 	}
 
-	public static void main(String args[]) throws ParseException {
+	public static void main(String args[]) {
 		
 		boolean getDate = true;
 		Installer i = new Installer(Constants.NETFLIX_MODEL_DIR, Constants.NETFLIX_OUTPUT_DIR, getDate);
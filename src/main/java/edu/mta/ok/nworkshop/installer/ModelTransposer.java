@@ -0,0 +1,168 @@
+package edu.mta.ok.nworkshop.installer;
+
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Transposes a movie indexed model into a user indexed model in a CSR layout (see {@link UserIndexedModelCSR})
+ * using a parallel counting sort.
+ *
+ * The movies are split into blocks holding about the same number of ratings, one block for every thread, and the
+ * transpose is done in three steps:
+ * 	1. Histogram - every block counts the ratings of every user in its movies (in parallel).
+ * 	2. Prefix sum - the user counts are summed into the rows offsets, and every block gets its own starting position
+ * 	   inside every user row (blocks with smaller movie ids come first).
+ * 	3. Scatter - every block copies its movie ids, ratings and dates into the user rows (in parallel).
+ *
+ * Since every block handles its movies in ascending order, the user rows come out sorted by the movie ids.
+ */
+public class ModelTransposer {
+
+	/**
+	 * Transposes the given movie indexed model.
+	 *
+	 * @param movieIndexedUserIDs the user indices that rated every movie (movie id - 1 is the row index)
+	 * @param movieIndexedRatings the ratings every movie got
+	 * @param movieIndexedDates the dates of the ratings every movie got, or null if the model has no dates
+	 * @param usersNum the number of users in the model (the user indices are between 0 and usersNum - 1)
+	 * @return a user indexed model with the same ratings, holding every user row sorted by the movie ids
+	 */
+	public static UserIndexedModelCSR transpose(final int[][] movieIndexedUserIDs, final byte[][] movieIndexedRatings,
+			final short[][] movieIndexedDates, final int usersNum){
+
+		final int[] blocks = splitToBlocks(movieIndexedUserIDs, ParallelUtils.getThreadsNum());
+		final int blocksNum = blocks.length - 1;
+		final int[][] cursors = new int[blocksNum][];
+
+		// Histogram - count the ratings of every user in every movies block
+		ParallelUtils.forEachRange(0, blocksNum, 1, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int b = from; b < to; b++){
+					int[] counts = new int[usersNum];
+
+					for (int movieInd = blocks[b]; movieInd < blocks[b + 1]; movieInd++){
+						for (int userInd : movieIndexedUserIDs[movieInd]){
+							counts[userInd]++;
+						}
+					}
+
+					cursors[b] = counts;
+				}
+			}
+		});
+
+		// Prefix sum - calculate the user rows offsets
+		final int[] offsets = new int[usersNum + 1];
+
+		ParallelUtils.forEachRange(0, usersNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int u = from; u < to; u++){
+					int total = 0;
+
+					for (int b = 0; b < blocksNum; b++){
+						total += cursors[b][u];
+					}
+
+					offsets[u + 1] = total;
+				}
+			}
+		});
+
+		for (int u = 0; u < usersNum; u++){
+			offsets[u + 1] += offsets[u];
+		}
+
+		// Turn the counts of every block into the position its ratings start at inside every user row
+		ParallelUtils.forEachRange(0, usersNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int u = from; u < to; u++){
+					int position = offsets[u];
+
+					for (int b = 0; b < blocksNum; b++){
+						int count = cursors[b][u];
+						cursors[b][u] = position;
+						position += count;
+					}
+				}
+			}
+		});
+
+		final int ratingsNum = offsets[usersNum];
+		final short[] movieIds = new short[ratingsNum];
+		final byte[] ratings = new byte[ratingsNum];
+		final short[] dates = (movieIndexedDates != null) ? new short[ratingsNum] : null;
+
+		// Scatter - copy the ratings of every block into the user rows
+		ParallelUtils.forEachRange(0, blocksNum, 1, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int b = from; b < to; b++){
+					int[] cursor = cursors[b];
+
+					for (int movieInd = blocks[b]; movieInd < blocks[b + 1]; movieInd++){
+						int[] userIDs = movieIndexedUserIDs[movieInd];
+						byte[] movieRatings = movieIndexedRatings[movieInd];
+						short[] movieDates = (dates != null) ? movieIndexedDates[movieInd] : null;
+						short movieID = (short)(movieInd + 1);
+
+						for (int i = 0; i < userIDs.length; i++){
+							int position = cursor[userIDs[i]]++;
+
+							movieIds[position] = movieID;
+							ratings[position] = movieRatings[i];
+
+							if (movieDates != null){
+								dates[position] = movieDates[i];
+							}
+						}
+					}
+
+					cursors[b] = null;
+				}
+			}
+		});
+
+		return new UserIndexedModelCSR(offsets, movieIds, ratings, dates, null);
+	}
+
+	/**
+	 * Split the movies into consecutive blocks holding about the same number of ratings.
+	 *
+	 * @return the first movie index of every block, followed by the number of movies
+	 */
+	private static int[] splitToBlocks(int[][] movieIndexedUserIDs, int blocksNum){
+		long total = 0;
+
+		for (int[] userIDs : movieIndexedUserIDs){
+			total += userIDs.length;
+		}
+
+		blocksNum = Math.max(1, Math.min(blocksNum, movieIndexedUserIDs.length));
+
+		int[] retVal = new int[blocksNum + 1];
+		long blockSize = (total + blocksNum - 1) / blocksNum;
+		long sum = 0;
+		int block = 1;
+
+		for (int movieInd = 0; movieInd < movieIndexedUserIDs.length && block < blocksNum; movieInd++){
+			sum += movieIndexedUserIDs[movieInd].length;
+
+			if (sum >= block * blockSize){
+				retVal[block++] = movieInd + 1;
+			}
+		}
+
+		while (block <= blocksNum){
+			retVal[block++] = movieIndexedUserIDs.length;
+		}
+
+		return retVal;
+	}
+}
@@ -0,0 +1,264 @@
+package edu.mta.ok.nworkshop.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.utils.DateUtils;
+import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Parses the Netflix training_set movie files into a movie indexed model.
+ *
+ * Every movie file is read as raw bytes into a buffer that is reused by the parsing thread, and the user ids,
+ * ratings and dates are parsed straight from the bytes into primitive arrays. The rating dates are converted
+ * into day offsets from {@link Constants#MIN_DATE_STR} arithmetically.
+ * The movie files are parsed in parallel on the shared fork-join pool (see {@link ParallelUtils}).
+ */
+public class TrainingSetParser {
+
+	private static final int PROGRESS_THRESHOLD = 1000;
+
+	private final boolean getDate;
+	private final int minEpochDay;
+
+	private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>(){
+		@Override
+		protected byte[] initialValue() {
+			return new byte[1 << 20];
+		}
+	};
+
+	/**
+	 * @param getDate mark if the rating dates should be parsed
+	 */
+	public TrainingSetParser(boolean getDate) {
+		this.getDate = getDate;
+		this.minEpochDay = DateUtils.toEpochDay(Constants.MIN_DATE_STR);
+	}
+
+	/**
+	 * Parse the given movie files into the given movie indexed arrays. The data of every file is placed in the index
+	 * matching the movie id written in the file's first line (movie id - 1).
+	 *
+	 * @param files the movie files that should be parsed
+	 * @param userIDs the array the user ids of every movie will be set in
+	 * @param ratings the array the ratings of every movie will be set in
+	 * @param dates the array the rating dates of every movie will be set in (ignored if the dates aren't parsed)
+	 * @throws IOException in case of an error reading one of the files, so a missing movie doesn't leave an empty row
+	 */
+	public void parse(final File[] files, final int[][] userIDs, final byte[][] ratings, final short[][] dates) throws IOException{
+		final AtomicInteger parsedFilesNum = new AtomicInteger();
+		final long start = System.currentTimeMillis();
+
+		try{
+			ParallelUtils.forEachRange(0, files.length, 16, new ParallelUtils.RangeTask() {
+
+				@Override
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++){
+						try{
+							parseFile(files[i], userIDs, ratings, dates);
+						}
+						catch (IOException e){
+							throw new UncheckedIOException(e);
+						}
+
+						int parsed = parsedFilesNum.incrementAndGet();
+
+						if (parsed % PROGRESS_THRESHOLD == 0){
+							System.out.println("Finished loading " + parsed + " movies files, took " + (System.currentTimeMillis() - start) + " millis");
+						}
+					}
+				}
+			});
+		}
+		catch (UncheckedIOException e){
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Parse a given movie data text file
+	 *
+	 * @param f a File object that points a movie data file for parsing
+	 * @throws IOException in case of an error reading the file
+	 */
+	private void parseFile(File f, int[][] userIDs, byte[][] ratings, short[][] dates) throws IOException{
+		FileInputStream in = null;
+
+		try {
+			in = new FileInputStream(f);
+
+			byte[] data = buffers.get();
+			int length = 0;
+			int read;
+
+			while ((read = in.read(data, length, data.length - length)) > 0){
+				length += read;
+
+				if (length == data.length){
+					data = Arrays.copyOf(data, data.length * 2);
+					buffers.set(data);
+				}
+			}
+
+			parseData(f, data, length, userIDs, ratings, dates);
+		}
+		finally{
+			FileUtils.outputClose(in);
+		}
+	}
+
+	/**
+	 * Parse the content of a movie file. The first line holds the movie id ("200:") and every other line holds
+	 * a single rating in a "userId,rating,yyyy-MM-dd" format. Every scan stops at the end of the line, since the
+	 * buffer holds the content of a previous file beyond the given length.
+	 *
+	 * @throws IOException in case the content doesn't match the format (the message names the file and the line)
+	 */
+	private void parseData(File f, byte[] data, int length, int[][] userIDs, byte[][] ratings, short[][] dates) throws IOException{
+		int lineEnd = findLineEnd(data, 0, length);
+		int movieID = parseNumber(f, 1, data, 0, indexOf(f, 1, data, 0, lineEnd, ':'));
+
+		if (movieID < 1 || movieID > userIDs.length){
+			throw malformed(f, 1, "invalid movie id " + movieID);
+		}
+
+		int pos = lineEnd + 1;
+
+		// Count the rating lines so every array is allocated only once
+		int linesNum = 0;
+
+		for (int i = pos; i < length; i++){
+			if (data[i] == '\n'){
+				linesNum++;
+			}
+		}
+
+		if (length > pos && data[length - 1] != '\n'){
+			linesNum++;
+		}
+
+		int[] movieUsers = new int[linesNum];
+		byte[] movieRatings = new byte[linesNum];
+		short[] movieDates = getDate ? new short[linesNum] : null;
+		int count = 0;
+		int lineNum = 1;
+
+		for (; pos < length; pos = lineEnd + 1){
+			lineNum++;
+			lineEnd = findLineEnd(data, pos, length);
+
+			// Ignore the carriage return of windows line endings, and empty lines
+			int end = (lineEnd > pos && data[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+
+			if (end == pos){
+				continue;
+			}
+
+			int separator = indexOf(f, lineNum, data, pos, end, ',');
+			int userID = parseNumber(f, lineNum, data, pos, separator);
+
+			pos = separator + 1;
+			separator = indexOf(f, lineNum, data, pos, end, ',');
+			int rating = parseNumber(f, lineNum, data, pos, separator);
+
+			pos = separator + 1;
+
+			if (getDate){
+				separator = indexOf(f, lineNum, data, pos, end, '-');
+				int year = parseNumber(f, lineNum, data, pos, separator);
+
+				pos = separator + 1;
+				separator = indexOf(f, lineNum, data, pos, end, '-');
+				int month = parseNumber(f, lineNum, data, pos, separator);
+
+				int day = parseNumber(f, lineNum, data, separator + 1, end);
+
+				movieDates[count] = (short)(DateUtils.toEpochDay(year, month, day) - minEpochDay);
+			}
+
+			movieUsers[count] = userID;
+			movieRatings[count] = (byte)rating;
+			count++;
+		}
+
+		if (count != linesNum){
+			movieUsers = Arrays.copyOf(movieUsers, count);
+			movieRatings = Arrays.copyOf(movieRatings, count);
+
+			if (getDate){
+				movieDates = Arrays.copyOf(movieDates, count);
+			}
+		}
+
+		userIDs[movieID - 1] = movieUsers;
+		ratings[movieID - 1] = movieRatings;
+
+		if (getDate){
+			dates[movieID - 1] = movieDates;
+		}
+	}
+
+	/**
+	 * @return the position of the new line character that ends the line the given position is in, or length in case
+	 * the line is the last one
+	 */
+	private static int findLineEnd(byte[] data, int pos, int length){
+		while (pos < length && data[pos] != '\n'){
+			pos++;
+		}
+
+		return pos;
+	}
+
+	/**
+	 * @return the position of the given separator between pos and end
+	 * @throws IOException in case the separator is missing (a truncated line)
+	 */
+	private static int indexOf(File f, int lineNum, byte[] data, int pos, int end, char separator) throws IOException{
+		while (pos < end && data[pos] != separator){
+			pos++;
+		}
+
+		if (pos == end){
+			throw malformed(f, lineNum, "missing '" + separator + "'");
+		}
+
+		return pos;
+	}
+
+	/**
+	 * @return the non negative number written between from and to
+	 * @throws IOException in case the range is empty or holds a character that isn't a digit
+	 */
+	private static int parseNumber(File f, int lineNum, byte[] data, int from, int to) throws IOException{
+		if (from == to){
+			throw malformed(f, lineNum, "missing number");
+		}
+
+		int retVal = 0;
+
+		for (int pos = from; pos < to; pos++){
+			int digit = data[pos] - '0';
+
+			if (digit < 0 || digit > 9){
+				throw malformed(f, lineNum, "unexpected character '" + (char)data[pos] + "'");
+			}
+
+			retVal = retVal * 10 + digit;
+		}
+
+		return retVal;
+	}
+
+	private static IOException malformed(File f, int lineNum, String reason){
+		return new IOException("Malformed line " + lineNum + " in movie file " + f.getPath() + ": " + reason);
+	}
+}
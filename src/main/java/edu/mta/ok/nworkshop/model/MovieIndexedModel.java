@@ -8,6 +8,7 @@ package edu.mta.ok.nworkshop.model;
  * 
  * @see MovieIndexedModelRatings
  * @see MovieIndexedModelResiduals
+ * @see MovieIndexedModelCSR
  */
 public interface MovieIndexedModel{
 
@@ -0,0 +1,273 @@
+package edu.mta.ok.nworkshop.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.utils.ColumnarModelFile;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+
+/**
+ * A class that holds a movie indexed model with user indices and raw rating scores in a compressed sparse row (CSR) layout.
+ *
+ * Instead of holding a separate array for every movie, the model holds one offsets array and flat user indices, ratings and
+ * (optional) dates arrays. The data of the movie placed at index i (movie id i+1) is held between offsets[i] (inclusive)
+ * and offsets[i+1] (exclusive) in the flat arrays.
+ *
+ * Methods that return a single movie row (getMovieRatersByIndex, getMovieRatingsByIndex etc.) return a copy of the row,
+ * so code that sweeps over the whole model should use the range methods (getRowStart, getRowEnd) and the flat arrays instead.
+ */
+public class MovieIndexedModelCSR implements MovieIndexedModel {
+
+	private int[] offsets;
+	private int[] userIds;
+	private byte[] ratings;
+	private short[] dates;
+
+	public MovieIndexedModelCSR(){
+		this(PredictorProperties.getInstance().getMovieIndexedModelFile(), false);
+	}
+
+	public MovieIndexedModelCSR(String fileName){
+		this(fileName, false);
+	}
+
+	/**
+	 * @param fileName the full path of the file we want to load the model from (a columnar or a serialized model file)
+	 * @param loadDates mark if the ratings dates should be loaded as well
+	 */
+	public MovieIndexedModelCSR(String fileName, boolean loadDates) {
+		super();
+
+		loadModel(fileName, loadDates);
+	}
+
+	/**
+	 * Create a model from data that is already held in memory in a CSR layout.
+	 *
+	 * @param offsets the rows offsets (NUM_MOVIES + 1 values)
+	 * @param userIds the flat user indices array
+	 * @param ratings the flat ratings array
+	 * @param dates the flat ratings dates array, or null if the model has no dates
+	 */
+	public MovieIndexedModelCSR(int[] offsets, int[] userIds, byte[] ratings, short[] dates){
+		super();
+
+		this.offsets = offsets;
+		this.userIds = userIds;
+		this.ratings = ratings;
+		this.dates = dates;
+	}
+
+	/**
+	 * Loads the model from a given file. Columnar model files are copied directly into the flat arrays,
+	 * while serialized model files are loaded and then flattened.
+	 *
+	 * @param fileName the full path of the file we want to load the model from
+	 * @param loadDates mark if the ratings dates should be loaded as well
+	 */
+	private void loadModel(String fileName, boolean loadDates){
+
+		if (ColumnarModelFile.isColumnarFile(fileName)){
+			try{
+				ColumnarModelFile file = ColumnarModelFile.open(fileName);
+
+				offsets = file.getOffsets();
+				userIds = file.readIntIds();
+				ratings = file.readRatings();
+
+				if (loadDates){
+					dates = file.readDates();
+				}
+			}
+			catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+		else{
+			Object[] model = ModelUtils.loadMovieIndexedModel(fileName, loadDates, false);
+
+			int[][] idsMatrix = (int[][])model[0];
+			byte[][] ratingsMatrix = (byte[][])model[1];
+			short[][] datesMatrix = loadDates ? (short[][])model[2] : null;
+
+			offsets = new int[idsMatrix.length + 1];
+
+			for (int i = 0; i < idsMatrix.length; i++){
+				offsets[i+1] = offsets[i] + idsMatrix[i].length;
+			}
+
+			userIds = new int[offsets[idsMatrix.length]];
+			ratings = new byte[userIds.length];
+
+			if (datesMatrix != null){
+				dates = new short[userIds.length];
+			}
+
+			for (int i = 0; i < idsMatrix.length; i++){
+				System.arraycopy(idsMatrix[i], 0, userIds, offsets[i], idsMatrix[i].length);
+				System.arraycopy(ratingsMatrix[i], 0, ratings, offsets[i], ratingsMatrix[i].length);
+
+				if (datesMatrix != null){
+					System.arraycopy(datesMatrix[i], 0, dates, offsets[i], datesMatrix[i].length);
+					datesMatrix[i] = null;
+				}
+
+				// Release the row as soon as it was copied
+				idsMatrix[i] = null;
+				ratingsMatrix[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Sorts every movie row in ascending order according to the user index
+	 */
+	@Override
+	public void sortModel() {
+		SortUtils.sortRows(offsets, userIds, ratings, dates);
+	}
+
+	/**
+	 * @param movieInd the index of a movie in the model
+	 * @return the position in the flat arrays in which the given movie data starts
+	 */
+	public int getRowStart(int movieInd){
+		return offsets[movieInd];
+	}
+
+	/**
+	 * @param movieInd the index of a movie in the model
+	 * @return the position in the flat arrays right after the last element of the given movie data
+	 */
+	public int getRowEnd(int movieInd){
+		return offsets[movieInd + 1];
+	}
+
+	/**
+	 * @return the rows offsets array, holding the number of movies + 1 values
+	 */
+	public int[] getOffsets(){
+		return offsets;
+	}
+
+	/**
+	 * @return the flat array holding the user indices of the entire model
+	 */
+	public int[] getUserIdsColumn(){
+		return userIds;
+	}
+
+	/**
+	 * @return the flat array holding the ratings of the entire model
+	 */
+	public byte[] getRatingsColumn(){
+		return ratings;
+	}
+
+	/**
+	 * @return the flat array holding the ratings dates of the entire model, or null if the dates weren't loaded
+	 */
+	public short[] getDatesColumn(){
+		return dates;
+	}
+
+	/**
+	 * @return the number of ratings held in the model
+	 */
+	public int getRatingsNum(){
+		return userIds.length;
+	}
+
+	@Override
+	public Object[] getMovieData(short movieId) {
+		return getMovieDataByIndex((short)(movieId - 1));
+	}
+
+	@Override
+	public Object[] getMovieDataByIndex(short movieInd) {
+		return new Object[]{getMovieRatersByIndex(movieInd), getMovieRatingsByIndex(movieInd)};
+	}
+
+	@Override
+	public Object getMovieRatings(short movieId) {
+		return getMovieRatingsByIndex((short)(movieId - 1));
+	}
+
+	@Override
+	public Object getMovieRatingsByIndex(short movieInd) {
+		return Arrays.copyOfRange(ratings, offsets[movieInd], offsets[movieInd + 1]);
+	}
+
+	@Override
+	public int[] getMovieRaters(short movieId) {
+		return getMovieRatersByIndex((short)(movieId - 1));
+	}
+
+	@Override
+	public int[] getMovieRatersByIndex(short movieInd) {
+		return Arrays.copyOfRange(userIds, offsets[movieInd], offsets[movieInd + 1]);
+	}
+
+	/**
+	 * The rows of a CSR model share the same flat arrays and can't be released one by one,
+	 * so this method doesn't do anything.
+	 */
+	@Override
+	public void removeMovieDataByIndex(short movieInd) {
+	}
+
+	/**
+	 * Builds a two dimensional copy of the user indices. Notice that the returned matrix isn't backed by the model.
+	 */
+	@Override
+	public int[][] getUserIds() {
+		int[][] retVal = new int[offsets.length - 1][];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = getMovieRatersByIndex((short)i);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Builds a two dimensional copy of the ratings. Notice that the returned matrix isn't backed by the model.
+	 */
+	@Override
+	public Object[] getRatings() {
+		byte[][] retVal = new byte[offsets.length - 1][];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = (byte[])getMovieRatingsByIndex((short)i);
+		}
+
+		return retVal;
+	}
+
+	@Override
+	public void removeRatings() {
+		ratings = null;
+	}
+
+	/**
+	 * Saves the model into a columnar model file.
+	 *
+	 * @param fileName the full path of the file the model will be saved in
+	 * @return true if the model had been saved successfully or false otherwise
+	 */
+	public boolean saveModel(String fileName){
+		boolean retVal = false;
+
+		try{
+			ColumnarModelFile.write(fileName, offsets, userIds, ratings, dates);
+			retVal = true;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+
+		return retVal;
+	}
+}
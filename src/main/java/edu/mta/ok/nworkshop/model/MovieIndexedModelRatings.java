@@ -2,6 +2,7 @@ package edu.mta.ok.nworkshop.model;
 
 import edu.mta.ok.nworkshop.PredictorProperties;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
 
 /**
  * A class that holds a movie indexed model with movie IDs and raw rating scores.
@@ -11,7 +12,6 @@ public class MovieIndexedModelRatings implements MovieIndexedModel {
 
 	protected int[][] userIds;
 	protected byte[][] ratings;
-	private ModelSorter sorter = new ModelSorter();
 	
 	public MovieIndexedModelRatings(){
 		this(PredictorProperties.getInstance().getMovieIndexedModelFile());
@@ -84,7 +84,7 @@ public class MovieIndexedModelRatings implements MovieIndexedModel {
 
 	@Override
 	public void sortModel() {
-		sorter.sortData();
+		SortUtils.sortRows(userIds, ratings);
 	}
 	
 	@Override
@@ -102,85 +102,4 @@ public class MovieIndexedModelRatings implements MovieIndexedModel {
 		ratings = null;
 		
 	}
-
-
-
-	/**
-	 * Sorts the model according to the user ids in ascending order
-	 */
-	private class ModelSorter{
-
-	    public void sortData(){
-            if (userIds != null && userIds.length > 0){
-            	
-            	long start = System.currentTimeMillis();
-            	
-            	for (int i=0; i < userIds.length; i++){
-
-            		if (userIds[i] != null && userIds[i].length > 0){
-            			sort(i);
-            		}
-            		
-            		if (i % 100 == 0 && i > 0){
-            			System.out.println("Finished " + i + " movies. took: " + (System.currentTimeMillis() - start));
-            			start = System.currentTimeMillis();
-            		}
-            	}
-            }
-	    }
-	    
-	    private void sort(int itemIndex){
-	    	byte[] scoreTmpArray = new byte[ratings[itemIndex].length];
-	    	int[] contentsTmpArray = new int[userIds[itemIndex].length];
-	    	mergeSort(contentsTmpArray, scoreTmpArray, 0, ratings[itemIndex].length - 1, itemIndex);
-	    }
-
-	    public void mergeSort( int[] tempArrayContents, byte[] tempArrayScores, int left, int right, int itemIndex ) {
-
-	        if( left < right ) {
-	            int center = ( left + right ) / 2;
-	            mergeSort( tempArrayContents, tempArrayScores, left, center, itemIndex );
-	            mergeSort( tempArrayContents, tempArrayScores, center + 1, right, itemIndex );
-	            merge( tempArrayContents, tempArrayScores, left, center + 1, right, itemIndex );
-	        }
-	    }
-   
-	    private void merge( int[] contentsArray, byte[] scoresArray, int leftPos, int rightPos, int rightEnd, int itemIndex ) {
-	
-	        int leftEnd = rightPos - 1;
-	        int tmpPos = leftPos;
-	        int numElements = rightEnd - leftPos + 1;
-	
-	        // Main loop
-	        while( leftPos <= leftEnd && rightPos <= rightEnd ){
-	            if( userIds[itemIndex][leftPos] < userIds[itemIndex][ rightPos ]){
-	                scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	                contentsArray[tmpPos++] = userIds[itemIndex][leftPos++];
-	            }
-	            else
-	            {
-	                scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	                contentsArray[tmpPos++] = userIds[itemIndex][ rightPos++ ];
-	            }
-	        }
-	
-	        // Copy rest of first half
-	        while( leftPos <= leftEnd ){
-	            scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	            contentsArray[tmpPos++] = userIds[itemIndex][ leftPos++ ];
-	        }
-	
-	        // Copy rest of right half
-	        while( rightPos <= rightEnd ){         
-	            scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	            contentsArray[tmpPos++] = userIds[itemIndex][rightPos++];
-	        }
-	
-	        // Copy tmpArray back
-	        for( int i = 0; i < numElements; i++, rightEnd-- ){       
-	        	ratings[itemIndex][rightEnd] = scoresArray[rightEnd];
-	        	userIds[itemIndex][rightEnd] = contentsArray[rightEnd];
-	        }
-	    }
-	}
 }
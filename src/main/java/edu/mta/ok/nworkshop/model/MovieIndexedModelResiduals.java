@@ -4,18 +4,19 @@ import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.PredictorProperties;
 import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
 
 /**
  * A class that holds a movie indexed model with movie IDs and residuals of global effects as ratings.
- * Ratings are held in a two dimensional double type array.
+ * Ratings are held in a two dimensional double or float type array, according to the type of the residuals file
+ * (see the globalEffects.floatResiduals property).
  */
 public class MovieIndexedModelResiduals implements MovieIndexedModel {
 
 	private static String DEFAULT_RESIDUALS_FILE_NAME = Constants.NETFLIX_OUTPUT_DIR + "/globalEffects/movieIndexedResidualEffect11.data";
 	
 	private int[][] userIds;
-	private double[][] ratings;
-	private ModelSorter sorter = new ModelSorter();
+	private Object[] ratings;
 	
 	public MovieIndexedModelResiduals(){
 		this(PredictorProperties.getInstance().getMovieIndexedModelFile(), DEFAULT_RESIDUALS_FILE_NAME);
@@ -46,7 +47,7 @@ public class MovieIndexedModelResiduals implements MovieIndexedModel {
 		// Free up memory space
 		retVal[1] = null;
 		
-		ratings = FileUtils.loadDataFromFile(residualsFileName);
+		ratings = (Object[])FileUtils.loadDataFromFile(residualsFileName);
 		
 		System.out.println("Finished loading movieIndexed model");
 	}
@@ -100,7 +101,7 @@ public class MovieIndexedModelResiduals implements MovieIndexedModel {
 
 	@Override
 	public void sortModel() {
-		sorter.sortData();
+		SortUtils.sortRows(userIds, ratings);
 	}
 	
 	@Override
@@ -117,83 +118,4 @@ public class MovieIndexedModelResiduals implements MovieIndexedModel {
 	public void removeRatings() {
 		ratings = null;
 	}
-
-	/**
-	 * Sorts the model according to the user ids in ascending order
-	 */
-	private class ModelSorter{
-
-	    public void sortData(){
-            if (userIds != null && userIds.length > 0){
-            	
-            	long start = System.currentTimeMillis();
-            	
-            	for (int i=0; i < userIds.length; i++){
-
-            		if (userIds[i] != null && userIds[i].length > 0){
-            			sort(i);
-            		}
-            		
-            		if (i % 100 == 0 && i > 0){
-            			System.out.println("Finished " + i + " movies. took: " + (System.currentTimeMillis() - start));
-            			start = System.currentTimeMillis();
-            		}
-            	}
-            }
-	    }
-	    
-	    private void sort(int itemIndex){
-	    	double[] scoreTmpArray = new double[ratings[itemIndex].length];
-	    	int[] contentsTmpArray = new int[userIds[itemIndex].length];
-	    	mergeSort(contentsTmpArray, scoreTmpArray, 0, ratings[itemIndex].length - 1, itemIndex);
-	    }
-
-	    public void mergeSort( int[] tempArrayContents, double[] tempArrayScores, int left, int right, int itemIndex ) {
-
-	        if( left < right ) {
-	            int center = ( left + right ) / 2;
-	            mergeSort( tempArrayContents, tempArrayScores, left, center, itemIndex );
-	            mergeSort( tempArrayContents, tempArrayScores, center + 1, right, itemIndex );
-	            merge( tempArrayContents, tempArrayScores, left, center + 1, right, itemIndex );
-	        }
-	    }
-   
-	    private void merge( int[] contentsArray, double[] scoresArray, int leftPos, int rightPos, int rightEnd, int itemIndex ) {
-	
-	        int leftEnd = rightPos - 1;
-	        int tmpPos = leftPos;
-	        int numElements = rightEnd - leftPos + 1;
-	
-	        // Main loop
-	        while( leftPos <= leftEnd && rightPos <= rightEnd ){
-	            if( userIds[itemIndex][leftPos] < userIds[itemIndex][ rightPos ]){
-	                scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	                contentsArray[tmpPos++] = userIds[itemIndex][leftPos++];
-	            }
-	            else
-	            {
-	                scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	                contentsArray[tmpPos++] = userIds[itemIndex][ rightPos++ ];
-	            }
-	        }
-	
-	        // Copy rest of first half
-	        while( leftPos <= leftEnd ){
-	            scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	            contentsArray[tmpPos++] = userIds[itemIndex][ leftPos++ ];
-	        }
-	
-	        // Copy rest of right half
-	        while( rightPos <= rightEnd ){         
-	            scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	            contentsArray[tmpPos++] = userIds[itemIndex][rightPos++];
-	        }
-	
-	        // Copy tmpArray back
-	        for( int i = 0; i < numElements; i++, rightEnd-- ){       
-	        	ratings[itemIndex][rightEnd] = scoresArray[rightEnd];
-	        	userIds[itemIndex][rightEnd] = contentsArray[rightEnd];
-	        }
-	    }
-	}
 }
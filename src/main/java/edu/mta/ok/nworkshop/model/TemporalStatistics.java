@@ -0,0 +1,581 @@
+package edu.mta.ok.nworkshop.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Statistics of the rating dates of every user and movie, calculated once per dataset and saved in a binary file
+ * (see the general.temporalStatisticsFile property), so the time effects and the time aware predictors read them
+ * instead of scanning the rating dates of the models again.
+ *
+ * For every user and movie the statistics hold:
+ * <ul>
+ * <li>The date of its first rating</li>
+ * <li>The average of sqrt(date - first rating date of the object) over its ratings (used by Effect4 and Effect6)</li>
+ * <li>The average of sqrt(date - first rating date of the other object of the rating) over its ratings, that is the
+ * first rating date of the rated movie for a user, and of the rating user for a movie (used by Effect5 and Effect7)</li>
+ * <li>A histogram of its ratings over {@link #getBinsNum()} equal periods between the first and the last date of the
+ * dataset</li>
+ * </ul>
+ * The rating dates of the probe entries are held as well, so the time effects don't need to load the probe file.
+ *
+ * The statistics are calculated in a single parallel pass over the movie indexed and the user indexed models. The
+ * averages of every object are summed in the order of its ratings in the model, so they are exactly the values the
+ * time effects calculated by scanning the models themselves. Objects without ratings have a first rating date of
+ * Short.MAX_VALUE and NaN averages.
+ */
+public class TemporalStatistics {
+
+	/**
+	 * The value written at the beginning of every temporal statistics file ("NTMS")
+	 */
+	public static final int MAGIC = 0x4E544D53;
+
+	/**
+	 * The current version of the file format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The default number of periods in the dates histograms
+	 */
+	public static final int DEFAULT_BINS_NUM = 30;
+
+	private final int ratingsNum;
+	private final int binsNum;
+	private final short firstDate;
+	private final short lastDate;
+
+	private final short[] userMinDates;
+	private final short[] movieMinDates;
+
+	private final double[] userSqrtOffsetMeans;
+	private final double[] userSqrtMovieOffsetMeans;
+	private final double[] movieSqrtOffsetMeans;
+	private final double[] movieSqrtUserOffsetMeans;
+
+	// The histogram of user i starts at i * binsNum (the same for movies)
+	private final int[] userHistograms;
+	private final int[] movieHistograms;
+
+	private final short[] probeDates;
+
+	/**
+	 * Calculates the statistics of the given models
+	 *
+	 * @param movieIndexedUserIDs the user indices that rated every movie (movie id - 1 is the row index)
+	 * @param movieIndexedDates the rating dates of the movie indexed model
+	 * @param userIndexedMovieIDs the movie ids rated by every user
+	 * @param userIndexedDates the rating dates of the user indexed model
+	 * @param probeDates the rating dates of the probe entries
+	 * @param binsNum the number of periods in the dates histograms
+	 */
+	public TemporalStatistics(final int[][] movieIndexedUserIDs, final short[][] movieIndexedDates,
+			final short[][] userIndexedMovieIDs, final short[][] userIndexedDates, short[] probeDates, final int binsNum){
+
+		this.binsNum = binsNum;
+		this.probeDates = probeDates;
+
+		final int moviesNum = movieIndexedDates.length;
+		final int usersNum = userIndexedDates.length;
+
+		movieMinDates = new short[moviesNum];
+		userMinDates = new short[usersNum];
+
+		// Find the first rating date of every object
+		ParallelUtils.forEachRange(0, moviesNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int movieInd = from; movieInd < to; movieInd++){
+					movieMinDates[movieInd] = getMinDate(movieIndexedDates[movieInd]);
+				}
+			}
+		});
+
+		ParallelUtils.forEachRange(0, usersNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int userInd = from; userInd < to; userInd++){
+					userMinDates[userInd] = getMinDate(userIndexedDates[userInd]);
+				}
+			}
+		});
+
+		short minDate = Short.MAX_VALUE;
+		short maxDate = Short.MIN_VALUE;
+		int ratingsCount = 0;
+
+		for (int movieInd = 0; movieInd < moviesNum; movieInd++){
+			minDate = (short)Math.min(minDate, movieMinDates[movieInd]);
+
+			for (short date : movieIndexedDates[movieInd]){
+				maxDate = (short)Math.max(maxDate, date);
+			}
+
+			ratingsCount += movieIndexedDates[movieInd].length;
+		}
+
+		ratingsNum = ratingsCount;
+		firstDate = minDate;
+		lastDate = (maxDate < minDate) ? minDate : maxDate;
+
+		// Calculate the averages and the histograms of every object
+		movieSqrtOffsetMeans = new double[moviesNum];
+		movieSqrtUserOffsetMeans = new double[moviesNum];
+		movieHistograms = new int[moviesNum * binsNum];
+
+		ParallelUtils.forEachRange(0, moviesNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int movieInd = from; movieInd < to; movieInd++){
+					short[] dates = movieIndexedDates[movieInd];
+					int[] userIDs = movieIndexedUserIDs[movieInd];
+					short movieMinDate = movieMinDates[movieInd];
+					double offsetsSum = 0;
+					double userOffsetsSum = 0;
+
+					for (int i = 0; i < dates.length; i++){
+						offsetsSum += Math.sqrt(dates[i] - movieMinDate);
+						userOffsetsSum += Math.sqrt(dates[i] - userMinDates[userIDs[i]]);
+						movieHistograms[movieInd * binsNum + getBin(dates[i])]++;
+					}
+
+					movieSqrtOffsetMeans[movieInd] = offsetsSum / dates.length;
+					movieSqrtUserOffsetMeans[movieInd] = userOffsetsSum / dates.length;
+				}
+			}
+		});
+
+		userSqrtOffsetMeans = new double[usersNum];
+		userSqrtMovieOffsetMeans = new double[usersNum];
+		userHistograms = new int[usersNum * binsNum];
+
+		ParallelUtils.forEachRange(0, usersNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int userInd = from; userInd < to; userInd++){
+					short[] dates = userIndexedDates[userInd];
+					short[] movieIDs = userIndexedMovieIDs[userInd];
+					short userMinDate = userMinDates[userInd];
+					double offsetsSum = 0;
+					double movieOffsetsSum = 0;
+
+					for (int i = 0; i < dates.length; i++){
+						offsetsSum += Math.sqrt(dates[i] - userMinDate);
+						movieOffsetsSum += Math.sqrt(dates[i] - movieMinDates[movieIDs[i] - 1]);
+						userHistograms[userInd * binsNum + getBin(dates[i])]++;
+					}
+
+					userSqrtOffsetMeans[userInd] = offsetsSum / dates.length;
+					userSqrtMovieOffsetMeans[userInd] = movieOffsetsSum / dates.length;
+				}
+			}
+		});
+	}
+
+	private TemporalStatistics(ByteBuffer buffer){
+
+		int usersNum = buffer.getInt();
+		int moviesNum = buffer.getInt();
+		ratingsNum = buffer.getInt();
+		int probesNum = buffer.getInt();
+		binsNum = buffer.getInt();
+		firstDate = buffer.getShort();
+		lastDate = buffer.getShort();
+
+		userMinDates = readShorts(buffer, usersNum);
+		movieMinDates = readShorts(buffer, moviesNum);
+		userSqrtOffsetMeans = readDoubles(buffer, usersNum);
+		userSqrtMovieOffsetMeans = readDoubles(buffer, usersNum);
+		movieSqrtOffsetMeans = readDoubles(buffer, moviesNum);
+		movieSqrtUserOffsetMeans = readDoubles(buffer, moviesNum);
+		userHistograms = readInts(buffer, usersNum * binsNum);
+		movieHistograms = readInts(buffer, moviesNum * binsNum);
+		probeDates = readShorts(buffer, probesNum);
+	}
+
+	private static short getMinDate(short[] dates){
+		short retVal = Short.MAX_VALUE;
+
+		for (short date : dates){
+			if (date < retVal){
+				retVal = date;
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @param date a rating date
+	 * @return the index of the histograms period the date falls in
+	 */
+	public int getBin(short date){
+		int retVal = (int)((long)(date - firstDate) * binsNum / (lastDate - firstDate + 1));
+
+		return Math.max(0, Math.min(binsNum - 1, retVal));
+	}
+
+	/**
+	 * @return the number of periods in the dates histograms
+	 */
+	public int getBinsNum(){
+		return binsNum;
+	}
+
+	/**
+	 * @return the date of the first rating in the dataset
+	 */
+	public short getFirstDate(){
+		return firstDate;
+	}
+
+	/**
+	 * @return the date of the last rating in the dataset
+	 */
+	public short getLastDate(){
+		return lastDate;
+	}
+
+	/**
+	 * @return the number of ratings the statistics were calculated from
+	 */
+	public int getRatingsNum(){
+		return ratingsNum;
+	}
+
+	/**
+	 * @return the first rating date of every user (by the user index)
+	 */
+	public short[] getUserMinDates(){
+		return userMinDates;
+	}
+
+	/**
+	 * @return the first rating date of every movie (movie id - 1 is the index)
+	 */
+	public short[] getMovieMinDates(){
+		return movieMinDates;
+	}
+
+	/**
+	 * @return the average of sqrt(date - the user's first rating date) over the ratings of every user
+	 */
+	public double[] getUserSqrtOffsetMeans(){
+		return userSqrtOffsetMeans;
+	}
+
+	/**
+	 * @return the average of sqrt(date - the rated movie's first rating date) over the ratings of every user
+	 */
+	public double[] getUserSqrtMovieOffsetMeans(){
+		return userSqrtMovieOffsetMeans;
+	}
+
+	/**
+	 * @return the average of sqrt(date - the movie's first rating date) over the ratings of every movie
+	 */
+	public double[] getMovieSqrtOffsetMeans(){
+		return movieSqrtOffsetMeans;
+	}
+
+	/**
+	 * @return the average of sqrt(date - the rating user's first rating date) over the ratings of every movie
+	 */
+	public double[] getMovieSqrtUserOffsetMeans(){
+		return movieSqrtUserOffsetMeans;
+	}
+
+	/**
+	 * @param userInd the index of a user
+	 * @param bin the index of a histograms period
+	 * @return the number of ratings the user gave in the period
+	 */
+	public int getUserRatingsNum(int userInd, int bin){
+		return userHistograms[userInd * binsNum + bin];
+	}
+
+	/**
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @param bin the index of a histograms period
+	 * @return the number of ratings the movie got in the period
+	 */
+	public int getMovieRatingsNum(int movieInd, int bin){
+		return movieHistograms[movieInd * binsNum + bin];
+	}
+
+	/**
+	 * @return the rating dates of the probe entries
+	 */
+	public short[] getProbeDates(){
+		return probeDates;
+	}
+
+	/**
+	 * Saves the statistics into a binary file
+	 *
+	 * @param fileName the name of the file the statistics will be saved in
+	 * @return true if the statistics had been saved successfully or false otherwise
+	 */
+	public boolean save(String fileName){
+		DataOutputStream out = null;
+		boolean retVal = false;
+
+		try{
+			FileOutputStream fileOut = new FileOutputStream(fileName);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 20));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(userMinDates.length);
+			out.writeInt(movieMinDates.length);
+			out.writeInt(ratingsNum);
+			out.writeInt(probeDates.length);
+			out.writeInt(binsNum);
+			out.writeShort(firstDate);
+			out.writeShort(lastDate);
+
+			writeShorts(out, userMinDates);
+			writeShorts(out, movieMinDates);
+			writeDoubles(out, userSqrtOffsetMeans);
+			writeDoubles(out, userSqrtMovieOffsetMeans);
+			writeDoubles(out, movieSqrtOffsetMeans);
+			writeDoubles(out, movieSqrtUserOffsetMeans);
+			writeInts(out, userHistograms);
+			writeInts(out, movieHistograms);
+			writeShorts(out, probeDates);
+
+			// Write the statistics to the disk before the file is closed, so the file is complete once save returns
+			out.flush();
+			fileOut.getChannel().force(true);
+
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(out);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Loads statistics from a given file
+	 *
+	 * @param fileName the name of the file the statistics will be loaded from
+	 * @return the loaded statistics, or null in case of an error reading the file
+	 */
+	public static TemporalStatistics load(String fileName){
+		TemporalStatistics retVal = null;
+		RandomAccessFile file = null;
+
+		try{
+			file = new RandomAccessFile(fileName, "r");
+			ByteBuffer buffer = file.getChannel().map(MapMode.READ_ONLY, 0, file.length());
+
+			if (buffer.getInt() != MAGIC){
+				throw new IOException("File " + fileName + " isn't a temporal statistics file");
+			}
+
+			int version = buffer.getInt();
+
+			if (version != VERSION){
+				throw new IOException("Unsupported temporal statistics version " + version + " in file " + fileName);
+			}
+
+			retVal = new TemporalStatistics(buffer);
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Checks if a statistics file can be used instead of calculating the statistics again, that is the file exists and
+	 * it's newer than all the files the statistics are calculated from.
+	 *
+	 * @param fileName the name of the statistics file
+	 * @param sourceFileNames the model and probe files the statistics are calculated from
+	 * @return true if the statistics file is up to date
+	 */
+	public static boolean isUpToDate(String fileName, String... sourceFileNames){
+		File file = new File(fileName);
+
+		if (!file.isFile()){
+			return false;
+		}
+
+		for (String sourceFileName : sourceFileNames){
+			if (new File(sourceFileName).lastModified() > file.lastModified()){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks that the statistics were calculated from models and probe data of the given sizes. The same statistics file
+	 * is shared by models of different sizes (for example the models with and without the probe ratings), so the
+	 * timestamps of the files alone can't tell whether the file belongs to the models in use.
+	 *
+	 * @param usersNum the number of users in the models, or a negative value in case it's unknown
+	 * @param moviesNum the number of movies in the models, or a negative value in case it's unknown
+	 * @param ratingsNum the number of ratings in the models, or a negative value in case it's unknown
+	 * @param probesNum the number of probe entries, or a negative value in case it's unknown
+	 * @return true if all the known sizes are the sizes the statistics were calculated from
+	 */
+	public boolean matches(int usersNum, int moviesNum, int ratingsNum, int probesNum){
+		return (usersNum < 0 || usersNum == userMinDates.length) && (moviesNum < 0 || moviesNum == movieMinDates.length) &&
+				(ratingsNum < 0 || ratingsNum == this.ratingsNum) && (probesNum < 0 || probesNum == probeDates.length);
+	}
+
+	/**
+	 * @param rows the rows of a model (for example the rating dates of every user)
+	 * @return the number of ratings in the model
+	 */
+	public static int countRatings(short[][] rows){
+		int retVal = 0;
+
+		for (short[] row : rows){
+			retVal += row.length;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Loads the statistics of the given models from the statistics file, or calculates them from the models in case
+	 * the file isn't up to date (see {@link #isUpToDate(String, String...)}) and saves them to the file.
+	 * The sizes of the models aren't checked, use {@link #loadOrCreate(String, String, String, String, int, int, int, int)}
+	 * when they are known.
+	 *
+	 * @param fileName the name of the statistics file
+	 * @param userModelFileName the user indexed model file, including the ratings dates
+	 * @param movieModelFileName the movie indexed model file, including the ratings dates
+	 * @param probeFileName the probe file, including the ratings dates
+	 * @return the statistics of the models
+	 */
+	public static TemporalStatistics loadOrCreate(String fileName, String userModelFileName, String movieModelFileName, String probeFileName){
+		return loadOrCreate(fileName, userModelFileName, movieModelFileName, probeFileName, -1, -1, -1, -1);
+	}
+
+	/**
+	 * Loads the statistics of the given models from the statistics file, or calculates them from the models in case
+	 * the file isn't up to date (see {@link #isUpToDate(String, String...)}) or was calculated from models of other sizes
+	 * (see {@link #matches(int, int, int, int)}), and saves them to the file.
+	 *
+	 * @param fileName the name of the statistics file
+	 * @param userModelFileName the user indexed model file, including the ratings dates
+	 * @param movieModelFileName the movie indexed model file, including the ratings dates
+	 * @param probeFileName the probe file, including the ratings dates
+	 * @param usersNum the number of users in the models, or a negative value in case it's unknown
+	 * @param moviesNum the number of movies in the models, or a negative value in case it's unknown
+	 * @param ratingsNum the number of ratings in the models, or a negative value in case it's unknown
+	 * @param probesNum the number of probe entries, or a negative value in case it's unknown
+	 * @return the statistics of the models
+	 */
+	public static TemporalStatistics loadOrCreate(String fileName, String userModelFileName, String movieModelFileName, String probeFileName,
+			int usersNum, int moviesNum, int ratingsNum, int probesNum){
+		TemporalStatistics retVal = null;
+
+		if (isUpToDate(fileName, userModelFileName, movieModelFileName, probeFileName)){
+			retVal = load(fileName);
+
+			if (retVal != null && !retVal.matches(usersNum, moviesNum, ratingsNum, probesNum)){
+				System.out.println("The temporal statistics file " + fileName + " was calculated from other models");
+				retVal = null;
+			}
+		}
+
+		if (retVal == null){
+			long start = System.currentTimeMillis();
+
+			Object[] movieModel = ModelUtils.loadMovieIndexedModel(movieModelFileName, true, false);
+			Object[] userModel = ModelUtils.loadUserIndexedModel(userModelFileName, true);
+			Object[] probe = ModelUtils.loadProbeData(probeFileName);
+
+			retVal = new TemporalStatistics((int[][])movieModel[0], (short[][])movieModel[2], (short[][])userModel[0],
+					(short[][])userModel[2], (short[])probe[3], DEFAULT_BINS_NUM);
+
+			System.out.println("Calculated the temporal statistics in " + (System.currentTimeMillis() - start) + " ms");
+
+			retVal.save(fileName);
+		}
+
+		return retVal;
+	}
+
+	private static short[] readShorts(ByteBuffer buffer, int length){
+		short[] retVal = new short[length];
+		buffer.asShortBuffer().get(retVal);
+		buffer.position(buffer.position() + length * 2);
+
+		return retVal;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int length){
+		int[] retVal = new int[length];
+		buffer.asIntBuffer().get(retVal);
+		buffer.position(buffer.position() + length * 4);
+
+		return retVal;
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer, int length){
+		double[] retVal = new double[length];
+		buffer.asDoubleBuffer().get(retVal);
+		buffer.position(buffer.position() + length * 8);
+
+		return retVal;
+	}
+
+	private static void writeShorts(DataOutputStream out, short[] values) throws IOException{
+		for (short value : values){
+			out.writeShort(value);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException{
+		for (int value : values){
+			out.writeInt(value);
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException{
+		for (double value : values){
+			out.writeDouble(value);
+		}
+	}
+
+	public static void main(String[] args) {
+		PredictorProperties properties = PredictorProperties.getInstance();
+
+		TemporalStatistics statistics = loadOrCreate(properties.getTemporalStatisticsFile(), properties.getUserIndexedModelFile(),
+				properties.getMovieIndexedModelFile(), properties.getProbeFile());
+
+		System.out.println("Dates " + statistics.getFirstDate() + " - " + statistics.getLastDate() + ", " +
+				statistics.getRatingsNum() + " ratings, " + statistics.getBinsNum() + " histogram periods");
+	}
+}
@@ -8,6 +8,7 @@ package edu.mta.ok.nworkshop.model;
  * 
  * @see UserIndexedModelRatings
  * @see UserIndexedModelResiduals
+ * @see UserIndexedModelCSR
  */
 public interface UserIndexedModel{
 
@@ -0,0 +1,331 @@
+package edu.mta.ok.nworkshop.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.utils.ColumnarModelFile;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
+
+/**
+ * A class that holds a user indexed model with movie IDs and raw rating scores in a compressed sparse row (CSR) layout.
+ *
+ * Instead of holding a separate array for every user, the model holds one offsets array and flat movie ids, ratings and
+ * (optional) dates arrays. The data of the user placed at index i is held between offsets[i] (inclusive)
+ * and offsets[i+1] (exclusive) in the flat arrays.
+ *
+ * Methods that return a single user row (getRatedMoviesByIndex, getUserRatingsByIndex etc.) return a copy of the row,
+ * so code that sweeps over the whole model should use the range methods (getRowStart, getRowEnd) and the flat arrays instead.
+ */
+public class UserIndexedModelCSR implements UserIndexedModel {
+
+	private int[] offsets;
+	private short[] movieIds;
+	private byte[] ratings;
+	private short[] dates;
+	private UserIndexMap userIndices;
+
+	public UserIndexedModelCSR(){
+		this(PredictorProperties.getInstance().getUserIndexedModelFile(), PredictorProperties.getInstance().getUserIndicesMappingFile(), false);
+	}
+
+	public UserIndexedModelCSR(String modelFileName){
+		this(modelFileName, PredictorProperties.getInstance().getUserIndicesMappingFile(), false);
+	}
+
+	/**
+	 * @param modelFileName the full path of the file we want to load the model from (a columnar or a serialized model file)
+	 * @param indicesFileName the full path of the user indices mapping file, or null in case the mapping shouldn't be loaded
+	 * @param loadDates mark if the ratings dates should be loaded as well
+	 */
+	public UserIndexedModelCSR(String modelFileName, String indicesFileName, boolean loadDates) {
+		super();
+
+		loadModel(modelFileName, loadDates);
+		loadUserIndices(indicesFileName);
+	}
+
+	/**
+	 * Create a model from data that is already held in memory in a CSR layout.
+	 *
+	 * @param offsets the rows offsets (NUM_USERS + 1 values)
+	 * @param movieIds the flat movie ids array
+	 * @param ratings the flat ratings array
+	 * @param dates the flat ratings dates array, or null if the model has no dates
+	 * @param userIndices a mapping between the user ids and their index in the model, or null if not needed
+	 */
+	public UserIndexedModelCSR(int[] offsets, short[] movieIds, byte[] ratings, short[] dates, UserIndexMap userIndices){
+		super();
+
+		this.offsets = offsets;
+		this.movieIds = movieIds;
+		this.ratings = ratings;
+		this.dates = dates;
+		this.userIndices = userIndices;
+	}
+
+	/**
+	 * Loads the model from a given file. Columnar model files are copied directly into the flat arrays,
+	 * while serialized model files are loaded and then flattened.
+	 *
+	 * @param fileName the full path of the file we want to load the model from
+	 * @param loadDates mark if the ratings dates should be loaded as well
+	 */
+	private void loadModel(String fileName, boolean loadDates){
+
+		if (ColumnarModelFile.isColumnarFile(fileName)){
+			try{
+				ColumnarModelFile file = ColumnarModelFile.open(fileName);
+
+				offsets = file.getOffsets();
+				movieIds = file.readShortIds();
+				ratings = file.readRatings();
+
+				if (loadDates){
+					dates = file.readDates();
+				}
+			}
+			catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+		else{
+			Object[] model = ModelUtils.loadUserIndexedModel(fileName, loadDates);
+
+			short[][] idsMatrix = (short[][])model[0];
+			byte[][] ratingsMatrix = (byte[][])model[1];
+			short[][] datesMatrix = loadDates ? (short[][])model[2] : null;
+
+			offsets = new int[idsMatrix.length + 1];
+
+			for (int i = 0; i < idsMatrix.length; i++){
+				offsets[i+1] = offsets[i] + idsMatrix[i].length;
+			}
+
+			movieIds = new short[offsets[idsMatrix.length]];
+			ratings = new byte[movieIds.length];
+
+			if (datesMatrix != null){
+				dates = new short[movieIds.length];
+			}
+
+			for (int i = 0; i < idsMatrix.length; i++){
+				System.arraycopy(idsMatrix[i], 0, movieIds, offsets[i], idsMatrix[i].length);
+				System.arraycopy(ratingsMatrix[i], 0, ratings, offsets[i], ratingsMatrix[i].length);
+
+				if (datesMatrix != null){
+					System.arraycopy(datesMatrix[i], 0, dates, offsets[i], datesMatrix[i].length);
+					datesMatrix[i] = null;
+				}
+
+				// Release the row as soon as it was copied
+				idsMatrix[i] = null;
+				ratingsMatrix[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Loads the user indices mappings from a given file
+	 *
+	 * @param fileName the full path of the file that we want to load the user indices mappings from
+	 */
+	private void loadUserIndices(String fileName){
+
+		if (fileName != null){
+			userIndices = UserIndexMap.load(fileName);
+		}
+	}
+
+	/**
+	 * Sorts every user row in ascending order according to the movie id
+	 */
+	@Override
+	public void sortModel() {
+		SortUtils.sortRows(offsets, movieIds, ratings, dates);
+	}
+
+	/**
+	 * Convert a given user id to the matching index in the model
+	 *
+	 * @param userId the user id we want to convert
+	 * @return a number representing the index in the model the given user id is placed in
+	 */
+	private int convertIdToIndex(int userId){
+
+		if (userIndices == null){
+			throw new IllegalArgumentException("User Indices hadn't been loaded");
+		}
+
+		int retVal = userIndices.get(userId);
+
+		if (retVal == UserIndexMap.NO_INDEX){
+			throw new IllegalArgumentException("Unknown user id " + userId);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @param userInd the index of a user in the model
+	 * @return the position in the flat arrays in which the given user data starts
+	 */
+	public int getRowStart(int userInd){
+		return offsets[userInd];
+	}
+
+	/**
+	 * @param userInd the index of a user in the model
+	 * @return the position in the flat arrays right after the last element of the given user data
+	 */
+	public int getRowEnd(int userInd){
+		return offsets[userInd + 1];
+	}
+
+	/**
+	 * @return the rows offsets array, holding the number of users + 1 values
+	 */
+	public int[] getOffsets(){
+		return offsets;
+	}
+
+	/**
+	 * @return the flat array holding the movie ids of the entire model
+	 */
+	public short[] getMovieIdsColumn(){
+		return movieIds;
+	}
+
+	/**
+	 * @return the flat array holding the ratings of the entire model
+	 */
+	public byte[] getRatingsColumn(){
+		return ratings;
+	}
+
+	/**
+	 * @return the flat array holding the ratings dates of the entire model, or null if the dates weren't loaded
+	 */
+	public short[] getDatesColumn(){
+		return dates;
+	}
+
+	@Override
+	public short[] getRatedMovies(int userId) {
+		return getRatedMoviesByIndex(convertIdToIndex(userId));
+	}
+
+	@Override
+	public short[] getRatedMoviesByIndex(int userIndex) {
+		return Arrays.copyOfRange(movieIds, offsets[userIndex], offsets[userIndex + 1]);
+	}
+
+	@Override
+	public Object[] getUserData(int userId) {
+		int userInd = convertIdToIndex(userId);
+
+		return new Object[]{getRatedMoviesByIndex(userInd), getUserRatingsByIndex(userInd)};
+	}
+
+	@Override
+	public Object getUserRatings(int userId) {
+		return getUserRatingsByIndex(convertIdToIndex(userId));
+	}
+
+	@Override
+	public Object getUserRatingsByIndex(int userInd) {
+		return Arrays.copyOfRange(ratings, offsets[userInd], offsets[userInd + 1]);
+	}
+
+	@Override
+	public double getUserRating(int index, int userID) {
+		return ratings[offsets[getUserIndex(userID)] + index];
+	}
+
+	/**
+	 * The rows of a CSR model share the same flat arrays and can't be released one by one,
+	 * so this method doesn't do anything.
+	 */
+	@Override
+	public void removeUserDataByIndex(int userInd) {
+	}
+
+	/**
+	 * Builds a two dimensional copy of the movie ids. Notice that the returned matrix isn't backed by the model.
+	 */
+	@Override
+	public short[][] getMovieIds() {
+		short[][] retVal = new short[offsets.length - 1][];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = getRatedMoviesByIndex(i);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Builds a two dimensional copy of the ratings. Notice that the returned matrix isn't backed by the model.
+	 */
+	@Override
+	public Object[] getRatings() {
+		byte[][] retVal = new byte[offsets.length - 1][];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = (byte[])getUserRatingsByIndex(i);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * The returned movie ids and ratings arrays are copies of the model's flat arrays, so they can be reordered
+	 * (see TrainingOrder) without changing the model's rows.
+	 */
+	@Override
+	public Object[] getModelArray() {
+
+		int entriesNum = offsets[offsets.length - 1];
+		int[] userIds = new int[entriesNum];
+
+		for (int userIndex = 0; userIndex < offsets.length - 1; userIndex++) {
+			Arrays.fill(userIds, offsets[userIndex], offsets[userIndex + 1], userIndex);
+		}
+
+		return new Object[]{userIds, Arrays.copyOf(movieIds, entriesNum), Arrays.copyOf(ratings, entriesNum)};
+	}
+
+	@Override
+	public int getUserIndex(int userId) {
+		return convertIdToIndex(userId);
+	}
+
+	/**
+	 * @return the number of ratings held in the model
+	 */
+	public int getRatingsNum(){
+		return movieIds.length;
+	}
+
+	/**
+	 * Saves the model into a columnar model file.
+	 *
+	 * @param fileName the full path of the file the model will be saved in
+	 * @return true if the model had been saved successfully or false otherwise
+	 */
+	public boolean saveModel(String fileName){
+		boolean retVal = false;
+
+		try{
+			ColumnarModelFile.write(fileName, offsets, movieIds, ratings, dates);
+			retVal = true;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+
+		return retVal;
+	}
+}
@@ -1,11 +1,10 @@
 package edu.mta.ok.nworkshop.model;
 
-import java.util.HashMap;
-
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.PredictorProperties;
-import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
 
 /**
  * A class that holds a user indexed model with movie IDs and raw rating scores.
@@ -15,8 +14,7 @@ public class UserIndexedModelRatings implements UserIndexedModel {
 
 	private short[][] movieIds;
 	private byte[][] ratings;	
-	private HashMap<Integer, Integer> userIndices;
-	private ModelSorter sorter = new ModelSorter();
+	private UserIndexMap userIndices;
 	
 	public UserIndexedModelRatings(){
 		this(PredictorProperties.getInstance().getUserIndexedModelFile(), PredictorProperties.getInstance().getUserIndicesMappingFile());
@@ -54,13 +52,13 @@ public class UserIndexedModelRatings implements UserIndexedModel {
 	private void loadUserIndices(String fileName){
 		
 		if (fileName != null){
-			userIndices = FileUtils.loadDataFromFile(fileName);
+			userIndices = UserIndexMap.load(fileName);
 		}
 	}
 
 	@Override
 	public void sortModel() {
-		sorter.sortData();
+		SortUtils.sortRows(movieIds, ratings);
 	}
 	
 	/**
@@ -75,7 +73,13 @@ public class UserIndexedModelRatings implements UserIndexedModel {
 			throw new IllegalArgumentException("User Indices hadn't been loaded");
 		}
 		
-		return userIndices.get(userId);
+		int retVal = userIndices.get(userId);
+		
+		if (retVal == UserIndexMap.NO_INDEX){
+			throw new IllegalArgumentException("Unknown user id " + userId);
+		}
+		
+		return retVal;
 	}	
 
 	@Override
@@ -165,83 +169,4 @@ public class UserIndexedModelRatings implements UserIndexedModel {
 	public int getUserIndex(int userId) {
 		return convertIdToIndex(userId);
 	}
-
-	/**
-	 * Sorts the model in ascending order according to the movie IDs 
-	 *
-	 */
-	private class ModelSorter{
-
-	    public void sortData(){
-            if (movieIds != null && movieIds.length > 0){
-            	
-            	long start = System.currentTimeMillis();
-            	
-            	for (int i=0; i < movieIds.length; i++){
-            		if (movieIds[i] != null && movieIds[i].length > 0){
-            			sort(i);
-            		}
-            		
-            		if (i % 100 == 0 && i > 0){
-            			System.out.println("Finished " + i + " movies. took: " + (System.currentTimeMillis() - start));
-            			start = System.currentTimeMillis();
-            		}
-            	}
-            }
-	    }
-	    
-	    private void sort(int itemIndex){
-	    	byte[] scoreTmpArray = new byte[ratings[itemIndex].length];
-	    	short[] contentsTmpArray = new short[movieIds[itemIndex].length];
-	    	mergeSort(contentsTmpArray, scoreTmpArray, 0, ratings[itemIndex].length - 1, itemIndex);
-	    }
-
-	    public void mergeSort( short[] tempArrayContents, byte[] tempArrayScores, int left, int right, int itemIndex ) {
-
-	        if( left < right ) {
-	            int center = ( left + right ) / 2;
-	            mergeSort( tempArrayContents, tempArrayScores, left, center, itemIndex );
-	            mergeSort( tempArrayContents, tempArrayScores, center + 1, right, itemIndex );
-	            merge( tempArrayContents, tempArrayScores, left, center + 1, right, itemIndex );
-	        }
-	    }
-   
-	    private void merge( short[] contentsArray, byte[] scoresArray, int leftPos, int rightPos, int rightEnd, int itemIndex ) {
-	
-	        int leftEnd = rightPos - 1;
-	        int tmpPos = leftPos;
-	        int numElements = rightEnd - leftPos + 1;
-	
-	        // Main loop
-	        while( leftPos <= leftEnd && rightPos <= rightEnd ){
-	            if( movieIds[itemIndex][leftPos] < movieIds[itemIndex][ rightPos ]){
-	                scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	                contentsArray[tmpPos++] = movieIds[itemIndex][leftPos++];
-	            }
-	            else
-	            {
-	                scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	                contentsArray[tmpPos++] = movieIds[itemIndex][ rightPos++ ];
-	            }
-	        }
-	
-	        // Copy rest of first half
-	        while( leftPos <= leftEnd ){
-	            scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	            contentsArray[tmpPos++] = movieIds[itemIndex][ leftPos++ ];
-	        }
-	
-	        // Copy rest of right half
-	        while( rightPos <= rightEnd ){         
-	            scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	            contentsArray[tmpPos++] = movieIds[itemIndex][rightPos++];
-	        }
-	
-	        // Copy tmpArray back
-	        for( int i = 0; i < numElements; i++, rightEnd-- ){       
-	        	ratings[itemIndex][rightEnd] = scoresArray[rightEnd];
-	        	movieIds[itemIndex][rightEnd] = contentsArray[rightEnd];
-	        }
-	    }
-	}
 }
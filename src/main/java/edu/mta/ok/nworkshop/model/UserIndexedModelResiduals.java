@@ -1,24 +1,28 @@
 package edu.mta.ok.nworkshop.model;
 
-import java.util.HashMap;
-
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.PredictorProperties;
 import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
 
 /**
  * A class that holds a user indexed model with movie ids and residuals of global effects as ratings.
- * Ratings are held in a two dimensional double type array.
+ * Ratings are held in a two dimensional double or float type array, according to the type of the residuals file
+ * (see the globalEffects.floatResiduals property).
  */
 public class UserIndexedModelResiduals implements UserIndexedModel {
 
 	private static String DEFAULT_RESIDUALS_FILE_NAME = Constants.NETFLIX_OUTPUT_DIR + "/globalEffects/userIndexedResidualEffect11.data";
 	
 	private short[][] movieIds;
-	private double[][] ratings;	
-	private HashMap<Integer, Integer> userIndices;
-	private ModelSorter sorter = new ModelSorter();
+	private Object[] ratings;	
+	private UserIndexMap userIndices;
+	
+	// The ratings by their type, which is checked once when the model is loaded (only one of them is set)
+	private double[][] doubleRatings;
+	private float[][] floatRatings;
 	
 	public UserIndexedModelResiduals() {
 		
@@ -50,7 +54,14 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 		// Free up space
 		retVal[1] = null;
 		
-		ratings = FileUtils.loadDataFromFile(residualsFileName);
+		ratings = (Object[])FileUtils.loadDataFromFile(residualsFileName);
+		
+		if (ratings instanceof float[][]){
+			floatRatings = (float[][])ratings;
+		}
+		else{
+			doubleRatings = (double[][])ratings;
+		}
 		
 		System.out.println("Finished loading userIndexed model");
 	}
@@ -61,12 +72,12 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 	 * @param fileName the full path of the file that we want to load the user indices mappings from
 	 */
 	private void loadUserIndices(String fileName){
-		userIndices = FileUtils.loadDataFromFile(fileName);
+		userIndices = UserIndexMap.load(fileName);
 	}
 
 	@Override
 	public void sortModel() {
-		sorter.sortData();
+		SortUtils.sortRows(movieIds, ratings);
 	}
 	
 	/**
@@ -76,7 +87,13 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 	 * @return a number representing the index in the model the given user id is placed in
 	 */
 	private int convertIdToIndex(int userId){
-		return userIndices.get(userId);
+		int retVal = userIndices.get(userId);
+		
+		if (retVal == UserIndexMap.NO_INDEX){
+			throw new IllegalArgumentException("Unknown user id " + userId);
+		}
+		
+		return retVal;
 	}	
 
 	@Override
@@ -111,7 +128,12 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 	
 	@Override
 	public double getUserRating(int index, int userID) {
-		return ratings[getUserIndex(userID)][index];
+		
+		if (floatRatings != null){
+			return floatRatings[getUserIndex(userID)][index];
+		}
+		
+		return doubleRatings[getUserIndex(userID)][index];
 	}
 
 	@Override
@@ -139,7 +161,6 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 		double[] ratings = new double[Constants.TRAIN_RATINGS_NUM];
 		
 		short[] ratedMovies = null;
-		double[] currRatings = null;
 		int counter = 0;
 		
 		System.out.println("Start reshaping the user indexed model into three dimensional array");
@@ -147,13 +168,12 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 		for (int userIndex = 0; userIndex < Constants.NUM_USERS; userIndex++) {
 			
 			ratedMovies = getRatedMoviesByIndex(userIndex);
-			currRatings = (double[])getUserRatingsByIndex(userIndex);
 			
 			for (int mi = 0; mi < ratedMovies.length; mi++) {
 							
 				userIds[counter] = userIndex;
 				movieIds[counter] = ratedMovies[mi];
-				ratings[counter] = currRatings[mi]; 
+				ratings[counter] = (floatRatings != null) ? floatRatings[userIndex][mi] : doubleRatings[userIndex][mi]; 
 				
 				counter++;
 			}
@@ -168,83 +188,4 @@ public class UserIndexedModelResiduals implements UserIndexedModel {
 	public int getUserIndex(int userId) {
 		return convertIdToIndex(userId);
 	}
-	
-	/**
-	 * Sorts the model in ascending order according to the movie ids 
-	 *
-	 */
-	private class ModelSorter{
-
-	    public void sortData(){
-            if (movieIds != null && movieIds.length > 0){
-            	
-            	long start = System.currentTimeMillis();
-            	
-            	for (int i=0; i < movieIds.length; i++){
-            		if (movieIds[i] != null && movieIds[i].length > 0){
-            			sort(i);
-            		}
-            		
-            		if (i % 100 == 0 && i > 0){
-            			start = System.currentTimeMillis();
-            			System.out.println("Finished " + i + " movies. took: " + (System.currentTimeMillis() - start));
-            		}
-            	}
-            }
-	    }
-	    
-	    private void sort(int itemIndex){
-	    	double[] scoreTmpArray = new double[ratings[itemIndex].length];
-	    	short[] contentsTmpArray = new short[movieIds[itemIndex].length];
-	    	mergeSort(contentsTmpArray, scoreTmpArray, 0, ratings[itemIndex].length - 1, itemIndex);
-	    }
-
-	    public void mergeSort( short[] tempArrayContents, double[] tempArrayScores, int left, int right, int itemIndex ) {
-
-	        if( left < right ) {
-	            int center = ( left + right ) / 2;
-	            mergeSort( tempArrayContents, tempArrayScores, left, center, itemIndex );
-	            mergeSort( tempArrayContents, tempArrayScores, center + 1, right, itemIndex );
-	            merge( tempArrayContents, tempArrayScores, left, center + 1, right, itemIndex );
-	        }
-	    }
-   
-	    private void merge( short[] contentsArray, double[] scoresArray, int leftPos, int rightPos, int rightEnd, int itemIndex ) {
-	
-	        int leftEnd = rightPos - 1;
-	        int tmpPos = leftPos;
-	        int numElements = rightEnd - leftPos + 1;
-	
-	        // Main loop
-	        while( leftPos <= leftEnd && rightPos <= rightEnd ){
-	            if( movieIds[itemIndex][leftPos] < movieIds[itemIndex][ rightPos ]){
-	                scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	                contentsArray[tmpPos++] = movieIds[itemIndex][leftPos++];
-	            }
-	            else
-	            {
-	                scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	                contentsArray[tmpPos++] = movieIds[itemIndex][ rightPos++ ];
-	            }
-	        }
-	
-	        // Copy rest of first half
-	        while( leftPos <= leftEnd ){
-	            scoresArray[tmpPos] = ratings[itemIndex][leftPos];
-	            contentsArray[tmpPos++] = movieIds[itemIndex][ leftPos++ ];
-	        }
-	
-	        // Copy rest of right half
-	        while( rightPos <= rightEnd ){         
-	            scoresArray[tmpPos] = ratings[itemIndex][rightPos];
-	            contentsArray[tmpPos++] = movieIds[itemIndex][rightPos++];
-	        }
-	
-	        // Copy tmpArray back
-	        for( int i = 0; i < numElements; i++, rightEnd-- ){       
-	        	ratings[itemIndex][rightEnd] = scoresArray[rightEnd];
-	        	movieIds[itemIndex][rightEnd] = contentsArray[rightEnd];
-	        }
-	    }
-	}
 }
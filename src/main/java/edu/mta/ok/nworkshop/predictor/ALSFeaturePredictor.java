@@ -0,0 +1,434 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
+import edu.mta.ok.nworkshop.model.MovieIndexedModelCSR;
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
+import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
+
+/**
+ * A regularized SVD predictor similar to {@link SVDFeaturePredictor} whose features are calculated using alternating
+ * least squares (ALS) instead of stochastic gradient descent.
+ *
+ * The approach (ALS with weighted lambda regularization) is explained in the following abstract:
+ * <a href="http://www.hpl.hp.com/personal/Robert_Schreiber/papers/2008%20AAIM%20Netflix/netflix_aaim08(submitted).pdf">Large-scale Parallel Collaborative Filtering for the Netflix Prize</a>
+ *
+ * Every epoch fixes the movie features and solves the regularized least squares system of every user, and then fixes
+ * the user features and solves the system of every movie the same way (see {@link LeastSquaresWorkspace}). The systems
+ * are independent of each other, so the users (and then the movies) are solved in parallel over the CSR user and movie
+ * indexed models, every thread using its own workspace.
+ *
+ * The features are saved in the layout and the file format used by {@link SVDFeaturePredictor}, so a features file
+ * can be loaded by {@link SVDFeaturePredictor#getPredictor(String)} as well, and the predictor can be used by
+ * {@link KNNSVDPredictor}.
+ */
+public class ALSFeaturePredictor implements ThreadSafePredictor, SVDPredictor {
+
+	private final static int DEFAULT_FEATURES_NUM = 10;
+
+	private final static int DEFAULT_MAX_EPOCHS = 10;
+
+	private final static double DEFAULT_REGULARIZATION = 0.065;
+
+	private final static double MIN_IMPROVEMENT = 0.00001;
+
+	private final static double INIT_NOISE = 0.01;
+
+	private float[] userFeatures = null;
+
+	private float[] movieFeatures = null;
+
+	private UserIndexMap userIndices;
+
+	private int featuresNum;
+
+	private final List<Double> epochsRMSE = new ArrayList<Double>();
+
+	private final ThreadLocal<LeastSquaresWorkspace> workspaces = new ThreadLocal<LeastSquaresWorkspace>(){
+		@Override
+		protected LeastSquaresWorkspace initialValue() {
+			return new LeastSquaresWorkspace(featuresNum);
+		}
+	};
+
+	public ALSFeaturePredictor() {
+		this(PredictorProperties.getInstance().getPredictorIntProperty(Predictors.ALS, PropertyKeys.FEATURES_NUM, DEFAULT_FEATURES_NUM));
+	}
+
+	public ALSFeaturePredictor(int featuresNum) {
+		this(featuresNum, PredictorProperties.getInstance().getPredictorIntProperty(Predictors.ALS, PropertyKeys.MAX_EPHOCS_NUM, DEFAULT_MAX_EPOCHS),
+			PredictorProperties.getInstance().getPredictorDoubleProperty(Predictors.ALS, PropertyKeys.REGULARIZATION, DEFAULT_REGULARIZATION));
+	}
+
+	/**
+	 * Calculates the features using the models configured in the properties file, and saves them into a file.
+	 *
+	 * @param featuresNum the number of features to calculate
+	 * @param maxEpochsNum the maximal number of epochs (every epoch solves all the users and all the movies)
+	 * @param regularization the regularization factor (lambda), multiplied by the number of ratings of every user or movie
+	 */
+	public ALSFeaturePredictor(int featuresNum, int maxEpochsNum, double regularization) {
+		this.featuresNum = featuresNum;
+
+		System.out.println("start initializing model data");
+
+		PredictorProperties properties = PredictorProperties.getInstance();
+		UserIndexedModelCSR userModel = new UserIndexedModelCSR(properties.getUserIndexedModelFile(), null, false);
+		MovieIndexedModelCSR movieModel = new MovieIndexedModelCSR(properties.getMovieIndexedModelFile(), false);
+		userIndices = UserIndexMap.load(properties.getUserIndicesMappingFile());
+
+		System.out.println("Finish initializing model data");
+
+		calculateFeatures(userModel, movieModel, maxEpochsNum, regularization);
+		saveMatrices(Constants.NETFLIX_OUTPUT_DIR + "SVD/als-" + this.featuresNum + "-features.data");
+	}
+
+	/**
+	 * Creates a predictor with features loaded from a file
+	 *
+	 * @param fileName full path to the file that the features matrices should be loaded from
+	 * @param userIndices a mapping between the user ids and their index in the features matrix
+	 */
+	private ALSFeaturePredictor(String fileName, UserIndexMap userIndices){
+		this.userIndices = userIndices;
+
+		loadFeaturesFromFile(fileName);
+	}
+
+	/**
+	 * Initializes the movie features. The first feature of every movie is its average rating and the rest of the
+	 * features are small random values.
+	 */
+	private void initMovieFeatures(MovieIndexedModelCSR movieModel, double[] movieFeaturesTemp){
+		byte[] ratings = movieModel.getRatingsColumn();
+
+		for (int movieInd = 0; movieInd < Constants.NUM_MOVIES; movieInd++) {
+			int startingInd = movieInd * featuresNum;
+			double sum = 0;
+
+			for (int i = movieModel.getRowStart(movieInd); i < movieModel.getRowEnd(movieInd); i++){
+				sum += ratings[i];
+			}
+
+			int ratingsNum = movieModel.getRowEnd(movieInd) - movieModel.getRowStart(movieInd);
+			movieFeaturesTemp[startingInd] = (ratingsNum > 0) ? sum / ratingsNum : 0;
+
+			for (int f = 1; f < featuresNum; f++){
+				movieFeaturesTemp[startingInd + f] = Math.random() * INIT_NOISE;
+			}
+		}
+	}
+
+	/**
+	 * Calculate the movie and user features
+	 */
+	private void calculateFeatures(UserIndexedModelCSR userModel, MovieIndexedModelCSR movieModel, int maxEpochsNum,
+			final double regularization) {
+
+		double rmse_last = 2.0, rmse = 2.0;
+		long start = System.currentTimeMillis(), startEpoch;
+
+		final double[] userFeaturesTemp = new double[featuresNum * Constants.NUM_USERS];
+		final double[] movieFeaturesTemp = new double[featuresNum * Constants.NUM_MOVIES];
+		final double[] usersErrors = new double[Constants.NUM_USERS];
+
+		final int[] userOffsets = userModel.getOffsets();
+		final short[] ratedMovies = userModel.getMovieIdsColumn();
+		final byte[] userRatings = userModel.getRatingsColumn();
+		final int[] movieOffsets = movieModel.getOffsets();
+		final int[] raters = movieModel.getUserIdsColumn();
+		final byte[] movieRatings = movieModel.getRatingsColumn();
+
+		initMovieFeatures(movieModel, movieFeaturesTemp);
+
+		System.out.println("Training the features on " + ParallelUtils.getThreadsNum() + " threads");
+
+		for (int epoch = 0; epoch < maxEpochsNum; epoch++) {
+
+			rmse_last = rmse;
+
+			startEpoch = System.currentTimeMillis();
+
+			// Fix the movie features and solve the system of every user
+			ParallelUtils.forEachRange(0, Constants.NUM_USERS, new ParallelUtils.RangeTask(){
+				@Override
+				public void run(int from, int to) {
+					LeastSquaresWorkspace workspace = workspaces.get();
+
+					for (int userInd = from; userInd < to; userInd++){
+						workspace.clear();
+
+						for (int i = userOffsets[userInd]; i < userOffsets[userInd + 1]; i++){
+							workspace.addRating(movieFeaturesTemp, (ratedMovies[i] - 1) * featuresNum, userRatings[i]);
+						}
+
+						workspace.solve(regularization, userFeaturesTemp, userInd * featuresNum);
+					}
+				}
+			});
+
+			// Fix the user features and solve the system of every movie
+			ParallelUtils.forEachRange(0, Constants.NUM_MOVIES, new ParallelUtils.RangeTask(){
+				@Override
+				public void run(int from, int to) {
+					LeastSquaresWorkspace workspace = workspaces.get();
+
+					for (int movieInd = from; movieInd < to; movieInd++){
+						workspace.clear();
+
+						for (int i = movieOffsets[movieInd]; i < movieOffsets[movieInd + 1]; i++){
+							workspace.addRating(userFeaturesTemp, raters[i] * featuresNum, movieRatings[i]);
+						}
+
+						workspace.solve(regularization, movieFeaturesTemp, movieInd * featuresNum);
+					}
+				}
+			});
+
+			// Calculate the training error of every user, and sum the errors in the users order
+			ParallelUtils.forEachRange(0, Constants.NUM_USERS, new ParallelUtils.RangeTask(){
+				@Override
+				public void run(int from, int to) {
+					for (int userInd = from; userInd < to; userInd++){
+						int startingIndUser = userInd * featuresNum;
+						double squaredError = 0;
+
+						for (int i = userOffsets[userInd]; i < userOffsets[userInd + 1]; i++){
+							int startingIndMovie = (ratedMovies[i] - 1) * featuresNum;
+							double p = 0;
+
+							for (int f = 0; f < featuresNum; f++){
+								p += movieFeaturesTemp[startingIndMovie + f] * userFeaturesTemp[startingIndUser + f];
+							}
+
+							double err = userRatings[i] - p;
+							squaredError += err * err;
+						}
+
+						usersErrors[userInd] = squaredError;
+					}
+				}
+			});
+
+			double squaredError = 0;
+
+			for (int userInd = 0; userInd < Constants.NUM_USERS; userInd++){
+				squaredError += usersErrors[userInd];
+			}
+
+			rmse = Math.sqrt(squaredError / userRatings.length);
+			epochsRMSE.add(rmse);
+
+			System.out.println("Epoch took " + (System.currentTimeMillis() - startEpoch));
+			System.out.printf("\t<set error='%f' e='%d'/>\n", rmse, epoch);
+
+			if (rmse_last - rmse < MIN_IMPROVEMENT){
+				System.out.println("Early stopping\nRelative improvement " + (rmse_last-rmse));
+				break;
+			}
+		}
+
+		// Convert the features to float in order to save memory consumption when predicting
+		userFeatures = new float[userFeaturesTemp.length];
+		movieFeatures = new float[movieFeaturesTemp.length];
+
+		for (int i=0; i < userFeaturesTemp.length; i++){
+			userFeatures[i] = (float)userFeaturesTemp[i];
+		}
+
+		for (int i=0; i < movieFeaturesTemp.length; i++){
+			movieFeatures[i] = (float)movieFeaturesTemp[i];
+		}
+
+		System.out.println("Feature calculation took " + ((System.currentTimeMillis() - start) / (double)(60 * 1000)) + " minutes");
+	}
+
+	/**
+	 * Saves the calculated features matrices into a file, in the format used by {@link SVDFeaturePredictor}
+	 *
+	 * @param filename a path to the file the features matrices should be saved in
+	 */
+	private void saveMatrices(String filename) {
+
+		ObjectOutputStream oos = FileUtils.getObjectOutputStream(filename);
+		boolean saveFile = false;
+
+		if (oos != null){
+
+			try {
+
+				System.out.print("Blitting matrices to a file...");
+
+				// Write the features number to the file
+				oos.writeInt(featuresNum);
+
+				// Write the arrays to the file
+				oos.writeObject(userFeatures);
+				oos.writeObject(movieFeatures);
+
+				saveFile = true;
+
+				System.out.println("done");
+
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			finally{
+				FileUtils.outputClose(oos);
+			}
+		}
+
+		if (!saveFile){
+			System.err.println("Error saving model into file " + filename + ". see previous messages");
+		}
+	}
+
+	/**
+	 * Create a new instance of the class and loads the features matrices from a given file
+	 *
+	 * @param fileName full path to the file that the features matrices should be loaded from
+	 * @return a new instance of the class containing pre-calculated features loaded from a file
+	 */
+	public static ALSFeaturePredictor getPredictor(String fileName){
+		return new ALSFeaturePredictor(fileName, UserIndexMap.load(PredictorProperties.getInstance().getUserIndicesMappingFile()));
+	}
+
+	/**
+	 * Loads a pre-calculated features matrices from a given file
+	 *
+	 * @param fileName a binary file that holds the features matrices
+	 */
+	private void loadFeaturesFromFile(String fileName){
+		ObjectInputStream ois = null;
+
+		System.out.println("Start loading features data from file");
+
+		try{
+			ois = new ObjectInputStream(new FileInputStream(fileName));
+			featuresNum = ois.readInt();
+			userFeatures = (float[])ois.readObject();
+			movieFeatures = (float[])ois.readObject();
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		catch(ClassNotFoundException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(ois);
+		}
+
+		System.out.println("Finish loading " + featuresNum + " features from file");
+	}
+
+	/**
+	 * Convert a given user id to the matching index in the features matrix
+	 */
+	private int getUserIndex(int userID){
+		int retVal = userIndices.get(userID);
+
+		if (retVal == UserIndexMap.NO_INDEX){
+			throw new IllegalArgumentException("Unknown user id " + userID);
+		}
+
+		return retVal;
+	}
+
+	@Override
+	public double predictRating(int userID, short movieID, int probeIndex) {
+		return predictRatingByIndex(getUserIndex(userID), movieID);
+	}
+
+	@Override
+	public double predictRating(int userID, short movieID, String date, int probeIndex) {
+		return predictRating(userID, movieID, probeIndex);
+	}
+
+	/**
+	 * Predicts the ratings of the given pairs grouped by their users, so the index of every user is looked up only once.
+	 */
+	@Override
+	public void predictRatings(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions) {
+		int[] order = SortUtils.orderByKey(userIDs, from, to);
+
+		for (int start = 0; start < order.length;){
+			int userID = userIDs[order[start]];
+			int userIndex = getUserIndex(userID);
+			int end = start;
+
+			while (end < order.length && userIDs[order[end]] == userID){
+				predictions[order[end]] = predictRatingByIndex(userIndex, movieIDs[order[end]]);
+				end++;
+			}
+
+			start = end;
+		}
+	}
+
+	private double predictRatingByIndex(int userInd, short movieID) {
+
+		double sum = 0;
+
+		int userIndex = userInd * featuresNum;
+		int movieIndex = (movieID - 1) * featuresNum;
+
+		for (int feature = 0; feature < featuresNum; feature++) {
+			sum += movieFeatures[feature + movieIndex] * userFeatures[feature + userIndex];
+		}
+
+		if (sum < 1.0)
+			sum = 1.0;
+		else if (sum > 5.0)
+			sum = 5.0;
+
+		return sum;
+	}
+
+	@Override
+	public int getFeaturesNum() {
+		return featuresNum;
+	}
+
+	@Override
+	public float[] getMovieFetures() {
+		return movieFeatures;
+	}
+
+	@Override
+	public float[] getUserFeatures() {
+		return userFeatures;
+	}
+
+	/**
+	 * @return the training RMSE of every epoch run while calculating the features
+	 */
+	public List<Double> getEpochsRMSE() {
+		return epochsRMSE;
+	}
+
+	public static void main(String[] args) {
+		ALSFeaturePredictor predictor = new ALSFeaturePredictor();
+
+		double rmse = PredictionTester.getProbeError(predictor,
+				Constants.NETFLIX_OUTPUT_DIR + "Predictions/ALS-" + predictor.getFeaturesNum() + ".txt",
+				Constants.NETFLIX_OUTPUT_DIR + Constants.DEFAULT_PROBE_FILE_NAME);
+
+		System.out.println("RMSE = " + rmse);
+	}
+}
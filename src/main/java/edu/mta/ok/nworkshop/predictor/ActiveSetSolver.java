@@ -0,0 +1,256 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * Solves the interpolation system using the Lawson-Hanson active set method.
+ *
+ * The neighbors are split into a passive set (neighbors with a positive weight) and an active set (neighbors whose
+ * weight is pinned to 0). In every outer iteration the active neighbor with the biggest residual is moved to the
+ * passive set, and the unconstrained system of the passive neighbors is solved using a Cholesky decomposition. In case
+ * the solution has non positive weights, the solver moves towards it as far as the constraints allow and returns the
+ * neighbors that reached 0 to the active set (inner iterations).
+ *
+ * Unlike the projected gradient method the solver finds the exact optimum, usually in about as many iterations as
+ * the number of neighbors with a positive weight. Every iteration (a single Cholesky solve) is counted against the
+ * iterations budget. In case of a warm start, the neighbors with a positive initial weight form the initial passive set.
+ *
+ * In case the neighbor that was just added to the passive set doesn't get a positive weight (numerical noise), or makes
+ * the passive system singular, it's returned to the active set and the active neighbor with the next biggest residual
+ * is tried instead, until the weights change. Such a solve is reported as exhausted (see {@link #isLastSolveExhausted()}).
+ */
+public class ActiveSetSolver implements InterpolationSolver {
+
+	private static final double TOLERANCE = 1.e-10;
+
+	private final boolean[] passive;
+	private final boolean[] rejected;
+	private final int[] passiveIndices;
+	private final double[] r;
+	private final double[] s;
+	private final double[] cholesky;
+
+	private boolean lastSolveExhausted;
+
+	/**
+	 * @param capacity the maximal number of neighbors of a system
+	 */
+	public ActiveSetSolver(int capacity){
+		passive = new boolean[capacity];
+		rejected = new boolean[capacity];
+		passiveIndices = new int[capacity];
+		r = new double[capacity];
+		s = new double[capacity];
+		cholesky = new double[capacity * capacity];
+	}
+
+	@Override
+	public int solve(double[] a, double[] b, int k, double[] weights, boolean warmStart, int maxIterations) {
+		int iterationsNum = 0;
+		boolean solvePassive = false;
+		lastSolveExhausted = false;
+
+		// Initial guess - in case of a warm start the neighbors with positive weights are passive
+		for (int i = 0; i < k; i++){
+			if (!warmStart){
+				weights[i] = 0;
+			}
+
+			passive[i] = weights[i] > 0;
+			rejected[i] = false;
+			solvePassive |= passive[i];
+		}
+
+		while (true){
+			int added = -1;
+
+			if (!solvePassive){
+				// Find the active neighbor with the biggest residual (the steepest descent direction), skipping the 
+				// neighbors that failed to get a positive weight since the weights last changed
+				double maxResidual = TOLERANCE;
+
+				for (int i = 0; i < k; i++){
+					if (!passive[i] && !rejected[i]){
+						double sum = 0;
+						int rowStart = i * k;
+
+						for (int j = 0; j < k; j++){
+							sum += a[rowStart + j] * weights[j];
+						}
+
+						r[i] = b[i] - sum;
+
+						if (r[i] > maxResidual){
+							maxResidual = r[i];
+							added = i;
+						}
+					}
+				}
+
+				// All the optimality conditions hold
+				if (added < 0){
+					break;
+				}
+
+				passive[added] = true;
+			}
+
+			solvePassive = false;
+
+			boolean feasible = false;
+
+			while (!feasible){
+				if (iterationsNum >= maxIterations){
+					lastSolveExhausted = true;
+					return iterationsNum;
+				}
+
+				iterationsNum++;
+
+				int passiveNum = solvePassiveSystem(a, b, k);
+
+				if (passiveNum < 0){
+					if (added >= 0){
+						// The passive system is singular, so the neighbor that was just added can't improve the solution
+						rejectAdded(added);
+						break;
+					}
+
+					// The initial guess of a warm start is useless, so start over from zero weights
+					for (int i = 0; i < k; i++){
+						weights[i] = 0;
+						passive[i] = false;
+					}
+
+					break;
+				}
+
+				// Numerical noise - the optimal weight of the neighbor that was just added isn't positive after all
+				if (added >= 0 && s[added] <= 0){
+					rejectAdded(added);
+					break;
+				}
+
+				// The weights are about to change, so every active neighbor may be added again
+				for (int i = 0; i < k; i++){
+					rejected[i] = false;
+				}
+
+				added = -1;
+				feasible = true;
+				double alpha = 1;
+
+				for (int p = 0; p < passiveNum; p++){
+					int i = passiveIndices[p];
+
+					if (s[i] <= 0){
+						feasible = false;
+						alpha = Math.min(alpha, weights[i] / (weights[i] - s[i]));
+					}
+				}
+
+				if (feasible){
+					for (int p = 0; p < passiveNum; p++){
+						int i = passiveIndices[p];
+						weights[i] = s[i];
+					}
+				}
+				else{
+					// Move towards the solution as far as possible and deactivate the neighbors that reached 0
+					for (int p = 0; p < passiveNum; p++){
+						int i = passiveIndices[p];
+						weights[i] += alpha * (s[i] - weights[i]);
+
+						if (weights[i] <= TOLERANCE){
+							weights[i] = 0;
+							passive[i] = false;
+						}
+					}
+				}
+			}
+		}
+
+		return iterationsNum;
+	}
+
+	/**
+	 * Returns a neighbor that was just added to the passive set to the active set, and keeps it from being added again
+	 * until the weights change
+	 */
+	private void rejectAdded(int added){
+		passive[added] = false;
+		rejected[added] = true;
+		lastSolveExhausted = true;
+	}
+
+	/**
+	 * @return true in case the last solve exhausted its iterations budget, or had to skip a neighbor that didn't get a
+	 * positive weight
+	 */
+	@Override
+	public boolean isLastSolveExhausted() {
+		return lastSolveExhausted;
+	}
+
+	/**
+	 * Solves the unconstrained system of the passive neighbors into s using a Cholesky decomposition of the passive
+	 * rows and columns of A.
+	 *
+	 * @return the number of passive neighbors (their indices are written to passiveIndices), or -1 in case the
+	 * passive system isn't positive definite
+	 */
+	private int solvePassiveSystem(double[] a, double[] b, int k){
+		int n = 0;
+
+		for (int i = 0; i < k; i++){
+			if (passive[i]){
+				passiveIndices[n++] = i;
+			}
+		}
+
+		// Decompose the passive sub matrix into L*L' (L is held in the lower triangle of the cholesky buffer)
+		for (int i = 0; i < n; i++){
+			int rowStart = passiveIndices[i] * k;
+
+			for (int j = 0; j <= i; j++){
+				double sum = a[rowStart + passiveIndices[j]];
+
+				for (int l = 0; l < j; l++){
+					sum -= cholesky[i * n + l] * cholesky[j * n + l];
+				}
+
+				if (i == j){
+					if (!(sum > TOLERANCE)){
+						return -1;
+					}
+
+					cholesky[i * n + i] = Math.sqrt(sum);
+				}
+				else{
+					cholesky[i * n + j] = sum / cholesky[j * n + j];
+				}
+			}
+		}
+
+		// Forward substitution (L*y = b) and back substitution (L'*x = y)
+		for (int i = 0; i < n; i++){
+			double sum = b[passiveIndices[i]];
+
+			for (int l = 0; l < i; l++){
+				sum -= cholesky[i * n + l] * r[l];
+			}
+
+			r[i] = sum / cholesky[i * n + i];
+		}
+
+		for (int i = n - 1; i >= 0; i--){
+			double sum = r[i];
+
+			for (int l = i + 1; l < n; l++){
+				sum -= cholesky[l * n + i] * s[passiveIndices[l]];
+			}
+
+			s[passiveIndices[i]] = sum / cholesky[i * n + i];
+		}
+
+		return n;
+	}
+}
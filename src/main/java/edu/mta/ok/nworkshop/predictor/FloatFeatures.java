@@ -0,0 +1,141 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * User and movie features matrices held as float, used by the SVD trainers as an alternative to their double features
+ * (see the svd.floatFeatures and improvedSVD.floatFeatures properties).
+ *
+ * Every row of features is padded with zeros to a multiple of {@link #ROW_ALIGNMENT} floats, so the dot product and the
+ * update loops run over whole rows without a remainder loop. The update loop is a simple loop over two arrays that the
+ * JIT compiler can vectorize, and the dot product is summed into 4 independent accumulators, so the additions don't
+ * wait for each other. The padding stays 0 during the training (a zero feature is never updated), so it doesn't change
+ * the predictions.
+ *
+ * The features take half the memory of the double features (for 96 features, about 185 MB instead of 370 MB for the
+ * users), but the calculated features are slightly different since the arithmetic is done in float.
+ */
+public class FloatFeatures {
+
+	/**
+	 * The number of floats every row is padded to a multiple of (16 bytes). The dot product sums the rows in steps of
+	 * this size, and a small alignment keeps the padding of a small number of features small
+	 */
+	public static final int ROW_ALIGNMENT = 4;
+
+	private final int featuresNum;
+	private final int stride;
+	private final int usersNum;
+	private final int moviesNum;
+	private final float[] userFeatures;
+	private final float[] movieFeatures;
+
+	/**
+	 * Creates the float features out of double features held in the layout used by the SVD trainers
+	 * (the features of user i start at i * featuresNum).
+	 *
+	 * @param featuresNum the number of features of every user and movie
+	 * @param userFeaturesTemp the initial user features
+	 * @param movieFeaturesTemp the initial movie features
+	 */
+	public FloatFeatures(int featuresNum, double[] userFeaturesTemp, double[] movieFeaturesTemp){
+		this.featuresNum = featuresNum;
+		stride = getStride(featuresNum);
+		usersNum = userFeaturesTemp.length / featuresNum;
+		moviesNum = movieFeaturesTemp.length / featuresNum;
+		userFeatures = toPaddedRows(userFeaturesTemp, usersNum);
+		movieFeatures = toPaddedRows(movieFeaturesTemp, moviesNum);
+	}
+
+	/**
+	 * @param featuresNum the number of features
+	 * @return the length of a padded row of features
+	 */
+	public static int getStride(int featuresNum){
+		return (featuresNum + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+	}
+
+	private float[] toPaddedRows(double[] features, int rowsNum){
+		float[] retVal = new float[rowsNum * stride];
+
+		for (int row = 0; row < rowsNum; row++){
+			for (int f = 0; f < featuresNum; f++){
+				retVal[row * stride + f] = (float)features[row * featuresNum + f];
+			}
+		}
+
+		return retVal;
+	}
+
+	private float[] toRows(float[] paddedFeatures, int rowsNum){
+		float[] retVal = new float[rowsNum * featuresNum];
+
+		for (int row = 0; row < rowsNum; row++){
+			System.arraycopy(paddedFeatures, row * stride, retVal, row * featuresNum, featuresNum);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @param userInd the index of a user
+	 * @param movieInd the index of a movie (the movie id - 1)
+	 * @return the dot product of the user's features and the movie's features
+	 */
+	public float dot(int userInd, int movieInd){
+		int userStart = userInd * stride;
+		int movieStart = movieInd * stride;
+		float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+		for (int f = 0; f < stride; f += 4){
+			sum0 += userFeatures[userStart + f] * movieFeatures[movieStart + f];
+			sum1 += userFeatures[userStart + f + 1] * movieFeatures[movieStart + f + 1];
+			sum2 += userFeatures[userStart + f + 2] * movieFeatures[movieStart + f + 2];
+			sum3 += userFeatures[userStart + f + 3] * movieFeatures[movieStart + f + 3];
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Cross-trains the features of a user and a movie by a single gradient descent step
+	 *
+	 * @param userInd the index of the user
+	 * @param movieInd the index of the movie (the movie id - 1)
+	 * @param err the prediction error of the rating
+	 * @param learningRate the learning rate
+	 * @param userRegularization the regularization factor of the user features
+	 * @param movieRegularization the regularization factor of the movie features
+	 */
+	public void update(int userInd, int movieInd, float err, float learningRate, float userRegularization, float movieRegularization){
+		int userStart = userInd * stride;
+		int movieStart = movieInd * stride;
+
+		for (int f = 0; f < stride; f++){
+			float uf = userFeatures[userStart + f];
+			float mf = movieFeatures[movieStart + f];
+
+			userFeatures[userStart + f] = uf + learningRate * (err * mf - userRegularization * uf);
+			movieFeatures[movieStart + f] = mf + learningRate * (err * uf - movieRegularization * mf);
+		}
+	}
+
+	/**
+	 * @return the user features without the padding (the features of user i start at i * featuresNum)
+	 */
+	public float[] getUserFeatures(){
+		return toRows(userFeatures, usersNum);
+	}
+
+	/**
+	 * @return the movie features without the padding (the features of movie i+1 start at i * featuresNum)
+	 */
+	public float[] getMovieFeatures(){
+		return toRows(movieFeatures, moviesNum);
+	}
+
+	/**
+	 * @return the number of bytes taken by the features matrices
+	 */
+	public long getMemoryBytes(){
+		return 4L * (userFeatures.length + movieFeatures.length);
+	}
+}
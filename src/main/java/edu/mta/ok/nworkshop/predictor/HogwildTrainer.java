@@ -0,0 +1,170 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Runs the epochs of a stochastic gradient descent training over the ratings of a model on several threads, using the
+ * lock free approach suggested in the following abstract:
+ * <a href="http://arxiv.org/abs/1106.5730">HOGWILD!: A Lock-Free Approach to Parallelizing Stochastic Gradient Descent</a>
+ *
+ * The ratings are split into fixed chunks of consecutive ratings. Every thread takes the next untrained chunk and
+ * trains its ratings in their order, and all the threads update the shared features arrays without locking. A rating
+ * only updates the features of a single user and a single movie, so updates rarely collide (mostly on popular movies),
+ * and a lost update doesn't hurt the convergence. As a result the trained features change slightly from run to run.
+ *
+ * The squared errors are summed per chunk and the chunks sums are added in the chunks order. When training on a single
+ * thread the ratings are trained in their order on the calling thread, exactly like the serial trainer.
+ *
+ * When the ratings are trained in a {@link TrainingOrder} other than the users order, the segments of the order
+ * (tiles or movies) are used as the chunks, and are taken by the threads in the order of the current epoch.
+ */
+public class HogwildTrainer {
+
+	/**
+	 * The number of chunks the ratings are split into for every thread, so threads that finish early take chunks
+	 * from the slower threads
+	 */
+	private static final int CHUNKS_PER_THREAD = 64;
+
+	/**
+	 * A gradient descent step over a range of ratings
+	 */
+	public interface RatingsTrainer{
+
+		/**
+		 * Trains the model on the given range of ratings, in their order
+		 *
+		 * @param from the index of the first rating in the range (inclusive)
+		 * @param to the index of the last rating in the range (exclusive)
+		 * @return the sum of the squared errors of the ratings, calculated before every rating's update
+		 */
+		public double train(int from, int to);
+	}
+
+	private final int threadsNum;
+	private ForkJoinPool pool;
+
+	/**
+	 * @param threadsNum the number of threads training the model. 1 trains the model on the calling thread,
+	 * and 0 (or less) uses the number of threads set by the workshop.threadsNum system property
+	 */
+	public HogwildTrainer(int threadsNum){
+		this.threadsNum = (threadsNum <= 0) ? ParallelUtils.getThreadsNum() : threadsNum;
+	}
+
+	/**
+	 * @return the number of threads training the model
+	 */
+	public int getThreadsNum(){
+		return threadsNum;
+	}
+
+	/**
+	 * Runs a single epoch over all the ratings.
+	 *
+	 * @param ratingsNum the number of ratings in the model
+	 * @param trainer the gradient descent step
+	 * @return the sum of the squared errors of all the ratings
+	 */
+	public double runEpoch(final int ratingsNum, final RatingsTrainer trainer){
+
+		if (threadsNum == 1){
+			return trainer.train(0, ratingsNum);
+		}
+
+		return runChunks(Math.min(ratingsNum, threadsNum * CHUNKS_PER_THREAD), ratingsNum, null, trainer);
+	}
+
+	/**
+	 * Runs a single epoch over all the ratings, in the given order. The order is advanced to its next epoch before
+	 * the ratings are trained.
+	 *
+	 * @param order the order of the ratings, created over the ratings of the model
+	 * @param trainer the gradient descent step
+	 * @return the sum of the squared errors of all the ratings
+	 */
+	public double runEpoch(final TrainingOrder order, final RatingsTrainer trainer){
+
+		order.nextEpoch();
+
+		int segmentsNum = order.getSegmentsNum();
+
+		if (segmentsNum == 1){
+			return runEpoch(order.getSegmentTo(0), trainer);
+		}
+
+		if (threadsNum == 1){
+			double retVal = 0;
+
+			for (int i = 0; i < segmentsNum; i++){
+				retVal += trainer.train(order.getSegmentFrom(i), order.getSegmentTo(i));
+			}
+
+			return retVal;
+		}
+
+		return runChunks(segmentsNum, 0, order, trainer);
+	}
+
+	/**
+	 * Trains the chunks on the training threads. A chunk is either a segment of the given order, or (without an
+	 * order) an equal part of the ratings
+	 */
+	private double runChunks(final int chunksNum, final int ratingsNum, final TrainingOrder order, final RatingsTrainer trainer){
+
+		if (pool == null){
+			pool = new ForkJoinPool(threadsNum);
+		}
+
+		final double[] chunksErrors = new double[chunksNum];
+		final AtomicInteger nextChunk = new AtomicInteger();
+		ForkJoinTask<?>[] workers = new ForkJoinTask<?>[threadsNum];
+
+		for (int t = 0; t < threadsNum; t++){
+			workers[t] = pool.submit(new Runnable(){
+				@Override
+				public void run() {
+					int chunk;
+
+					while ((chunk = nextChunk.getAndIncrement()) < chunksNum){
+						if (order != null){
+							chunksErrors[chunk] = trainer.train(order.getSegmentFrom(chunk), order.getSegmentTo(chunk));
+						}
+						else{
+							int from = (int)((long)ratingsNum * chunk / chunksNum);
+							int to = (int)((long)ratingsNum * (chunk + 1) / chunksNum);
+
+							chunksErrors[chunk] = trainer.train(from, to);
+						}
+					}
+				}
+			});
+		}
+
+		for (ForkJoinTask<?> currWorker : workers){
+			currWorker.join();
+		}
+
+		double retVal = 0;
+
+		for (int i = 0; i < chunksNum; i++){
+			retVal += chunksErrors[i];
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Stops the training threads. Should be called once the training is over.
+	 */
+	public void shutdown(){
+		if (pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
@@ -33,6 +33,7 @@ public class ImprovedKNNPredictionRawScore extends ImprovedKNNPredictorAbstract
 		
 		// Start calculate similarities
 		interpolationSimilarityScores.calculateSimilarities();
+		initNeighborsIndex();
 		
 		String interpolationFile = PredictorProperties.getInstance().getPredictorStringProperty(Predictors.IMPROVED_KNN, PropertyKeys.INTERPOLATION_FILE_NAME, null);
 		
@@ -75,7 +76,7 @@ public class ImprovedKNNPredictionRawScore extends ImprovedKNNPredictorAbstract
 
 	public static void main(String[] args) {
 		ImprovedKNNPredictionRawScore predictor = new ImprovedKNNPredictionRawScore(
-				InterpolationSimilarityRawScores.getSimilarityFromFile("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel-raw.data", false),
+				InterpolationSimilarityRawScores.getSimilarityFromFile("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel-raw.data"),
 				new UserIndexedModelRatings(Constants.NETFLIX_OUTPUT_DIR + "cleanedUserIndexedSlab-SortedByMovieId.data"),
 				Constants.NETFLIX_OUTPUT_DIR + "interpolation\\moviesCommonUsersLists-Final-raw.data");
 	
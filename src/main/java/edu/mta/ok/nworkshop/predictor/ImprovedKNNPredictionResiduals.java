@@ -10,6 +10,7 @@ import edu.mta.ok.nworkshop.model.UserIndexedModelResiduals;
 import edu.mta.ok.nworkshop.similarity.InterpolationSimilarityRawScores;
 import edu.mta.ok.nworkshop.similarity.InterpolationSimilarityResiduals;
 import edu.mta.ok.nworkshop.similarity.SimilarityCalculator;
+import edu.mta.ok.nworkshop.similarity.TriangularMatrix;
 import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
 
@@ -34,6 +35,7 @@ public class ImprovedKNNPredictionResiduals extends ImprovedKNNPredictorAbstract
 		
 		// Start calculate similarities
 		interpolationSimilarityScores.calculateSimilarities();
+		initNeighborsIndex();
 
 		// Load the calculated interpolation data
 		System.out.println("Loading interpolation data from: " + interpolationFileName);
@@ -85,15 +87,15 @@ public class ImprovedKNNPredictionResiduals extends ImprovedKNNPredictorAbstract
 	
 	@Override
 	protected double getRatingValue(int userID, int position) {
-		return ((double[])userModel.getUserRatings(userID))[position];
+		return userModel.getUserRating(position, userID);
 	}
 
 	public static void main(String[] args) {
-		ModelUtils.convertDoubleModelIntoFloat("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel.data", 
+		TriangularMatrix.load("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel.data", true).save( 
 			"D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel-Float.data");
 		
 		ImprovedKNNPredictionResiduals predictor = new ImprovedKNNPredictionResiduals(
-				InterpolationSimilarityRawScores.getSimilarityFromFile("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel-Float.data", true),
+				InterpolationSimilarityRawScores.getSimilarityFromFile("D:\\FinalProject\\code\\netflixWorkshop\\binFiles\\interpolation\\similarityModel-Float.data"),
 				new UserIndexedModelResiduals(),
 				Constants.NETFLIX_OUTPUT_DIR + "interpolation\\moviesCommonUsersLists-Final.data");
 	
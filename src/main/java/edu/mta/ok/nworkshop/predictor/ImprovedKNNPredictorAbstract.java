@@ -1,17 +1,20 @@
 package edu.mta.ok.nworkshop.predictor;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
-import Jama.Matrix;
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.preprocess.PreProcessItemViewUsers;
+import edu.mta.ok.nworkshop.similarity.MovieNeighborsIndex;
 import edu.mta.ok.nworkshop.similarity.SimilarityCalculator;
 import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.TopNSelector;
 
 /**
  * Abstract class that is a super class for all Improved KNN predictor classes.
@@ -19,25 +22,67 @@ import edu.mta.ok.nworkshop.utils.FileUtils;
  * <a href="http://public.research.att.com/~volinsky/netflix/cfworkshop.pdf">Improved Neighborhood-based Collaborative Filtering</a>
  * 
  * All preprocessing presented in the above abstract are implemented in {@link PreProcessItemViewUsers}
+ * 
+ * In case a neighbors index file is configured (improvedKNN.neighborsIndexFile), the neighbors are picked from a 
+ * pre-calculated list of the most similar movies of every movie (see {@link MovieNeighborsIndex}).
+ * 
+ * The interpolation weights of a prediction are calculated using a thread local {@link InterpolationWorkspace}, 
+ * so a prediction doesn't allocate any memory. The weights are solved by the configured solver (improvedKNN.solver), 
+ * within the configured iterations budget (improvedKNN.solverMaxIterations), optionally starting from the weights 
+ * calculated for the previous prediction of the same movie (improvedKNN.solverWarmStart). The solver settings are 
+ * loaded once, when the predictor is created. 
+ * A warm start only uses the weights calculated earlier in the same batch, so the predictions of a batch don't depend 
+ * on the batches the thread predicted before, and single predictions never start from previous weights.
+ * The number of iterations the solver ran is counted, see {@link #getSolverIterationsNum()}.
+ * Batches of predictions are grouped by their users, or by their movies in case of a warm start, so the previous 
+ * prediction of the same movie is usually the previous prediction of the batch (see 
+ * {@link #predictRatings(int[], short[], int, int, double[])}).
  *
  * @see ImprovedKNNPredictionRawScore 
  * @see ImprovedKNNPredictionResiduals
  */
-public abstract class ImprovedKNNPredictorAbstract implements Predictor {
+public abstract class ImprovedKNNPredictorAbstract implements ThreadSafePredictor {
 
 	private static final float MIN_VALUE = -10000;
 	protected static int DEFAULT_NEIGHBOARS_NUM = 30;
 	protected static double HIGH_SIM_DEFAULT = -1000;
 	protected static int DEFAULT_ALPHA = 20;
-	private static final double NON_NEGATIVE_STOP_VAL = 0.00005;
-	private static final double EPS = (1.e-20);
-	private static final double INF = (1.e20);
+	protected static int DEFAULT_NEIGHBORS_INDEX_SIZE = 300;
+	protected static int DEFAULT_SOLVER_MAX_ITERATIONS = 15000;
+	
+	/**
+	 * The name of the projected gradient solver in the properties file (see {@link ProjectedGradientSolver})
+	 */
+	public static final String PROJECTED_GRADIENT_SOLVER = "projectedGradient";
+	
+	/**
+	 * The name of the active set solver in the properties file (see {@link ActiveSetSolver})
+	 */
+	public static final String ACTIVE_SET_SOLVER = "activeSet";
 	
 	protected SimilarityCalculator interpolationSimilarityScores;
 	protected UserIndexedModel userModel;
 	protected int alpha;
 	protected double[][] interpolationVals;
 	protected int neighborsNum;
+	protected MovieNeighborsIndex neighborsIndex;
+	protected final String solverName = PredictorProperties.getInstance().getPredictorStringProperty(Predictors.IMPROVED_KNN, 
+			PropertyKeys.SOLVER, PROJECTED_GRADIENT_SOLVER);
+	protected final int solverMaxIterations = PredictorProperties.getInstance().getPredictorIntProperty(Predictors.IMPROVED_KNN, 
+			PropertyKeys.SOLVER_MAX_ITERATIONS, DEFAULT_SOLVER_MAX_ITERATIONS);
+	protected final boolean solverWarmStart = PredictorProperties.getInstance().getPredictorIntProperty(Predictors.IMPROVED_KNN, 
+			PropertyKeys.SOLVER_WARM_START, 0) == 1;
+	
+	private final LongAdder solvesNum = new LongAdder();
+	private final LongAdder solverIterationsNum = new LongAdder();
+	private final LongAdder exhaustedSolvesNum = new LongAdder();
+	
+	private final ThreadLocal<InterpolationWorkspace> workspaces = new ThreadLocal<InterpolationWorkspace>(){
+		@Override
+		protected InterpolationWorkspace initialValue() {
+			return new InterpolationWorkspace(neighborsNum, createSolver(neighborsNum));
+		}
+	};
 	
 	public ImprovedKNNPredictorAbstract(){
 		
@@ -62,6 +107,7 @@ public abstract class ImprovedKNNPredictorAbstract implements Predictor {
 		this.userModel = userModel;
 		this.alpha = alpha;
 		interpolationVals = FileUtils.loadDataFromFile(interpolationValsFileName);
+		initNeighborsIndex();
 	}
 	
 	public ImprovedKNNPredictorAbstract(SimilarityCalculator simModel, UserIndexedModel userModel, 
@@ -72,210 +118,261 @@ public abstract class ImprovedKNNPredictorAbstract implements Predictor {
 		interpolationSimilarityScores = simModel;
 		this.userModel = userModel;
 		this.alpha = alpha;
+		initNeighborsIndex();
+	}
+	
+	/**
+	 * Loads (or builds) the neighbors index in case a neighbors index file is configured in the properties file.
+	 * Notice that the method should be called after the similarity model is set. 
+	 */
+	protected void initNeighborsIndex() {
+		String fileName = PredictorProperties.getInstance().getPredictorStringProperty(Predictors.IMPROVED_KNN, PropertyKeys.NEIGHBORS_INDEX_FILE);
+		
+		if (fileName != null){
+			int indexSize = PredictorProperties.getInstance().getPredictorIntProperty(Predictors.IMPROVED_KNN, PropertyKeys.NEIGHBORS_INDEX_SIZE, DEFAULT_NEIGHBORS_INDEX_SIZE);
+			
+			setNeighborsIndex(MovieNeighborsIndex.loadOrBuild(Constants.NETFLIX_OUTPUT_DIR + fileName, interpolationSimilarityScores, null, alpha, indexSize));
+		}
+	}
+	
+	/**
+	 * Creates the solver used to calculate the interpolation weights according to the solver name. 
+	 * Called once for every thread making predictions.
+	 * 
+	 * @param capacity the maximal number of neighbors of a prediction
+	 * @return a new solver instance
+	 */
+	protected InterpolationSolver createSolver(int capacity) {
+		if (ACTIVE_SET_SOLVER.equals(solverName)){
+			return new ActiveSetSolver(capacity);
+		}
+		
+		return new ProjectedGradientSolver(capacity);
+	}
+	
+	/**
+	 * @return the number of interpolation systems solved so far
+	 */
+	public long getSolvesNum() {
+		return solvesNum.sum();
+	}
+	
+	/**
+	 * @return the total number of iterations the solver ran so far
+	 */
+	public long getSolverIterationsNum() {
+		return solverIterationsNum.sum();
+	}
+	
+	/**
+	 * @return the number of interpolation systems in which the solver exhausted its iterations budget, or had to skip
+	 * a neighbor because of numerical noise (see {@link InterpolationSolver#isLastSolveExhausted()})
+	 */
+	public long getExhaustedSolvesNum() {
+		return exhaustedSolvesNum.sum();
+	}
+	
+	/**
+	 * @return the number of iterations the solver ran in the last prediction made by the calling thread
+	 */
+	public int getLastSolverIterationsNum() {
+		return workspaces.get().getLastIterationsNum();
+	}
+	
+	/**
+	 * Sets the neighbors index used to pick the neighbors of every prediction, or null in order to scan the 
+	 * user's rated movies.
+	 * 
+	 * @param neighborsIndex an index built with the predictor's similarity model without shrinking the similarities
+	 */
+	public void setNeighborsIndex(MovieNeighborsIndex neighborsIndex) {
+		this.neighborsIndex = neighborsIndex;
 	}
 	
 	@Override
 	public double predictRating(int userID, short movieID, int probeIndex) {
+		short[] ratedMovies = userModel.getRatedMovies(userID);
 		
-		Set<Short> itemSelectedNeighbors = new HashSet<Short>();//Sets.newHashSet();
-		Map<Short, Double> ratings = new HashMap<Short, Double>();
+		if (neighborsIndex != null){
+			neighborsIndex.markRatedMovies(ratedMovies);
+		}
 		
-		Random r = new Random();
-		ArrayList<Short> movieIds = new ArrayList<Short>(); 
-		Matrix a = null,b = null,w = null, w2 = null;
-		int k1,k2,wInd;
-		int k = neighborsNum;
-		boolean finished = false;
-		double currHighSim = MIN_VALUE;
-		short currHighId = -1;
-		double currHighRating = -1;
-		int errorsNum = 0;
-		int counter = 0;
-		double prediction = 0;
-			
-		finished = false;
-		prediction = 0;
-			
-		// Get the k most similar movies, or in case the user didn't rate enough movies, we'll get all the movies he rated
-		while (k > 0 && !finished){
+		workspaces.get().resetWarmStart();
+		
+		return predictRating(userID, movieID, ratedMovies, null, probeIndex);
+	}
+	
+	/**
+	 * Predicts the ratings of the given pairs grouped by their users, so the rated movies of every user are fetched
+	 * (and marked in the neighbors index) only once. The rating values of users with many predictions are fetched once as well.
+	 * 
+	 * In case of a warm start the pairs are ordered by their movies (and by their users within every movie) instead, 
+	 * so all the predictions of a movie are solved one after the other, each one starting from the weights of the 
+	 * previous one.
+	 */
+	@Override
+	public void predictRatings(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions) {
+		
+		if (solverWarmStart){
+			predictRatingsByMovies(userIDs, movieIDs, from, to, predictions);
+			return;
+		}
+		
+		int[] order = SortUtils.orderByKey(userIDs, from, to);
+		double[] ratingsBuffer = new double[0];
 		
-			currHighSim = MIN_VALUE;
-			currHighId = -1;
-			currHighRating = -1;
-			finished = true;
-			counter = 0;
+		for (int start = 0; start < order.length;){
+			int userID = userIDs[order[start]];
+			int end = start + 1;
 			
-			for (short s : userModel.getRatedMovies(userID)){
+			while (end < order.length && userIDs[order[end]] == userID){
+				end++;
+			}
+			
+			short[] ratedMovies = userModel.getRatedMovies(userID);
+			double[] ratings = null;
 			
-				if ((interpolationSimilarityScores.getSimilarityScore(movieID, s) > currHighSim) &&					
-					!(itemSelectedNeighbors.contains(s))){
-					currHighSim = interpolationSimilarityScores.getSimilarityScore(movieID, s);
-					currHighId = s;
-					currHighRating = getRatingValue(userID, counter);
+			// Fetch all the user's ratings only in case it is cheaper than fetching the neighbors ratings of every prediction
+			if ((end - start) * neighborsNum >= ratedMovies.length){
+				if (ratingsBuffer.length < ratedMovies.length){
+					ratingsBuffer = new double[ratedMovies.length];
 				}
 				
-				counter++;
-			}				
+				// The type of the user's ratings is checked once for the whole row (a double row is used as is)
+				ratings = ModelUtils.toDoubleRow(userModel.getUserRatings(userID), 0, ratedMovies.length, ratingsBuffer);
+			}
+			
+			if (neighborsIndex != null){
+				neighborsIndex.markRatedMovies(ratedMovies);
+			}
 			
-			if (currHighSim != MIN_VALUE){
-				finished = false;
-				ratings.put(currHighId, currHighRating);
-				movieIds.add(currHighId);
-				itemSelectedNeighbors.add(currHighId);
-				k--;
+			for (int i = start; i < end; i++){
+				predictions[order[i]] = predictRating(userID, movieIDs[order[i]], ratedMovies, ratings, order[i]);
 			}
+			
+			start = end;
 		}
+	}
+	
+	/**
+	 * Predicts the ratings of the given pairs ordered by their movies, and by their users within every movie.
+	 * The rated movies of a user are fetched (and marked in the neighbors index) again only when the user changes.
+	 */
+	private void predictRatingsByMovies(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions) {
+		int[] order = SortUtils.orderByKeys(movieIDs, userIDs, from, to);
+		short[] ratedMovies = null;
+		int prevUserID = -1;
 		
-		if (movieIds.size() == 0){
-			prediction = r.nextInt(4)+1;
-		}
-		else{
+		// Start the batch without the weights calculated by the previous batch of the thread
+		workspaces.get().resetWarmStart();
 		
-			a = new Matrix(movieIds.size(), movieIds.size());
-			b = new Matrix(movieIds.size(), 1);
+		for (int i : order){
+			int userID = userIDs[i];
 			
-			// Create the a and b values arrays
-			for (k1=0; k1<movieIds.size(); k1++){
-
-				b.set(k1, 0, interpolationVals[Math.min(movieIds.get(k1), movieID) - 1][Math.max(movieIds.get(k1), movieID) - Math.min(movieIds.get(k1), movieID)]);										
+			if (ratedMovies == null || userID != prevUserID){
+				ratedMovies = userModel.getRatedMovies(userID);
+				prevUserID = userID;
 				
-				for (k2=0; k2<movieIds.size(); k2++){
-					a.set(k1, k2, interpolationVals[Math.min(movieIds.get(k1), movieIds.get(k2)) - 1][Math.max(movieIds.get(k1), movieIds.get(k2)) - Math.min(movieIds.get(k1), movieIds.get(k2))]);
+				if (neighborsIndex != null){
+					neighborsIndex.markRatedMovies(ratedMovies);
 				}
 			}
-
-			double[] wVals = nonNegativeQuadraticOpt(a.getArray(), b.getRowPackedCopy(), a.getColumnDimension());
-				
-			w = new Matrix(wVals.length, 1);
-		
-			for (wInd = 0; wInd < w.getRowDimension(); wInd++){
-				w.set(wInd, 0, wVals[wInd]);
-			}
 			
-			for (wInd = 0; wInd < w.getRowDimension(); wInd++){
-				
-				if (Double.isNaN(w.get(wInd, 0) * ratings.get(movieIds.get(wInd)))){
-					System.err.println("Curr prediction value is NaN, continue");
-					continue;
-				}
-				
-				prediction += w.get(wInd, 0) * ratings.get(movieIds.get(wInd));
-			}
+			predictions[i] = predictRating(userID, movieIDs[i], ratedMovies, null, i);
 		}
-		
-		prediction = getFinalPrediction(prediction, probeIndex);
-		
-		return prediction;
 	}
 	
-	protected abstract double getRatingValue(int userID, int position);
-	
-	protected abstract double getFinalPrediction(double currPrediction, int probeIndex);
-
-	@Override
-	public double predictRating(int userID, short movieID, String date,
-			int probeIndex) {
-		return predictRating(userID, movieID, probeIndex);
-	}
-
 	/**
-	 * Implementation of a quadratic function suggested in the Bellkor abstract in order to decrease RMSE.
-	 * This is a java implementation of a c code taken from <a href="http://code.google.com/p/nprize/source/browse/trunk/basic.c">nPrize Project</a>
+	 * Predicts a rating given the user's rated movies (already marked in the neighbors index, in case there is one).
 	 * 
-	 * @param aValues a two dimensional array containing the A matrix values
-	 * @param bValues a one dimensional array containing the b matrix values
-	 * @param k the number of neighbors the A and b matrices contains 
-	 * @return a 1*k array containing the interpolation values used in order to predict ratings
+	 * @param ratedMovies the movies rated by the user
+	 * @param ratings the rating values of the rated movies, or null in order to get them using {@link #getRatingValue(int, int)}
 	 */
-	private double[] nonNegativeQuadraticOpt(double[][] aValues, double[] bValues, int k){
-		double[] xValues = new double[k];
-		double[] wValues = new double[k], r = new double[k];
-		double bestrr=INF,rr = 0;
-		int i,j;
-		boolean divergence = false;
-		int iterationsNum = 0;
+	private double predictRating(int userID, short movieID, short[] ratedMovies, double[] ratings, int probeIndex) {
 		
-		// Initial guess		
-		for(i=0;i<k;i++){
-			wValues[i]=(double)1/k; 
-		}
+		InterpolationWorkspace workspace = workspaces.get();
+		boolean finished = false;
+		double prediction = 0;
 		
-		do{
-			for(i=0;i<k;i++) {
-				double sum=0.;
-				
-				for(j=0;j<k;j++){
-					sum += aValues[i][j]*wValues[j];
+		workspace.clear();
+		
+		// Pick the neighbors from the neighbors index, in case the index holds enough of the user's movies
+		if (neighborsIndex != null){
+			int[] positions = workspace.getPositions();
+			int found = neighborsIndex.selectMarkedNeighbors(movieID, neighborsNum, positions);
+			
+			if (found == Math.min(neighborsNum, ratedMovies.length)){
+				for (int i = 0; i < found && interpolationSimilarityScores.getSimilarityScore(movieID, ratedMovies[positions[i]]) > MIN_VALUE; i++){
+					workspace.addNeighbor(ratedMovies[positions[i]], (ratings != null) ? ratings[positions[i]] : getRatingValue(userID, positions[i]));
 				}
 				
-				r[i]=bValues[i] - sum; //http://www.netflixprize.com/community/viewtopic.php?pid=6025#p6025
+				finished = true;
 			}
+		}
+		
+		// Get the k most similar movies, or in case the user didn't rate enough movies, we'll get all the movies he rated.
+		// Movies with equal similarity scores are picked according to their position in the rated movies list.
+		if (!finished){
+			TopNSelector selector = workspace.getSelector();
+			selector.clear();
 			
-			// find active variables - those that are pinned because of
-			// nonnegativity constraint, and set respective ris to zero
-			for(i=0;i<k;i++){
+			for (int i = 0; i < ratedMovies.length; i++){
+				double currSimScore = interpolationSimilarityScores.getSimilarityScore(movieID, ratedMovies[i]);
 				
-				if((wValues[i]<EPS)&&(r[i]<0)){
-					r[i]=0;
+				if (currSimScore > MIN_VALUE){
+					selector.add(i, currSimScore);
 				}
 			}
 			
-			// max step size
-			double rAr=0;
-			rr=0;
-			for(i=0;i<k;i++) {
-				double sum=0.;
-				
-				for(j=0;j<k;j++){
-					sum+=aValues[i][j]*r[j];
-				}
+			int found = selector.sort();
+			
+			for (int i = 0; i < found; i++){
+				int position = selector.getItem(i);
 				
-				rAr+=sum*r[i];
-				rr+=r[i]*r[i];
+				workspace.addNeighbor(ratedMovies[position], (ratings != null) ? ratings[position] : getRatingValue(userID, position));
 			}
+		}
+		
+		if (workspace.size() == 0){
+			prediction = ThreadLocalRandom.current().nextInt(4)+1;
+		}
+		else{
+			workspace.buildSystem(movieID, interpolationVals);
+			double[] weights = workspace.solve(solverWarmStart, solverMaxIterations);
+			int iterationsNum = workspace.getLastIterationsNum();
 			
-			double alpha=rr/rAr;
+			solvesNum.increment();
+			solverIterationsNum.add(iterationsNum);
 			
-			//adjust step size to prevent negative values:
-			//http://www.netflixprize.com/community/viewtopic.php?pid=6139#p6139
-			if(Double.isNaN(alpha) || alpha<EPS){
-				alpha=0.001;
+			if (workspace.isLastSolveExhausted()){
+				exhaustedSolvesNum.increment();
 			}
 			
-			for(i=0;i<k;i++) {
-				if (r[i] * alpha < -EPS ) {
-					alpha = (Math.abs(alpha) < Math.abs(wValues[i]/r[i])) ? Math.abs(alpha): Math.abs(wValues[i]/r[i]);
-	            } else if (r[i] * alpha > EPS){
-					alpha = Math.abs(alpha);
-	            }
-			}
-			for(i=0;i<k;i++) {
-				wValues[i]+=alpha*r[i];
+			for (int wInd = 0; wInd < workspace.size(); wInd++){
 				
-				if(wValues[i]<1.e-10){
-					wValues[i]=0.; //http://www.netflixprize.com/community/viewtopic.php?pid=6025#p6025
-				}
-			}
-
-			if(rr<bestrr) {
-				bestrr=rr;
-				for(i=0;i<k;i++){
-					xValues[i]=wValues[i];
+				double currPrediction = weights[wInd] * workspace.getRating(wInd);
+				
+				if (Double.isNaN(currPrediction)){
+					System.err.println("Curr prediction value is NaN, continue");
+					continue;
 				}
+				
+				prediction += currPrediction;
 			}
-
-			if (iterationsNum  > 15000){
-				divergence = true;
-			}
-			
-			iterationsNum++;
 		}
-		while((rr > NON_NEGATIVE_STOP_VAL) && (!(divergence)));
 		
-		if (divergence){
-			System.err.println("Divergence");
-		}
+		prediction = getFinalPrediction(prediction, probeIndex);
 		
-		return xValues;
+		return prediction;
+	}
+	
+	protected abstract double getRatingValue(int userID, int position);
+	
+	protected abstract double getFinalPrediction(double currPrediction, int probeIndex);
+
+	@Override
+	public double predictRating(int userID, short movieID, String date,
+			int probeIndex) {
+		return predictRating(userID, movieID, probeIndex);
 	}
 }
@@ -0,0 +1,232 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import Jama.Matrix;
+
+/**
+ * The original single rating prediction of the Improved KNN predictors, kept as a reference for
+ * {@link PredictorBenchmark}. 
+ * 
+ * It predicts with the models of a given Improved KNN predictor the way the predictors did before the interpolation
+ * workspace (see {@link InterpolationWorkspace}) was introduced: the neighbors are picked by rescanning the user's
+ * rated movies once for every neighbor, the interpolation system is built in Jama matrices and solved by the projected
+ * gradient method with new buffers, so every prediction allocates its data structures. The neighbors index and the
+ * solver settings of the given predictor are ignored.
+ * 
+ * With the projectedGradient solver and no warm start the predictions equal the ones of the given predictor made
+ * without a neighbors index (except for the random predictions of users without neighbors).
+ */
+public class ImprovedKNNReferencePredictor implements Predictor {
+
+	private static final float MIN_VALUE = -10000;
+	private static final double NON_NEGATIVE_STOP_VAL = 0.00005;
+	private static final double EPS = (1.e-20);
+	private static final double INF = (1.e20);
+	private static final int MAX_ITERATIONS_NUM = 15000;
+	
+	private final ImprovedKNNPredictorAbstract predictor;
+	
+	/**
+	 * @param predictor the predictor whose models and rating values are used
+	 */
+	public ImprovedKNNReferencePredictor(ImprovedKNNPredictorAbstract predictor) {
+		super();
+		this.predictor = predictor;
+	}
+	
+	@Override
+	public double predictRating(int userID, short movieID, int probeIndex) {
+		
+		Set<Short> itemSelectedNeighbors = new HashSet<Short>();
+		Map<Short, Double> ratings = new HashMap<Short, Double>();
+		
+		Random r = new Random();
+		ArrayList<Short> movieIds = new ArrayList<Short>(); 
+		Matrix a = null,b = null,w = null;
+		int k1,k2,wInd;
+		int k = predictor.neighborsNum;
+		boolean finished = false;
+		double currHighSim = MIN_VALUE;
+		short currHighId = -1;
+		double currHighRating = -1;
+		int counter = 0;
+		double prediction = 0;
+		double[][] interpolationVals = predictor.interpolationVals;
+			
+		// Get the k most similar movies, or in case the user didn't rate enough movies, we'll get all the movies he rated
+		while (k > 0 && !finished){
+		
+			currHighSim = MIN_VALUE;
+			currHighId = -1;
+			currHighRating = -1;
+			finished = true;
+			counter = 0;
+			
+			for (short s : predictor.userModel.getRatedMovies(userID)){
+			
+				if ((predictor.interpolationSimilarityScores.getSimilarityScore(movieID, s) > currHighSim) &&					
+					!(itemSelectedNeighbors.contains(s))){
+					currHighSim = predictor.interpolationSimilarityScores.getSimilarityScore(movieID, s);
+					currHighId = s;
+					currHighRating = predictor.getRatingValue(userID, counter);
+				}
+				
+				counter++;
+			}				
+			
+			if (currHighSim != MIN_VALUE){
+				finished = false;
+				ratings.put(currHighId, currHighRating);
+				movieIds.add(currHighId);
+				itemSelectedNeighbors.add(currHighId);
+				k--;
+			}
+		}
+		
+		if (movieIds.size() == 0){
+			prediction = r.nextInt(4)+1;
+		}
+		else{
+		
+			a = new Matrix(movieIds.size(), movieIds.size());
+			b = new Matrix(movieIds.size(), 1);
+			
+			// Create the a and b values arrays
+			for (k1=0; k1<movieIds.size(); k1++){
+
+				b.set(k1, 0, interpolationVals[Math.min(movieIds.get(k1), movieID) - 1][Math.max(movieIds.get(k1), movieID) - Math.min(movieIds.get(k1), movieID)]);										
+				
+				for (k2=0; k2<movieIds.size(); k2++){
+					a.set(k1, k2, interpolationVals[Math.min(movieIds.get(k1), movieIds.get(k2)) - 1][Math.max(movieIds.get(k1), movieIds.get(k2)) - Math.min(movieIds.get(k1), movieIds.get(k2))]);
+				}
+			}
+
+			double[] wVals = nonNegativeQuadraticOpt(a.getArray(), b.getRowPackedCopy(), a.getColumnDimension());
+				
+			w = new Matrix(wVals.length, 1);
+		
+			for (wInd = 0; wInd < w.getRowDimension(); wInd++){
+				w.set(wInd, 0, wVals[wInd]);
+			}
+			
+			for (wInd = 0; wInd < w.getRowDimension(); wInd++){
+				
+				if (Double.isNaN(w.get(wInd, 0) * ratings.get(movieIds.get(wInd)))){
+					System.err.println("Curr prediction value is NaN, continue");
+					continue;
+				}
+				
+				prediction += w.get(wInd, 0) * ratings.get(movieIds.get(wInd));
+			}
+		}
+		
+		return predictor.getFinalPrediction(prediction, probeIndex);
+	}
+
+	@Override
+	public double predictRating(int userID, short movieID, String date, int probeIndex) {
+		return predictRating(userID, movieID, probeIndex);
+	}
+
+	/**
+	 * Implementation of a quadratic function suggested in the Bellkor abstract in order to decrease RMSE.
+	 * This is a java implementation of a c code taken from <a href="http://code.google.com/p/nprize/source/browse/trunk/basic.c">nPrize Project</a>
+	 * 
+	 * @param aValues a two dimensional array containing the A matrix values
+	 * @param bValues a one dimensional array containing the b matrix values
+	 * @param k the number of neighbors the A and b matrices contains 
+	 * @return a 1*k array containing the interpolation values used in order to predict ratings
+	 */
+	private double[] nonNegativeQuadraticOpt(double[][] aValues, double[] bValues, int k){
+		double[] xValues = new double[k];
+		double[] wValues = new double[k], r = new double[k];
+		double bestrr=INF,rr = 0;
+		int i,j;
+		boolean divergence = false;
+		int iterationsNum = 0;
+		
+		// Initial guess		
+		for(i=0;i<k;i++){
+			wValues[i]=(double)1/k; 
+		}
+		
+		do{
+			for(i=0;i<k;i++) {
+				double sum=0.;
+				
+				for(j=0;j<k;j++){
+					sum += aValues[i][j]*wValues[j];
+				}
+				
+				r[i]=bValues[i] - sum;
+			}
+			
+			// find active variables - those that are pinned because of
+			// nonnegativity constraint, and set respective r values to zero
+			for(i=0;i<k;i++){
+				
+				if((wValues[i]<EPS)&&(r[i]<0)){
+					r[i]=0;
+				}
+			}
+			
+			// max step size
+			double rAr=0;
+			rr=0;
+			for(i=0;i<k;i++) {
+				double sum=0.;
+				
+				for(j=0;j<k;j++){
+					sum+=aValues[i][j]*r[j];
+				}
+				
+				rAr+=sum*r[i];
+				rr+=r[i]*r[i];
+			}
+			
+			double alpha=rr/rAr;
+			
+			// adjust step size to prevent negative values
+			if(Double.isNaN(alpha) || alpha<EPS){
+				alpha=0.001;
+			}
+			
+			for(i=0;i<k;i++) {
+				if (r[i] * alpha < -EPS ) {
+					alpha = (Math.abs(alpha) < Math.abs(wValues[i]/r[i])) ? Math.abs(alpha): Math.abs(wValues[i]/r[i]);
+	            } else if (r[i] * alpha > EPS){
+					alpha = Math.abs(alpha);
+	            }
+			}
+			for(i=0;i<k;i++) {
+				wValues[i]+=alpha*r[i];
+				
+				if(wValues[i]<1.e-10){
+					wValues[i]=0.;
+				}
+			}
+
+			if(rr<bestrr) {
+				bestrr=rr;
+				for(i=0;i<k;i++){
+					xValues[i]=wValues[i];
+				}
+			}
+
+			if (iterationsNum  > MAX_ITERATIONS_NUM){
+				divergence = true;
+			}
+			
+			iterationsNum++;
+		}
+		while((rr > NON_NEGATIVE_STOP_VAL) && (!(divergence)));
+		
+		return xValues;
+	}
+}
@@ -0,0 +1,38 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * Interface to be implemented by any class that calculates the interpolation weights used by the Improved KNN predictors.
+ *
+ * The weights w are the solution of the non negative least squares problem: minimize (wAw)/2 - bw subject to w >= 0,
+ * where A holds the interpolation values of every pair of neighbors and b holds the interpolation values of every
+ * neighbor and the predicted movie.
+ *
+ * Solvers hold their own buffers, so an instance shouldn't be shared between threads.
+ *
+ * @see ProjectedGradientSolver
+ * @see ActiveSetSolver
+ */
+public interface InterpolationSolver {
+
+	/**
+	 * Solves the interpolation system.
+	 *
+	 * @param a the k*k A matrix, held row by row
+	 * @param b the b vector
+	 * @param k the number of neighbors
+	 * @param weights the array the weights will be written to. In case of a warm start the array holds an initial
+	 * guess of the weights (all non negative)
+	 * @param warmStart true if the weights array holds an initial guess or false otherwise
+	 * @param maxIterations the maximal number of iterations the solver may run. In case the budget is exhausted the
+	 * best weights found so far are returned
+	 * @return the number of iterations the solver ran
+	 */
+	public int solve(double[] a, double[] b, int k, double[] weights, boolean warmStart, int maxIterations);
+
+	/**
+	 * @return true in case the last call to {@link #solve(double[], double[], int, double[], boolean, int)} stopped
+	 * because its iterations budget was exhausted, or ran into a numerical problem that may have kept it from the
+	 * optimal weights
+	 */
+	public boolean isLastSolveExhausted();
+}
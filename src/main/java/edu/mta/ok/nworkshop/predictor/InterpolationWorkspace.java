@@ -0,0 +1,193 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import edu.mta.ok.nworkshop.utils.TopNSelector;
+
+/**
+ * Reusable buffers used by {@link ImprovedKNNPredictorAbstract} in order to calculate the interpolation weights of a
+ * single prediction without allocating any memory.
+ *
+ * The workspace holds the neighbors picked for the prediction and their ratings, builds the A matrix and the b vector
+ * of the interpolation system straight into flat arrays (A is held row by row, with the number of neighbors as the
+ * row length) and solves the non negative least squares problem in place using an {@link InterpolationSolver}.
+ * The weights of the last solved system are kept, so they can be used as an initial guess for the next prediction
+ * of the same movie (the probe predictions are grouped by movie). The kept weights are dropped by
+ * {@link #resetWarmStart()}, so the predictions of a batch don't depend on the batches the thread predicted before.
+ *
+ * A workspace is sized for a maximal number of neighbors and shouldn't be shared between threads.
+ */
+public class InterpolationWorkspace {
+
+	private final int[] positions;
+	private final TopNSelector selector;
+	private final short[] neighbors;
+	private final double[] ratings;
+	private final double[] a;
+	private final double[] b;
+	private final double[] weights;
+	private final short[] cachedNeighbors;
+	private final double[] cachedWeights;
+	private final InterpolationSolver solver;
+	private int size;
+	private short movieID = -1;
+	private short cachedMovieID = -1;
+	private int cachedSize;
+	private int lastIterationsNum;
+
+	/**
+	 * @param capacity the maximal number of neighbors of a prediction
+	 * @param solver the solver used to calculate the weights, created with the same capacity
+	 */
+	public InterpolationWorkspace(int capacity, InterpolationSolver solver){
+		this.solver = solver;
+		positions = new int[capacity];
+		selector = new TopNSelector(capacity);
+		neighbors = new short[capacity];
+		ratings = new double[capacity];
+		a = new double[capacity * capacity];
+		b = new double[capacity];
+		weights = new double[capacity];
+		cachedNeighbors = new short[capacity];
+		cachedWeights = new double[capacity];
+	}
+
+	/**
+	 * @return a buffer that can hold the positions of the neighbors in the user's rated movies
+	 */
+	public int[] getPositions(){
+		return positions;
+	}
+
+	/**
+	 * @return a selector that can be used in order to pick the neighbors out of the user's rated movies
+	 */
+	public TopNSelector getSelector(){
+		return selector;
+	}
+
+	/**
+	 * Removes all the neighbors from the workspace
+	 */
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * Adds a neighbor to the workspace. The neighbors should be added from the most similar to the least similar one.
+	 *
+	 * @param movieID the id of the neighbor
+	 * @param rating the rating (or residual) the user gave the neighbor
+	 */
+	public void addNeighbor(short movieID, double rating){
+		neighbors[size] = movieID;
+		ratings[size] = rating;
+		size++;
+	}
+
+	/**
+	 * @return the number of neighbors held in the workspace
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @param index the index of a neighbor in the order it was added
+	 * @return the rating the user gave the neighbor
+	 */
+	public double getRating(int index){
+		return ratings[index];
+	}
+
+	/**
+	 * Fills the A matrix and the b vector of the interpolation system of the held neighbors.
+	 *
+	 * @param movieID the id of the movie being predicted
+	 * @param interpolationVals the interpolation values of every pair of movies. Row i holds the values of movie i+1
+	 * and all the movies bigger than it (including itself)
+	 */
+	public void buildSystem(short movieID, double[][] interpolationVals){
+		this.movieID = movieID;
+
+		for (int k1 = 0; k1 < size; k1++){
+			short movie1 = neighbors[k1];
+			int min = Math.min(movie1, movieID);
+
+			b[k1] = interpolationVals[min - 1][Math.max(movie1, movieID) - min];
+
+			// A is symmetric, so only its upper triangle is read from the interpolation values
+			double[] row = interpolationVals[movie1 - 1];
+
+			for (int k2 = k1; k2 < size; k2++){
+				short movie2 = neighbors[k2];
+				double value = (movie2 >= movie1) ? row[movie2 - movie1] : interpolationVals[movie2 - 1][movie1 - movie2];
+
+				a[k1 * size + k2] = value;
+				a[k2 * size + k1] = value;
+			}
+		}
+	}
+
+	/**
+	 * Solves the interpolation system built by {@link #buildSystem(short, double[][])} using the workspace's solver.
+	 *
+	 * In case of a warm start, the weights calculated by the previous call are used as an initial guess, as long as
+	 * it was made for the same movie. Every neighbor gets the weight it had in the previous call, or 0 if it wasn't a
+	 * neighbor in that call.
+	 *
+	 * @param warmStart true in order to start from the weights of the previous call made for the same movie
+	 * @param maxIterations the maximal number of iterations the solver may run
+	 * @return the interpolation weights of the held neighbors (the array is reused by the next call)
+	 */
+	public double[] solve(boolean warmStart, int maxIterations){
+		boolean hasGuess = false;
+
+		if (warmStart && cachedMovieID == movieID){
+			for (int k1 = 0; k1 < size; k1++){
+				weights[k1] = 0;
+
+				for (int k2 = 0; k2 < cachedSize; k2++){
+					if (cachedNeighbors[k2] == neighbors[k1]){
+						weights[k1] = cachedWeights[k2];
+						break;
+					}
+				}
+
+				hasGuess |= weights[k1] > 0;
+			}
+		}
+
+		lastIterationsNum = solver.solve(a, b, size, weights, hasGuess, maxIterations);
+
+		// Keep the weights as the initial guess of the next call
+		cachedMovieID = movieID;
+		cachedSize = size;
+		System.arraycopy(neighbors, 0, cachedNeighbors, 0, size);
+		System.arraycopy(weights, 0, cachedWeights, 0, size);
+
+		return weights;
+	}
+
+	/**
+	 * Drops the weights kept by the last call to {@link #solve(boolean, int)}, so the next call won't use them as an
+	 * initial guess
+	 */
+	public void resetWarmStart(){
+		cachedMovieID = -1;
+		cachedSize = 0;
+	}
+
+	/**
+	 * @return the number of iterations the solver ran in the last call to {@link #solve(boolean, int)}
+	 */
+	public int getLastIterationsNum(){
+		return lastIterationsNum;
+	}
+
+	/**
+	 * @return true in case the solver exhausted its iterations budget in the last call to {@link #solve(boolean, int)}
+	 * (see {@link InterpolationSolver#isLastSolveExhausted()})
+	 */
+	public boolean isLastSolveExhausted(){
+		return solver.isLastSolveExhausted();
+	}
+}
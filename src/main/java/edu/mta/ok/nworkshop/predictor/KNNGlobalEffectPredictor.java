@@ -41,6 +41,7 @@ public class KNNGlobalEffectPredictor extends KNNPredictorAbstract {
 		
 		initEffectData(DEFAULT_EFFECT_DATA_FILENAME);
 		initCommonRatersData();
+		initNeighborsIndex();
 	}
 	
 	public KNNGlobalEffectPredictor(SimilarityCalculator simModel, UserIndexedModel userModel, int neighboarsNum, String effectDataFileName) {		
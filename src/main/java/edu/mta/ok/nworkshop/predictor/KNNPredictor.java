@@ -35,6 +35,7 @@ public class KNNPredictor extends KNNPredictorAbstract {
 		System.out.println("Finish calculating similarities");
 		
 		initCommonRatersData();
+		initNeighborsIndex();
 	}
 
 	/**
@@ -1,33 +1,60 @@
 package edu.mta.ok.nworkshop.predictor;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
+import edu.mta.ok.nworkshop.similarity.MovieNeighborsIndex;
 import edu.mta.ok.nworkshop.similarity.SimilarityCalculator;
 import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
+import edu.mta.ok.nworkshop.utils.TopNSelector;
 
 /**
  * Abstract class that is a super class for all KNN predictor classes.
  * KNN (K Nearest Neighbors) is a neighborhood approach that identifies pairs of movies that tend to be rated similarly, and uses those 
  * similar items in order to predict a rating score for an unrated item.
+ * 
+ * In case a neighbors index file is configured (knn.neighborsIndexFile), the neighbors are picked from a pre-calculated
+ * list of the most similar movies of every movie (see {@link MovieNeighborsIndex}) instead of scanning the user's rated 
+ * movies. The picked neighbors are the same in both modes.
+ * 
+ * When scanning the rated movies, the shrunk similarity of every movie is calculated once and the best k movies are kept
+ * in a thread local bounded heap (see {@link TopNSelector}), so a prediction doesn't allocate any memory.
+ * Batches of predictions are grouped by their users (see {@link #predictRatings(int[], short[], int, int, double[])}).
  *
  * @see KNNGlobalEffectPredictor 
  * @see KNNPredictor
  */
-public abstract class KNNPredictorAbstract implements Predictor {
+public abstract class KNNPredictorAbstract implements ThreadSafePredictor {
 
 	protected static String DEFAULT_RATERS_NUM_FILE_NAME = Constants.NETFLIX_OUTPUT_DIR + "similarityCommonRatersNum.data";
 	protected static int DEFAULT_NEIGHBOARS_NUM = 20;
 	protected static double HIGH_SIM_DEFAULT = -1000;
 	protected static int DEFAULT_ALPHA = 20;
+	protected static int DEFAULT_NEIGHBORS_INDEX_SIZE = 300;
 	
 	protected SimilarityCalculator similarityModel;
 	protected UserIndexedModel userModel;
 	protected int neighboarsNum;
 	protected int alpha;	
 	protected int[][] commonRatersNum;
+	protected MovieNeighborsIndex neighborsIndex;
+	
+	private final ThreadLocal<int[]> neighborsPositions = new ThreadLocal<int[]>(){
+		@Override
+		protected int[] initialValue() {
+			return new int[neighboarsNum];
+		}
+	};
+	
+	private final ThreadLocal<TopNSelector> neighborsSelectors = new ThreadLocal<TopNSelector>(){
+		@Override
+		protected TopNSelector initialValue() {
+			return new TopNSelector(neighboarsNum);
+		}
+	};
 	
 	public KNNPredictorAbstract(SimilarityCalculator simModel, UserIndexedModel userModel) {
 		this(simModel, userModel, DEFAULT_NEIGHBOARS_NUM, DEFAULT_ALPHA);
@@ -51,11 +78,48 @@ public abstract class KNNPredictorAbstract implements Predictor {
 		this.userModel = userModel;
 		
 		initCommonRatersData();
+		initNeighborsIndex();
 	}
 
 	protected void initCommonRatersData() {
 		commonRatersNum = FileUtils.loadDataFromFile(DEFAULT_RATERS_NUM_FILE_NAME);
 	}
+	
+	/**
+	 * Loads (or builds) the neighbors index in case a neighbors index file is configured in the properties file.
+	 * Notice that the method should be called after the similarity model and the common raters data are set. 
+	 */
+	protected void initNeighborsIndex() {
+		String fileName = PredictorProperties.getInstance().getPredictorStringProperty(Predictors.KNN, PropertyKeys.NEIGHBORS_INDEX_FILE);
+		
+		if (fileName != null){
+			int indexSize = PredictorProperties.getInstance().getPredictorIntProperty(Predictors.KNN, PropertyKeys.NEIGHBORS_INDEX_SIZE, DEFAULT_NEIGHBORS_INDEX_SIZE);
+			
+			setNeighborsIndex(MovieNeighborsIndex.loadOrBuild(Constants.NETFLIX_OUTPUT_DIR + fileName, similarityModel, commonRatersNum, alpha, indexSize));
+		}
+	}
+	
+	/**
+	 * Sets the neighbors index used to pick the neighbors of every prediction, or null in order to scan the 
+	 * user's rated movies.
+	 * 
+	 * @param neighborsIndex an index built with the predictor's similarity model, common raters data and alpha value
+	 */
+	public void setNeighborsIndex(MovieNeighborsIndex neighborsIndex) {
+		this.neighborsIndex = neighborsIndex;
+	}
+	
+	/**
+	 * @return the similarity between the two given movies, shrunk according to the number of users rated both movies
+	 */
+	protected double getShrunkSimilarity(short movieID, short otherMovieID) {
+		short minMovieId = (short)Math.min(movieID, otherMovieID);
+		short maxMovieId = (short)Math.max(movieID, otherMovieID);
+		
+		int currRatersNum = commonRatersNum[minMovieId - 1][maxMovieId - minMovieId - 1];
+		
+		return similarityModel.getSimilarityScore(movieID, otherMovieID) * ((double)currRatersNum / (double)(currRatersNum + alpha));
+	}
 
 	/**
 	 * Gets a set of k movies similar to the given movie that had been rated by the given user,
@@ -66,73 +130,141 @@ public abstract class KNNPredictorAbstract implements Predictor {
 	 */
 	@Override
 	public double predictRating(int userID, short movieID, int probeIndex) {
+		short[] ratedMovies = userModel.getRatedMovies(userID);
 		
-		int counter = 0;
-		int k = neighboarsNum;
-		double prediction = 0;
-		double totalCorrelation = 0;
-		double currCorrelation;
-		double currSimScore = 0;
+		if (neighborsIndex != null){
+			neighborsIndex.markRatedMovies(ratedMovies);
+		}
 		
-		Set<Short> itemSelectedNeighbors = new HashSet<Short>();
-		short[] ratedMovies = userModel.getRatedMovies(userID);
+		return predictRating(userID, movieID, ratedMovies, null, probeIndex);
+	}
+	
+	/**
+	 * Predicts the ratings of the given pairs grouped by their users, so the rated movies of every user are fetched
+	 * (and marked in the neighbors index) only once. The ratings of users with many predictions are fetched once as well.
+	 */
+	@Override
+	public void predictRatings(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions) {
+		int[] order = SortUtils.orderByKey(userIDs, from, to);
+		double[] ratingsBuffer = new double[0];
 		
-		double currHighSim;
-		short currHighId = -1;
-		double currHighRating = HIGH_SIM_DEFAULT;
-		int ratingsIndex;
-
-		boolean finished = false;
-		prediction = 0;
-		short minMovieId, maxMovieId;
-		
-		// Get the k most similar movies or all the movies the user rated rated (in case he didn't rate enough movies).
-		// Instead of sorting the list of movies rated by the user according to their similarity score, we'll iterate the rated movies set k times
-		// and get the most similar movie to the given movieID in every iteration. 
-		while (k > 0 && !finished){
-		
-			currHighSim = HIGH_SIM_DEFAULT;
-			currHighId = -1;
-			currHighRating = -1;
-			finished = true;
-			counter = 0;
+		for (int start = 0; start < order.length;){
+			int userID = userIDs[order[start]];
+			int end = start + 1;
+			
+			while (end < order.length && userIDs[order[end]] == userID){
+				end++;
+			}
 			
-			ratingsIndex = 0;
+			short[] ratedMovies = userModel.getRatedMovies(userID);
+			double[] ratings = null;
 			
-			for (short s : ratedMovies){
-		
-				minMovieId = (short)Math.min(movieID, s);
-				maxMovieId = (short)Math.max(movieID, s);
-				
-				int currRatersNum = commonRatersNum[minMovieId - 1][maxMovieId - minMovieId - 1];
-				currSimScore = similarityModel.getSimilarityScore(movieID, s);
-				
-				// Shrink the similarity according to the number of users rated both movies
-				currSimScore *= (double)currRatersNum / (double)(currRatersNum + alpha);
+			// Fetch all the user's ratings only in case it is cheaper than fetching the neighbors ratings of every prediction
+			if ((end - start) * neighboarsNum >= ratedMovies.length){
+				if (ratingsBuffer.length < ratedMovies.length){
+					ratingsBuffer = new double[ratedMovies.length];
+				}
 				
-				if ((currSimScore > currHighSim) && (!itemSelectedNeighbors.contains(s))){
-					currHighSim = currSimScore;
-					currHighId = s;
-					currHighRating = userModel.getUserRating(ratingsIndex, userID);
+				for (int i = 0; i < ratedMovies.length; i++){
+					ratingsBuffer[i] = userModel.getUserRating(i, userID);
 				}
 				
-				counter++;
-				ratingsIndex++;
-			}				
+				ratings = ratingsBuffer;
+			}
+			
+			if (neighborsIndex != null){
+				neighborsIndex.markRatedMovies(ratedMovies);
+			}
+			
+			for (int i = start; i < end; i++){
+				predictions[order[i]] = predictRating(userID, movieIDs[order[i]], ratedMovies, ratings, order[i]);
+			}
+			
+			start = end;
+		}
+	}
+	
+	/**
+	 * Predicts a rating given the user's rated movies (already marked in the neighbors index, in case there is one).
+	 * 
+	 * @param ratedMovies the movies rated by the user
+	 * @param ratings the ratings the user gave the rated movies, or null in order to get them from the user model
+	 */
+	private double predictRating(int userID, short movieID, short[] ratedMovies, double[] ratings, int probeIndex) {
+		
+		if (neighborsIndex != null){
+			int[] positions = neighborsPositions.get();
+			int found = neighborsIndex.selectMarkedNeighbors(movieID, neighboarsNum, positions);
 			
-			if (currHighSim != HIGH_SIM_DEFAULT){
-				currCorrelation = currHighSim;
-				prediction += currHighRating * currCorrelation;
-				totalCorrelation += Math.abs(currCorrelation);
-				itemSelectedNeighbors.add(currHighId);
-				finished = false;
-				k--;
+			// In case the neighbors list didn't contain enough of the user's movies, the rated movies are scanned
+			if (found == Math.min(neighboarsNum, ratedMovies.length)){
+				return predictRatingFromNeighbors(userID, movieID, ratedMovies, ratings, positions, found, probeIndex);
 			}
 		}
 		
-		prediction = getFinalPrediction(userID, movieID, prediction, totalCorrelation, neighboarsNum - k, probeIndex);
+		TopNSelector selector = neighborsSelectors.get();
+		selector.clear();
 		
-		return prediction;
+		// Get the k most similar movies or all the movies the user rated (in case he didn't rate enough movies).
+		// Movies with equal similarity scores are picked according to their position in the rated movies list.
+		for (int i = 0; i < ratedMovies.length; i++){
+			double currSimScore = getShrunkSimilarity(movieID, ratedMovies[i]);
+			
+			// Movies with an unknown (NaN) or a default similarity score are never picked
+			if (currSimScore > HIGH_SIM_DEFAULT){
+				selector.add(i, currSimScore);
+			}
+		}
+		
+		int found = selector.sort();
+		double prediction = 0;
+		double totalCorrelation = 0;
+		
+		// Sum the neighbors from the most similar to the least similar one
+		for (int i = 0; i < found; i++){
+			double currCorrelation = selector.getScore(i);
+			
+			prediction += getRating(userID, selector.getItem(i), ratings) * currCorrelation;
+			totalCorrelation += Math.abs(currCorrelation);
+		}
+		
+		return getFinalPrediction(userID, movieID, prediction, totalCorrelation, found, probeIndex);
+	}
+	
+	/**
+	 * Calculates a weighted average of the ratings the user gave the given neighbors (picked using the neighbors index) 
+	 * the same way it is done in {@link #predictRating(int, short, int)}.
+	 * 
+	 * @param ratedMovies the movies rated by the user
+	 * @param ratings the ratings the user gave the rated movies, or null in order to get them from the user model
+	 * @param positions the positions of the neighbors in ratedMovies, from the most similar neighbor to the least similar one
+	 * @param neighborsNum the number of neighbors
+	 */
+	private double predictRatingFromNeighbors(int userID, short movieID, short[] ratedMovies, double[] ratings, int[] positions, 
+			int neighborsNum, int probeIndex) {
+		
+		double prediction = 0;
+		double totalCorrelation = 0;
+		int usedNeighborsNum = 0;
+		
+		for (int i = 0; i < neighborsNum; i++){
+			double currSimScore = getShrunkSimilarity(movieID, ratedMovies[positions[i]]);
+			
+			// The same condition used when scanning the rated movies
+			if (!(currSimScore > HIGH_SIM_DEFAULT)){
+				break;
+			}
+			
+			prediction += getRating(userID, positions[i], ratings) * currSimScore;
+			totalCorrelation += Math.abs(currSimScore);
+			usedNeighborsNum++;
+		}
+		
+		return getFinalPrediction(userID, movieID, prediction, totalCorrelation, usedNeighborsNum, probeIndex);
+	}
+	
+	private double getRating(int userID, int position, double[] ratings) {
+		return (ratings != null) ? ratings[position] : userModel.getUserRating(position, userID);
 	}
 	
 	/**
@@ -5,7 +5,7 @@ import java.util.Arrays;
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
-import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.similarity.TriangularMatrix;
 
 /**
  * A KNN predictor class that uses a pre-calculated SVD features in order to create the KNN
@@ -18,23 +18,49 @@ import edu.mta.ok.nworkshop.utils.FileUtils;
  * The approach is explained in section 3.5 in the following abstract: 
  * <a href="http://rainbow.mimuw.edu.pl/~ap/ap_kdd.pdf">Improving regularized singular value decomposition for collaborative filtering</a> 
  * 
+ * The similarity model and the user model are created by the constructor and only read while predicting.
+ * 
  * @see SVDPredictor#getMovieFetures()
  * 
  */
-public class KNNSVDPredictor implements Predictor{
+public class KNNSVDPredictor implements ThreadSafePredictor{
 
 	private SVDPredictor svdPredictor;
 	
-	private double[][] similarityModel = new double[Constants.NUM_MOVIES - 1][];
+	private final TriangularMatrix similarityModel;
 	
-	UserIndexedModel userModel;
+	private final UserIndexedModel userModel;
 	
 	public KNNSVDPredictor(SVDPredictor svdPredictor) {
+		this(svdPredictor, new UserIndexedModelRatings());
+	}
+	
+	/**
+	 * @param svdPredictor a trained SVD predictor whose movie features are used in order to calculate the similarities
+	 * @param userModel the user indexed model holding the ratings the predictions are based on
+	 */
+	public KNNSVDPredictor(SVDPredictor svdPredictor, UserIndexedModel userModel) {
+		this(svdPredictor, userModel, Constants.NETFLIX_OUTPUT_DIR + "KNN/svdSinSimilarity.data");
+	}
+	
+	/**
+	 * @param svdPredictor a trained SVD predictor whose movie features are used in order to calculate the similarities.
+	 * The similarity model holds a row for every movie the predictor has features for
+	 * @param userModel the user indexed model holding the ratings the predictions are based on
+	 * @param similarityFileName the full path of the file the calculated similarity model is saved in, or null in 
+	 * case the model shouldn't be saved
+	 */
+	public KNNSVDPredictor(SVDPredictor svdPredictor, UserIndexedModel userModel, String similarityFileName) {
 		super();
 		this.svdPredictor = svdPredictor;
+		this.userModel = userModel;
+		similarityModel = new TriangularMatrix(svdPredictor.getMovieFetures().length / svdPredictor.getFeaturesNum(), false);
 		
 		calculateSimilarities();
-		saveModel(Constants.NETFLIX_OUTPUT_DIR + "KNN/svdSinSimilarity.data");
+		
+		if (similarityFileName != null){
+			saveModel(similarityFileName);
+		}
 	}
 	
 	/**
@@ -45,14 +71,17 @@ public class KNNSVDPredictor implements Predictor{
 		float[] movieFeatures = svdPredictor.getMovieFetures();
 		int featuresNum = svdPredictor.getFeaturesNum();
 
-		double[] moviesNorms = new double[Constants.NUM_MOVIES];
+		int moviesNum = similarityModel.getSize();
+		double[] moviesNorms = new double[moviesNum];
 		Arrays.fill(moviesNorms, 0);
 		int movie1FeatureStartIndex = 0, movie2FeatureStartIndex = 0, similarityIndex = 0;
+		float[] similarities = similarityModel.getValues();
+		double sum;
 		int movie2Index;
 		long start = System.currentTimeMillis();
 		
 		// Calculate the movies norms
-		for (int i=0; i < Constants.NUM_MOVIES; i++){
+		for (int i=0; i < moviesNum; i++){
 			movie1FeatureStartIndex = i * featuresNum;
 			
 			for (int j = 0; j < featuresNum; j++) {
@@ -67,26 +96,25 @@ public class KNNSVDPredictor implements Predictor{
 		start = System.currentTimeMillis();
 		
 		// Calculate the sin between every two movies
-		for (int i = 0; i < Constants.NUM_MOVIES - 1; i++) {
+		for (int i = 0; i < moviesNum - 1; i++) {
 			movie1FeatureStartIndex = i * featuresNum;
 			movie2FeatureStartIndex = movie1FeatureStartIndex + featuresNum;
 			movie2Index = i + 1;
 			
-			similarityModel[i] = new double[Constants.NUM_MOVIES - i - 1];
-			Arrays.fill(similarityModel[i], 0);
-			
-			similarityIndex = 0;
+			similarityIndex = similarityModel.getRowStart(i);
 			
 			while (movie2FeatureStartIndex < movieFeatures.length){
 				
+				sum = 0;
+				
 				// Multiply the first and the second movies features
 				for (int j = 0; j < featuresNum; j++) {
-					similarityModel[i][similarityIndex] += (movieFeatures[movie1FeatureStartIndex + j] * 
+					sum += (movieFeatures[movie1FeatureStartIndex + j] * 
 							movieFeatures[movie2FeatureStartIndex + j]);
 				}
 				
 				// Calculate the sin between the two movies
-				similarityModel[i][similarityIndex] = (double)similarityModel[i][similarityIndex] / (double)(moviesNorms[i] * moviesNorms[movie2Index]);
+				similarities[similarityIndex] = (float)(sum / (double)(moviesNorms[i] * moviesNorms[movie2Index]));
 		
 				movie2Index++;
 				similarityIndex++;
@@ -107,7 +135,7 @@ public class KNNSVDPredictor implements Predictor{
 	 */
 	private void saveModel(String filename){
 		
-		boolean save = FileUtils.saveDataToFile(similarityModel, filename);
+		boolean save = similarityModel.save(filename);
 		
 		if (save){
 			System.out.println("Sucessfully save the similarity model to a file");
@@ -117,10 +145,6 @@ public class KNNSVDPredictor implements Predictor{
 		}
 	}
 	
-	public void setUserModel(UserIndexedModel userModel) {
-		this.userModel = userModel;
-	}
-
 	@Override
 	public double predictRating(int userID, short movieID, String date, int probeIndex) {	
 		return predictRating(userID, movieID, probeIndex);
@@ -131,21 +155,18 @@ public class KNNSVDPredictor implements Predictor{
 
 		double retVal = 0;
 		
-		if (userModel == null){
-			setUserModel(new UserIndexedModelRatings());
-		}
-		
 		short[] movies = userModel.getRatedMovies(userID);
 		byte[] ratings = (byte[])userModel.getUserRatings(userID);
 		
 		double highSim = -10000;
+		double currSim;
 		
 		// Get the most similar movie that the user rated
 		for (int i = 0; i < movies.length; i++) {
-			short movie = movies[i];
+			currSim = similarityModel.get(movieID - 1, movies[i] - 1);
 
-			if (highSim < similarityModel[Math.min(movieID - 1, movie-1)][Math.max(movieID - 1, movie-1) - Math.min(movieID - 1, movie-1) - 1]){
-				highSim = similarityModel[Math.min(movieID - 1, movie-1)][Math.max(movieID - 1, movie-1) - Math.min(movieID - 1, movie-1) - 1];
+			if (highSim < currSim){
+				highSim = currSim;
 				retVal = ratings[i];
 			}
 		} 
@@ -157,7 +178,6 @@ public class KNNSVDPredictor implements Predictor{
 		KNNSVDPredictor predictor = new KNNSVDPredictor(SVDFeaturePredictor.getPredictor(Constants.NETFLIX_OUTPUT_DIR + 
 				"SVD/SVD-256-features.data"));
 		
-		predictor.setUserModel(new UserIndexedModelRatings());
 		double RMSE = PredictionTester.getProbeError(predictor, Constants.NETFLIX_OUTPUT_DIR + "Predictions/KNNRegularSVD.txt", Constants.NETFLIX_OUTPUT_DIR + Constants.DEFAULT_PROBE_FILE_NAME);
 		
 		System.out.println("RMSE = " + RMSE);
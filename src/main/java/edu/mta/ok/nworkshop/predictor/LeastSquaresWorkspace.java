@@ -0,0 +1,142 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * Reusable buffers used by {@link ALSFeaturePredictor} in order to solve the regularized least squares system of a
+ * single user (or movie) without allocating any memory.
+ *
+ * The system (X'X + lambda * n * I) * w = X'r is accumulated one rating at a time, where every rating adds a row of
+ * features to X and the rating to r, and n is the number of added ratings. Only the upper triangle of X'X is
+ * accumulated, and the system is solved in place using a Cholesky decomposition (the matrix is positive definite as
+ * long as lambda is positive).
+ *
+ * A workspace is sized for a fixed number of features and shouldn't be shared between threads.
+ */
+public class LeastSquaresWorkspace {
+
+	private final int featuresNum;
+	private final double[] a;
+	private final double[] b;
+	private int ratingsNum;
+
+	/**
+	 * @param featuresNum the number of features of the systems
+	 */
+	public LeastSquaresWorkspace(int featuresNum){
+		this.featuresNum = featuresNum;
+		a = new double[featuresNum * featuresNum];
+		b = new double[featuresNum];
+	}
+
+	/**
+	 * Removes all the ratings from the system
+	 */
+	public void clear(){
+		for (int j = 0; j < featuresNum; j++){
+			int rowStart = j * featuresNum;
+
+			for (int l = j; l < featuresNum; l++){
+				a[rowStart + l] = 0;
+			}
+
+			b[j] = 0;
+		}
+
+		ratingsNum = 0;
+	}
+
+	/**
+	 * Adds a rating to the system
+	 *
+	 * @param features an array holding the features of the rated movie (or of the rating user)
+	 * @param start the position of the first feature in the array
+	 * @param rating the rating
+	 */
+	public void addRating(double[] features, int start, double rating){
+		for (int j = 0; j < featuresNum; j++){
+			double feature = features[start + j];
+			int rowStart = j * featuresNum;
+
+			for (int l = j; l < featuresNum; l++){
+				a[rowStart + l] += feature * features[start + l];
+			}
+
+			b[j] += rating * feature;
+		}
+
+		ratingsNum++;
+	}
+
+	/**
+	 * @return the number of ratings added to the system
+	 */
+	public int getRatingsNum(){
+		return ratingsNum;
+	}
+
+	/**
+	 * Solves the system. The accumulated system is overwritten, so {@link #clear()} should be called before adding
+	 * the ratings of the next system.
+	 *
+	 * @param regularization the regularization factor (lambda), multiplied by the number of ratings
+	 * @param weights the array the solution will be written to. In case no rating was added the solution is 0
+	 * @param start the position the solution will be written to in the array
+	 */
+	public void solve(double regularization, double[] weights, int start){
+
+		if (ratingsNum == 0){
+			for (int j = 0; j < featuresNum; j++){
+				weights[start + j] = 0;
+			}
+
+			return;
+		}
+
+		double diagonal = regularization * ratingsNum;
+
+		// Decompose the upper triangle into U'*U (U overwrites the upper triangle)
+		for (int j = 0; j < featuresNum; j++){
+			int rowStart = j * featuresNum;
+			double sum = a[rowStart + j] + diagonal;
+
+			for (int l = 0; l < j; l++){
+				double u = a[l * featuresNum + j];
+				sum -= u * u;
+			}
+
+			double pivot = Math.sqrt(sum);
+			a[rowStart + j] = pivot;
+
+			for (int i = j + 1; i < featuresNum; i++){
+				sum = a[rowStart + i];
+
+				for (int l = 0; l < j; l++){
+					sum -= a[l * featuresNum + j] * a[l * featuresNum + i];
+				}
+
+				a[rowStart + i] = sum / pivot;
+			}
+		}
+
+		// Forward substitution (U'*y = b, y overwrites b) and back substitution (U*w = y)
+		for (int j = 0; j < featuresNum; j++){
+			double sum = b[j];
+
+			for (int l = 0; l < j; l++){
+				sum -= a[l * featuresNum + j] * b[l];
+			}
+
+			b[j] = sum / a[j * featuresNum + j];
+		}
+
+		for (int j = featuresNum - 1; j >= 0; j--){
+			int rowStart = j * featuresNum;
+			double sum = b[j];
+
+			for (int l = j + 1; l < featuresNum; l++){
+				sum -= a[rowStart + l] * weights[start + l];
+			}
+
+			weights[start + j] = sum / a[rowStart + j];
+		}
+	}
+}
@@ -7,17 +7,32 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.RMSECalculator;
 import edu.mta.ok.nworkshop.utils.FileUtils;
 import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
 
 /**
  * An helper class that holds utility methods for calculating a predictor RMSE  
+ * 
+ * Predictors that are marked as thread safe (see {@link ThreadSafePredictor}) are evaluated in parallel, by splitting 
+ * the probe data set into fixed partitions. The squared errors are summed per partition and the partitions sums are 
+ * added in the partitions order, so the RMSE is reproducible. The partitions are predicted by separate batch 
+ * predictions even when a single thread is used, so predictions that depend on the earlier predictions of the 
+ * batch (like the Improved KNN warm start) are the same for any number of threads. The number of threads is set by 
+ * the workshop.threadsNum system property.
  */
 public class PredictionTester {
 
+	/**
+	 * The number of probe predictions in every partition. The partitions are fixed, so the calculated RMSE is the 
+	 * same for any number of threads
+	 */
+	private static final int PARTITION_SIZE = 1 << 15;
+
 	/**
 	 * Calculate prediction RMSE score for predictions loaded from a given text file.
 	 * The RMSE is calculated by comparing the predictions against Netflix probe data set. 
@@ -100,13 +115,81 @@ public class PredictionTester {
 		// Calculate the error based on the probe data
 
 		final int trainingLength = trainingUserIDs.length;
+		final int partitionsNum = (trainingLength + PARTITION_SIZE - 1) / PARTITION_SIZE;
 		
-		double[] predictions = new double[trainingUserIDs.length];
+		final double[] predictions = new double[trainingUserIDs.length];
+		final double[] partitionErrors = new double[partitionsNum];
+		final Predictor predictor = predictionClass;
+		final int[] userIDs = trainingUserIDs;
+		final short[] movieIDs = trainingMoviesIDs;
+		final byte[] ratings = trainingRatings;
+		final AtomicInteger finishedNum = new AtomicInteger();
+		
+		ParallelUtils.RangeTask partitionsTask = new ParallelUtils.RangeTask() {
+			
+			@Override
+			public void run(int from, int to) {
+				for (int p = from; p < to; p++){
+					int start = p * PARTITION_SIZE;
+					int end = Math.min(start + PARTITION_SIZE, trainingLength);
+					
+					predictor.predictRatings(userIDs, movieIDs, start, end, predictions);
+					partitionErrors[p] = clipAndSumErrors(predictions, ratings, start, end);
+					
+					System.out.println("Finished " + finishedNum.addAndGet(end - start) + " predictions");
+				}
+			}
+		};
+		
+		// Thread safe predictors predict the partitions in parallel (one partition at a time in case of a single thread). 
+		// Other predictors predict all the ratings in a single batch, so the predictor can group all the predictions by their users
+		if (predictionClass instanceof ThreadSafePredictor){
+			System.out.println("Start predicting " + trainingLength + " ratings using " + ParallelUtils.getThreadsNum() + " threads");
+			ParallelUtils.forEachRange(0, partitionsNum, 1, partitionsTask);
+		}
+		else{
+			System.out.println("Start predicting " + trainingLength + " ratings");
+			predictionClass.predictRatings(trainingUserIDs, trainingMoviesIDs, 0, trainingLength, predictions);
+			
+			for (int p = 0; p < partitionsNum; p++){
+				int start = p * PARTITION_SIZE;
+				partitionErrors[p] = clipAndSumErrors(predictions, trainingRatings, start, Math.min(start + PARTITION_SIZE, trainingLength));
+			}
+		}
+		
+		System.out.println("Finished predicting " + trainingLength + " ratings");
+		
+		// Sum the partitions errors in a fixed order, so the RMSE doesn't depend on the number of threads
 		RMSECalculator rmseCalc = new RMSECalculator();
-
-		for (int i = 0; i < trainingLength; i++) {
-			double guess = predictionClass.predictRating(trainingUserIDs[i],
-					trainingMoviesIDs[i], i);
+		
+		for (int p = 0; p < partitionsNum; p++){
+			int start = p * PARTITION_SIZE;
+			rmseCalc.addErrorSum(partitionErrors[p], Math.min(start + PARTITION_SIZE, trainingLength) - start);
+		}
+		
+		if (fileName != null && !fileName.isEmpty()){
+			savePredictionsToFile(fileName, predictions);
+		}
+		
+		System.out.println("RMSE = " + rmseCalc.getFinalScore());
+		
+		return rmseCalc.getFinalScore();
+	}
+	
+	/**
+	 * Clips the predictions in the given range to the ratings range and sums their squared errors.
+	 * 
+	 * @param predictions the predictions array, the clipped predictions are set back into it
+	 * @param ratings the real ratings
+	 * @param from the first prediction in the range (inclusive)
+	 * @param to the last prediction in the range (exclusive)
+	 * @return the sum of the squared errors of the clipped predictions in the range
+	 */
+	private static double clipAndSumErrors(double[] predictions, byte[] ratings, int from, int to){
+		double retVal = 0;
+		
+		for (int i = from; i < to; i++) {
+			double guess = predictions[i];
 
 			// Clip the prediction value
 			if (guess > 5){
@@ -117,21 +200,11 @@ public class PredictionTester {
 				guess = 1;
 			}
 			
-			rmseCalc.addErrorElement(guess, trainingRatings[i]);
+			retVal += Math.pow((guess - ratings[i]), 2);
 			predictions[i] = guess;
-			
-			if (i % 100000 == 0 && i > 0){
-				System.out.println("Finished " + i + " predictions");
-			}
-		}
-		
-		if (fileName != null && !fileName.isEmpty()){
-			savePredictionsToFile(fileName, predictions);
 		}
 		
-		System.out.println("RMSE = " + rmseCalc.getFinalScore());
-		
-		return rmseCalc.getFinalScore();
+		return retVal;
 	}
 	
 	/**
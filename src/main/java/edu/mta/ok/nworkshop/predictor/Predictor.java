@@ -28,4 +28,22 @@ public interface Predictor {
 	 */
 	public double predictRating(int userID, short movieID, String date, int probeIndex);
 	
+	/**
+	 * Predicts the ratings of a batch of user/movie pairs held in two parallel arrays.
+	 * The probe index of every pair is its index in the arrays, so the arrays are usually the probe data set arrays.
+	 * 
+	 * The default implementation calls {@link #predictRating(int, short, int)} for every pair. Predictors that repeat 
+	 * per user work on every prediction should override the method, and group the pairs by their users.  
+	 * 
+	 * @param userIDs the ids of the users of every pair
+	 * @param movieIDs the ids of the movies of every pair
+	 * @param from the index of the first pair to predict (inclusive)
+	 * @param to the index of the last pair to predict (exclusive)
+	 * @param predictions an array the predictions will be set in, in the same indices as the pairs
+	 */
+	public default void predictRatings(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions){
+		for (int i = from; i < to; i++){
+			predictions[i] = predictRating(userIDs[i], movieIDs[i], i);
+		}
+	}
 }
@@ -0,0 +1,199 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+
+/**
+ * Measures the latency and the allocation rate of a predictor's single rating predictions.
+ * The main method measures the KNN and the Improved KNN predictors, with and without a neighbors index, and compares
+ * the Improved KNN predictions against the original allocating implementation (see {@link ImprovedKNNReferencePredictor}).
+ * When it's given the "synthetic" argument it only measures an Improved KNN predictor built over the synthetic models
+ * of {@link PredictorConcurrencyCheck}, so it runs without the Netflix data set.
+ *
+ * The predictions are run on the calling thread over a prefix of the probe data set, once in order to warm up the
+ * JVM and once more while measuring. The allocated memory is read from the JVM's per thread allocation counter
+ * (com.sun.management.ThreadMXBean), so it is only reported on JVMs that support it.
+ */
+public class PredictorBenchmark {
+
+	private static final int DEFAULT_PREDICTIONS_NUM = 100000;
+
+	/**
+	 * Runs the given predictor on the given pairs and prints the average time and allocated memory of a prediction.
+	 *
+	 * @param name the name the results will be printed with
+	 * @param predictor the predictor being measured
+	 * @param userIDs the ids of the users of every prediction
+	 * @param movieIDs the ids of the movies of every prediction
+	 * @param predictionsNum the number of predictions to run (the pairs are taken from the beginning of the arrays)
+	 * @param predictions an array the measured predictions are saved in, or null
+	 * @return the average time of a prediction in nanoseconds, and the average number of bytes allocated by a 
+	 * prediction, or -1 in case the JVM doesn't count allocations
+	 */
+	public static double[] benchmark(String name, Predictor predictor, int[] userIDs, short[] movieIDs, int predictionsNum, 
+			double[] predictions){
+		predictionsNum = Math.min(predictionsNum, userIDs.length);
+
+		// Warm up
+		runPredictions(predictor, userIDs, movieIDs, predictionsNum, null);
+
+		long startBytes = getAllocatedBytes();
+		long start = System.nanoTime();
+		double checksum = runPredictions(predictor, userIDs, movieIDs, predictionsNum, predictions);
+		long time = System.nanoTime() - start;
+		long endBytes = getAllocatedBytes();
+
+		double bytesPerPrediction = (startBytes < 0 || endBytes < 0) ? -1 : (endBytes - startBytes) / (double)predictionsNum;
+
+		System.out.println(name + ": " + predictionsNum + " predictions took " + (time / 1000000) + " ms, " +
+				(time / predictionsNum) + " ns per prediction, " +
+				((bytesPerPrediction < 0) ? "allocations not supported" : String.format("%.2f", bytesPerPrediction) + " bytes allocated per prediction") +
+				" (checksum " + checksum + ")");
+
+		return new double[]{time / (double)predictionsNum, bytesPerPrediction};
+	}
+
+	public static double[] benchmark(String name, Predictor predictor, int[] userIDs, short[] movieIDs, int predictionsNum){
+		return benchmark(name, predictor, userIDs, movieIDs, predictionsNum, null);
+	}
+
+	private static double runPredictions(Predictor predictor, int[] userIDs, short[] movieIDs, int predictionsNum, double[] predictions){
+		double retVal = 0;
+
+		for (int i = 0; i < predictionsNum; i++){
+			double prediction = predictor.predictRating(userIDs[i], movieIDs[i], i);
+			
+			if (predictions != null){
+				predictions[i] = prediction;
+			}
+			
+			retVal += prediction;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Measures an Improved KNN predictor (without its neighbors index) and the original implementation of the
+	 * predictions over the same models, and prints how much faster the predictor is, how much less it allocates and
+	 * how much its predictions differ. Random predictions (of users without neighbors) aren't compared.
+	 *
+	 * @param name the name the results will be printed with
+	 * @param predictor the predictor being measured
+	 * @param userIDs the ids of the users of every prediction
+	 * @param movieIDs the ids of the movies of every prediction
+	 * @param predictionsNum the number of predictions to run (the pairs are taken from the beginning of the arrays)
+	 * @return the biggest difference between a prediction of the predictor and of the original implementation
+	 */
+	public static double compareWithReference(String name, ImprovedKNNPredictorAbstract predictor, int[] userIDs, short[] movieIDs, 
+			int predictionsNum){
+		predictionsNum = Math.min(predictionsNum, userIDs.length);
+
+		Predictor reference = new ImprovedKNNReferencePredictor(predictor);
+		double[] referencePredictions = new double[predictionsNum];
+		double[] repeatedPredictions = new double[predictionsNum];
+		double[] predictions = new double[predictionsNum];
+
+		double[] referenceResults = benchmark(name + " (original implementation)", reference, userIDs, movieIDs, predictionsNum, 
+				referencePredictions);
+		runPredictions(reference, userIDs, movieIDs, predictionsNum, repeatedPredictions);
+		double[] results = benchmark(name + " (interpolation workspace)", predictor, userIDs, movieIDs, predictionsNum, predictions);
+
+		double maxDiff = 0;
+		int differentNum = 0;
+		int comparedNum = 0;
+
+		for (int i = 0; i < predictionsNum; i++){
+			// A prediction that changes between two runs of the original implementation is a random prediction
+			if (referencePredictions[i] != repeatedPredictions[i]){
+				continue;
+			}
+
+			comparedNum++;
+
+			if (Double.doubleToLongBits(referencePredictions[i]) != Double.doubleToLongBits(predictions[i])){
+				differentNum++;
+				maxDiff = Math.max(maxDiff, Math.abs(referencePredictions[i] - predictions[i]));
+			}
+		}
+
+		System.out.println(name + ": " + String.format("%.2f", referenceResults[0] / results[0]) + " times faster than the original implementation" + 
+				((referenceResults[1] < 0 || results[1] < 0) ? "" : 
+					", allocates " + String.format("%.2f", referenceResults[1]) + " -> " + String.format("%.2f", results[1]) + " bytes per prediction") + 
+				", " + differentNum + " of " + comparedNum + " compared predictions differ" + 
+				((differentNum > 0) ? " (max difference " + maxDiff + ")" : ""));
+
+		return maxDiff;
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far, or -1 in case the JVM doesn't count allocations
+	 */
+	private static long getAllocatedBytes(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()){
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Arguments: [synthetic]
+	 */
+	public static void main(String[] args) {
+		
+		if (args.length > 0 && args[0].equals("synthetic")){
+			Random random = new Random(PredictorConcurrencyCheck.SYNTHETIC_SEED);
+			UserIndexedModelCSR userModel = PredictorConcurrencyCheck.createSyntheticUserModel(random);
+			Object[] pairs = PredictorConcurrencyCheck.createSyntheticPairs(userModel, random, PredictorConcurrencyCheck.SYNTHETIC_PREDICTIONS_NUM);
+			ImprovedKNNPredictorAbstract predictor = PredictorConcurrencyCheck.createSyntheticImprovedKNN(userModel, 
+					PredictorConcurrencyCheck.createSyntheticFeatures(random));
+			
+			compareWithReference("Synthetic Improved KNN", predictor, (int[])pairs[0], (short[])pairs[1], 
+					PredictorConcurrencyCheck.SYNTHETIC_PREDICTIONS_NUM);
+			return;
+		}
+		
+		Object[] data = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + Constants.DEFAULT_PROBE_FILE_NAME);
+		int[] userIDs = (int[])data[0];
+		short[] movieIDs = (short[])data[1];
+		data = null;
+
+		int neighboarsNum = 50;
+		KNNPredictor knnPredictor = new KNNPredictor(neighboarsNum);
+		System.out.println("Finished creating KNNPredictor");
+
+		if (knnPredictor.neighborsIndex != null){
+			benchmark("KNN (neighbors index)", knnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM);
+			knnPredictor.setNeighborsIndex(null);
+		}
+
+		benchmark("KNN (rated movies scan)", knnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM);
+		knnPredictor = null;
+		
+		ImprovedKNNPredictionResiduals improvedKnnPredictor = new ImprovedKNNPredictionResiduals(30);
+		System.out.println("Finished creating ImprovedKNNPredictionResiduals");
+		
+		if (improvedKnnPredictor.neighborsIndex != null){
+			benchmark("Improved KNN (neighbors index)", improvedKnnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM);
+			improvedKnnPredictor.setNeighborsIndex(null);
+		}
+		
+		compareWithReference("Improved KNN (rated movies scan)", improvedKnnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM);
+		
+		System.out.println("Improved KNN solver: " + improvedKnnPredictor.getSolvesNum() + " systems solved, " + 
+				String.format("%.2f", improvedKnnPredictor.getSolverIterationsNum() / (double)Math.max(1, improvedKnnPredictor.getSolvesNum())) + 
+				" iterations per system, " + improvedKnnPredictor.getExhaustedSolvesNum() + " systems exhausted the iterations budget");
+	}
+}
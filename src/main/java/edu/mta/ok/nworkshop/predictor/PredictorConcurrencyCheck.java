@@ -0,0 +1,542 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
+import edu.mta.ok.nworkshop.model.UserIndexedModel;
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
+import edu.mta.ok.nworkshop.similarity.SimilarityCalculator;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+import edu.mta.ok.nworkshop.utils.UserIndexMap;
+
+/**
+ * Stress checks the thread safety of a predictor (see {@link ThreadSafePredictor}).
+ * 
+ * The main method runs without the Netflix data set: it reads the predictors properties from several threads at the
+ * same time (the first threads to use {@link PredictorProperties}), and checks an Improved KNN predictor (see
+ * {@link ImprovedKNNPredictorAbstract}) and a {@link KNNSVDPredictor} built over small synthetic in-memory models.
+ * When it's given the "dataset" argument it also checks the KNN and the Improved KNN predictors loaded from the
+ * binary files directory, on the probe pairs. The check fails (with an IllegalStateException) in case a concurrent
+ * result differs from the serial one.
+ *
+ * A single loaded predictor is shared by more threads than there are cores. Every thread predicts all the checked
+ * pairs in fixed batches, starting from a different batch. The even batches are predicted by batch predictions (see
+ * {@link Predictor#predictRatings(int[], short[], int, int, double[])}) and the odd batches by single predictions.
+ * The predictions of every thread are compared bit by bit against predictions made serially on the calling thread,
+ * batch by batch in the same way.
+ *
+ * Predictions that differ between two serial runs (like a random fallback prediction) aren't deterministic and
+ * aren't compared. The predictors are checked with the settings of the properties file, so the Improved KNN
+ * predictions of a batch may start from the weights of the previous prediction of the same movie in the batch
+ * (improvedKNN.solverWarmStart), and they shouldn't depend on the batches the thread predicted before.
+ */
+public class PredictorConcurrencyCheck {
+
+	private static final int DEFAULT_PREDICTIONS_NUM = 100000;
+	private static final int BATCH_SIZE = 256;
+	
+	// The sizes of the synthetic models. The users ids are spread (see getSyntheticUserId) so the user indices map is used
+	private static final int SYNTHETIC_USERS_NUM = 2000;
+	private static final int SYNTHETIC_MOVIES_NUM = 500;
+	private static final int SYNTHETIC_FEATURES_NUM = 8;
+	private static final int SYNTHETIC_MIN_RATINGS_NUM = 5;
+	private static final int SYNTHETIC_MAX_RATINGS_NUM = 150;
+	static final int SYNTHETIC_PREDICTIONS_NUM = 20000;
+	static final long SYNTHETIC_SEED = 1234;
+	
+	// The number of times every thread reads all the properties
+	private static final int PROPERTIES_ROUNDS_NUM = 200;
+
+	/**
+	 * Predicts the given pairs from several threads at the same time and compares the predictions against serial ones.
+	 *
+	 * @param name the name the results will be printed with
+	 * @param predictor the predictor being checked
+	 * @param userIDs the ids of the users of every prediction
+	 * @param movieIDs the ids of the movies of every prediction
+	 * @param predictionsNum the number of predictions every thread runs (the pairs are taken from the beginning of the arrays)
+	 * @param threadsNum the number of threads predicting at the same time
+	 * @return the number of predictions that differ from the serial predictions
+	 */
+	public static long check(String name, final Predictor predictor, final int[] userIDs, final short[] movieIDs,
+			int predictionsNum, int threadsNum){
+
+		final int num = Math.min(predictionsNum, userIDs.length);
+
+		final int batchesNum = (num + BATCH_SIZE - 1) / BATCH_SIZE;
+
+		double[] expected = new double[num];
+		double[] repeated = new double[num];
+
+		for (int batch = 0; batch < batchesNum; batch++){
+			predictBatch(predictor, userIDs, movieIDs, batch, num, expected);
+		}
+
+		for (int batch = batchesNum - 1; batch >= 0; batch--){
+			predictBatch(predictor, userIDs, movieIDs, batch, num, repeated);
+		}
+
+		final boolean[] deterministic = new boolean[num];
+		int deterministicNum = 0;
+
+		for (int i = 0; i < num; i++){
+			deterministic[i] = Double.doubleToLongBits(expected[i]) == Double.doubleToLongBits(repeated[i]);
+
+			if (deterministic[i]){
+				deterministicNum++;
+			}
+		}
+
+		repeated = null;
+
+		final double[][] predictions = new double[threadsNum][num];
+		final Throwable[] errors = new Throwable[threadsNum];
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadsNum];
+
+		for (int t = 0; t < threadsNum; t++){
+			final int threadInd = t;
+			final int firstBatch = (int)((long)batchesNum * t / threadsNum);
+
+			threads[t] = new Thread(name + " check " + t){
+				@Override
+				public void run() {
+					try{
+						startSignal.await();
+
+						double[] threadPredictions = predictions[threadInd];
+
+						// Walk over all the batches starting from the thread's first batch
+						for (int j = 0; j < batchesNum; j++){
+							predictBatch(predictor, userIDs, movieIDs, (firstBatch + j) % batchesNum, num, threadPredictions);
+						}
+					}
+					catch (Throwable e){
+						errors[threadInd] = e;
+					}
+				}
+			};
+
+			threads[t].start();
+		}
+
+		long start = System.nanoTime();
+		startSignal.countDown();
+
+		for (Thread currThread : threads){
+			try {
+				currThread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		long time = System.nanoTime() - start;
+		long mismatchesNum = 0;
+		double maxDiff = 0;
+
+		for (int t = 0; t < threadsNum; t++){
+			if (errors[t] != null){
+				System.err.println(name + ": thread " + t + " failed");
+				errors[t].printStackTrace();
+				mismatchesNum += num;
+				continue;
+			}
+
+			for (int i = 0; i < num; i++){
+				if (deterministic[i] && Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(predictions[t][i])){
+					mismatchesNum++;
+					maxDiff = Math.max(maxDiff, Math.abs(expected[i] - predictions[t][i]));
+				}
+			}
+		}
+
+		System.out.println(name + ": " + threadsNum + " threads ran " + num + " predictions each in " + (time / 1000000) + " ms, " +
+				mismatchesNum + " predictions differ from the serial predictions" +
+				((mismatchesNum > 0) ? " (max difference " + maxDiff + ")" : "") +
+				", " + (num - deterministicNum) + " non deterministic predictions weren't compared");
+
+		return mismatchesNum;
+	}
+
+	/**
+	 * Predicts a single batch of pairs, by a batch prediction in case it's an even batch or by single predictions otherwise
+	 */
+	private static void predictBatch(Predictor predictor, int[] userIDs, short[] movieIDs, int batch, int num, double[] predictions){
+		int from = batch * BATCH_SIZE;
+		int to = Math.min(from + BATCH_SIZE, num);
+
+		if (batch % 2 == 0){
+			predictor.predictRatings(userIDs, movieIDs, from, to, predictions);
+		}
+		else{
+			for (int i = from; i < to; i++){
+				predictions[i] = predictor.predictRating(userIDs[i], movieIDs[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Reads every property of every predictor from several threads at the same time, starting together before the
+	 * properties are used by the calling thread, and compares the values against values read serially afterwards.
+	 * 
+	 * @param threadsNum the number of threads reading the properties at the same time
+	 * @return the number of reads that returned another instance or another value than the serial read
+	 */
+	public static long checkProperties(int threadsNum){
+		
+		final Predictors[] predictors = Predictors.values();
+		final PropertyKeys[] keys = PropertyKeys.values();
+		final long[] mismatches = new long[threadsNum];
+		final PredictorProperties[] instances = new PredictorProperties[threadsNum];
+		final String[][] values = new String[threadsNum][];
+		final Throwable[] errors = new Throwable[threadsNum];
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadsNum];
+		
+		for (int t = 0; t < threadsNum; t++){
+			final int threadInd = t;
+			
+			threads[t] = new Thread("properties check " + t){
+				@Override
+				public void run() {
+					try{
+						startSignal.await();
+						
+						instances[threadInd] = PredictorProperties.getInstance();
+						values[threadInd] = readProperties(instances[threadInd], predictors, keys);
+						
+						// Every other round has to read the same instance and values as the first one
+						for (int round = 1; round < PROPERTIES_ROUNDS_NUM; round++){
+							PredictorProperties instance = PredictorProperties.getInstance();
+							
+							if (instance != instances[threadInd] || 
+									!Arrays.equals(readProperties(instance, predictors, keys), values[threadInd])){
+								mismatches[threadInd]++;
+							}
+						}
+					}
+					catch (Throwable e){
+						errors[threadInd] = e;
+					}
+				}
+			};
+			
+			threads[t].start();
+		}
+		
+		startSignal.countDown();
+		
+		for (Thread currThread : threads){
+			try {
+				currThread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		PredictorProperties expectedInstance = PredictorProperties.getInstance();
+		String[] expected = readProperties(expectedInstance, predictors, keys);
+		long mismatchesNum = 0;
+		
+		for (int t = 0; t < threadsNum; t++){
+			if (errors[t] != null){
+				System.err.println("Properties: thread " + t + " failed");
+				errors[t].printStackTrace();
+				mismatchesNum += PROPERTIES_ROUNDS_NUM;
+				continue;
+			}
+			
+			mismatchesNum += mismatches[t];
+			
+			if (instances[t] != expectedInstance || !Arrays.equals(values[t], expected)){
+				mismatchesNum++;
+			}
+		}
+		
+		System.out.println("Properties: " + threadsNum + " threads read " + expected.length + " properties " + 
+				PROPERTIES_ROUNDS_NUM + " times each, " + mismatchesNum + " reads differ from the serial read");
+		
+		return mismatchesNum;
+	}
+	
+	/**
+	 * @return the values of all the given properties of all the given predictors (null for a missing property)
+	 */
+	private static String[] readProperties(PredictorProperties properties, Predictors[] predictors, PropertyKeys[] keys){
+		String[] retVal = new String[predictors.length * keys.length];
+		
+		for (int i = 0; i < predictors.length; i++){
+			for (int j = 0; j < keys.length; j++){
+				retVal[i * keys.length + j] = properties.getPredictorStringProperty(predictors[i], keys[j]);
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Creates a user indexed model in which every user rated a random number of distinct random movies (sorted by
+	 * the movie id). The user ids are spread over a range larger than the number of users.
+	 * 
+	 * @param random the random generator the model is created with
+	 * @return the synthetic model
+	 */
+	static UserIndexedModelCSR createSyntheticUserModel(Random random){
+		int[] userIds = new int[SYNTHETIC_USERS_NUM];
+		int[] offsets = new int[SYNTHETIC_USERS_NUM + 1];
+		short[][] userMovies = new short[SYNTHETIC_USERS_NUM][];
+		boolean[] rated = new boolean[SYNTHETIC_MOVIES_NUM + 1];
+		
+		for (int i = 0; i < SYNTHETIC_USERS_NUM; i++){
+			userIds[i] = getSyntheticUserId(i);
+			
+			int ratingsNum = SYNTHETIC_MIN_RATINGS_NUM + random.nextInt(SYNTHETIC_MAX_RATINGS_NUM - SYNTHETIC_MIN_RATINGS_NUM + 1);
+			short[] movies = new short[ratingsNum];
+			Arrays.fill(rated, false);
+			
+			for (int j = 0; j < ratingsNum; j++){
+				short movieId;
+				
+				do {
+					movieId = (short)(random.nextInt(SYNTHETIC_MOVIES_NUM) + 1);
+				} while (rated[movieId]);
+				
+				rated[movieId] = true;
+				movies[j] = movieId;
+			}
+			
+			Arrays.sort(movies);
+			userMovies[i] = movies;
+			offsets[i + 1] = offsets[i] + ratingsNum;
+		}
+		
+		short[] movieIds = new short[offsets[SYNTHETIC_USERS_NUM]];
+		byte[] ratings = new byte[movieIds.length];
+		
+		for (int i = 0; i < SYNTHETIC_USERS_NUM; i++){
+			System.arraycopy(userMovies[i], 0, movieIds, offsets[i], userMovies[i].length);
+		}
+		
+		for (int i = 0; i < ratings.length; i++){
+			ratings[i] = (byte)(random.nextInt(5) + 1);
+		}
+		
+		return new UserIndexedModelCSR(offsets, movieIds, ratings, null, new UserIndexMap(userIds));
+	}
+	
+	/**
+	 * @param userIndex the index of a user in the synthetic user model
+	 * @return the id of the user
+	 */
+	private static int getSyntheticUserId(int userIndex){
+		return 7 + userIndex * 13;
+	}
+	
+	/**
+	 * Creates random pairs of users of the given model and movies the users didn't rate.
+	 * 
+	 * @return an array holding the users ids (int[]) and the movies ids (short[]) of the pairs
+	 */
+	static Object[] createSyntheticPairs(UserIndexedModelCSR model, Random random, int pairsNum){
+		int[] userIDs = new int[pairsNum];
+		short[] movieIDs = new short[pairsNum];
+		
+		for (int i = 0; i < pairsNum; i++){
+			int userIndex = random.nextInt(SYNTHETIC_USERS_NUM);
+			short[] ratedMovies = model.getRatedMoviesByIndex(userIndex);
+			short movieId;
+			
+			do {
+				movieId = (short)(random.nextInt(SYNTHETIC_MOVIES_NUM) + 1);
+			} while (Arrays.binarySearch(ratedMovies, movieId) >= 0);
+			
+			userIDs[i] = getSyntheticUserId(userIndex);
+			movieIDs[i] = movieId;
+		}
+		
+		return new Object[]{userIDs, movieIDs};
+	}
+	
+	/**
+	 * @return random features for every synthetic movie
+	 */
+	static float[] createSyntheticFeatures(Random random){
+		float[] retVal = new float[SYNTHETIC_MOVIES_NUM * SYNTHETIC_FEATURES_NUM];
+		
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = (float)(random.nextGaussian() * 0.3);
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * @return the dot product of the features of the given movies (ids starting from 1)
+	 */
+	private static double dotProduct(float[] movieFeatures, int movie1, int movie2){
+		double sum = 0;
+		
+		for (int k = 0; k < SYNTHETIC_FEATURES_NUM; k++){
+			sum += movieFeatures[(movie1 - 1) * SYNTHETIC_FEATURES_NUM + k] * movieFeatures[(movie2 - 1) * SYNTHETIC_FEATURES_NUM + k];
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Creates an Improved KNN predictor whose similarity scores are the cosine similarity of the given movie features
+	 * and whose interpolation values are their dot products (plus one on the diagonal), so every interpolation system
+	 * is positive definite. The predictor doesn't use the configured neighbors index.
+	 */
+	static ImprovedKNNPredictorAbstract createSyntheticImprovedKNN(final UserIndexedModel userModel, final float[] movieFeatures){
+		
+		SimilarityCalculator similarities = new SimilarityCalculator(){
+			@Override
+			public void calculateSimilarities() {
+			}
+			
+			@Override
+			public boolean saveCalculatedData(String fileName) {
+				return false;
+			}
+			
+			@Override
+			public double getSimilarityScore(int firstItemId, int secondItemId) {
+				return dotProduct(movieFeatures, firstItemId, secondItemId) / 
+						Math.sqrt(dotProduct(movieFeatures, firstItemId, firstItemId) * dotProduct(movieFeatures, secondItemId, secondItemId));
+			}
+		};
+		
+		ImprovedKNNPredictorAbstract retVal = new ImprovedKNNPredictorAbstract(similarities, userModel, 
+				ImprovedKNNPredictorAbstract.DEFAULT_ALPHA, ImprovedKNNPredictorAbstract.DEFAULT_NEIGHBOARS_NUM){
+			@Override
+			protected void initNeighborsIndex() {
+			}
+			
+			@Override
+			protected double getRatingValue(int userID, int position) {
+				return this.userModel.getUserRating(position, userID);
+			}
+			
+			@Override
+			protected double getFinalPrediction(double currPrediction, int probeIndex) {
+				return currPrediction;
+			}
+		};
+		
+		double[][] interpolationVals = new double[SYNTHETIC_MOVIES_NUM][];
+		
+		for (int i = 0; i < SYNTHETIC_MOVIES_NUM; i++){
+			interpolationVals[i] = new double[SYNTHETIC_MOVIES_NUM - i];
+			
+			for (int j = i; j < SYNTHETIC_MOVIES_NUM; j++){
+				interpolationVals[i][j - i] = dotProduct(movieFeatures, i + 1, j + 1) + ((i == j) ? 1 : 0);
+			}
+		}
+		
+		retVal.interpolationVals = interpolationVals;
+		
+		return retVal;
+	}
+	
+	/**
+	 * Runs the dataset free checks: the properties, and an Improved KNN predictor and a KNN SVD predictor built over
+	 * synthetic models
+	 * 
+	 * @param threadsNum the number of threads running at the same time
+	 * @return the number of results that differ from the serial results
+	 */
+	public static long checkSynthetic(int threadsNum){
+		
+		// The properties are checked first, so their threads are the first to use them
+		long mismatchesNum = checkProperties(threadsNum);
+		
+		Random random = new Random(SYNTHETIC_SEED);
+		UserIndexedModelCSR userModel = createSyntheticUserModel(random);
+		Object[] pairs = createSyntheticPairs(userModel, random, SYNTHETIC_PREDICTIONS_NUM);
+		int[] userIDs = (int[])pairs[0];
+		short[] movieIDs = (short[])pairs[1];
+		
+		final float[] movieFeatures = createSyntheticFeatures(random);
+		
+		System.out.println("Created synthetic models of " + SYNTHETIC_USERS_NUM + " users, " + SYNTHETIC_MOVIES_NUM + 
+				" movies and " + userModel.getRatingsNum() + " ratings");
+		
+		mismatchesNum += check("Synthetic Improved KNN", createSyntheticImprovedKNN(userModel, movieFeatures), userIDs, movieIDs, 
+				SYNTHETIC_PREDICTIONS_NUM, threadsNum);
+		
+		SVDPredictor svdPredictor = new SVDPredictor(){
+			@Override
+			public int getFeaturesNum() {
+				return SYNTHETIC_FEATURES_NUM;
+			}
+			
+			@Override
+			public float[] getMovieFetures() {
+				return movieFeatures;
+			}
+			
+			@Override
+			public float[] getUserFeatures() {
+				return null;
+			}
+		};
+		
+		mismatchesNum += check("Synthetic KNN SVD", new KNNSVDPredictor(svdPredictor, userModel, null), userIDs, movieIDs, 
+				SYNTHETIC_PREDICTIONS_NUM, threadsNum);
+		
+		return mismatchesNum;
+	}
+	
+	/**
+	 * Runs the checks on the KNN and the Improved KNN predictors loaded from the binary files directory
+	 * 
+	 * @param threadsNum the number of threads predicting at the same time
+	 * @return the number of predictions that differ from the serial predictions
+	 */
+	public static long checkDataset(int threadsNum){
+		Object[] data = ModelUtils.loadProbeData(Constants.NETFLIX_OUTPUT_DIR + Constants.DEFAULT_PROBE_FILE_NAME);
+		int[] userIDs = (int[])data[0];
+		short[] movieIDs = (short[])data[1];
+		data = null;
+
+		long mismatchesNum = 0;
+
+		KNNPredictor knnPredictor = new KNNPredictor(50);
+		System.out.println("Finished creating KNNPredictor");
+		mismatchesNum += check("KNN", knnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM, threadsNum);
+		knnPredictor = null;
+
+		ImprovedKNNPredictionResiduals improvedKnnPredictor = new ImprovedKNNPredictionResiduals(30);
+		System.out.println("Finished creating ImprovedKNNPredictionResiduals");
+		mismatchesNum += check("Improved KNN", improvedKnnPredictor, userIDs, movieIDs, DEFAULT_PREDICTIONS_NUM, threadsNum);
+		
+		return mismatchesNum;
+	}
+
+	/**
+	 * Arguments: [dataset]
+	 */
+	public static void main(String[] args) {
+		int threadsNum = Math.max(4, 2 * ParallelUtils.getThreadsNum());
+		
+		long mismatchesNum = checkSynthetic(threadsNum);
+		
+		if (args.length > 0 && args[0].equals("dataset")){
+			mismatchesNum += checkDataset(threadsNum);
+		}
+
+		if (mismatchesNum > 0){
+			throw new IllegalStateException("Found " + mismatchesNum + " concurrent results that differ from the serial results");
+		}
+		
+		System.out.println("All the concurrent results match the serial results");
+	}
+}
@@ -0,0 +1,128 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * Solves the interpolation system using the projected gradient method suggested in the Bellkor abstract.
+ * This is a java implementation of a c code taken from <a href="http://code.google.com/p/nprize/source/browse/trunk/basic.c">nPrize Project</a>
+ *
+ * Every iteration costs O(k^2), and the solver stops once the squared norm of the projected residual drops below a
+ * fixed threshold. Ill conditioned systems may take thousands of iterations, in which case the iterations budget
+ * stops the solver ("Divergence").
+ */
+public class ProjectedGradientSolver implements InterpolationSolver {
+
+	private static final double NON_NEGATIVE_STOP_VAL = 0.00005;
+	private static final double EPS = (1.e-20);
+	private static final double INF = (1.e20);
+
+	private final double[] wValues;
+	private final double[] r;
+
+	private boolean lastSolveExhausted;
+
+	/**
+	 * @param capacity the maximal number of neighbors of a system
+	 */
+	public ProjectedGradientSolver(int capacity){
+		wValues = new double[capacity];
+		r = new double[capacity];
+	}
+
+	@Override
+	public int solve(double[] a, double[] b, int k, double[] weights, boolean warmStart, int maxIterations) {
+		double bestrr = INF, rr = 0;
+		int i, j;
+		boolean divergence = false;
+		int iterationsNum = 0;
+
+		// Initial guess
+		for (i = 0; i < k; i++){
+			wValues[i] = warmStart ? weights[i] : (double)1 / k;
+			weights[i] = 0;
+		}
+
+		do{
+			for (i = 0; i < k; i++){
+				double sum = 0.;
+				int rowStart = i * k;
+
+				for (j = 0; j < k; j++){
+					sum += a[rowStart + j] * wValues[j];
+				}
+
+				r[i] = b[i] - sum; //http://www.netflixprize.com/community/viewtopic.php?pid=6025#p6025
+			}
+
+			// find active variables - those that are pinned because of
+			// nonnegativity constraint, and set respective ri's to zero
+			for (i = 0; i < k; i++){
+				if ((wValues[i] < EPS) && (r[i] < 0)){
+					r[i] = 0;
+				}
+			}
+
+			// max step size
+			double rAr = 0;
+			rr = 0;
+			for (i = 0; i < k; i++){
+				double sum = 0.;
+				int rowStart = i * k;
+
+				for (j = 0; j < k; j++){
+					sum += a[rowStart + j] * r[j];
+				}
+
+				rAr += sum * r[i];
+				rr += r[i] * r[i];
+			}
+
+			double alpha = rr / rAr;
+
+			//adjust step size to prevent negative values:
+			//http://www.netflixprize.com/community/viewtopic.php?pid=6139#p6139
+			if (Double.isNaN(alpha) || alpha < EPS){
+				alpha = 0.001;
+			}
+
+			for (i = 0; i < k; i++){
+				if (r[i] * alpha < -EPS){
+					alpha = (Math.abs(alpha) < Math.abs(wValues[i] / r[i])) ? Math.abs(alpha) : Math.abs(wValues[i] / r[i]);
+				} else if (r[i] * alpha > EPS){
+					alpha = Math.abs(alpha);
+				}
+			}
+
+			for (i = 0; i < k; i++){
+				wValues[i] += alpha * r[i];
+
+				if (wValues[i] < 1.e-10){
+					wValues[i] = 0.; //http://www.netflixprize.com/community/viewtopic.php?pid=6025#p6025
+				}
+			}
+
+			if (rr < bestrr){
+				bestrr = rr;
+				System.arraycopy(wValues, 0, weights, 0, k);
+			}
+
+			if (iterationsNum > maxIterations){
+				divergence = true;
+			}
+
+			iterationsNum++;
+		}
+		while ((rr > NON_NEGATIVE_STOP_VAL) && (!(divergence)));
+
+		if (divergence){
+			System.err.println("Divergence");
+		}
+
+		lastSolveExhausted = divergence;
+
+		return iterationsNum;
+	}
+
+	@Override
+	public boolean isLastSolveExhausted() {
+		return lastSolveExhausted;
+	}
+}
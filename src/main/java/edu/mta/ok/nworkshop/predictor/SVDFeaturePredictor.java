@@ -6,14 +6,17 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.PredictorProperties;
 import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
 import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
-import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
+import edu.mta.ok.nworkshop.model.UserIndexedModelCSR;
 import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.SortUtils;
 
 /**
  * Implementation of a regularized singular value decomposition (SVD) which 
@@ -26,7 +29,7 @@ import edu.mta.ok.nworkshop.utils.FileUtils;
  * <a href="http://code.google.com/p/pyrsvd/">site</a>. 
  * 
  */
-public class SVDFeaturePredictor implements Predictor, SVDPredictor {
+public class SVDFeaturePredictor implements ThreadSafePredictor, SVDPredictor {
 
 	private static final int TRAIN_NUM = Constants.TRAIN_RATINGS_NUM;
 	
@@ -34,6 +37,8 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 
 	private final static int DEFAULT_MAX_EPOCHS = 100;
 
+	private final static int DEFAULT_TRAINING_THREADS_NUM = 1;
+
 	private final static double LEARNING_RATE = 0.001;
 
 	private final static double K_m = 0.011;
@@ -47,12 +52,15 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	// the temporary matrices are converted into float in order to save memory consumption 
 	// when using the data for predictions (it doesn't affect the algorithm's RMSE).
 	// Notice that using float array instead of byte arrays when calculating the features decreases
-	// the performance dramatically.
+	// the performance dramatically, unless the features are held in padded rows (see FloatFeatures).
 	private double[] UserFeaturesTemp = new double[DEFAULT_FEATURES_NUM * Constants.NUM_USERS];
 	private double[] MovieFeaturesTemp = new double[DEFAULT_FEATURES_NUM * Constants.NUM_MOVIES];
 	
 	private float[] UserFeatures = null;
 	private float[] MovieFeatures = null;
+	
+	// Features trained as float rows instead of the temporary double matrices (see FloatFeatures)
+	private FloatFeatures FloatFeaturesTemp = null;
 
 	private UserIndexedModel userModel;
 	
@@ -65,6 +73,13 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	private int featuresNum;
 	
 	private int maxEpochsNum;
+	
+	private int trainingThreadsNum;
+	
+	// The order the ratings are trained in (see TrainingOrder)
+	private TrainingOrder trainingOrder;
+	
+	private final List<Double> epochsRMSE = new ArrayList<Double>();
 
 	public SVDFeaturePredictor() {
 		this(PredictorProperties.getInstance().getPredictorIntProperty(Predictors.SVD, PropertyKeys.FEATURES_NUM, DEFAULT_FEATURES_NUM),
@@ -77,12 +92,33 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	}
 	
 	public SVDFeaturePredictor(int featuresNum, int maxEphocsNum) {
-		this(true, featuresNum, maxEphocsNum);
+		this(featuresNum, maxEphocsNum,
+			PredictorProperties.getInstance().getPredictorIntProperty(Predictors.SVD, PropertyKeys.TRAINING_THREADS_NUM, DEFAULT_TRAINING_THREADS_NUM));
+	}
+	
+	/**
+	 * @param featuresNum the number of features to calculate
+	 * @param maxEphocsNum the maximal number of epochs
+	 * @param trainingThreadsNum the number of threads training the features (see {@link HogwildTrainer#HogwildTrainer(int)})
+	 */
+	public SVDFeaturePredictor(int featuresNum, int maxEphocsNum, int trainingThreadsNum) {
+		this(featuresNum, maxEphocsNum, trainingThreadsNum, Constants.NETFLIX_OUTPUT_DIR + "SVD/svd-" + featuresNum + "-features.data");
+	}
+	
+	/**
+	 * @param featuresNum the number of features to calculate
+	 * @param maxEphocsNum the maximal number of epochs
+	 * @param trainingThreadsNum the number of threads training the features (see {@link HogwildTrainer#HogwildTrainer(int)})
+	 * @param featuresFileName the file the calculated features will be saved in
+	 */
+	public SVDFeaturePredictor(int featuresNum, int maxEphocsNum, int trainingThreadsNum, String featuresFileName) {
+		this(true, featuresNum, maxEphocsNum, trainingThreadsNum, featuresFileName);
 	}
 	
-	private SVDFeaturePredictor(boolean calculateFeatures, int featuresNum, int maxEphocsNum){
+	private SVDFeaturePredictor(boolean calculateFeatures, int featuresNum, int maxEphocsNum, int trainingThreadsNum, String featuresFileName){
 		
 		this.maxEpochsNum = maxEphocsNum;
+		this.trainingThreadsNum = trainingThreadsNum;
 		
 		initModel();
 		
@@ -111,9 +147,12 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 					MovieFeaturesTemp[i + startingInd] = initValue();
 				}
 			}
+			
+			initFloatFeatures();
 
+			trainingOrder = TrainingOrder.getTrainingOrder(Predictors.SVD, userIds, movieIds, ratings);
 			calculateFeatures();
-			saveMatrices(Constants.NETFLIX_OUTPUT_DIR + "SVD/svd-" + this.featuresNum + "-features.data");
+			saveMatrices(featuresFileName);
 		}
 	}
 	
@@ -124,7 +163,8 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 
 		System.out.println("start initializing model data");
 		
-		userModel = new UserIndexedModelRatings();
+		// The training only needs the flat columns, so a columnar model file is copied straight into them
+		userModel = new UserIndexedModelCSR();
 		
 		Object[] model = userModel.getModelArray();
 		
@@ -135,33 +175,56 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 		System.out.println("Finish initializing model data");
 	}
 	
+	/**
+	 * Converts the initial features into float rows in case the float features are configured (svd.floatFeatures)
+	 */
+	private void initFloatFeatures(){
+		
+		if (PredictorProperties.getInstance().getPredictorIntProperty(Predictors.SVD, PropertyKeys.FLOAT_FEATURES, 0) == 1){
+			FloatFeaturesTemp = new FloatFeatures(featuresNum, UserFeaturesTemp, MovieFeaturesTemp);
+			
+			// Remove the pointers so that the GC will release the memory
+			UserFeaturesTemp = null;
+			MovieFeaturesTemp = null;
+			
+			System.out.println("Training the features as float rows of " + FloatFeatures.getStride(featuresNum) + " features");
+		}
+	}
+	
 	/**
 	 * Convert the calculated temporary features matrices from double into a float array
 	 */
 	private void initFeatures(){
 		
+		// The float features only have to be copied without their padding
+		if (FloatFeaturesTemp != null){
+			UserFeatures = FloatFeaturesTemp.getUserFeatures();
+			MovieFeatures = FloatFeaturesTemp.getMovieFeatures();
+			FloatFeaturesTemp = null;
+		}
 		// Make sure that the temp features arrays had been initialized
-		if (UserFeaturesTemp == null || MovieFeaturesTemp == null){
+		else if (UserFeaturesTemp == null || MovieFeaturesTemp == null){
 			throw new NullPointerException("Features temp arrays are null, can't convert to float arrays");
 		}
+		else{
+			UserFeatures = new float[UserFeaturesTemp.length];
 		
-		UserFeatures = new float[UserFeaturesTemp.length];
+			for (int i=0; i < UserFeaturesTemp.length; i++){
+				UserFeatures[i] = (float)UserFeaturesTemp[i];
+			}
 		
-		for (int i=0; i < UserFeaturesTemp.length; i++){
-			UserFeatures[i] = (float)UserFeaturesTemp[i];
-		}
+			// Remove the pointer so that the GC will release the memory  
+			UserFeaturesTemp = null;
 		
-		// Remove the pointer so that the GC will release the memory  
-		UserFeaturesTemp = null;
+			MovieFeatures = new float[MovieFeaturesTemp.length];
 		
-		MovieFeatures = new float[MovieFeaturesTemp.length];
+			for (int i=0; i < MovieFeaturesTemp.length; i++){
+				MovieFeatures[i] = (float)MovieFeaturesTemp[i];
+			}
 		
-		for (int i=0; i < MovieFeaturesTemp.length; i++){
-			MovieFeatures[i] = (float)MovieFeaturesTemp[i];
+			// Remove the pointer so that the GC will release the memory		
+			MovieFeaturesTemp = null;
 		}
-		
-		// Remove the pointer so that the GC will release the memory		
-		MovieFeaturesTemp = null;
 	}
 	
 	/**
@@ -231,15 +294,24 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	
 	/**
 	 * Calculate the movie and user features matrices
+	 * 
+	 * In case more than one training thread is configured (svd.trainingThreadsNum), the ratings of every epoch are 
+	 * trained in parallel (see {@link HogwildTrainer}).
+	 * The ratings are trained in the order configured by svd.trainingOrder (see {@link TrainingOrder}).
 	 */
 	private void calculateFeatures() {
 		double rmse_last = 2.0, rmse = 2.0;
 		long start = System.currentTimeMillis(), startEpoch;
-		double squaredError;
-		double p;
-		int k;
-		double err;
-		int numRatings;
+		
+		HogwildTrainer trainer = new HogwildTrainer(trainingThreadsNum);
+		HogwildTrainer.RatingsTrainer ratingsTrainer = new HogwildTrainer.RatingsTrainer(){
+			@Override
+			public double train(int from, int to) {
+				return (FloatFeaturesTemp != null) ? trainFloatRatings(from, to) : trainRatings(from, to);
+			}
+		};
+		
+		System.out.println("Training the features on " + trainer.getThreadsNum() + " threads");
 		
 		for (int epoch = 0; (epoch < maxEpochsNum) || (rmse <= rmse_last - MIN_IMPROVEMENT); epoch++) {
 			
@@ -247,46 +319,9 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 			
 			startEpoch = System.currentTimeMillis();
 			
-			squaredError = 0.0;
-			numRatings = 0;
-			int startingIndMovie;
-			int startingIndUser;
-			
-			double uf, mf;
-			
 			// Train the model
-			
-			for (int modelIndex = 0; modelIndex < TRAIN_NUM; modelIndex++) {
-				numRatings++;
-					
-				// Getting prediction
-				p = 0.0;
-				
-				startingIndMovie = this.featuresNum * (movieIds[modelIndex] - 1);
-				startingIndUser = this.featuresNum * userIds[modelIndex];
-				
-				for (k=0; k < this.featuresNum; k++){
-
-					// Add contribution of current feature
-					p += MovieFeaturesTemp[k + startingIndMovie] * UserFeaturesTemp[k + startingIndUser];
-				}
-				
-				err = ratings[modelIndex] - p;
-				squaredError += err * err;
-					
-				for (int f = 0; f < this.featuresNum; f++) {
-		
-					// Cross-train the features
-					uf = UserFeaturesTemp[f + startingIndUser];
-					mf = MovieFeaturesTemp[f + startingIndMovie];
-					
-					UserFeaturesTemp[f + startingIndUser] += LEARNING_RATE * (err * mf - K_u * uf);
-					MovieFeaturesTemp[f + startingIndMovie] += LEARNING_RATE * (err * uf - K_m * mf);
-				}
-				
-			}
-			
-			rmse = Math.sqrt(squaredError / numRatings);
+			rmse = Math.sqrt(trainer.runEpoch(trainingOrder, ratingsTrainer) / TRAIN_NUM);
+			epochsRMSE.add(rmse);
 			
 			if ((rmse_last - rmse < MIN_IMPROVEMENT) || (epoch >= maxEpochsNum)){
 				
@@ -301,9 +336,85 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 			System.out.printf("\t<set error='%f' e='%d'/>\n", rmse, epoch);
 		}
 		
+		trainer.shutdown();
+		
 		System.out.println("Feature calculation took " + (double)((double)(System.currentTimeMillis() - start) / (double)(60 * 1000)) + " minutes");
 	}
 	
+	/**
+	 * Trains the features on a range of the ratings, in their order.
+	 * The method is called concurrently on different ranges when training on several threads.
+	 * 
+	 * @param from the index of the first rating in the range (inclusive)
+	 * @param to the index of the last rating in the range (exclusive)
+	 * @return the sum of the squared errors of the ratings in the range
+	 */
+	private double trainRatings(int from, int to) {
+		double squaredError = 0.0;
+		double p;
+		int k;
+		double err;
+		int startingIndMovie;
+		int startingIndUser;
+		
+		double uf, mf;
+		
+		for (int modelIndex = from; modelIndex < to; modelIndex++) {
+				
+			// Getting prediction
+			p = 0.0;
+			
+			startingIndMovie = this.featuresNum * (movieIds[modelIndex] - 1);
+			startingIndUser = this.featuresNum * userIds[modelIndex];
+			
+			for (k=0; k < this.featuresNum; k++){
+
+				// Add contribution of current feature
+				p += MovieFeaturesTemp[k + startingIndMovie] * UserFeaturesTemp[k + startingIndUser];
+			}
+			
+			err = ratings[modelIndex] - p;
+			squaredError += err * err;
+				
+			for (int f = 0; f < this.featuresNum; f++) {
+	
+				// Cross-train the features
+				uf = UserFeaturesTemp[f + startingIndUser];
+				mf = MovieFeaturesTemp[f + startingIndMovie];
+				
+				UserFeaturesTemp[f + startingIndUser] += LEARNING_RATE * (err * mf - K_u * uf);
+				MovieFeaturesTemp[f + startingIndMovie] += LEARNING_RATE * (err * uf - K_m * mf);
+			}
+		}
+		
+		return squaredError;
+	}
+	
+	/**
+	 * Trains the float features on a range of the ratings, in their order (see {@link FloatFeatures}).
+	 * 
+	 * @param from the index of the first rating in the range (inclusive)
+	 * @param to the index of the last rating in the range (exclusive)
+	 * @return the sum of the squared errors of the ratings in the range
+	 */
+	private double trainFloatRatings(int from, int to) {
+		FloatFeatures features = FloatFeaturesTemp;
+		double squaredError = 0.0;
+		
+		for (int modelIndex = from; modelIndex < to; modelIndex++) {
+			int userInd = userIds[modelIndex];
+			int movieInd = movieIds[modelIndex] - 1;
+
+			float err = ratings[modelIndex] - features.dot(userInd, movieInd);
+			squaredError += err * err;
+			
+			// Cross-train the features
+			features.update(userInd, movieInd, err, (float)LEARNING_RATE, (float)K_u, (float)K_m);
+		}
+		
+		return squaredError;
+	}
+	
 	/**
 	 * Create a new instance of the class and loads the features matrices from a given file
 	 * 
@@ -312,7 +423,8 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	 */
 	public static SVDFeaturePredictor getPredictor(String fileName){
 		SVDFeaturePredictor retVal = new SVDFeaturePredictor(false, -1, 
-			PredictorProperties.getInstance().getPredictorIntProperty(Predictors.SVD, PropertyKeys.MAX_EPHOCS_NUM, DEFAULT_MAX_EPOCHS));
+			PredictorProperties.getInstance().getPredictorIntProperty(Predictors.SVD, PropertyKeys.MAX_EPHOCS_NUM, DEFAULT_MAX_EPOCHS), 
+			DEFAULT_TRAINING_THREADS_NUM, null);
 		retVal.loadFeaturesFromFile(fileName);
 		
 		return retVal;
@@ -349,10 +461,35 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	
 	@Override
 	public double predictRating(int userID, short movieID, int probeIndex) {
+		return predictRatingByIndex(userModel.getUserIndex(userID), movieID);
+	}
+	
+	/**
+	 * Predicts the ratings of the given pairs grouped by their users, so the index of every user is looked up only once.
+	 */
+	@Override
+	public void predictRatings(int[] userIDs, short[] movieIDs, int from, int to, double[] predictions) {
+		int[] order = SortUtils.orderByKey(userIDs, from, to);
+		
+		for (int start = 0; start < order.length;){
+			int userID = userIDs[order[start]];
+			int userIndex = userModel.getUserIndex(userID);
+			int end = start;
+			
+			while (end < order.length && userIDs[order[end]] == userID){
+				predictions[order[end]] = predictRatingByIndex(userIndex, movieIDs[order[end]]);
+				end++;
+			}
+			
+			start = end;
+		}
+	}
+	
+	private double predictRatingByIndex(int userInd, short movieID) {
 
 		double sum = 0;
 
-		int userIndex = userModel.getUserIndex(userID) * this.featuresNum;
+		int userIndex = userInd * this.featuresNum;
 		int movieIndex = (movieID - 1) * this.featuresNum;
 
 		for (int feature = 0; feature < this.featuresNum; feature++) {
@@ -380,6 +517,13 @@ public class SVDFeaturePredictor implements Predictor, SVDPredictor {
 	public float[] getUserFeatures() {
 		return UserFeatures;
 	}
+	
+	/**
+	 * @return the training RMSE of every epoch run while calculating the features
+	 */
+	public List<Double> getEpochsRMSE() {
+		return epochsRMSE;
+	}
 
 	@Override
 	public double predictRating(int userID, short movieID, String date, int probeIndex) {
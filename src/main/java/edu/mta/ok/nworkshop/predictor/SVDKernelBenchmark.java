@@ -0,0 +1,148 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.Random;
+
+import edu.mta.ok.nworkshop.Constants;
+
+/**
+ * Compares the SVD training kernel over double features against the kernel over float features held in padded rows
+ * (see {@link FloatFeatures}), for a range of features numbers.
+ *
+ * Both kernels are run on the calling thread over a synthetic stream of ratings ordered by users (like the user indexed
+ * model), with the Netflix number of users and movies. Every kernel runs a warm up epoch and then a few measured epochs,
+ * and the fastest epoch is reported together with the memory taken by the features.
+ *
+ * Arguments: [ratings number] [features numbers...]
+ */
+public class SVDKernelBenchmark {
+
+	private static final int DEFAULT_RATINGS_NUM = 20000000;
+	private static final int[] DEFAULT_FEATURES_NUMS = {10, 16, 32, 50, 64, 96, 128};
+	private static final int MEASURED_EPOCHS = 3;
+
+	private static final double LEARNING_RATE = 0.001;
+	private static final double K_u = 0.011;
+	private static final double K_m = 0.011;
+
+	/**
+	 * The double kernel, the same loop used by {@link SVDFeaturePredictor}
+	 */
+	private static double trainDouble(double[] userFeatures, double[] movieFeatures, int featuresNum,
+			int[] userIds, short[] movieIds, byte[] ratings){
+		double squaredError = 0.0;
+
+		for (int modelIndex = 0; modelIndex < ratings.length; modelIndex++) {
+			double p = 0.0;
+			int startingIndMovie = featuresNum * (movieIds[modelIndex] - 1);
+			int startingIndUser = featuresNum * userIds[modelIndex];
+
+			for (int k = 0; k < featuresNum; k++){
+				p += movieFeatures[k + startingIndMovie] * userFeatures[k + startingIndUser];
+			}
+
+			double err = ratings[modelIndex] - p;
+			squaredError += err * err;
+
+			for (int f = 0; f < featuresNum; f++) {
+				double uf = userFeatures[f + startingIndUser];
+				double mf = movieFeatures[f + startingIndMovie];
+
+				userFeatures[f + startingIndUser] += LEARNING_RATE * (err * mf - K_u * uf);
+				movieFeatures[f + startingIndMovie] += LEARNING_RATE * (err * uf - K_m * mf);
+			}
+		}
+
+		return squaredError;
+	}
+
+	/**
+	 * The float kernel, the same loop used by {@link SVDFeaturePredictor} when training float features
+	 */
+	private static double trainFloat(FloatFeatures features, int[] userIds, short[] movieIds, byte[] ratings){
+		double squaredError = 0.0;
+
+		for (int modelIndex = 0; modelIndex < ratings.length; modelIndex++) {
+			int userInd = userIds[modelIndex];
+			int movieInd = movieIds[modelIndex] - 1;
+
+			float err = ratings[modelIndex] - features.dot(userInd, movieInd);
+			squaredError += err * err;
+
+			features.update(userInd, movieInd, err, (float)LEARNING_RATE, (float)K_u, (float)K_m);
+		}
+
+		return squaredError;
+	}
+
+	private static double[] initFeatures(int rowsNum, int featuresNum, Random random){
+		double[] retVal = new double[rowsNum * featuresNum];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = Math.sqrt(3.0663 / featuresNum) + (random.nextDouble() - 0.5) * 0.01;
+		}
+
+		return retVal;
+	}
+
+	public static void main(String[] args) {
+		int ratingsNum = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_RATINGS_NUM;
+		int[] featuresNums = DEFAULT_FEATURES_NUMS;
+
+		if (args.length > 1){
+			featuresNums = new int[args.length - 1];
+
+			for (int i = 1; i < args.length; i++){
+				featuresNums[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// Create the ratings stream - users in ascending order, popular movies are rated more often
+		Random random = new Random(1);
+		int[] userIds = new int[ratingsNum];
+		short[] movieIds = new short[ratingsNum];
+		byte[] ratings = new byte[ratingsNum];
+
+		for (int i = 0; i < ratingsNum; i++){
+			userIds[i] = (int)((long)i * Constants.NUM_USERS / ratingsNum);
+			movieIds[i] = (short)(1 + Math.min(Constants.NUM_MOVIES - 1, (int)Math.abs(random.nextGaussian() * Constants.NUM_MOVIES / 4)));
+			ratings[i] = (byte)(1 + random.nextInt(5));
+		}
+
+		System.out.println("features\tdouble ns/rating\tfloat ns/rating\tspeedup\tdouble MB\tfloat MB");
+
+		for (int featuresNum : featuresNums){
+			double[] userFeatures = initFeatures(Constants.NUM_USERS, featuresNum, random);
+			double[] movieFeatures = initFeatures(Constants.NUM_MOVIES, featuresNum, random);
+			FloatFeatures floatFeatures = new FloatFeatures(featuresNum, userFeatures, movieFeatures);
+			long doubleBytes = 8L * (userFeatures.length + movieFeatures.length);
+
+			long doubleTime = Long.MAX_VALUE;
+			double checksum = trainDouble(userFeatures, movieFeatures, featuresNum, userIds, movieIds, ratings);
+
+			for (int epoch = 0; epoch < MEASURED_EPOCHS; epoch++){
+				long start = System.nanoTime();
+				checksum += trainDouble(userFeatures, movieFeatures, featuresNum, userIds, movieIds, ratings);
+				doubleTime = Math.min(doubleTime, System.nanoTime() - start);
+			}
+
+			// Release the double features before measuring the float features
+			userFeatures = null;
+			movieFeatures = null;
+
+			long floatTime = Long.MAX_VALUE;
+			checksum += trainFloat(floatFeatures, userIds, movieIds, ratings);
+
+			for (int epoch = 0; epoch < MEASURED_EPOCHS; epoch++){
+				long start = System.nanoTime();
+				checksum += trainFloat(floatFeatures, userIds, movieIds, ratings);
+				floatTime = Math.min(floatTime, System.nanoTime() - start);
+			}
+
+			System.out.println(featuresNum + "\t" + String.format("%.2f", doubleTime / (double)ratingsNum) + "\t" +
+					String.format("%.2f", floatTime / (double)ratingsNum) + "\t" +
+					String.format("%.2fx", doubleTime / (double)floatTime) + "\t" +
+					(doubleBytes >> 20) + "\t" + (floatFeatures.getMemoryBytes() >> 20) +
+					"\t(checksum " + String.format("%.1f", checksum) + ")");
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+
+/**
+ * Compares the parallel (Hogwild) training of the SVD features against the serial training (see {@link HogwildTrainer}).
+ *
+ * The features are trained twice, once on a single thread and once on the number of threads set by the
+ * workshop.threadsNum system property. The training RMSE of every epoch, the training time and the probe RMSE of
+ * both runs are printed. The comparison fails (with an IllegalStateException) in case the final training RMSE or the
+ * probe RMSE of the parallel run differs from the serial run by more than its tolerance.
+ *
+ * Both runs save their features into their own file in the output directory, which is given as the fourth argument,
+ * or a new temporary directory otherwise, so the features files of the binary files directory aren't overwritten.
+ *
+ * Arguments: [features number] [epochs number] [svd|improved] [output directory]
+ */
+public class SVDTrainingComparison {
+
+	private static final int DEFAULT_FEATURES_NUM = 10;
+	private static final int DEFAULT_EPOCHS_NUM = 10;
+
+	// The biggest allowed difference between the training RMSE of the last epoch of both runs
+	private static final double MAX_TRAINING_RMSE_DIFF = 0.002;
+
+	// The biggest allowed difference between the probe RMSE of both runs
+	private static final double MAX_PROBE_RMSE_DIFF = 0.002;
+
+	/**
+	 * Prints the training RMSE of every epoch of both runs side by side.
+	 *
+	 * @param name the name the results will be printed with
+	 * @param serialRMSE the training RMSE of every epoch of the serial run
+	 * @param parallelRMSE the training RMSE of every epoch of the parallel run
+	 */
+	public static void printEpochs(String name, List<Double> serialRMSE, List<Double> parallelRMSE){
+		System.out.println(name + " training RMSE per epoch (serial, parallel, difference):");
+
+		for (int epoch = 0; epoch < Math.max(serialRMSE.size(), parallelRMSE.size()); epoch++){
+			String serial = (epoch < serialRMSE.size()) ? String.format("%.6f", serialRMSE.get(epoch)) : "-";
+			String parallel = (epoch < parallelRMSE.size()) ? String.format("%.6f", parallelRMSE.get(epoch)) : "-";
+			String diff = (epoch < serialRMSE.size() && epoch < parallelRMSE.size()) ?
+					String.format("%+.6f", parallelRMSE.get(epoch) - serialRMSE.get(epoch)) : "-";
+
+			System.out.println("\t" + epoch + "\t" + serial + "\t" + parallel + "\t" + diff);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int featuresNum = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_FEATURES_NUM;
+		int epochsNum = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_EPOCHS_NUM;
+		boolean improved = (args.length > 2) && args[2].equals("improved");
+		File outputDir = (args.length > 3) ? new File(args[3]) : Files.createTempDirectory("svdTrainingComparison").toFile();
+		int threadsNum = ParallelUtils.getThreadsNum();
+		String name = improved ? "Improved SVD" : "SVD";
+
+		outputDir.mkdirs();
+		System.out.println("Saving the features files in " + outputDir.getPath());
+
+		String serialFileName = new File(outputDir, (improved ? "improvedSVD" : "svd") + "-serial.data").getPath();
+		String parallelFileName = new File(outputDir, (improved ? "improvedSVD" : "svd") + "-parallel.data").getPath();
+
+		long start = System.currentTimeMillis();
+		Predictor predictor = improved ? new ImprovedSVDFeaturePredictor(featuresNum, epochsNum, 1, serialFileName) :
+			new SVDFeaturePredictor(featuresNum, epochsNum, 1, serialFileName);
+		long serialTime = System.currentTimeMillis() - start;
+		List<Double> serialRMSE = improved ? ((ImprovedSVDFeaturePredictor)predictor).getEpochsRMSE() :
+			((SVDFeaturePredictor)predictor).getEpochsRMSE();
+		double serialProbeRMSE = PredictionTester.getProbeError(predictor);
+		predictor = null;
+
+		start = System.currentTimeMillis();
+		predictor = improved ? new ImprovedSVDFeaturePredictor(featuresNum, epochsNum, threadsNum, parallelFileName) :
+			new SVDFeaturePredictor(featuresNum, epochsNum, threadsNum, parallelFileName);
+		long parallelTime = System.currentTimeMillis() - start;
+		List<Double> parallelRMSE = improved ? ((ImprovedSVDFeaturePredictor)predictor).getEpochsRMSE() :
+			((SVDFeaturePredictor)predictor).getEpochsRMSE();
+		double parallelProbeRMSE = PredictionTester.getProbeError(predictor);
+
+		printEpochs(name, serialRMSE, parallelRMSE);
+
+		System.out.println(name + " serial training took " + serialTime + " ms, probe RMSE " + serialProbeRMSE);
+		System.out.println(name + " training on " + threadsNum + " threads took " + parallelTime + " ms (" +
+				String.format("%.2f", serialTime / (double)Math.max(1, parallelTime)) + "x), probe RMSE " + parallelProbeRMSE);
+
+		StringBuilder failures = new StringBuilder();
+		double trainingDiff = parallelRMSE.get(parallelRMSE.size() - 1) - serialRMSE.get(serialRMSE.size() - 1);
+
+		if (Math.abs(trainingDiff) > MAX_TRAINING_RMSE_DIFF){
+			failures.append("\n\tThe final training RMSE differs by " + trainingDiff + ", more than " + MAX_TRAINING_RMSE_DIFF);
+		}
+
+		if (Math.abs(parallelProbeRMSE - serialProbeRMSE) > MAX_PROBE_RMSE_DIFF){
+			failures.append("\n\tThe probe RMSE differs by " + (parallelProbeRMSE - serialProbeRMSE) + ", more than " + MAX_PROBE_RMSE_DIFF);
+		}
+
+		if (failures.length() > 0){
+			throw new IllegalStateException(name + " parallel training comparison failed:" + failures);
+		}
+
+		System.out.println(name + " parallel training is within the tolerances");
+	}
+}
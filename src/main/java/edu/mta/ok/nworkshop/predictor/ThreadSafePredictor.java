@@ -0,0 +1,17 @@
+package edu.mta.ok.nworkshop.predictor;
+
+/**
+ * Marks predictors that can predict ratings from several threads at the same time.
+ *
+ * A thread safe predictor doesn't change its state while predicting, and keeps any scratch buffers it needs
+ * per thread. {@link PredictionTester} evaluates thread safe predictors in parallel, and all other predictors
+ * on a single thread.
+ *
+ * The predictor should be fully created (and configured, e.g. its neighbors index set) before it is shared, and handed
+ * to the predicting threads in a way that safely publishes it, like starting the threads or submitting tasks to an
+ * executor after it was created. The loaded models are only read while predicting, and every model a predictor uses
+ * should be read only as well. {@link PredictorConcurrencyCheck} stress checks a predictor against serial predictions.
+ */
+public interface ThreadSafePredictor extends Predictor {
+
+}
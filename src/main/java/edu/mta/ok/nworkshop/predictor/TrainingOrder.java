@@ -0,0 +1,289 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.Random;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.PredictorProperties;
+import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
+import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
+
+/**
+ * The order the ratings are trained in by the SVD trainers in every epoch (see the svd.trainingOrder and
+ * improvedSVD.trainingOrder properties).
+ *
+ * The ratings stream taken from the user indexed model is ordered by users, so the features of a user are trained
+ * together but the movie features are accessed randomly. The supported orders are:
+ * <ul>
+ * <li>{@link #USER_MAJOR} - the stream is left in its order (the default)</li>
+ * <li>{@link #MOVIE_MAJOR} - the ratings of every movie are trained together</li>
+ * <li>{@link #BLOCKS} - the ratings are split into tiles of a block of users and a block of movies, and the tiles
+ * are trained one after the other, so the features of a tile stay in the cache while it's trained</li>
+ * <li>{@link #SHUFFLED_BLOCKS} - like {@link #BLOCKS}, but the order of the tiles is shuffled in every epoch</li>
+ * </ul>
+ *
+ * The ratings arrays are reordered in place once, when the order is created, and the order only holds the start of
+ * every segment (a tile or a movie) of the reordered stream. Shuffling the tiles only shuffles the segments indices,
+ * so no other copy of the ratings is ever made (the tiles are built using buffers the size of a single block of
+ * users). Inside a tile the ratings stay ordered by users.
+ */
+public class TrainingOrder {
+
+	public static final String USER_MAJOR = "userMajor";
+	public static final String MOVIE_MAJOR = "movieMajor";
+	public static final String BLOCKS = "blocks";
+	public static final String SHUFFLED_BLOCKS = "shuffledBlocks";
+
+	/**
+	 * The default number of users in a tile
+	 */
+	public static final int DEFAULT_BLOCK_USERS = 8192;
+
+	/**
+	 * The default number of movies in a tile. The features of 1024 movies take 768 KB with 96 double features
+	 */
+	public static final int DEFAULT_BLOCK_MOVIES = 1024;
+
+	private final String orderName;
+
+	// The start of every segment in the reordered stream, followed by the number of ratings
+	private final int[] segmentStarts;
+
+	// The segments in the order they are trained in the current epoch
+	private final int[] segmentsOrder;
+
+	private final Random random;
+
+	// Buffers holding the ratings of a block of users while it's grouped by blocks of movies
+	private int[] blockUserIds;
+	private short[] blockMovieIds;
+	private byte[] blockRatings;
+
+	/**
+	 * Creates the order and reorders the ratings arrays accordingly.
+	 *
+	 * @param orderName the name of the order, one of {@link #USER_MAJOR}, {@link #MOVIE_MAJOR}, {@link #BLOCKS} or
+	 * {@link #SHUFFLED_BLOCKS}
+	 * @param userIds the indices of the rating users, ordered by users
+	 * @param movieIds the ids of the rated movies
+	 * @param ratings the ratings
+	 * @param blockUsers the number of users in a tile
+	 * @param blockMovies the number of movies in a tile
+	 */
+	public TrainingOrder(String orderName, int[] userIds, short[] movieIds, byte[] ratings, int blockUsers, int blockMovies){
+
+		this.orderName = orderName;
+		int ratingsNum = ratings.length;
+
+		if (MOVIE_MAJOR.equals(orderName)){
+			segmentStarts = new int[Constants.NUM_MOVIES + 1];
+			groupByMovies(userIds, movieIds, ratings, segmentStarts);
+		}
+		else if (BLOCKS.equals(orderName) || SHUFFLED_BLOCKS.equals(orderName)){
+			int userBlocksNum = (Constants.NUM_USERS + blockUsers - 1) / blockUsers;
+			int movieBlocksNum = (Constants.NUM_MOVIES + blockMovies - 1) / blockMovies;
+			segmentStarts = new int[userBlocksNum * movieBlocksNum + 1];
+
+			// The ratings of every block of users are consecutive, so only the ratings inside the block are grouped
+			int from = 0;
+
+			for (int userBlock = 0; userBlock < userBlocksNum; userBlock++){
+				int to = from;
+				int lastUser = (userBlock + 1) * blockUsers;
+
+				while (to < ratingsNum && userIds[to] < lastUser){
+					to++;
+				}
+
+				groupUsersBlock(userIds, movieIds, ratings, from, to, blockMovies, segmentStarts, userBlock * movieBlocksNum);
+				from = to;
+			}
+
+			// Remove the pointers so that the GC will release the memory
+			blockUserIds = null;
+			blockMovieIds = null;
+			blockRatings = null;
+		}
+		else if (USER_MAJOR.equals(orderName)){
+			segmentStarts = new int[2];
+		}
+		else{
+			throw new IllegalArgumentException("Unknown training order: " + orderName);
+		}
+
+		segmentStarts[segmentStarts.length - 1] = ratingsNum;
+
+		segmentsOrder = new int[segmentStarts.length - 1];
+
+		for (int i = 0; i < segmentsOrder.length; i++){
+			segmentsOrder[i] = i;
+		}
+
+		random = new Random(segmentsOrder.length);
+	}
+
+	/**
+	 * Creates the training order configured for the given predictor (the trainingOrder, trainingBlockUsers and
+	 * trainingBlockMovies properties) and reorders the ratings arrays accordingly.
+	 *
+	 * @param predictor the predictor training the ratings
+	 * @param userIds the indices of the rating users, ordered by users
+	 * @param movieIds the ids of the rated movies
+	 * @param ratings the ratings
+	 * @return the configured training order
+	 */
+	public static TrainingOrder getTrainingOrder(Predictors predictor, int[] userIds, short[] movieIds, byte[] ratings){
+		PredictorProperties properties = PredictorProperties.getInstance();
+
+		String orderName = properties.getPredictorStringProperty(predictor, PropertyKeys.TRAINING_ORDER, USER_MAJOR);
+		int blockUsers = properties.getPredictorIntProperty(predictor, PropertyKeys.TRAINING_BLOCK_USERS, DEFAULT_BLOCK_USERS);
+		int blockMovies = properties.getPredictorIntProperty(predictor, PropertyKeys.TRAINING_BLOCK_MOVIES, DEFAULT_BLOCK_MOVIES);
+
+		long start = System.currentTimeMillis();
+
+		TrainingOrder retVal = new TrainingOrder(orderName, userIds, movieIds, ratings, blockUsers, blockMovies);
+
+		System.out.println("Training the ratings in " + orderName + " order (" + retVal.getSegmentsNum() + 
+				" segments), ordering took " + (System.currentTimeMillis() - start));
+
+		return retVal;
+	}
+
+	/**
+	 * Groups all the ratings by movies, using an in place radix sort (American flag sort), so the ratings of a movie
+	 * aren't ordered by users.
+	 */
+	private static void groupByMovies(int[] userIds, short[] movieIds, byte[] ratings, int[] segmentStarts){
+
+		int[] next = new int[Constants.NUM_MOVIES];
+		int[] ends = new int[Constants.NUM_MOVIES];
+
+		for (int i = 0; i < ratings.length; i++){
+			ends[movieIds[i] - 1]++;
+		}
+
+		int start = 0;
+
+		for (int movie = 0; movie < Constants.NUM_MOVIES; movie++){
+			segmentStarts[movie] = start;
+			next[movie] = start;
+			start += ends[movie];
+			ends[movie] = start;
+		}
+
+		for (int movie = 0; movie < Constants.NUM_MOVIES; movie++){
+
+			while (next[movie] < ends[movie]){
+				int i = next[movie];
+				int target = movieIds[i] - 1;
+
+				if (target == movie){
+					next[movie]++;
+				}
+				else{
+					swap(userIds, movieIds, ratings, i, next[target]);
+					next[target]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups the ratings of a block of users by blocks of movies, using a counting sort that keeps the users order
+	 * inside every group. The ratings are copied into buffers sized to the block of users.
+	 */
+	private void groupUsersBlock(int[] userIds, short[] movieIds, byte[] ratings, int from, int to,
+			int blockMovies, int[] segmentStarts, int firstSegment){
+
+		int groupsNum = (Constants.NUM_MOVIES + blockMovies - 1) / blockMovies;
+		int[] next = new int[groupsNum];
+
+		if (blockUserIds == null || blockUserIds.length < to - from){
+			blockUserIds = new int[to - from];
+			blockMovieIds = new short[to - from];
+			blockRatings = new byte[to - from];
+		}
+
+		System.arraycopy(userIds, from, blockUserIds, 0, to - from);
+		System.arraycopy(movieIds, from, blockMovieIds, 0, to - from);
+		System.arraycopy(ratings, from, blockRatings, 0, to - from);
+
+		for (int i = from; i < to; i++){
+			next[(movieIds[i] - 1) / blockMovies]++;
+		}
+
+		int start = from;
+
+		for (int group = 0; group < groupsNum; group++){
+			segmentStarts[firstSegment + group] = start;
+			start += next[group];
+			next[group] = segmentStarts[firstSegment + group];
+		}
+
+		for (int i = 0; i < to - from; i++){
+			int target = next[(blockMovieIds[i] - 1) / blockMovies]++;
+
+			userIds[target] = blockUserIds[i];
+			movieIds[target] = blockMovieIds[i];
+			ratings[target] = blockRatings[i];
+		}
+	}
+
+	private static void swap(int[] userIds, short[] movieIds, byte[] ratings, int i, int j){
+		int user = userIds[i];
+		userIds[i] = userIds[j];
+		userIds[j] = user;
+
+		short movie = movieIds[i];
+		movieIds[i] = movieIds[j];
+		movieIds[j] = movie;
+
+		byte rating = ratings[i];
+		ratings[i] = ratings[j];
+		ratings[j] = rating;
+	}
+
+	/**
+	 * Prepares the order of the next epoch. Only the {@link #SHUFFLED_BLOCKS} order is changed between epochs.
+	 */
+	public void nextEpoch(){
+
+		if (SHUFFLED_BLOCKS.equals(orderName)){
+			for (int i = segmentsOrder.length - 1; i > 0; i--){
+				int j = random.nextInt(i + 1);
+				int segment = segmentsOrder[i];
+				segmentsOrder[i] = segmentsOrder[j];
+				segmentsOrder[j] = segment;
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the order
+	 */
+	public String getOrderName(){
+		return orderName;
+	}
+
+	/**
+	 * @return the number of segments the ratings are split into (1 for the {@link #USER_MAJOR} order)
+	 */
+	public int getSegmentsNum(){
+		return segmentsOrder.length;
+	}
+
+	/**
+	 * @param i the position of a segment in the current epoch
+	 * @return the index of the first rating of the segment (inclusive)
+	 */
+	public int getSegmentFrom(int i){
+		return segmentStarts[segmentsOrder[i]];
+	}
+
+	/**
+	 * @param i the position of a segment in the current epoch
+	 * @return the index of the last rating of the segment (exclusive)
+	 */
+	public int getSegmentTo(int i){
+		return segmentStarts[segmentsOrder[i] + 1];
+	}
+}
@@ -0,0 +1,159 @@
+package edu.mta.ok.nworkshop.predictor;
+
+import java.util.Random;
+
+import edu.mta.ok.nworkshop.Constants;
+
+/**
+ * Compares the training orders of the SVD ratings (see {@link TrainingOrder}) by the time of an epoch and by the
+ * convergence of the training.
+ *
+ * For every order a synthetic stream of ratings ordered by users (like the user indexed model) is created with the
+ * Netflix number of users and movies, reordered, and trained for a few epochs by the double kernel of
+ * {@link SVDFeaturePredictor}, starting from the same initial features. The time it took to order the ratings, the
+ * time of every epoch and its RMSE are reported.
+ *
+ * Arguments: [ratings number] [features number] [epochs number] [training threads number] [orders...]
+ */
+public class TrainingOrderBenchmark {
+
+	private static final int DEFAULT_RATINGS_NUM = 20000000;
+	private static final int DEFAULT_FEATURES_NUM = 32;
+	private static final int DEFAULT_EPOCHS_NUM = 5;
+	private static final String[] DEFAULT_ORDERS = {TrainingOrder.USER_MAJOR, TrainingOrder.MOVIE_MAJOR,
+		TrainingOrder.BLOCKS, TrainingOrder.SHUFFLED_BLOCKS};
+
+	private static final double LEARNING_RATE = 0.001;
+	private static final double K_u = 0.011;
+	private static final double K_m = 0.011;
+
+	private final int featuresNum;
+	private final int[] userIds;
+	private final short[] movieIds;
+	private final byte[] ratings;
+	private final double[] userFeatures;
+	private final double[] movieFeatures;
+
+	private TrainingOrderBenchmark(int ratingsNum, int featuresNum){
+		this.featuresNum = featuresNum;
+
+		// Create the ratings stream - users in ascending order, popular movies are rated more often, and the
+		// ratings depend on the user and the movie so the training has something to converge to
+		Random random = new Random(1);
+		userIds = new int[ratingsNum];
+		movieIds = new short[ratingsNum];
+		ratings = new byte[ratingsNum];
+
+		for (int i = 0; i < ratingsNum; i++){
+			userIds[i] = (int)((long)i * Constants.NUM_USERS / ratingsNum);
+			movieIds[i] = (short)(1 + Math.min(Constants.NUM_MOVIES - 1, (int)Math.abs(random.nextGaussian() * Constants.NUM_MOVIES / 4)));
+
+			int rating = 1 + (userIds[i] % 3) + (movieIds[i] % 3) + ((random.nextInt(4) == 0) ? random.nextInt(2) : 0);
+			ratings[i] = (byte)Math.min(5, rating);
+		}
+
+		userFeatures = new double[Constants.NUM_USERS * featuresNum];
+		movieFeatures = new double[Constants.NUM_MOVIES * featuresNum];
+	}
+
+	private void initFeatures(){
+		Random random = new Random(2);
+
+		for (int i = 0; i < userFeatures.length; i++){
+			userFeatures[i] = Math.sqrt(3.0663 / featuresNum) + (random.nextDouble() - 0.5) * 0.01;
+		}
+
+		for (int i = 0; i < movieFeatures.length; i++){
+			movieFeatures[i] = Math.sqrt(3.0663 / featuresNum) + (random.nextDouble() - 0.5) * 0.01;
+		}
+	}
+
+	/**
+	 * The double kernel, the same loop used by {@link SVDFeaturePredictor}
+	 */
+	private double trainRatings(int from, int to){
+		double squaredError = 0.0;
+
+		for (int modelIndex = from; modelIndex < to; modelIndex++) {
+			double p = 0.0;
+			int startingIndMovie = featuresNum * (movieIds[modelIndex] - 1);
+			int startingIndUser = featuresNum * userIds[modelIndex];
+
+			for (int k = 0; k < featuresNum; k++){
+				p += movieFeatures[k + startingIndMovie] * userFeatures[k + startingIndUser];
+			}
+
+			double err = ratings[modelIndex] - p;
+			squaredError += err * err;
+
+			for (int f = 0; f < featuresNum; f++) {
+				double uf = userFeatures[f + startingIndUser];
+				double mf = movieFeatures[f + startingIndMovie];
+
+				userFeatures[f + startingIndUser] += LEARNING_RATE * (err * mf - K_u * uf);
+				movieFeatures[f + startingIndMovie] += LEARNING_RATE * (err * uf - K_m * mf);
+			}
+		}
+
+		return squaredError;
+	}
+
+	private void run(String orderName, int epochsNum, HogwildTrainer trainer){
+		long start = System.currentTimeMillis();
+
+		TrainingOrder order = new TrainingOrder(orderName, userIds, movieIds, ratings,
+				TrainingOrder.DEFAULT_BLOCK_USERS, TrainingOrder.DEFAULT_BLOCK_MOVIES);
+
+		long orderingTime = System.currentTimeMillis() - start;
+
+		initFeatures();
+
+		HogwildTrainer.RatingsTrainer ratingsTrainer = new HogwildTrainer.RatingsTrainer(){
+			@Override
+			public double train(int from, int to) {
+				return trainRatings(from, to);
+			}
+		};
+
+		StringBuilder epochs = new StringBuilder();
+		long totalTime = 0;
+
+		for (int epoch = 0; epoch < epochsNum; epoch++){
+			long startEpoch = System.currentTimeMillis();
+			double rmse = Math.sqrt(trainer.runEpoch(order, ratingsTrainer) / ratings.length);
+			long epochTime = System.currentTimeMillis() - startEpoch;
+
+			totalTime += epochTime;
+			epochs.append("\t").append(epochTime).append(" ms / ").append(String.format("%.5f", rmse));
+		}
+
+		System.out.println(orderName + "\t" + order.getSegmentsNum() + "\t" + orderingTime + "\t" +
+				(totalTime / epochsNum) + epochs);
+	}
+
+	public static void main(String[] args) {
+		int ratingsNum = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_RATINGS_NUM;
+		int featuresNum = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_FEATURES_NUM;
+		int epochsNum = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_EPOCHS_NUM;
+		int threadsNum = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+		String[] orders = DEFAULT_ORDERS;
+
+		if (args.length > 4){
+			orders = new String[args.length - 4];
+			System.arraycopy(args, 4, orders, 0, orders.length);
+		}
+
+		HogwildTrainer trainer = new HogwildTrainer(threadsNum);
+
+		System.out.println(ratingsNum + " ratings, " + featuresNum + " features, " + trainer.getThreadsNum() + " threads");
+		System.out.println("order\tsegments\tordering ms\tavg epoch ms\tepoch ms / RMSE...");
+
+		for (String orderName : orders){
+			// Every order starts from the ratings stream ordered by users
+			TrainingOrderBenchmark benchmark = new TrainingOrderBenchmark(ratingsNum, featuresNum);
+			benchmark.run(orderName, epochsNum, trainer);
+		}
+
+		trainer.shutdown();
+	}
+}
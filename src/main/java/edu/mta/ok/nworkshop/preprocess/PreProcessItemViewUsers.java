@@ -13,6 +13,7 @@ import edu.mta.ok.nworkshop.model.MovieIndexedModelResiduals;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelResiduals;
 import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
 
 /**
  * Implements the pre-processing calculations for Bellkor "Improved KNN" algorithm.
@@ -61,6 +62,9 @@ public class PreProcessItemViewUsers {
 		double currMovieScore = 0;
 		int k;
 		
+		// The ratings of the current user as double, a user rates at most all the movies
+		double[] rowBuffer = new double[Constants.NUM_MOVIES];
+		
 		System.out.println("Start calculating the values of the A-bar and B-bar matrices");
 		
 		for (short i = 0; i < Constants.NUM_MOVIES; i++){
@@ -77,11 +81,15 @@ public class PreProcessItemViewUsers {
 			for (int user : movieModel.getMovieRatersByIndex(i)){
 				
 				k = 0;
+				short[] userMovies = userModel.getRatedMoviesByIndex(user);
+				
+				// The type of the user's ratings is checked once for the whole row
+				double[] userRatings = ModelUtils.toDoubleRow(userModel.getUserRatingsByIndex(user), 0, userMovies.length, rowBuffer);
 				
 				// Get the score that the current user gave movie i
-				for (short id : userModel.getRatedMoviesByIndex(user)){
+				for (short id : userMovies){
 					if (id == i+1){
-						currMovieScore = ((double[])userModel.getUserRatingsByIndex(user))[k];
+						currMovieScore = userRatings[k];
 						break;
 					}
 					
@@ -91,13 +99,13 @@ public class PreProcessItemViewUsers {
 				// Move on all the ratings that the current user gave to all his movies (indexed by j) and sum the multiplication between the rating 
 				// he gave to movie i and the rating he gave to movie j. In addition, we count the number of users who rated each movie. 
 				
-				j = userModel.getRatedMoviesByIndex(user).length - 1;
+				j = userMovies.length - 1;
 				
 				while (j > -1){
 					
 					// Because we calculate only half of the matrix (its a similar matrix), will run only on
 					// all i < j movies, meaning that for each movie will fill it with data of movies that are bigger than him
-					if (userModel.getRatedMoviesByIndex(user)[j] < (i+1)){
+					if (userMovies[j] < (i+1)){
 						break;
 					}
 					
@@ -106,8 +114,8 @@ public class PreProcessItemViewUsers {
 					// For example: movie 1 holds the number of similar users he has with movie 2 in common, the value is held at
 					// place 1 in movie 1 array. in addition, i is the movie index but it starts from 0 so if we're checking movie 1 i value will be 0,
 					// so in order to get into 0 place in the array we perform 2-i-1 = 1 (i is 0) as expected.
-					values[i][userModel.getRatedMoviesByIndex(user)[j]-i-1] += currMovieScore * (((double[])userModel.getUserRatingsByIndex(user))[j]); 
-					sizes[i][userModel.getRatedMoviesByIndex(user)[j]-i-1]++;
+					values[i][userMovies[j]-i-1] += currMovieScore * userRatings[j]; 
+					sizes[i][userMovies[j]-i-1]++;
 					j--;
 				}
 				
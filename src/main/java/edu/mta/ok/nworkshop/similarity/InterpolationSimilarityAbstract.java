@@ -7,7 +7,6 @@ import edu.mta.ok.nworkshop.model.MovieIndexedModel;
 import edu.mta.ok.nworkshop.model.MovieIndexedModelRatings;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
-import edu.mta.ok.nworkshop.utils.ModelUtils;
 
 /**
  * Calculates the similarity between two movies using the interpolation similarity model suggested in 
@@ -21,10 +20,6 @@ import edu.mta.ok.nworkshop.utils.ModelUtils;
  */
 public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimilarityCalculatorAbstract {
 
-	private static boolean loadedFromFile = false;
-	
-	protected float[][] movieIndexedSimilarityFloatData = null;
-	protected static boolean floatSimilarityModel = false;
 	protected boolean similaritiesCalculated = false;
 	
 	protected InterpolationSimilarityAbstract(){
@@ -42,12 +37,12 @@ public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimila
 	 * Builds the full similarity model by calculating similarity between every two movies in the model.
 	 * 
 	 * @throws UnsupportedOperationException in case the similarity model had been loaded from a file using
-	 * {@link #getSimilarityFromFile(String, boolean)}
+	 * {@link #getSimilarityFromFile(String)}
 	 */	
 	@Override
 	public void calculateSimilarities() {
 		
-		if (loadedFromFile){
+		if (isLoadedFromFile()){
 			throw new UnsupportedOperationException("Can't calculate similarity on class loaded from file");
 		}
 		else if (similaritiesCalculated){
@@ -57,10 +52,14 @@ public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimila
 		
 		long startAll = System.currentTimeMillis(), start = startAll;
 		float alpha = 10f;
-		int[][] sizes = new int [Constants.NUM_MOVIES][];
+		
+		// Sums and common raters number of the current movie, reused for all the movies
+		double[] sums = new double[Constants.NUM_MOVIES];
+		int[] sizes = new int[Constants.NUM_MOVIES];
 		
 		// The similarity model will hold only the half side up of the full model including the diagonal values (similarity between a movie and itself)
-		movieIndexedSimilarityData = new double[Constants.NUM_MOVIES][];
+		movieIndexedSimilarityData = new TriangularMatrix(Constants.NUM_MOVIES, true);
+		float[] similarities = movieIndexedSimilarityData.getValues();
 		int j;
 		
 		int size = Constants.NUM_MOVIES;
@@ -72,21 +71,17 @@ public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimila
 		
 		for (short i = 0; i < Constants.NUM_MOVIES; i++){
 			
-			movieIndexedSimilarityData[i] = new double[size];
-			Arrays.fill(movieIndexedSimilarityData[i], 0);
-			
-			sizes[i] = new int[size];
-			Arrays.fill(sizes[i], 0);
-			
-			size--;
+			Arrays.fill(sums, 0, size, 0);
+			Arrays.fill(sizes, 0, size, 0);
 			
 			// Move on all the users that rated the current movie
 			for (int user : movieIndexedModel.getMovieRatersByIndex(i)){
 				
 				k = 0;
+				short[] userMovies = userIndexedModel.getRatedMoviesByIndex(user);
 				
 				// Get the score that the current user gave movie i
-				for (short id : userIndexedModel.getRatedMoviesByIndex(user)){
+				for (short id : userMovies){
 					if (id == i+1){
 						currMovieScore = getMovieRating(user, k);
 						break;
@@ -98,37 +93,41 @@ public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimila
 				// Move on all the ratings that the current user gave to all his movies (indexed by j) and sum the multiplication between the rating 
 				// he gave to movie i and the rating he gave to movie j. In addition, we count the number of users who rated each movie. 
 				
-				j = userIndexedModel.getRatedMoviesByIndex(user).length - 1;
+				j = userMovies.length - 1;
 				double movie2Rating = 0;
 				
 				while (j > -1){
 					
 					// Because we calculate only half of the matrix (its a similar matrix), will run only on
 					// all i < j movies, meaning that for each movie will fill it with data of movies that are bigger than him
-					if (userIndexedModel.getRatedMoviesByIndex(user)[j] < (i+1)){
+					if (userMovies[j] < (i+1)){
 						break;
 					}
 					
 					// increase the number of users that movie i has with movie j in common.
-					// Because each movie array holds all the movies bigger than him (including the movie), and that i (the movie index) equals the movie id - 1 we performed -i-1. 
+					// Because each movie row holds all the movies bigger than him (including the movie), and that i (the movie index) equals the movie id - 1 we performed -i-1. 
 					// For example: movie 1 holds the number of similar users he has with movie 2 in common, the value is held at
-					// place 1 in movie 1 array. in addition, i is the movie index but it starts from 0 so if we're checking movie 1 i value will be 0,
-					// so in order to get into 0 place in the array we perform 2-i-1 = 1 (i is 0) as expected.
-					sizes[i][userIndexedModel.getRatedMoviesByIndex(user)[j]-i-1]++;
+					// place 1 in movie 1 row. in addition, i is the movie index but it starts from 0 so if we're checking movie 1 i value will be 0,
+					// so in order to get into 0 place in the row we perform 2-i-1 = 1 (i is 0) as expected.
+					sizes[userMovies[j]-i-1]++;
 
 					movie2Rating = getMovieRating(user, j); 
-					movieIndexedSimilarityData[i][userIndexedModel.getRatedMoviesByIndex(user)[j]-i-1] += ((currMovieScore - movie2Rating) * (currMovieScore - movie2Rating));
+					sums[userMovies[j]-i-1] += ((currMovieScore - movie2Rating) * (currMovieScore - movie2Rating));
 					j--;
 				}
 				
 				movieIndexedModel.removeMovieDataByIndex(i);
 			}
 			
-			// Averaging the sum values that are in the values matrix by dividing it with the sizes matrix
-			for (j = 0; j < movieIndexedSimilarityData[i].length; j++){
-				movieIndexedSimilarityData[i][j] = (double)((double)sizes[i][j] / (double)(movieIndexedSimilarityData[i][j] + alpha));
+			// Averaging the sum values by dividing them with the common raters number
+			int rowStart = movieIndexedSimilarityData.getRowStart(i);
+			
+			for (j = 0; j < size; j++){
+				similarities[rowStart + j] = (float)((double)sizes[j] / (double)(sums[j] + alpha));
 			}
 			
+			size--;
+			
 			if (i % 1000 == 0 && i > 0){
 				System.out.println("finished " + i + " movies. took " + (System.currentTimeMillis() - start));
 				start = System.currentTimeMillis();
@@ -143,72 +142,9 @@ public abstract class InterpolationSimilarityAbstract extends MovieIndexedSimila
 		System.out.println("Finished entire process. took " + (System.currentTimeMillis() - startAll));
 	}
 	
-	/**
-	 * Convert the calculated similarity model from two dimensional double array into two dimensional float array, 
-	 * in order to decrease memory consumption.
-	 */
-	private void convertModelToFloat(){
-		
-		setSimilarities(ModelUtils.convertDoubleModelIntoFloat(movieIndexedSimilarityData, null));
-		
-	}
-	
 	protected abstract double getMovieRating(int userInd, int position);
 	
-	@Override
-	public double getSimilarityScore(int firstMovieId, int secondMovieId) {
-		
-		double retVal = -1;
-		
-		if (floatSimilarityModel){
-			// Verify that the model contains data for the given ids
-			if (movieIndexedSimilarityFloatData == null || 
-				movieIndexedSimilarityFloatData.length < (Math.min(firstMovieId, secondMovieId) - 1) || 
-				movieIndexedSimilarityFloatData[Math.min(firstMovieId, secondMovieId) - 1] == null ||
-				movieIndexedSimilarityFloatData[Math.min(firstMovieId, secondMovieId) - 1].length < Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId)){
-				throw new IllegalArgumentException("send parameters are invalid or similarity model is null");
-			}
-	
-			// The model holds for every movie the similarity scores for all movies bigger than him (bigger by id) including the current movie, 
-			// so the similarity is located at [minMovieIndex][maxMovieId - movieId] (minMovieIndex = min(movieId) - 1).
-			// Examples: the similarity value between movies 1 and 2 it will be held at position [0][1], 
-			// the similarity value between movies 2 and 5 will be held at position [1][3], 
-			// the similarity value between movies 2 and 3 at position [1][1], etc.
-			retVal = movieIndexedSimilarityFloatData[Math.min(firstMovieId, secondMovieId) - 1][Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId)];
-		}
-		else{
-		
-			// Verify that the model contains data for the given ids
-			if (movieIndexedSimilarityData == null || 
-				movieIndexedSimilarityData.length < (Math.min(firstMovieId, secondMovieId) - 1) || 
-				movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1] == null ||
-				movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1].length < Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId)){
-				throw new IllegalArgumentException("send parameters are invalid or similarity model is null");
-			}
-	
-			// The model holds for every movie the similarity scores for all movies bigger than him (bigger by id) including the current movie, 
-			// so the similarity is located at [minMovieIndex][maxMovieId - movieId] (minMovieIndex = min(movieId) - 1).
-			// Examples: the similarity value between movies 1 and 2 it will be held at position [0][1], 
-			// the similarity value between movies 2 and 5 will be held at position [1][3], 
-			// the similarity value between movies 2 and 3 at position [1][1], etc.
-			retVal = movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1][Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId)];
-		}
-		
-		return retVal;
-	}
-	
-	protected void setSimilarities(double[][] similarityModel){
+	protected void setSimilarities(TriangularMatrix similarityModel){
 		this.movieIndexedSimilarityData = similarityModel;
-		
-		floatSimilarityModel = false;
-	}
-	
-	protected void setSimilarities(float[][] similarityModel){
-		this.movieIndexedSimilarityFloatData = similarityModel;
-		
-		floatSimilarityModel = true;
-		
-		// Making sure that there is no double similarity model in order to keep memory consumption to minimum
-		this.movieIndexedSimilarityData = null;
 	}
 }
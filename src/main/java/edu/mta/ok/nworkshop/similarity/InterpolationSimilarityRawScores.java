@@ -2,7 +2,6 @@ package edu.mta.ok.nworkshop.similarity;
 
 import edu.mta.ok.nworkshop.model.MovieIndexedModelRatings;
 import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
-import edu.mta.ok.nworkshop.utils.FileUtils;
 
 /**
  * Calculates the similarity between two movies using the interpolation similarity model suggested in 
@@ -16,8 +15,6 @@ import edu.mta.ok.nworkshop.utils.FileUtils;
  */
 public class InterpolationSimilarityRawScores extends InterpolationSimilarityAbstract {
 
-	private static boolean loadedFromFile = false;
-	
 	private InterpolationSimilarityRawScores(){
 		super();
 	}
@@ -36,12 +33,12 @@ public class InterpolationSimilarityRawScores extends InterpolationSimilarityAbs
 	 * Builds the full similarity model by calculating similarity between every two movies in the model.
 	 * 
 	 * @throws UnsupportedOperationException in case the similarity model had been loaded from a file using
-	 * {@link #getSimilarityFromFile(String, boolean)}
+	 * {@link #getSimilarityFromFile(String)}
 	 */	
 	@Override
 	public void calculateSimilarities() {
 		
-		if (loadedFromFile){
+		if (isLoadedFromFile()){
 			throw new UnsupportedOperationException("Can't calculate similarity on class loaded from file");
 		}
 		else{
@@ -61,33 +58,20 @@ public class InterpolationSimilarityRawScores extends InterpolationSimilarityAbs
 	 * "calculateSimilarities" will throw an exception.
 	 * 
 	 * @see #calculateSimilarities() 
-	 * @param fileName a file containing the similarity model (a double matrix)
-	 * @param floatModel mark if the loaded model holds float data or double data
+	 * @param fileName a file containing the similarity model (a triangular matrix file or a serialized jagged double/float matrix)
 	 * @return a new instance of the class with a similarity model loaded from a given file
 	 */
-	public static InterpolationSimilarityRawScores getSimilarityFromFile(String fileName, boolean floatModel){
+	public static InterpolationSimilarityRawScores getSimilarityFromFile(String fileName){
 		
 		if (fileName == null || fileName.isEmpty()){
 			return null;
 		}
 		
-		floatSimilarityModel = floatModel;
-		
 		InterpolationSimilarityRawScores retVal = new InterpolationSimilarityRawScores();
-		
-		if (!floatModel){
-			retVal.setSimilarities((double[][])FileUtils.loadDataFromFile(fileName));
-		}
-		else{
-			retVal.setSimilarities((float[][])FileUtils.loadDataFromFile(fileName));
-		}
+		retVal.setSimilarities(TriangularMatrix.load(fileName, true));
 		
 		retVal.setLoadedFromFile(true);
 		
 		return retVal;
 	}
-	
-	private void setLoadedFromFile(boolean loadedFromFile) {
-		InterpolationSimilarityRawScores.loadedFromFile = loadedFromFile;
-	}
 }
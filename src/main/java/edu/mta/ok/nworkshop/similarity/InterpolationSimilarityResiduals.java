@@ -5,7 +5,6 @@ import edu.mta.ok.nworkshop.model.MovieIndexedModel;
 import edu.mta.ok.nworkshop.model.MovieIndexedModelResiduals;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelResiduals;
-import edu.mta.ok.nworkshop.utils.FileUtils;
 
 /**
  * Calculates the similarity between two movies using the interpolation similarity model suggested in 
@@ -19,7 +18,11 @@ import edu.mta.ok.nworkshop.utils.FileUtils;
  */
 public class InterpolationSimilarityResiduals extends InterpolationSimilarityAbstract {
 
-	private static boolean loadedFromFile = false;
+	// The ratings of the user indexed model by their type, which is checked once for the whole model 
+	// (only one of them is set)
+	private double[][] userDoubleRatings;
+	private float[][] userFloatRatings;
+	private byte[][] userByteRatings;
 	
 	private InterpolationSimilarityResiduals(){
 		super();
@@ -34,6 +37,18 @@ public class InterpolationSimilarityResiduals extends InterpolationSimilarityAbs
 		
 		// Movie Indexed ratings aren't necessary		
 		movieIndexedModel.removeRatings();
+		
+		Object[] ratings = userModel.getRatings();
+		
+		if (ratings instanceof double[][]){
+			userDoubleRatings = (double[][])ratings;
+		}
+		else if (ratings instanceof float[][]){
+			userFloatRatings = (float[][])ratings;
+		}
+		else{
+			userByteRatings = (byte[][])ratings;
+		}
 	}
 	
 	public InterpolationSimilarityResiduals(String movieModelFileName, String userModelFileName,
@@ -48,22 +63,35 @@ public class InterpolationSimilarityResiduals extends InterpolationSimilarityAbs
 	 * Builds the full similarity model by calculating similarity between every two movies in the model.
 	 * 
 	 * @throws UnsupportedOperationException in case the similarity model had been loaded from a file using
-	 * {@link #getSimilarityFromFile(String, boolean)}
+	 * {@link #getSimilarityFromFile(String)}
 	 */	
 	@Override
 	public void calculateSimilarities() {
 		
-		if (loadedFromFile){
+		if (isLoadedFromFile()){
 			throw new UnsupportedOperationException("Can't calculate similarity on class loaded from file");
 		}
 		else{
 			super.calculateSimilarities();
+			
+			// Release the user ratings together with the models
+			userDoubleRatings = null;
+			userFloatRatings = null;
+			userByteRatings = null;
 		}
 	}
 	
 	@Override
 	protected double getMovieRating(int userInd, int position) {
-		return ((double[])userIndexedModel.getUserRatingsByIndex(userInd))[position];
+		
+		if (userDoubleRatings != null){
+			return userDoubleRatings[userInd][position];
+		}
+		else if (userFloatRatings != null){
+			return userFloatRatings[userInd][position];
+		}
+		
+		return userByteRatings[userInd][position];
 	}
 
 	/**
@@ -73,36 +101,23 @@ public class InterpolationSimilarityResiduals extends InterpolationSimilarityAbs
 	 * "calculateSimilarities" will throw an exception.
 	 * 
 	 * @see #calculateSimilarities() 
-	 * @param fileName a file containing the similarity model (a double matrix)
-	 * @param floatModel mark if the loaded model holds float data or double data
+	 * @param fileName a file containing the similarity model (a triangular matrix file or a serialized jagged double/float matrix)
 	 * @return a new instance of the class with a similarity model loaded from a given file
 	 */
-	public static InterpolationSimilarityResiduals getSimilarityFromFile(String fileName, boolean floatModel){
+	public static InterpolationSimilarityResiduals getSimilarityFromFile(String fileName){
 		
 		if (fileName == null || fileName.isEmpty()){
 			return null;
 		}
 		
-		floatSimilarityModel = floatModel;
-		
 		InterpolationSimilarityResiduals retVal = new InterpolationSimilarityResiduals();
-		
-		if (!floatModel){
-			retVal.setSimilarities((double[][])FileUtils.loadDataFromFile(fileName));
-		}
-		else{
-			retVal.setSimilarities((float[][])FileUtils.loadDataFromFile(fileName));
-		}		
+		retVal.setSimilarities(TriangularMatrix.load(fileName, true));
 		
 		retVal.setLoadedFromFile(true);
 		
 		return retVal;
 	}
 	
-	private void setLoadedFromFile(boolean loadedFromFile) {
-		InterpolationSimilarityResiduals.loadedFromFile = loadedFromFile;
-	}
-	
 	public static void main(String[] args) {
 		InterpolationSimilarityResiduals sim = new InterpolationSimilarityResiduals(Constants.NETFLIX_OUTPUT_DIR + "movieIndexedModelNoProbeWithDates.data", 
 				Constants.NETFLIX_OUTPUT_DIR + "userIndexedModelNoProbeWithDates.data");
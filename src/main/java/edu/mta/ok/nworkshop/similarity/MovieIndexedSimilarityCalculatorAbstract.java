@@ -2,13 +2,17 @@ package edu.mta.ok.nworkshop.similarity;
 
 import edu.mta.ok.nworkshop.model.MovieIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
-import edu.mta.ok.nworkshop.utils.FileUtils;
 
 /**
  * A super class for all classes that calculates similarity between movie items.
  *   
  * The class provides a closed implementation for {@link SimilarityCalculator#saveCalculatedData(String)} 
  * and holds the data models (user/movie indexed model) needed for calculating the similarities.
+ * The calculated similarities are held in a packed triangular matrix (see {@link TriangularMatrix}).
+ * 
+ * Once the similarities are calculated (or loaded from a file) the similarity model is only read, so a calculator
+ * can be shared by predictors that predict ratings from several threads. All the calculator's state is held per
+ * instance, loading one instance from a file doesn't affect any other instance.
  * 
  * @see PearsonCorrelationCoefifcientSimilarity, PearsonCorrelationCoefifcientSimilarityRawScores
  */
@@ -16,10 +20,37 @@ public abstract class MovieIndexedSimilarityCalculatorAbstract implements Simila
 
 	protected MovieIndexedModel movieIndexedModel;
 	protected UserIndexedModel userIndexedModel;
-	protected double[][] movieIndexedSimilarityData;
+	protected TriangularMatrix movieIndexedSimilarityData;
+	private boolean loadedFromFile = false;
 	
 	@Override
 	public final boolean saveCalculatedData(String fileName) {
-		return FileUtils.saveDataToFile(movieIndexedSimilarityData, fileName);
+		return movieIndexedSimilarityData.save(fileName);
+	}
+	
+	/**
+	 * Gets the similarity between two movies. Notice that the movie ids aren't validated.
+	 */
+	@Override
+	public double getSimilarityScore(int firstMovieId, int secondMovieId) {
+		return movieIndexedSimilarityData.get(firstMovieId - 1, secondMovieId - 1);
+	}
+	
+	/**
+	 * @return the calculated similarity model
+	 */
+	public TriangularMatrix getSimilarityMatrix() {
+		return movieIndexedSimilarityData;
+	}
+	
+	/**
+	 * @return true if the similarity model had been loaded from a file, in which case it can't be calculated
+	 */
+	protected boolean isLoadedFromFile() {
+		return loadedFromFile;
+	}
+	
+	protected void setLoadedFromFile(boolean loadedFromFile) {
+		this.loadedFromFile = loadedFromFile;
 	}
 }
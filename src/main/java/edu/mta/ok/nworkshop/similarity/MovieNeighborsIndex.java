@@ -0,0 +1,492 @@
+package edu.mta.ok.nworkshop.similarity;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mta.ok.nworkshop.Constants;
+import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
+import edu.mta.ok.nworkshop.utils.TopNSelector;
+
+/**
+ * A pre-calculated index holding the N most similar movies of every movie.
+ *
+ * The neighbors of every movie are sorted by their (shrunk) similarity in descending order, and movies with equal
+ * similarities are sorted by their ids in ascending order. The index is held in a compressed sparse row layout:
+ * the neighbors of the movie placed at index i (movie id i+1) are held between offsets[i] and offsets[i+1] in
+ * the neighbors ids and similarities arrays.
+ *
+ * The KNN predictors use the index in order to find the k movies rated by a user that are the most similar to a
+ * given movie, by walking the movie's neighbors list and picking the movies the user rated (see
+ * {@link #selectNeighbors(short, short[], int, int[])}). This reduces the cost of a prediction from k passes over
+ * the user's rated movies to a single pass over the user's rated movies and a single pass over the neighbors list.
+ *
+ * The index is saved in a small binary file, and is loaded by mapping the file with FileChannel.map. The file header
+ * describes the source of the index: the number of movies, the number of neighbors, the shrinkage alpha, the class of
+ * the similarity model and a fingerprint of its similarities (see {@link #fingerprint(SimilarityCalculator)}), so a
+ * saved index that was built from a different source is rebuilt (see {@link #loadOrBuild(String, SimilarityCalculator, int[][], int, int)}).
+ */
+public class MovieNeighborsIndex {
+
+	/**
+	 * The value written at the beginning of every neighbors index file ("NNBR")
+	 */
+	public static final int MAGIC = 0x4E4E4252;
+
+	/**
+	 * The current version of the file format
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The number of movie pairs whose similarities are sampled by {@link #fingerprint(SimilarityCalculator)}
+	 */
+	private static final int FINGERPRINT_PAIRS_NUM = 4096;
+
+	private final int neighborsNum;
+	private final int alpha;
+	private final boolean shrunk;
+	private final String source;
+	private final long fingerprint;
+	private final int[] offsets;
+	private final short[] neighbors;
+	private final float[] similarities;
+
+	/**
+	 * Marks the movies rated by the user of the current selection (see {@link #selectNeighbors(short, short[], int, int[])})
+	 */
+	private final ThreadLocal<RatedMoviesMarks> marks = new ThreadLocal<RatedMoviesMarks>(){
+		@Override
+		protected RatedMoviesMarks initialValue() {
+			return new RatedMoviesMarks();
+		}
+	};
+
+	private MovieNeighborsIndex(int neighborsNum, int alpha, boolean shrunk, String source, long fingerprint,
+			int[] offsets, short[] neighbors, float[] similarities){
+		this.neighborsNum = neighborsNum;
+		this.alpha = alpha;
+		this.shrunk = shrunk;
+		this.source = source;
+		this.fingerprint = fingerprint;
+		this.offsets = offsets;
+		this.neighbors = neighbors;
+		this.similarities = similarities;
+	}
+
+	/**
+	 * Builds a neighbors index from a given similarity model. The similarities of every movie are calculated in parallel.
+	 *
+	 * The similarity between two movies is shrunk according to the number of users that rated both of them:
+	 * s * n / (n + alpha), the same way it is done by the KNN predictors. Movies with an undefined similarity (NaN)
+	 * aren't added to the index.
+	 *
+	 * @param similarityModel the similarity model
+	 * @param commonRatersNum the number of raters every two movies have in common (see {@link edu.mta.ok.nworkshop.utils.ModelUtils#calculateCommonRatersNum}),
+	 * or null if the similarities shouldn't be shrunk
+	 * @param alpha the shrinkage value
+	 * @param neighborsNum the number of neighbors kept for every movie
+	 * @return a new neighbors index
+	 */
+	public static MovieNeighborsIndex build(final SimilarityCalculator similarityModel, final int[][] commonRatersNum,
+			final int alpha, final int neighborsNum){
+
+		final int moviesNum = Constants.NUM_MOVIES;
+		final short[][] movieNeighbors = new short[moviesNum][];
+		final float[][] movieSimilarities = new float[moviesNum][];
+		final AtomicInteger finishedMoviesNum = new AtomicInteger();
+		final long start = System.currentTimeMillis();
+
+		System.out.println("Start building the movie neighbors index");
+
+		ParallelUtils.forEachRange(0, moviesNum, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				TopNSelector selector = new TopNSelector(Math.min(neighborsNum, moviesNum - 1));
+
+				for (int i = from; i < to; i++){
+					int movieId = i + 1;
+					selector.clear();
+
+					for (int otherId = 1; otherId <= moviesNum; otherId++){
+						if (otherId == movieId){
+							continue;
+						}
+
+						double sim = similarityModel.getSimilarityScore(movieId, otherId);
+
+						if (commonRatersNum != null){
+							int minId = Math.min(movieId, otherId);
+							int ratersNum = commonRatersNum[minId - 1][Math.max(movieId, otherId) - minId - 1];
+
+							// Shrink the similarity according to the number of users rated both movies
+							sim *= (double)ratersNum / (double)(ratersNum + alpha);
+						}
+
+						if (!Double.isNaN(sim)){
+							selector.add(otherId, sim);
+						}
+					}
+
+					int size = selector.sort();
+					movieNeighbors[i] = new short[size];
+					movieSimilarities[i] = new float[size];
+
+					for (int j = 0; j < size; j++){
+						movieNeighbors[i][j] = (short)selector.getItem(j);
+						movieSimilarities[i][j] = (float)selector.getScore(j);
+					}
+
+					int finished = finishedMoviesNum.incrementAndGet();
+
+					if (finished % 1000 == 0){
+						System.out.println("finished " + finished + " movies. took " + (System.currentTimeMillis() - start));
+					}
+				}
+			}
+		});
+
+		int[] offsets = new int[moviesNum + 1];
+
+		for (int i = 0; i < moviesNum; i++){
+			offsets[i + 1] = offsets[i] + movieNeighbors[i].length;
+		}
+
+		short[] neighbors = new short[offsets[moviesNum]];
+		float[] similarities = new float[offsets[moviesNum]];
+
+		for (int i = 0; i < moviesNum; i++){
+			System.arraycopy(movieNeighbors[i], 0, neighbors, offsets[i], movieNeighbors[i].length);
+			System.arraycopy(movieSimilarities[i], 0, similarities, offsets[i], movieSimilarities[i].length);
+		}
+
+		System.out.println("Finished building the movie neighbors index. took " + (System.currentTimeMillis() - start));
+
+		return new MovieNeighborsIndex(neighborsNum, alpha, commonRatersNum != null, similarityModel.getClass().getName(),
+				fingerprint(similarityModel), offsets, neighbors, similarities);
+	}
+
+	/**
+	 * Calculates a fingerprint of the similarities of a given model, by hashing the similarities of a fixed sample of
+	 * movie pairs. Models holding different similarities get different fingerprints, with a very high probability.
+	 *
+	 * @param similarityModel the similarity model
+	 * @return the fingerprint of the model's similarities
+	 */
+	public static long fingerprint(SimilarityCalculator similarityModel){
+		long retVal = 17;
+
+		for (int i = 0; i < FINGERPRINT_PAIRS_NUM; i++){
+			int firstId = 1 + (int)((i * 7919L) % Constants.NUM_MOVIES);
+			int secondId = 1 + (int)((i * 104729L + 1) % Constants.NUM_MOVIES);
+
+			if (firstId != secondId){
+				retVal = 31 * retVal + Double.doubleToLongBits(similarityModel.getSimilarityScore(firstId, secondId));
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Checks whether the index was built with the given settings out of a model holding the same similarities
+	 *
+	 * @param similarityModel the similarity model
+	 * @param commonRatersNum the number of raters every two movies have in common, or null if the similarities aren't shrunk
+	 * @param alpha the shrinkage value
+	 * @param neighborsNum the number of neighbors kept for every movie
+	 * @return null if the index matches the given settings, or a description of the mismatch otherwise
+	 */
+	private String findMismatch(SimilarityCalculator similarityModel, int[][] commonRatersNum, int alpha, int neighborsNum){
+
+		if (offsets.length - 1 != Constants.NUM_MOVIES){
+			return "the index holds " + (offsets.length - 1) + " movies instead of " + Constants.NUM_MOVIES;
+		}
+
+		if (this.neighborsNum != neighborsNum){
+			return "the index holds " + this.neighborsNum + " neighbors per movie instead of " + neighborsNum;
+		}
+
+		if (shrunk != (commonRatersNum != null) || (shrunk && this.alpha != alpha)){
+			return "the index was built with different shrinkage settings";
+		}
+
+		if (!source.equals(similarityModel.getClass().getName())){
+			return "the index was built from a " + source + " similarity model";
+		}
+
+		if (fingerprint != fingerprint(similarityModel)){
+			return "the index was built from different similarities";
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads a neighbors index from a given file, or builds it and saves it into the file in case the file doesn't exist.
+	 * The saved index is rebuilt (and saved again) in case it doesn't match the given settings and similarity model
+	 * (see {@link #fingerprint(SimilarityCalculator)}), or in case it can't be read.
+	 *
+	 * @param fileName the name of the file the index will be loaded from or saved in
+	 * @see #build(SimilarityCalculator, int[][], int, int)
+	 * @return the neighbors index
+	 */
+	public static MovieNeighborsIndex loadOrBuild(String fileName, SimilarityCalculator similarityModel, int[][] commonRatersNum,
+			int alpha, int neighborsNum){
+
+		MovieNeighborsIndex retVal = null;
+
+		if (new File(fileName).exists()){
+			System.out.println("Loading the movie neighbors index from: " + fileName);
+			retVal = load(fileName);
+
+			String mismatch = (retVal != null) ? retVal.findMismatch(similarityModel, commonRatersNum, alpha, neighborsNum) : "the file can't be read";
+
+			if (mismatch != null){
+				System.out.println("Rebuilding the movie neighbors index, " + mismatch);
+				retVal = null;
+			}
+		}
+
+		if (retVal == null){
+			retVal = build(similarityModel, commonRatersNum, alpha, neighborsNum);
+			retVal.save(fileName);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Finds the k movies out of a given list of rated movies that are the most similar to a given movie, by walking the
+	 * movie's neighbors list and picking the movies that appear in the rated list.
+	 *
+	 * Notice that only the movies in the neighbors list can be picked, so less than k movies might be found although the
+	 * rated list holds more than k movies. In that case the caller should fall back to scanning all the rated movies.
+	 *
+	 * @param movieId the id of the movie we want to find neighbors for
+	 * @param ratedMovies the ids of the movies rated by the user
+	 * @param k the maximal number of neighbors
+	 * @param positions an array (at least k long) the positions of the found neighbors in ratedMovies will be set in,
+	 * ordered from the most similar neighbor to the least similar one
+	 * @return the number of neighbors found
+	 */
+	public int selectNeighbors(short movieId, short[] ratedMovies, int k, int[] positions){
+		markRatedMovies(ratedMovies);
+
+		return selectMarkedNeighbors(movieId, k, positions);
+	}
+
+	/**
+	 * Marks the movies rated by a user, so the neighbors of several movies can be selected out of them using
+	 * {@link #selectMarkedNeighbors(short, int, int[])} without marking the movies again.
+	 * The marks are kept per thread, until the next call to this method (or to {@link #selectNeighbors(short, short[], int, int[])})
+	 * made by the same thread.
+	 *
+	 * @param ratedMovies the movies rated by the user
+	 */
+	public void markRatedMovies(short[] ratedMovies){
+		RatedMoviesMarks currMarks = marks.get();
+		int stamp = currMarks.nextStamp();
+		int[] stamps = currMarks.stamps;
+		int[] ratedPositions = currMarks.positions;
+
+		for (int i = 0; i < ratedMovies.length; i++){
+			stamps[ratedMovies[i]] = stamp;
+			ratedPositions[ratedMovies[i]] = i;
+		}
+	}
+
+	/**
+	 * The same as {@link #selectNeighbors(short, short[], int, int[])}, picking the neighbors out of the movies marked
+	 * by the last call to {@link #markRatedMovies(short[])} made by the current thread.
+	 *
+	 * @param movieId the id of the movie we want to find neighbors for
+	 * @param k the maximal number of neighbors
+	 * @param positions an array (at least k long) the positions of the found neighbors in the marked rated movies will
+	 * be set in, ordered from the most similar neighbor to the least similar one
+	 * @return the number of neighbors found
+	 */
+	public int selectMarkedNeighbors(short movieId, int k, int[] positions){
+		RatedMoviesMarks currMarks = marks.get();
+		int stamp = currMarks.getStamp();
+		int[] stamps = currMarks.stamps;
+		int[] ratedPositions = currMarks.positions;
+
+		int retVal = 0;
+
+		for (int i = offsets[movieId - 1]; i < offsets[movieId] && retVal < k; i++){
+			short neighbor = neighbors[i];
+
+			if (stamps[neighbor] == stamp){
+				positions[retVal++] = ratedPositions[neighbor];
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @param movieId the id of a movie
+	 * @return the neighbors ids of the given movie, ordered from the most similar neighbor to the least similar one
+	 */
+	public short[] getNeighbors(short movieId){
+		short[] retVal = new short[offsets[movieId] - offsets[movieId - 1]];
+		System.arraycopy(neighbors, offsets[movieId - 1], retVal, 0, retVal.length);
+
+		return retVal;
+	}
+
+	/**
+	 * @param movieId the id of a movie
+	 * @return the (shrunk) similarities between the given movie and its neighbors, in the order of {@link #getNeighbors(short)}
+	 */
+	public float[] getSimilarities(short movieId){
+		float[] retVal = new float[offsets[movieId] - offsets[movieId - 1]];
+		System.arraycopy(similarities, offsets[movieId - 1], retVal, 0, retVal.length);
+
+		return retVal;
+	}
+
+	/**
+	 * @return the number of neighbors kept for every movie
+	 */
+	public int getNeighborsNum(){
+		return neighborsNum;
+	}
+
+	/**
+	 * Saves the index into a binary file
+	 *
+	 * @param fileName the name of the file the index will be saved in
+	 * @return true if the index had been saved successfully or false otherwise
+	 */
+	public boolean save(String fileName){
+		DataOutputStream out = null;
+		boolean retVal = false;
+
+		try{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(offsets.length - 1);
+			out.writeInt(neighborsNum);
+			out.writeInt(neighbors.length);
+			out.writeInt(alpha);
+			out.writeInt(shrunk ? 1 : 0);
+			out.writeLong(fingerprint);
+
+			byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(sourceBytes.length);
+			out.write(sourceBytes);
+
+			for (int offset : offsets){
+				out.writeInt(offset);
+			}
+
+			for (short neighbor : neighbors){
+				out.writeShort(neighbor);
+			}
+
+			for (float similarity : similarities){
+				out.writeFloat(similarity);
+			}
+
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(out);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Loads an index from a given binary file
+	 *
+	 * @param fileName the name of the file the index will be loaded from
+	 * @return the loaded index, or null in case of an error reading the file (or in case the file was saved in an older version)
+	 */
+	public static MovieNeighborsIndex load(String fileName){
+		MovieNeighborsIndex retVal = null;
+		RandomAccessFile file = null;
+
+		try{
+			file = new RandomAccessFile(fileName, "r");
+			ByteBuffer buffer = file.getChannel().map(MapMode.READ_ONLY, 0, file.length());
+
+			if (buffer.getInt() != MAGIC){
+				throw new IOException("File " + fileName + " isn't a movie neighbors index file");
+			}
+
+			int version = buffer.getInt();
+
+			if (version != VERSION){
+				throw new IOException("Unsupported movie neighbors index version " + version + " in file " + fileName);
+			}
+
+			int[] offsets = new int[buffer.getInt() + 1];
+			int neighborsNum = buffer.getInt();
+			short[] neighbors = new short[buffer.getInt()];
+			float[] similarities = new float[neighbors.length];
+			int alpha = buffer.getInt();
+			boolean shrunk = buffer.getInt() == 1;
+			long fingerprint = buffer.getLong();
+			byte[] sourceBytes = new byte[buffer.getInt()];
+			buffer.get(sourceBytes);
+
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + 4 * offsets.length);
+			buffer.asShortBuffer().get(neighbors);
+			buffer.position(buffer.position() + 2 * neighbors.length);
+			buffer.asFloatBuffer().get(similarities);
+
+			retVal = new MovieNeighborsIndex(neighborsNum, alpha, shrunk, new String(sourceBytes, StandardCharsets.UTF_8), fingerprint,
+					offsets, neighbors, similarities);
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Marks the rated movies of a single selection. Instead of clearing the marks before every selection, every selection
+	 * uses a new stamp value, and a movie is marked as rated only if its stamp equals the current one.
+	 */
+	private static class RatedMoviesMarks{
+
+		private final int[] stamps = new int[Constants.NUM_MOVIES + 1];
+		private final int[] positions = new int[Constants.NUM_MOVIES + 1];
+		private int stamp = 0;
+
+		int nextStamp(){
+			if (stamp == Integer.MAX_VALUE){
+				Arrays.fill(stamps, 0);
+				stamp = 0;
+			}
+
+			return ++stamp;
+		}
+
+		int getStamp(){
+			return stamp;
+		}
+	}
+}
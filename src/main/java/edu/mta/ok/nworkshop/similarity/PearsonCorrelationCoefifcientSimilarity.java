@@ -1,6 +1,7 @@
 package edu.mta.ok.nworkshop.similarity;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.mta.ok.nworkshop.Constants;
 import edu.mta.ok.nworkshop.model.MovieIndexedModel;
@@ -8,12 +9,20 @@ import edu.mta.ok.nworkshop.model.MovieIndexedModelResiduals;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelResiduals;
 import edu.mta.ok.nworkshop.utils.CorrelationUtils;
-import edu.mta.ok.nworkshop.utils.FileUtils;
+import edu.mta.ok.nworkshop.utils.ModelUtils;
+import edu.mta.ok.nworkshop.utils.ParallelUtils;
 
 /**
  * Calculates the similarity between two movies using the pearson correlation coefficient algorithm.
  * The class uses residuals of global effects as the ratings models data.
  * 
+ * The similarity rows are calculated in parallel on the shared fork-join pool (see {@link ParallelUtils}). The movies
+ * are split into ranges with about the same calculation cost, and every thread accumulates the pairs sums in its own
+ * reusable array, so the results are identical to a single threaded run.
+ * 
+ * The residuals may be held either as double or as float (see the globalEffects.floatResiduals property). Float
+ * residuals are widened to double, and all the sums are accumulated in double.
+ * 
  * @see UserIndexedModelResiduals 
  * @see MovieIndexedModelResiduals
  */
@@ -25,11 +34,27 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 
 	private short[][] userIndexedMovieIds;
 
-	private double[][] userIndexedRatings;
+	// double[][] or float[][] matrices
+	private Object[] userIndexedRatings;
 
-	private double[][] movieIndexedRatings;
+	private Object[] movieIndexedRatings;
 	
-	private static boolean loadedFromFile = false;
+	private static final int WORK_UNITS_PER_THREAD = 16;
+	
+	private final ThreadLocal<double[]> accumulators = new ThreadLocal<double[]>(){
+		@Override
+		protected double[] initialValue() {
+			return new double[3 * (Constants.NUM_MOVIES - 1)];
+		}
+	};
+	
+	// A buffer for the residuals of a user row, in case the residuals are float (a user rates at most all the movies)
+	private final ThreadLocal<double[]> rowBuffers = new ThreadLocal<double[]>(){
+		@Override
+		protected double[] initialValue() {
+			return new double[Constants.NUM_MOVIES];
+		}
+	};
 	
 	public PearsonCorrelationCoefifcientSimilarity(){
 		this(true);
@@ -68,22 +93,17 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 	@Override
 	public void calculateSimilarities() {
 		
-		if (loadedFromFile){
+		if (isLoadedFromFile()){
 			throw new UnsupportedOperationException("Can't calculate similarity on class loaded from file");
 		}
 		
-		int j;
-		short sizesSize = Constants.NUM_MOVIES - 1;
-		movieIndexedSimilarityData = new double[Constants.NUM_MOVIES - 1][];
-		double[] xySum, xPowSum, yPowSum;
-		double currMovieAvg, secondMovieAvg;
-		double secondMovieRating;
+		movieIndexedSimilarityData = new TriangularMatrix(Constants.NUM_MOVIES, false);
 		
 		// Loads the full movie/user models data into a class member for easy access
 		movieIndexedUserIds = this.movieIndexedModel.getUserIds();
 		userIndexedMovieIds = this.userIndexedModel.getMovieIds();
-		userIndexedRatings = (double[][])this.userIndexedModel.getRatings();
-		movieIndexedRatings = (double[][])this.movieIndexedModel.getRatings();
+		userIndexedRatings = this.userIndexedModel.getRatings();
+		movieIndexedRatings = this.movieIndexedModel.getRatings();
 		
 		System.out.println("Start calculating average ratings");
 		
@@ -93,73 +113,35 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 		
 		System.out.println("Start calculating similarities");
 		
-		int ratingCounter;
-		long start = System.currentTimeMillis();						
-		long startAll = start;		
-		double currMovieRating;
+		final long startAll = System.currentTimeMillis();
+		final AtomicInteger finishedMoviesNum = new AtomicInteger();
+		final int[] units = splitToWorkUnits(ParallelUtils.getThreadsNum() * WORK_UNITS_PER_THREAD);
 		
-		for (int i=0; i < Constants.NUM_MOVIES - 1; i++){
-			
-			movieIndexedSimilarityData[i] = new double[sizesSize];
-			xySum = new double[sizesSize];
-			Arrays.fill(xySum, 0.0);
-			xPowSum = new double[sizesSize];
-			Arrays.fill(xPowSum, 0.0);
-			yPowSum = new double[sizesSize];
-			Arrays.fill(yPowSum, 0.0);
-			
-			sizesSize--;			
-			
-			ratingCounter = 0;			
-			short currMovieInd;
+		// Every work unit holds a range of consecutive movies with about the same total cost, and is handled by a single thread
+		ParallelUtils.forEachRange(0, units.length - 1, 1, new ParallelUtils.RangeTask() {
 			
-			currMovieAvg = movieAvgScores[i];
-			
-			// Pass on the model again and fill the ratings array with each movie ratings
-			for (int user : movieIndexedUserIds[i]){
-				
-				currMovieRating = movieIndexedRatings[i][ratingCounter];
-				 
-				j = userIndexedMovieIds[user].length - 1;
+			@Override
+			public void run(int from, int to) {
+				double[] sums = accumulators.get();
+				double[] rowBuffer = rowBuffers.get();
 				
-				while (j > -1){
-					
-					short currMovieId = userIndexedMovieIds[user][j];
-					
-					// Because we calculate only half of the matrix (its a similar matrix), will run only on
-					// all i < j movies, meaning that for each movie will fill it with data of movies that are bigger than him
-					if (currMovieId <= (i+1)){
-						break;
+				for (int unit = from; unit < to; unit++){
+					for (int i = units[unit]; i < units[unit + 1]; i++){
+						
+						calculateMovieSimilarities(i, sums, rowBuffer);
+						
+						// Free up memory (we don't need the movie data any more)
+						movieIndexedModel.removeMovieDataByIndex((short)i);
+						
+						int finished = finishedMoviesNum.incrementAndGet();
+						
+						if (finished % 1000 == 0){
+							System.out.println("finished " + finished + " movies. took " + (System.currentTimeMillis() - startAll));
+						}
 					}
-					
-					currMovieInd = (short)(currMovieId-i-2);
-					secondMovieAvg = movieAvgScores[currMovieId - 1];
-					
-					secondMovieRating = userIndexedRatings[user][j];
-
-					xySum[currMovieInd] += (currMovieRating - currMovieAvg) * (secondMovieRating - secondMovieAvg);
-					xPowSum[currMovieInd] += Math.pow((currMovieRating - currMovieAvg), 2);
-					yPowSum[currMovieInd] += Math.pow((secondMovieRating - secondMovieAvg), 2);
-					
-					j--;
-				}	
-				
-				ratingCounter++;
+				}
 			}
-			
-			// Calculate the similarity values
-			for (j=0; j<=sizesSize; j++){
-				movieIndexedSimilarityData[i][j] = CorrelationUtils.getPearsonCorrelationCoefficient(xySum[j], xPowSum[j], yPowSum[j]);
-			}
-			
-			if (i % 1000 == 0 && i > 0){
-				System.out.println("finished " + i + " movies. took " + (System.currentTimeMillis() - start));
-				start = System.currentTimeMillis();
-			}	
-			
-			// Free up memory (we don't need the movie data any more)
-			movieIndexedModel.removeMovieDataByIndex((short)i);
-		}
+		});
 		
 		// Release memory. the models aren't necessary anymore
 		movieIndexedModel = null;
@@ -168,23 +150,133 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 		System.out.println("Finish calculate similarities took " + (System.currentTimeMillis() - startAll));
 	}
 	
-	@Override
-	public double getSimilarityScore(int firstMovieId, int secondMovieId) {
-		
-		// Verify that the model contains data for the given ids
-		if (movieIndexedSimilarityData == null || 
-			movieIndexedSimilarityData.length < (Math.min(firstMovieId, secondMovieId) - 1) || 
-			movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1] == null ||
-			movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1].length < Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId) - 1){
-			throw new IllegalArgumentException("send parameters are invalid or similarity model is null");
+	/**
+	 * Calculates the similarities between a given movie and all the movies bigger than him (bigger by id).
+	 * 
+	 * The sums needed for every pair are accumulated in a given array that is reused for all the movies handled by
+	 * the same thread. For every pair the sums are kept next to each other (the xy sum at position 3*j followed by
+	 * the x and y powered sums), and the used part of the array is cleared before the method returns.
+	 * The ratings of every user are accumulated in the same order as in a single threaded run, so the results
+	 * don't depend on the number of threads.
+	 * 
+	 * @param i the index of the movie
+	 * @param sums the accumulators array of the current thread
+	 * @param rowBuffer the user row buffer of the current thread
+	 */
+	private void calculateMovieSimilarities(int i, double[] sums, double[] rowBuffer){
+		
+		int size = Constants.NUM_MOVIES - i - 1;
+		int ratingCounter = 0;
+		double currMovieAvg = movieAvgScores[i];
+		int[] currMovieUsers = movieIndexedUserIds[i];
+		double[] currMovieRatings = ModelUtils.toDoubleRow(movieIndexedRatings[i], 0, currMovieUsers.length, null);
+		
+		// Pass on the model again and fill the ratings array with each movie ratings
+		for (int user : currMovieUsers){
+			
+			double x = currMovieRatings[ratingCounter] - currMovieAvg;
+			short[] userMovieIds = userIndexedMovieIds[user];
+			
+			// The user's movies are sorted by id, so only the end of the row holds movies bigger than the current movie
+			int from = Arrays.binarySearch(userMovieIds, (short)(i + 1));
+			from = (from >= 0) ? from + 1 : -from - 1;
+			
+			accumulateUserPairs(i, x, userMovieIds, from, 
+					ModelUtils.toDoubleRow(userIndexedRatings[user], from, userMovieIds.length, rowBuffer), sums);
+			
+			ratingCounter++;
 		}
-
-		// The model holds for every movie the similarity scores for all movies bigger than him (bigger by id), 
-		// so the similarity is located at [minMovieIndex][maxMovieId - minMovieId] (minMovieIndex = movieId - 1).
-		// Examples: the similarity value between movies 1 and 2 it will be held at position [0][0], 
-		// the similarity value between movies 2 and 5 will be held at position [1][2], 
-		// the similarity value between movies 2 and 3 at position [1][0], etc.
-		return movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1][Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId) - 1];
+		
+		// Calculate the similarity values
+		float[] similarities = movieIndexedSimilarityData.getValues();
+		int rowStart = movieIndexedSimilarityData.getRowStart(i);
+		
+		for (int j = 0; j < size; j++){
+			similarities[rowStart + j] = (float)CorrelationUtils.getPearsonCorrelationCoefficient(sums[3 * j], sums[3 * j + 1], sums[3 * j + 2]);
+		}
+		
+		Arrays.fill(sums, 0, 3 * size, 0.0);
+	}
+	
+	/**
+	 * Adds the sums of a single user to the sums of the pairs of a given movie and all the movies bigger than him that
+	 * the user rated
+	 * 
+	 * @param i the index of the movie
+	 * @param x the residual of the user's rating of the movie, minus the movie's average
+	 * @param userMovieIds the movies rated by the user
+	 * @param from the position of the first movie bigger than the movie in the user's row
+	 * @param userRatings the residuals of the user's ratings (at least from the given position)
+	 * @param sums the accumulators array of the current thread
+	 */
+	private void accumulateUserPairs(int i, double x, short[] userMovieIds, int from, double[] userRatings, double[] sums){
+		
+		double xPow = x * x;
+		
+		// Because we calculate only half of the matrix (its a similar matrix), will run only on
+		// all i < j movies, meaning that for each movie will fill it with data of movies that are bigger than him
+		for (int j = userMovieIds.length - 1; j >= from; j--){
+			
+			int currMovieId = userMovieIds[j];
+			int pos = 3 * (currMovieId - i - 2);
+			double y = userRatings[j] - movieAvgScores[currMovieId - 1];
+			
+			sums[pos] += x * y;
+			sums[pos + 1] += xPow;
+			sums[pos + 2] += y * y;
+		}
+	}
+	
+	/**
+	 * Splits the movies into consecutive ranges with about the same calculation cost.
+	 * 
+	 * The cost of a movie is the number of (user, bigger movie) pairs visited while calculating its similarities,
+	 * which is counted in a single pass over the user indexed model, plus the size of its similarities row.
+	 * Movies with small ids that have many ratings are much more expensive than the rest, so splitting the
+	 * movies into equally sized ranges would leave most of the threads idle at the end.
+	 * 
+	 * @param unitsNum the requested number of ranges
+	 * @return the first movie index of every range, followed by the number of similarity rows
+	 */
+	private int[] splitToWorkUnits(int unitsNum){
+		
+		int rowsNum = Constants.NUM_MOVIES - 1;
+		long[] costs = new long[rowsNum];
+		long total = 0;
+		
+		for (short[] movieIds : userIndexedMovieIds){
+			for (int j = 0; j < movieIds.length; j++){
+				if (movieIds[j] <= rowsNum){
+					costs[movieIds[j] - 1] += movieIds.length - j - 1;
+				}
+			}
+		}
+		
+		for (int i = 0; i < rowsNum; i++){
+			costs[i] += rowsNum - i;
+			total += costs[i];
+		}
+		
+		unitsNum = Math.max(1, Math.min(unitsNum, rowsNum));
+		
+		int[] retVal = new int[unitsNum + 1];
+		long unitCost = (total + unitsNum - 1) / unitsNum;
+		long sum = 0;
+		int unit = 1;
+		
+		for (int i = 0; i < rowsNum && unit < unitsNum; i++){
+			sum += costs[i];
+			
+			if (sum >= unit * unitCost){
+				retVal[unit++] = i + 1;
+			}
+		}
+		
+		while (unit <= unitsNum){
+			retVal[unit++] = rowsNum;
+		}
+		
+		return retVal;
 	}
 	
 	/**
@@ -194,7 +286,7 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 	 * "calculateSimilarities" will throw an exception.
 	 * 
 	 * @see #calculateSimilarities() 
-	 * @param fileName a file containing the similarity model (a double matrix)
+	 * @param fileName a file containing the similarity model (a triangular matrix file or a serialized jagged double matrix)
 	 * @return a new instance of the class with a similarity model loaded from a given file
 	 */
 	public static PearsonCorrelationCoefifcientSimilarity getSimilarityFromFile(String fileName){
@@ -204,18 +296,14 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 		}
 		
 		PearsonCorrelationCoefifcientSimilarity retVal = new PearsonCorrelationCoefifcientSimilarity(false);
-		retVal.setSimilarities((double[][])FileUtils.loadDataFromFile(fileName));		
+		retVal.setSimilarities(TriangularMatrix.load(fileName, false));		
 		
 		retVal.setLoadedFromFile(true);
 		
 		return retVal;
 	}
 	
-	private void setLoadedFromFile(boolean loadedFromFile) {
-		PearsonCorrelationCoefifcientSimilarity.loadedFromFile = loadedFromFile;
-	}
-	
-	private void setSimilarities(double[][] similarityModel){
+	private void setSimilarities(TriangularMatrix similarityModel){
 		this.movieIndexedSimilarityData = similarityModel;
 	}
 
@@ -226,15 +314,17 @@ public class PearsonCorrelationCoefifcientSimilarity extends MovieIndexedSimilar
 		
 		int movieId = 0;
 		
-		for (double[] ratings : movieIndexedRatings){
+		for (Object ratings : movieIndexedRatings){
 			
 			double currSum = 0;
+			int ratingsNum = movieIndexedUserIds[movieId].length;
+			double[] values = ModelUtils.toDoubleRow(ratings, 0, ratingsNum, null);
 			
-			for (double rating : ratings){
-				currSum += rating;
+			for (int k = 0; k < ratingsNum; k++){
+				currSum += values[k];
 			}
 			
-			movieAvgScores[movieId] = (double)(currSum / (double)ratings.length);
+			movieAvgScores[movieId] = (double)(currSum / (double)ratingsNum);
 			movieId++;
 		}
 	}
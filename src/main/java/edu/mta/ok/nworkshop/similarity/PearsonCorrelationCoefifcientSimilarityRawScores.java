@@ -8,7 +8,6 @@ import edu.mta.ok.nworkshop.model.MovieIndexedModelRatings;
 import edu.mta.ok.nworkshop.model.UserIndexedModel;
 import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
 import edu.mta.ok.nworkshop.utils.CorrelationUtils;
-import edu.mta.ok.nworkshop.utils.FileUtils;
 
 /**
  * Calculates the similarity between two movies using the pearson correlation coefficient algorithm.
@@ -28,8 +27,6 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 
 	private byte[][] movieIndexedRatings;
 	
-	private boolean loadedFromFile = false;
-	
 	public PearsonCorrelationCoefifcientSimilarityRawScores(){
 		this(true);
 	}
@@ -65,13 +62,13 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 	@Override
 	public void calculateSimilarities() {
 		
-		if (loadedFromFile){
+		if (isLoadedFromFile()){
 			throw new UnsupportedOperationException("Can't calculate similarity on class loaded from file");
 		}
 		
 		int j;
 		short sizesSize = Constants.NUM_MOVIES - 1;
-		movieIndexedSimilarityData = new double[Constants.NUM_MOVIES - 1][];
+		movieIndexedSimilarityData = new TriangularMatrix(Constants.NUM_MOVIES, false);
 		double[] xySum, xPowSum, yPowSum;
 		double currMovieAvg, secondMovieAvg;
 		double secondMovieRating;
@@ -96,7 +93,6 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 		
 		for (int i=0; i < Constants.NUM_MOVIES - 1; i++){
 			
-			movieIndexedSimilarityData[i] = new double[sizesSize];
 			xySum = new double[sizesSize];
 			Arrays.fill(xySum, 0.0);
 			xPowSum = new double[sizesSize];
@@ -144,8 +140,10 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 			}
 			
 			// Calculate the similarity values
+			int rowStart = movieIndexedSimilarityData.getRowStart(i);
+			
 			for (j=0; j<=sizesSize; j++){
-				movieIndexedSimilarityData[i][j] = CorrelationUtils.getPearsonCorrelationCoefficient(xySum[j], xPowSum[j], yPowSum[j]);
+				movieIndexedSimilarityData.getValues()[rowStart + j] = (float)CorrelationUtils.getPearsonCorrelationCoefficient(xySum[j], xPowSum[j], yPowSum[j]);
 			}
 			
 			if (i % 1000 == 0 && i > 0){
@@ -164,25 +162,6 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 		System.out.println("Finish calculate similarities took " + (System.currentTimeMillis() - startAll));
 	}
 	
-	@Override
-	public double getSimilarityScore(int firstMovieId, int secondMovieId) {
-		
-		// Verify that the model contains data for the given ids
-		if (movieIndexedSimilarityData == null || 
-			movieIndexedSimilarityData.length < Math.min(firstMovieId, secondMovieId) - 1 || 
-			movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1] == null ||
-			movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1].length < Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId) - 1){
-			throw new IllegalArgumentException("send parameters are invalid or similarity model is null");
-		}
-
-		// The model holds for every movie the similarity scores for all movies bigger than him (bigger by id), 
-		// so the similarity is located at [minMovieIndex][maxMovieId - minMovieId] (minMovieIndex = movieId - 1).
-		// Examples: the similarity value between movies 1 and 2 it will be held at position [0][0], 
-		// the similarity value between movies 2 and 5 will be held at position [1][2], 
-		// the similarity value between movies 2 and 3 at position [1][0], etc.
-		return movieIndexedSimilarityData[Math.min(firstMovieId, secondMovieId) - 1][Math.max(firstMovieId, secondMovieId) - Math.min(firstMovieId, secondMovieId) - 1];
-	}
-	
 	/**
 	 * Creates a new instance of the class by loading the similarity model from a given file.
 	 * 
@@ -190,7 +169,7 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 	 * "calculateSimilarities" will throw an exception.
 	 * 
 	 * @see #calculateSimilarities() 
-	 * @param fileName a file containing the similarity model (a double matrix)
+	 * @param fileName a file containing the similarity model (a triangular matrix file or a serialized jagged double matrix)
 	 * @return a new instance of the class with a similarity model loaded from a given file
 	 */
 	public static PearsonCorrelationCoefifcientSimilarityRawScores getSimilarityFromFile(String fileName){
@@ -200,18 +179,14 @@ public class PearsonCorrelationCoefifcientSimilarityRawScores extends MovieIndex
 		}
 		
 		PearsonCorrelationCoefifcientSimilarityRawScores retVal = new PearsonCorrelationCoefifcientSimilarityRawScores(false);
-		retVal.setSimilarities((double[][])FileUtils.loadDataFromFile(fileName));		
+		retVal.setSimilarities(TriangularMatrix.load(fileName, false));		
 		
 		retVal.setLoadedFromFile(true);
 		
 		return retVal;
 	}
 	
-	private void setLoadedFromFile(boolean loadedFromFile) {
-		this.loadedFromFile = loadedFromFile;
-	}
-	
-	private void setSimilarities(double[][] similarityModel){
+	private void setSimilarities(TriangularMatrix similarityModel){
 		movieIndexedSimilarityData = similarityModel;
 	}
 
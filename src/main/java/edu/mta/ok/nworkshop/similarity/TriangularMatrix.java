@@ -0,0 +1,301 @@
+package edu.mta.ok.nworkshop.similarity;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import edu.mta.ok.nworkshop.utils.FileUtils;
+
+/**
+ * A symmetric matrix that holds only its upper triangle in a single packed float array.
+ *
+ * The matrix can be held in two layouts:
+ * 	1. Without the diagonal - row i holds the values of (i, i+1) ... (i, size-1), and the value of (i, j) for i < j is
+ * 	   located at i*(2*size-i-1)/2 + (j-i-1). This is the layout of the pearson similarity models.
+ * 	2. With the diagonal - row i holds the values of (i, i) ... (i, size-1), and the value of (i, j) for i <= j is
+ * 	   located at i*(2*size-i+1)/2 + (j-i). This is the layout of the interpolation similarity models.
+ *
+ * The start of every row is calculated once when the matrix is created, so {@link #get(int, int)} is reduced to a
+ * min operation and two array accesses without any validation or branching. The indices are the movie indices
+ * (movie id - 1), and the order of the two indices doesn't matter.
+ *
+ * The matrix is saved in a small binary file holding a header followed by the packed values, and is loaded by mapping
+ * the file with FileChannel.map. For backward compatibility, files that hold a serialized jagged double[][] or
+ * float[][] matrix can be loaded as well.
+ *
+ * The values are copied into an on-heap float array, which the similarity calculations fill directly through
+ * {@link #getValues()}. Keeping them off the heap is possible on the current Java target (a direct ByteBuffer, or the
+ * mapped file buffer itself, since the matrix of all the movies takes about 630 MB, below the 2 GB limit of a single
+ * buffer), but every {@link #get(int, int)} would go through a buffer call instead of a plain array access.
+ */
+public class TriangularMatrix {
+
+	/**
+	 * The value written at the beginning of every triangular matrix file ("NTRI")
+	 */
+	public static final int MAGIC = 0x4E545249;
+
+	/**
+	 * The current version of the file format
+	 */
+	public static final int VERSION = 1;
+
+	private static final int FLAG_DIAGONAL = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private final int size;
+	private final boolean withDiagonal;
+	private final float[] values;
+	private final int[] rowStarts;
+
+	/**
+	 * Creates a new matrix with all values set to 0.
+	 *
+	 * @param size the number of rows (and columns) of the full matrix
+	 * @param withDiagonal mark if the matrix holds its diagonal values
+	 */
+	public TriangularMatrix(int size, boolean withDiagonal){
+		this(size, withDiagonal, new float[(int)valuesNum(size, withDiagonal)]);
+	}
+
+	private TriangularMatrix(int size, boolean withDiagonal, float[] values){
+		this.size = size;
+		this.withDiagonal = withDiagonal;
+		this.values = values;
+		this.rowStarts = new int[size];
+
+		// rowStarts[i] + j is the position of (i, j) in the values array
+		for (long i = 0; i < size; i++){
+			if (withDiagonal){
+				rowStarts[(int)i] = (int)(i * (2 * size - i + 1) / 2 - i);
+			}
+			else{
+				rowStarts[(int)i] = (int)(i * (2 * size - i - 1) / 2 - i - 1);
+			}
+		}
+	}
+
+	private static long valuesNum(int size, boolean withDiagonal){
+		long retVal = withDiagonal ? (long)size * (size + 1) / 2 : (long)size * (size - 1) / 2;
+
+		if (retVal > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Matrix size " + size + " is too big for a packed triangular matrix");
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the value of a given cell. Notice that the indices aren't validated. Calling the method with two equal
+	 * indices on a matrix without a diagonal is an error: it returns the value of another cell (the last value of the
+	 * previous row), or throws an ArrayIndexOutOfBoundsException for index 0.
+	 *
+	 * @param firstIndex the index of the first item (item id - 1)
+	 * @param secondIndex the index of the second item (item id - 1)
+	 * @return the value held for the two items
+	 */
+	public float get(int firstIndex, int secondIndex){
+		int min = Math.min(firstIndex, secondIndex);
+
+		return values[rowStarts[min] + (firstIndex ^ secondIndex ^ min)];
+	}
+
+	/**
+	 * Sets the value of a given cell.
+	 *
+	 * @param firstIndex the index of the first item (item id - 1)
+	 * @param secondIndex the index of the second item (item id - 1)
+	 * @param value the new value
+	 */
+	public void set(int firstIndex, int secondIndex, float value){
+		int min = Math.min(firstIndex, secondIndex);
+
+		values[rowStarts[min] + (firstIndex ^ secondIndex ^ min)] = value;
+	}
+
+	/**
+	 * @param rowIndex the index of a row in the matrix
+	 * @return the position of the first value of the given row in the array returned by {@link #getValues()}
+	 */
+	public int getRowStart(int rowIndex){
+		return rowStarts[rowIndex] + rowIndex + (withDiagonal ? 0 : 1);
+	}
+
+	/**
+	 * @param rowIndex the index of a row in the matrix
+	 * @return the number of values held for the given row
+	 */
+	public int getRowLength(int rowIndex){
+		return size - rowIndex - (withDiagonal ? 0 : 1);
+	}
+
+	/**
+	 * @return the packed values array. Row i is held between {@link #getRowStart(int)} and {@link #getRowStart(int)} + {@link #getRowLength(int)}
+	 */
+	public float[] getValues(){
+		return values;
+	}
+
+	/**
+	 * @return the number of rows (and columns) of the full matrix
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/**
+	 * @return true if the matrix holds its diagonal values or false otherwise
+	 */
+	public boolean hasDiagonal(){
+		return withDiagonal;
+	}
+
+	/**
+	 * Saves the matrix into a binary file
+	 *
+	 * @param fileName the name of the file the matrix will be saved in
+	 * @return true if the matrix had been saved successfully or false otherwise
+	 */
+	public boolean save(String fileName){
+		RandomAccessFile file = null;
+		boolean retVal = false;
+
+		try{
+			file = new RandomAccessFile(fileName, "rw");
+			file.setLength(0);
+
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + 4L * values.length);
+			buffer.order(BYTE_ORDER);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(size);
+			buffer.putInt(withDiagonal ? FLAG_DIAGONAL : 0);
+			buffer.asFloatBuffer().put(values);
+
+			// Write the values to the file before it's closed, so the matrix is complete once save returns
+			buffer.force();
+
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Loads a matrix from a given file. The file can either be a binary triangular matrix file or a file holding
+	 * a serialized jagged double[][] or float[][] matrix.
+	 *
+	 * @param fileName the name of the file the matrix will be loaded from
+	 * @param withDiagonal mark if a jagged matrix held in the file includes the diagonal values (ignored for binary
+	 * triangular matrix files, that hold their own layout)
+	 * @return the loaded matrix, or null in case of an error reading the file
+	 */
+	public static TriangularMatrix load(String fileName, boolean withDiagonal){
+		TriangularMatrix retVal = null;
+
+		if (isTriangularMatrixFile(fileName)){
+			RandomAccessFile file = null;
+
+			try{
+				file = new RandomAccessFile(fileName, "r");
+				ByteBuffer buffer = file.getChannel().map(MapMode.READ_ONLY, 0, file.length()).order(BYTE_ORDER);
+
+				buffer.getInt();
+				int version = buffer.getInt();
+
+				if (version != VERSION){
+					throw new IOException("Unsupported triangular matrix version " + version + " in file " + fileName);
+				}
+
+				int size = buffer.getInt();
+				boolean diagonal = (buffer.getInt() & FLAG_DIAGONAL) != 0;
+				float[] values = new float[(int)valuesNum(size, diagonal)];
+
+				buffer.asFloatBuffer().get(values);
+
+				retVal = new TriangularMatrix(size, diagonal, values);
+			}
+			catch (IOException e){
+				e.printStackTrace();
+			}
+			finally{
+				FileUtils.outputClose(file);
+			}
+		}
+		else{
+			Object[] rows = FileUtils.loadDataFromFile(fileName);
+
+			if (rows != null){
+				retVal = fromJagged(rows, withDiagonal);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Converts a jagged triangular matrix into a packed matrix.
+	 *
+	 * @param rows a double[][] or a float[][] matrix in which row i holds the values of item i and all the items bigger than him
+	 * @param withDiagonal mark if every row starts with the diagonal value
+	 * @return a new packed matrix holding the same values as the given matrix
+	 */
+	public static TriangularMatrix fromJagged(Object[] rows, boolean withDiagonal){
+		int size = withDiagonal ? rows.length : rows.length + 1;
+		TriangularMatrix retVal = new TriangularMatrix(size, withDiagonal);
+
+		for (int i = 0; i < rows.length; i++){
+			int position = retVal.getRowStart(i);
+
+			if (rows[i] instanceof double[]){
+				for (double value : (double[])rows[i]){
+					retVal.values[position++] = (float)value;
+				}
+			}
+			else if (rows[i] instanceof float[]){
+				float[] row = (float[])rows[i];
+				System.arraycopy(row, 0, retVal.values, position, row.length);
+			}
+		}
+
+		return retVal;
+	}
+
+	private static boolean isTriangularMatrixFile(String fileName){
+		FileInputStream fis = null;
+		boolean retVal = false;
+
+		try{
+			fis = new FileInputStream(fileName);
+			byte[] header = new byte[4];
+
+			if (fis.read(header) == header.length){
+				retVal = ByteBuffer.wrap(header).order(BYTE_ORDER).getInt() == MAGIC;
+			}
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(fis);
+		}
+
+		return retVal;
+	}
+}
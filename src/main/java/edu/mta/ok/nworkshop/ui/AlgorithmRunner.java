@@ -22,6 +22,7 @@ import edu.mta.ok.nworkshop.PredictorProperties;
 import edu.mta.ok.nworkshop.PredictorProperties.Predictors;
 import edu.mta.ok.nworkshop.PredictorProperties.PropertyKeys;
 import edu.mta.ok.nworkshop.globaleffects.EffectAbstract;
+import edu.mta.ok.nworkshop.globaleffects.GlobalEffectsPipeline;
 import edu.mta.ok.nworkshop.model.UserIndexedModelRatings;
 import edu.mta.ok.nworkshop.predictor.CombinePredictions;
 import edu.mta.ok.nworkshop.predictor.ImprovedSVDFeaturePredictor;
@@ -332,8 +333,7 @@ public class AlgorithmRunner extends javax.swing.JFrame implements Runnable, Act
 
     private double knnSVDRunButton() {
     	SVDPredictor svdPred = new ImprovedSVDFeaturePredictor(PredictorProperties.getInstance().getPredictorIntProperty(Predictors.IMPROVED_SVD, PropertyKeys.FEATURES_NUM));
-    	KNNSVDPredictor predictor = new KNNSVDPredictor(svdPred);
-    	predictor.setUserModel(new UserIndexedModelRatings());
+    	KNNSVDPredictor predictor = new KNNSVDPredictor(svdPred, new UserIndexedModelRatings());
     	
     	return runPredictor(predictor, Predictors.KNN_SVD);
     }
@@ -341,6 +341,11 @@ public class AlgorithmRunner extends javax.swing.JFrame implements Runnable, Act
     @SuppressWarnings("unchecked")
 	private double globalEffectsRunButton() throws ClassNotFoundException, SecurityException, NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
     	
+    	// Calculate all the effects in memory, without loading and saving the residuals of every effect
+    	if (PredictorProperties.getInstance().getPredictorIntProperty(Predictors.GLOBAL_EFFECTS, PropertyKeys.IN_MEMORY, 0) == 1){
+    		return new GlobalEffectsPipeline().startCalculation();
+    	}
+    	
     	String effectClassPackage = "edu.mta.ok.nworkshop.globaleffects.";
     	
     	Class effectClassOld = this.getClass().getClassLoader().loadClass(effectClassPackage + "Effect1");
@@ -0,0 +1,473 @@
+package edu.mta.ok.nworkshop.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A versioned binary container for a ratings model (movie indexed or user indexed).
+ *
+ * The file holds a fixed size header followed by separate columns:
+ * 	1. Rows offsets - an int array holding rowsNum + 1 values, row i holds the entries between offsets[i] and offsets[i+1].
+ * 	2. Ids - the ids of every entry (int user indices for a movie indexed model, short movie ids for a user indexed model).
+ * 	3. Ratings - a byte rating for every entry.
+ * 	4. Dates - an optional short column holding the rating date of every entry.
+ *
+ * The columns are read by mapping the file with FileChannel.map, so loading a model is bounded by the disk page-in
+ * time instead of the Java serialization time.
+ */
+public class ColumnarModelFile {
+
+	/**
+	 * The value written at the beginning of every columnar model file ("NFLX")
+	 */
+	public static final int MAGIC = 0x4E464C58;
+
+	/**
+	 * The current version of the file format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Mark that the ids column holds short values
+	 */
+	public static final int SHORT_IDS = 2;
+
+	/**
+	 * Mark that the ids column holds int values
+	 */
+	public static final int INT_IDS = 4;
+
+	private static final int FLAG_DATES = 1;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private int idsType;
+	private int[] offsets;
+	private int entriesNum;
+	private MappedByteBuffer idsColumn;
+	private MappedByteBuffer ratingsColumn;
+	private MappedByteBuffer datesColumn;
+
+	private ColumnarModelFile(){
+	}
+
+	/**
+	 * Check if the given file was saved in the columnar model format.
+	 *
+	 * @param fileName a path to the file we want to check
+	 * @return true if the file starts with the columnar model header or false otherwise
+	 */
+	public static boolean isColumnarFile(String fileName){
+		FileInputStream fis = null;
+		boolean retVal = false;
+
+		try{
+			fis = new FileInputStream(fileName);
+			byte[] header = new byte[4];
+
+			if (fis.read(header) == header.length){
+				retVal = ByteBuffer.wrap(header).order(BYTE_ORDER).getInt() == MAGIC;
+			}
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(fis);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Open a columnar model file and map its columns into memory.
+	 *
+	 * @param fileName a path to the file we want to open
+	 * @return a new ColumnarModelFile object mapped to the given file
+	 * @throws IOException in case the file couldn't be read or doesn't hold a supported columnar model
+	 */
+	public static ColumnarModelFile open(String fileName) throws IOException{
+		RandomAccessFile file = null;
+		ColumnarModelFile retVal = new ColumnarModelFile();
+
+		try{
+			file = new RandomAccessFile(fileName, "r");
+			FileChannel channel = file.getChannel();
+
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE).order(BYTE_ORDER);
+
+			if (header.getInt() != MAGIC){
+				throw new IOException("File " + fileName + " isn't a columnar model file");
+			}
+
+			int version = header.getInt();
+
+			if (version != VERSION){
+				throw new IOException("Unsupported columnar model version " + version + " in file " + fileName);
+			}
+
+			retVal.idsType = header.getInt();
+			int flags = header.getInt();
+			int rowsNum = header.getInt();
+			retVal.entriesNum = header.getInt();
+
+			long position = HEADER_SIZE;
+
+			retVal.offsets = new int[rowsNum + 1];
+			channel.map(MapMode.READ_ONLY, position, 4L * retVal.offsets.length).order(BYTE_ORDER).asIntBuffer().get(retVal.offsets);
+			position += 4L * retVal.offsets.length;
+
+			long size = (long)retVal.idsType * retVal.entriesNum;
+			retVal.idsColumn = channel.map(MapMode.READ_ONLY, position, size);
+			position += size;
+
+			retVal.ratingsColumn = channel.map(MapMode.READ_ONLY, position, retVal.entriesNum);
+			position += retVal.entriesNum;
+
+			if ((flags & FLAG_DATES) != 0){
+				retVal.datesColumn = channel.map(MapMode.READ_ONLY, position, 2L * retVal.entriesNum);
+			}
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Saves a movie indexed model (int ids) into a columnar model file.
+	 *
+	 * @param fileName the name of the file the data will be saved in
+	 * @param ids the ids of every model row
+	 * @param ratings the ratings of every model row
+	 * @param dates the rating dates of every model row, or null in case the model has no dates
+	 * @throws IOException in case of an error while writing the file
+	 */
+	public static void write(String fileName, int[][] ids, byte[][] ratings, short[][] dates) throws IOException{
+		int[] offsets = calculateOffsets(ids.length, ids);
+		MappedByteBuffer[] columns = createFile(fileName, INT_IDS, offsets, dates != null);
+
+		IntBuffer idsBuffer = columns[0].asIntBuffer();
+		ShortBuffer datesBuffer = (dates != null) ? columns[2].asShortBuffer() : null;
+
+		for (int i = 0; i < ids.length; i++){
+			if (ids[i] != null){
+				idsBuffer.put(ids[i]);
+				columns[1].put(ratings[i]);
+
+				if (datesBuffer != null){
+					datesBuffer.put(dates[i]);
+				}
+			}
+		}
+
+		force(columns);
+	}
+
+	/**
+	 * Saves a user indexed model (short ids) into a columnar model file.
+	 *
+	 * @param fileName the name of the file the data will be saved in
+	 * @param ids the ids of every model row
+	 * @param ratings the ratings of every model row
+	 * @param dates the rating dates of every model row, or null in case the model has no dates
+	 * @throws IOException in case of an error while writing the file
+	 */
+	public static void write(String fileName, short[][] ids, byte[][] ratings, short[][] dates) throws IOException{
+		int[] offsets = calculateOffsets(ids.length, ids);
+		MappedByteBuffer[] columns = createFile(fileName, SHORT_IDS, offsets, dates != null);
+
+		ShortBuffer idsBuffer = columns[0].asShortBuffer();
+		ShortBuffer datesBuffer = (dates != null) ? columns[2].asShortBuffer() : null;
+
+		for (int i = 0; i < ids.length; i++){
+			if (ids[i] != null){
+				idsBuffer.put(ids[i]);
+				columns[1].put(ratings[i]);
+
+				if (datesBuffer != null){
+					datesBuffer.put(dates[i]);
+				}
+			}
+		}
+
+		force(columns);
+	}
+
+	/**
+	 * Saves a model that is already held in flat columns into a columnar model file.
+	 *
+	 * @param fileName the name of the file the data will be saved in
+	 * @param offsets the rows offsets (rowsNum + 1 values)
+	 * @param ids the ids column, an int array for a movie indexed model or a short array for a user indexed model
+	 * @param ratings the ratings column
+	 * @param dates the dates column, or null in case the model has no dates
+	 * @throws IOException in case of an error while writing the file
+	 */
+	public static void write(String fileName, int[] offsets, Object ids, byte[] ratings, short[] dates) throws IOException{
+		int idsType = (ids instanceof int[]) ? INT_IDS : SHORT_IDS;
+		int entriesNum = offsets[offsets.length - 1];
+		MappedByteBuffer[] columns = createFile(fileName, idsType, offsets, dates != null);
+
+		if (idsType == INT_IDS){
+			columns[0].asIntBuffer().put((int[])ids, 0, entriesNum);
+		}
+		else{
+			columns[0].asShortBuffer().put((short[])ids, 0, entriesNum);
+		}
+
+		columns[1].put(ratings, 0, entriesNum);
+
+		if (dates != null){
+			columns[2].asShortBuffer().put(dates, 0, entriesNum);
+		}
+
+		force(columns);
+	}
+
+	/**
+	 * Create a new columnar file, write its header and offsets column and map the data columns for writing.
+	 *
+	 * @return the mapped ids, ratings and dates columns (the dates column will be null if withDates is false)
+	 */
+	private static MappedByteBuffer[] createFile(String fileName, int idsType, int[] offsets, boolean withDates) throws IOException{
+		RandomAccessFile file = null;
+		MappedByteBuffer[] retVal = new MappedByteBuffer[3];
+		int entriesNum = offsets[offsets.length - 1];
+
+		new File(fileName).delete();
+
+		try{
+			file = new RandomAccessFile(fileName, "rw");
+			FileChannel channel = file.getChannel();
+
+			long position = HEADER_SIZE + 4L * offsets.length;
+
+			MappedByteBuffer header = map(channel, 0, position);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(idsType);
+			header.putInt(withDates ? FLAG_DATES : 0);
+			header.putInt(offsets.length - 1);
+			header.putInt(entriesNum);
+			header.position(HEADER_SIZE);
+			header.asIntBuffer().put(offsets);
+			header.force();
+
+			long size = (long)idsType * entriesNum;
+			retVal[0] = map(channel, position, size);
+			position += size;
+
+			retVal[1] = map(channel, position, entriesNum);
+			position += entriesNum;
+
+			if (withDates){
+				retVal[2] = map(channel, position, 2L * entriesNum);
+			}
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Writes the changes made to the mapped columns to the file, so the file is complete once a write method returns
+	 */
+	private static void force(MappedByteBuffer[] columns){
+		for (MappedByteBuffer column : columns){
+			if (column != null){
+				column.force();
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException{
+		MappedByteBuffer retVal = channel.map(MapMode.READ_WRITE, position, size);
+		retVal.order(BYTE_ORDER);
+
+		return retVal;
+	}
+
+	private static int[] calculateOffsets(int rowsNum, Object[] rows){
+		int[] retVal = new int[rowsNum + 1];
+		long total = 0;
+
+		for (int i = 0; i < rowsNum; i++){
+
+			if (rows[i] != null){
+				total += Array.getLength(rows[i]);
+			}
+
+			if (total > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("The model holds too many entries for a columnar model file");
+			}
+
+			retVal[i+1] = (int)total;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @return the number of rows in the model
+	 */
+	public int getRowsNum(){
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @return the total number of entries (ratings) in the model
+	 */
+	public int getEntriesNum(){
+		return entriesNum;
+	}
+
+	/**
+	 * @return true if the ids column holds int values or false if it holds short values
+	 */
+	public boolean isIntIds(){
+		return idsType == INT_IDS;
+	}
+
+	/**
+	 * @return true if the file holds a dates column
+	 */
+	public boolean hasDates(){
+		return datesColumn != null;
+	}
+
+	/**
+	 * @return the rows offsets array, holding rowsNum + 1 values
+	 */
+	public int[] getOffsets(){
+		return offsets;
+	}
+
+	/**
+	 * @return a new array holding the whole int ids column
+	 */
+	public int[] readIntIds(){
+		int[] retVal = new int[entriesNum];
+		idsView().asIntBuffer().get(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * @return a new array holding the whole short ids column
+	 */
+	public short[] readShortIds(){
+		short[] retVal = new short[entriesNum];
+		idsView().asShortBuffer().get(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * @return a new array holding the whole ratings column
+	 */
+	public byte[] readRatings(){
+		byte[] retVal = new byte[entriesNum];
+		ratingsColumn.duplicate().get(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * @return a new array holding the whole dates column, or null in case the file has no dates
+	 */
+	public short[] readDates(){
+		short[] retVal = null;
+
+		if (hasDates()){
+			retVal = new short[entriesNum];
+			datesView().asShortBuffer().get(retVal);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @return the int ids column split into the model rows
+	 */
+	public int[][] readIntIdRows(){
+		int[][] retVal = new int[getRowsNum()][];
+		IntBuffer ids = idsView().asIntBuffer();
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = new int[offsets[i+1] - offsets[i]];
+			ids.get(retVal[i]);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @return the short ids column split into the model rows
+	 */
+	public short[][] readShortIdRows(){
+		return readShortRows(idsView().asShortBuffer());
+	}
+
+	/**
+	 * @return the ratings column split into the model rows
+	 */
+	public byte[][] readRatingRows(){
+		byte[][] retVal = new byte[getRowsNum()][];
+		ByteBuffer ratings = ratingsColumn.duplicate();
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = new byte[offsets[i+1] - offsets[i]];
+			ratings.get(retVal[i]);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @return the dates column split into the model rows, or null in case the file has no dates
+	 */
+	public short[][] readDateRows(){
+		short[][] retVal = null;
+
+		if (hasDates()){
+			retVal = readShortRows(datesView().asShortBuffer());
+		}
+
+		return retVal;
+	}
+
+	private short[][] readShortRows(ShortBuffer column){
+		short[][] retVal = new short[getRowsNum()][];
+
+		for (int i = 0; i < retVal.length; i++){
+			retVal[i] = new short[offsets[i+1] - offsets[i]];
+			column.get(retVal[i]);
+		}
+
+		return retVal;
+	}
+
+	private ByteBuffer idsView(){
+		return idsColumn.duplicate().order(BYTE_ORDER);
+	}
+
+	private ByteBuffer datesView(){
+		return datesColumn.duplicate().order(BYTE_ORDER);
+	}
+}
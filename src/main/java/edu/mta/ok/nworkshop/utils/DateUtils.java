@@ -39,4 +39,36 @@ public class DateUtils {
 		
 		return retVal;
 	}
+	
+	/**
+	 * Return the number of days between 1970-01-01 and a given date. The calculation is done arithmetically 
+	 * (proleptic Gregorian calendar) without creating any Calendar or Date objects.
+	 * 
+	 * @param year the date's year
+	 * @param month the date's month (1-12)
+	 * @param day the date's day in the month (1-31)
+	 * @return the number of days since 1970-01-01 (negative for earlier dates)
+	 */
+	public static int toEpochDay(int year, int month, int day){
+		
+		// Count the years from March, so the leap day is the last day of the year
+		int y = (month <= 2) ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		
+		return era * 146097 + dayOfEra - 719468;
+	}
+	
+	/**
+	 * Return the number of days between 1970-01-01 and a date given in a yyyy-MM-dd format.
+	 * 
+	 * @param date a date string in a yyyy-MM-dd format
+	 * @return the number of days since 1970-01-01 (negative for earlier dates)
+	 */
+	public static int toEpochDay(String date){
+		return toEpochDay(Integer.parseInt(date.substring(0, 4)), Integer.parseInt(date.substring(5, 7)), 
+				Integer.parseInt(date.substring(8, 10)));
+	}
 }
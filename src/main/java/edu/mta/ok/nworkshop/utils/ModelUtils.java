@@ -1,5 +1,7 @@
 package edu.mta.ok.nworkshop.utils;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -44,6 +46,10 @@ public class ModelUtils {
 			retVal = new Object[2];
 		}
 		
+		if (ColumnarModelFile.isColumnarFile(fileName)){
+			return loadColumnarModel(fileName, loadDates, floatModel, retVal);
+		}
+		
 		try{
 		
 			ois = new ObjectInputStream(new FileInputStream(fileName));
@@ -162,6 +168,10 @@ public class ModelUtils {
 			retVal = new Object[2];
 		}
 		
+		if (ColumnarModelFile.isColumnarFile(fileName)){
+			return loadColumnarModel(fileName, loadDates, false, retVal);
+		}
+		
 		try{
 			ois = new ObjectInputStream(new FileInputStream(fileName));
 			retVal[0] = (short[][]) ois.readObject();
@@ -185,6 +195,48 @@ public class ModelUtils {
 		return retVal;
 	}
 	
+	/**
+	 * Loads a model saved in the columnar model format into the given array.
+	 * 
+	 * @see ColumnarModelFile
+	 * 
+	 * @param fileName the name of the file that holds the data
+	 * @param loadDates mark if the dates matrix should be loaded as well
+	 * @param floatModel mark if the type of the loaded rating matrix should be float
+	 * @param retVal the array that the ids, ratings and dates matrices will be set in
+	 * @return the given array. in case of an error reading the file, the array will hold uninitialized places.
+	 */
+	private static Object[] loadColumnarModel(String fileName, boolean loadDates, boolean floatModel, Object[] retVal){
+		
+		try{
+			ColumnarModelFile file = ColumnarModelFile.open(fileName);
+			
+			if (file.isIntIds()){
+				retVal[0] = file.readIntIdRows();
+			}
+			else{
+				retVal[0] = file.readShortIdRows();
+			}
+			
+			Object model = file.readRatingRows();
+			
+			if (floatModel){
+				model = convertRatingMatrixToFloat(model);
+			}
+			
+			retVal[1] = model;
+			
+			if (loadDates){
+				retVal[2] = file.readDateRows();
+			}
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		
+		return retVal;
+	}
+	
 	/**
 	 * Loads a user indexed model containing residuals after global effect removal.
 	 * 
@@ -248,53 +300,129 @@ public class ModelUtils {
 		return retVal;
 	}
 	
+	/**
+	 * Saves the given movie indexed model into a columnar model file.
+	 * 
+	 * @see ColumnarModelFile
+	 * 
+	 * @param fileName the name of the file the data will be saved in.
+	 * @param ids the model's user ids
+	 * @param scores the model's ratings
+	 * @return true if the data had been saved successfully or false otherwise
+	 */
 	public static boolean saveMovieScoresData(String fileName, int[][] ids, byte[][] scores){
-		ObjectOutputStream oos = FileUtils.getObjectOutputStream(fileName);
+		return saveMovieScoresData(fileName, ids, scores, null);
+	}
+	
+	/**
+	 * Saves the given movie indexed model into a columnar model file.
+	 * 
+	 * @see ColumnarModelFile
+	 * 
+	 * @param fileName the name of the file the data will be saved in.
+	 * @param ids the model's user ids
+	 * @param scores the model's ratings
+	 * @param dates the model's rating dates, or null if the model has no dates
+	 * @return true if the data had been saved successfully or false otherwise
+	 */
+	public static boolean saveMovieScoresData(String fileName, int[][] ids, byte[][] scores, short[][] dates){
 		boolean retVal = false;
 		
-		if (oos != null){
-			try{
-				oos.writeObject(ids);
-				oos.writeObject(scores);
-				retVal = true;
-			}
-			catch (Exception e){
-				
-			}
-			finally{
-				FileUtils.outputClose(oos);
-			}
+		try{
+			ColumnarModelFile.write(fileName, ids, scores, dates);
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
 		}
 		
 		return retVal;
 	}
 	
 	/**
-	 * Saves the given user indexed model into a binary file. 
-
+	 * Saves the given user indexed model into a columnar model file. 
+	 * 
+	 * @see ColumnarModelFile
+	 * 
 	 * @param fileName the name of the file the data will be saved in.
 	 * @param movieIds the model's movie ids
 	 * @param scores the model's ratings
+	 * @return true if the data had been saved successfully or false otherwise
 	 */
 	public static boolean saveUserIndexedModel(String fileName, short[][] movieIds, byte[][] scores){
-		ObjectOutputStream oos = FileUtils.getObjectOutputStream(fileName);
+		return saveUserIndexedModel(fileName, movieIds, scores, null);
+	}
+	
+	/**
+	 * Saves the given user indexed model into a columnar model file. 
+	 * 
+	 * @see ColumnarModelFile
+	 * 
+	 * @param fileName the name of the file the data will be saved in.
+	 * @param movieIds the model's movie ids
+	 * @param scores the model's ratings
+	 * @param dates the model's rating dates, or null if the model has no dates
+	 * @return true if the data had been saved successfully or false otherwise
+	 */
+	public static boolean saveUserIndexedModel(String fileName, short[][] movieIds, byte[][] scores, short[][] dates){
 		boolean retVal = false;
 		
-		if (oos != null){
+		try{
+			ColumnarModelFile.write(fileName, movieIds, scores, dates);
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Converts a model file that was saved using java serialization (ids matrix, ratings matrix and an optional dates matrix)
+	 * into a columnar model file.
+	 * 
+	 * @see ColumnarModelFile
+	 * 
+	 * @param sourceFile a path to the serialized model file
+	 * @param targetFile a path to the file the columnar model will be saved in
+	 * @return true if the model had been converted successfully or false otherwise
+	 */
+	public static boolean convertToColumnarModel(String sourceFile, String targetFile){
+		ObjectInputStream ois = null;
+		Object ids = null;
+		byte[][] ratings = null;
+		short[][] dates = null;
+		
+		try{
+			ois = new ObjectInputStream(new FileInputStream(sourceFile));
+			ids = ois.readObject();
+			ratings = (byte[][]) ois.readObject();
+			
 			try{
-				oos.writeObject(movieIds);
-				oos.writeObject(scores);
-				retVal = true;
-			}
-			catch (Exception e){
-				
+				dates = (short[][]) ois.readObject();
 			}
-			finally{
-				FileUtils.outputClose(oos);
+			catch(EOFException e){
+				// The model was saved without dates
 			}
 		}
+		catch(IOException e){
+			e.printStackTrace();
+			return false;
+		}
+		catch(ClassNotFoundException e){
+			e.printStackTrace();
+			return false;
+		}
+		finally{
+			FileUtils.outputClose(ois);			
+		}
 		
-		return retVal;
+		if (ids instanceof int[][]){
+			return saveMovieScoresData(targetFile, (int[][])ids, ratings, dates);
+		}
+		
+		return saveUserIndexedModel(targetFile, (short[][])ids, ratings, dates);
 	}
 	
 	/**
@@ -490,6 +618,119 @@ public class ModelUtils {
 		return convertDoubleModelIntoFloat(originalModel, savedFile);
 	}
 	
+	/**
+	 * Converts a given float two dimensional array into a double two dimensional array
+	 * 
+	 * @param sourceArray a two dimensional float array that we want to convert
+	 * @return two dimensional double array converted from the given float array
+	 */
+	public static double[][] convertFloatModelIntoDouble(float[][] sourceArray){
+		double[][] retVal = null;
+		
+		if (sourceArray != null){
+			
+			retVal = new double[sourceArray.length][];
+			
+			for (int i = 0; i < sourceArray.length; i++){
+				retVal[i] = new double[sourceArray[i].length];
+				
+				for (int j = 0; j < sourceArray[i].length; j++){
+					retVal[i][j] = sourceArray[i][j];
+				}
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Returns a residuals matrix loaded from a file as a float matrix
+	 * 
+	 * @param model a two dimensional float or double array
+	 * @return the given array in case it holds floats, or a float copy of it otherwise
+	 */
+	public static float[][] toFloatModel(Object[] model){
+		
+		if (model == null || model instanceof float[][]){
+			return (float[][])model;
+		}
+		
+		return convertDoubleModelIntoFloat((double[][])model, null);
+	}
+	
+	/**
+	 * Returns a residuals matrix loaded from a file as a double matrix
+	 * 
+	 * @param model a two dimensional float or double array
+	 * @return the given array in case it holds doubles, or a double copy of it otherwise
+	 */
+	public static double[][] toDoubleModel(Object[] model){
+		
+		if (model == null || model instanceof double[][]){
+			return (double[][])model;
+		}
+		
+		return convertFloatModelIntoDouble((float[][])model);
+	}
+	
+	/**
+	 * Returns a single value of a ratings row taken from a model, whatever the type of the model's values is
+	 * 
+	 * @param ratings a byte, float or double array holding the ratings (or the residuals) of a user or a movie
+	 * @param position the position of the wanted value in the array
+	 * @return the value in the given position
+	 */
+	public static double getRatingValue(Object ratings, int position){
+		
+		if (ratings instanceof double[]){
+			return ((double[])ratings)[position];
+		}
+		else if (ratings instanceof float[]){
+			return ((float[])ratings)[position];
+		}
+		
+		return ((byte[])ratings)[position];
+	}
+	
+	/**
+	 * Returns a part of a ratings row taken from a model as a double array, so the type of the row is checked once 
+	 * instead of once for every rating (see {@link #getRatingValue(Object, int)}).
+	 * 
+	 * @param ratings a byte, float or double array holding the ratings (or the residuals) of a user or a movie
+	 * @param from the first position of the wanted part (inclusive)
+	 * @param to the last position of the wanted part (exclusive)
+	 * @param buffer an array the values of a byte or float row are copied into (at the same positions), or null in 
+	 * order to allocate a new array
+	 * @return the row itself in case it's a double array, otherwise the buffer holding the values of the wanted part
+	 */
+	public static double[] toDoubleRow(Object ratings, int from, int to, double[] buffer){
+		
+		if (ratings instanceof double[]){
+			return (double[])ratings;
+		}
+		
+		if (buffer == null){
+			buffer = new double[to];
+		}
+		
+		if (ratings instanceof float[]){
+			float[] row = (float[])ratings;
+			
+			for (int i = from; i < to; i++){
+				buffer[i] = row[i];
+			}
+		}
+		else{
+			byte[] row = (byte[])ratings;
+			
+			for (int i = from; i < to; i++){
+				buffer[i] = row[i];
+			}
+		}
+		
+		return buffer;
+	}
+	
 	/**
 	 * Calculate the number of raters every two movies have in common
 	 * 
@@ -548,4 +789,37 @@ public class ModelUtils {
 		
 		return sizes;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Converts the configured movie indexed and user indexed model files into columnar model files.
+	 * The converted files replace the original ones, so the loading methods will map them from now on.
+	 */
+	public static void main(String[] args) {
+		PredictorProperties props = PredictorProperties.getInstance();
+		
+		for (String fileName : new String[]{props.getMovieIndexedModelFile(), props.getUserIndexedModelFile()}){
+			
+			if (ColumnarModelFile.isColumnarFile(fileName)){
+				System.out.println(fileName + " is already a columnar model file");
+				continue;
+			}
+			
+			long start = System.currentTimeMillis();
+			String tempFile = fileName + ".columnar";
+			
+			if (convertToColumnarModel(fileName, tempFile)){
+				
+				// Keep the converted file aside in case the original can't be replaced, so no data is lost
+				if (!new File(fileName).delete()){
+					System.err.println("Couldn't delete " + fileName + ", the converted model was left in " + tempFile);
+				}
+				else if (!new File(tempFile).renameTo(new File(fileName))){
+					System.err.println("Couldn't rename " + tempFile + " to " + fileName + ", rename it manually");
+				}
+				else{
+					System.out.println("finished converting " + fileName + ". took " + (System.currentTimeMillis() - start));
+				}
+			}
+		}
+	}
+}
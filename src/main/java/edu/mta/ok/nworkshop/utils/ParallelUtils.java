@@ -0,0 +1,116 @@
+package edu.mta.ok.nworkshop.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.mta.ok.nworkshop.Constants;
+
+/**
+ * Helper class that provide static methods for running calculations over index ranges in parallel
+ * on a shared fork-join pool.
+ *
+ * The number of threads is set by the workshop.threadsNum system property (see {@link Constants#THREADS_NUM}).
+ * When it is set to 1 all the calculations run on the calling thread.
+ */
+public class ParallelUtils {
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * A calculation that can be performed on a range of indices
+	 */
+	public interface RangeTask{
+
+		/**
+		 * Performs the calculation on the given range of indices
+		 *
+		 * @param from the first index in the range (inclusive)
+		 * @param to the last index in the range (exclusive)
+		 */
+		public void run(int from, int to);
+	}
+
+	/**
+	 * @return the shared fork-join pool used for the parallel calculations
+	 */
+	public static synchronized ForkJoinPool getPool(){
+		if (pool == null){
+			pool = new ForkJoinPool(Math.max(1, Constants.THREADS_NUM));
+		}
+
+		return pool;
+	}
+
+	/**
+	 * @return the number of threads used for the parallel calculations
+	 */
+	public static int getThreadsNum(){
+		return Math.max(1, Constants.THREADS_NUM);
+	}
+
+	/**
+	 * Splits the given range into sub ranges and runs the given task on them in parallel.
+	 * The range is split into about 8 sub ranges for every thread.
+	 *
+	 * @param from the first index in the range (inclusive)
+	 * @param to the last index in the range (exclusive)
+	 * @param task the calculation that should be performed on every sub range
+	 */
+	public static void forEachRange(int from, int to, RangeTask task){
+		forEachRange(from, to, Math.max(1, (to - from) / (getThreadsNum() * 8)), task);
+	}
+
+	/**
+	 * Splits the given range into sub ranges and runs the given task on them in parallel.
+	 *
+	 * @param from the first index in the range (inclusive)
+	 * @param to the last index in the range (exclusive)
+	 * @param grainSize the maximal size of a sub range that is handled by a single task
+	 * @param task the calculation that should be performed on every sub range
+	 */
+	public static void forEachRange(int from, int to, int grainSize, RangeTask task){
+
+		if (to <= from){
+			return;
+		}
+
+		if (getThreadsNum() == 1 || to - from <= grainSize){
+			task.run(from, to);
+		}
+		else{
+			getPool().invoke(new RangeAction(from, to, Math.max(1, grainSize), task));
+		}
+	}
+
+	/**
+	 * A fork-join action that splits a range in halves until it reaches the grain size
+	 */
+	private static class RangeAction extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int grainSize;
+		private final RangeTask task;
+
+		public RangeAction(int from, int to, int grainSize, RangeTask task) {
+			this.from = from;
+			this.to = to;
+			this.grainSize = grainSize;
+			this.task = task;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grainSize){
+				task.run(from, to);
+			}
+			else{
+				int middle = (from + to) >>> 1;
+
+				invokeAll(new RangeAction(from, middle, grainSize, task), new RangeAction(middle, to, grainSize, task));
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package edu.mta.ok.nworkshop.utils;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Helper class that provide static methods for sorting model rows.
+ *
+ * A model row is made of an ids array (short movie ids or int user indices) and parallel payload arrays
+ * (ratings, residuals, dates etc.) that should be reordered together with the ids.
+ * Every id is packed with its position in the row into a single long key, the keys are sorted
+ * (insertion sort for tiny rows and a dual-pivot quick sort for the rest) and the resulting permutation is
+ * applied to the ids and to every payload array. Rows that are already sorted aren't touched.
+ *
+ * The supported payload array types are byte[], short[], int[], float[] and double[].
+ * Whole models are sorted in parallel, every thread sorting a different range of rows with its own scratch buffers.
+ */
+public class SortUtils {
+
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>(){
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * Sorts every row of a two dimensional model in ascending order according to the ids.
+	 *
+	 * @param ids the model's ids matrix (a short[][] or an int[][])
+	 * @param payloads the model's matrices that should be reordered together with the ids (null values are ignored)
+	 */
+	public static void sortRows(final Object[] ids, final Object[]... payloads){
+		ParallelUtils.forEachRange(0, ids.length, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				Object[] rowPayloads = new Object[payloads.length];
+
+				for (int i = from; i < to; i++){
+					if (ids[i] == null){
+						continue;
+					}
+
+					for (int p = 0; p < payloads.length; p++){
+						rowPayloads[p] = (payloads[p] != null) ? payloads[p][i] : null;
+					}
+
+					sortRange(ids[i], 0, Array.getLength(ids[i]), rowPayloads);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sorts every row of a model held in a CSR layout in ascending order according to the ids.
+	 *
+	 * @param offsets the rows offsets (row i is held between offsets[i] and offsets[i+1])
+	 * @param ids the flat ids array (a short[] or an int[])
+	 * @param payloads flat arrays that should be reordered together with the ids (null values are ignored)
+	 */
+	public static void sortRows(final int[] offsets, final Object ids, final Object... payloads){
+		ParallelUtils.forEachRange(0, offsets.length - 1, new ParallelUtils.RangeTask() {
+
+			@Override
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++){
+					sortRange(ids, offsets[i], offsets[i + 1], payloads);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sorts a range of the given ids array in ascending order and reorders the payload arrays accordingly.
+	 *
+	 * @param ids the ids array (a short[] or an int[])
+	 * @param from the first index in the range (inclusive)
+	 * @param to the last index in the range (exclusive)
+	 * @param payloads arrays that should be reordered together with the ids (null values are ignored)
+	 */
+	public static void sortRange(Object ids, int from, int to, Object... payloads){
+		int length = to - from;
+
+		if (length < 2 || isSorted(ids, from, to)){
+			return;
+		}
+
+		Scratch scratch = scratches.get();
+		long[] keys = scratch.getKeys(length);
+
+		// Pack every id with its position in the range
+		if (ids instanceof short[]){
+			short[] shortIds = (short[])ids;
+
+			for (int i = 0; i < length; i++){
+				keys[i] = ((long)shortIds[from + i] << 32) | i;
+			}
+		}
+		else{
+			int[] intIds = (int[])ids;
+
+			for (int i = 0; i < length; i++){
+				keys[i] = ((long)intIds[from + i] << 32) | i;
+			}
+		}
+
+		if (length < INSERTION_SORT_THRESHOLD){
+			insertionSort(keys, length);
+		}
+		else{
+			Arrays.sort(keys, 0, length);
+		}
+
+		// Write back the sorted ids and apply the permutation to the payloads
+		if (ids instanceof short[]){
+			short[] shortIds = (short[])ids;
+
+			for (int i = 0; i < length; i++){
+				shortIds[from + i] = (short)(keys[i] >> 32);
+			}
+		}
+		else{
+			int[] intIds = (int[])ids;
+
+			for (int i = 0; i < length; i++){
+				intIds[from + i] = (int)(keys[i] >> 32);
+			}
+		}
+
+		for (Object payload : payloads){
+			if (payload != null){
+				permute(payload, from, keys, length, scratch);
+			}
+		}
+	}
+
+	/**
+	 * Orders a range of positions according to the keys held in them, without changing the keys array.
+	 * Positions holding equal keys keep their original order.
+	 *
+	 * @param keys the keys array (for example the user ids of a batch of predictions)
+	 * @param from the first position in the range (inclusive)
+	 * @param to the last position in the range (exclusive)
+	 * @return the positions between from and to, ordered by their keys
+	 */
+	public static int[] orderByKey(int[] keys, int from, int to){
+		int length = to - from;
+		long[] packed = new long[length];
+
+		// Pack every key with its offset in the range, so equal keys are ordered by their positions
+		for (int i = 0; i < length; i++){
+			packed[i] = ((long)keys[from + i] << 32) | i;
+		}
+
+		Arrays.sort(packed);
+
+		int[] retVal = new int[length];
+
+		for (int i = 0; i < length; i++){
+			retVal[i] = from + (int)packed[i];
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Orders a range of positions according to a primary key and, for equal primary keys, according to a secondary
+	 * key, without changing the keys arrays. Positions holding equal keys keep their original order.
+	 *
+	 * The positions are ordered by the secondary keys (see {@link #orderByKey(int[], int, int)}), and then grouped by
+	 * the primary keys using a stable counting sort.
+	 *
+	 * @param primaryKeys the primary keys array (for example the movie ids of a batch of predictions)
+	 * @param secondaryKeys the secondary keys array (for example the user ids of a batch of predictions)
+	 * @param from the first position in the range (inclusive)
+	 * @param to the last position in the range (exclusive)
+	 * @return the positions between from and to, ordered by their primary and secondary keys
+	 */
+	public static int[] orderByKeys(short[] primaryKeys, int[] secondaryKeys, int from, int to){
+		int[] order = orderByKey(secondaryKeys, from, to);
+
+		if (order.length < 2){
+			return order;
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+
+		for (int i = from; i < to; i++){
+			min = Math.min(min, primaryKeys[i]);
+			max = Math.max(max, primaryKeys[i]);
+		}
+
+		int[] starts = new int[max - min + 2];
+
+		for (int i = from; i < to; i++){
+			starts[primaryKeys[i] - min + 1]++;
+		}
+
+		for (int i = 1; i < starts.length; i++){
+			starts[i] += starts[i - 1];
+		}
+
+		int[] retVal = new int[order.length];
+
+		for (int position : order){
+			retVal[starts[primaryKeys[position] - min]++] = position;
+		}
+
+		return retVal;
+	}
+
+	private static boolean isSorted(Object ids, int from, int to){
+		if (ids instanceof short[]){
+			short[] shortIds = (short[])ids;
+
+			for (int i = from + 1; i < to; i++){
+				if (shortIds[i - 1] > shortIds[i]){
+					return false;
+				}
+			}
+		}
+		else{
+			int[] intIds = (int[])ids;
+
+			for (int i = from + 1; i < to; i++){
+				if (intIds[i - 1] > intIds[i]){
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private static void insertionSort(long[] keys, int length){
+		for (int i = 1; i < length; i++){
+			long key = keys[i];
+			int j = i - 1;
+
+			while (j >= 0 && keys[j] > key){
+				keys[j + 1] = keys[j];
+				j--;
+			}
+
+			keys[j + 1] = key;
+		}
+	}
+
+	/**
+	 * Reorders a range of the given array, so position i will hold the value that was in the position packed in keys[i]
+	 */
+	private static void permute(Object array, int from, long[] keys, int length, Scratch scratch){
+		if (array instanceof byte[]){
+			byte[] values = (byte[])array;
+			byte[] tmp = scratch.getBytes(length);
+			System.arraycopy(values, from, tmp, 0, length);
+
+			for (int i = 0; i < length; i++){
+				values[from + i] = tmp[(int)keys[i]];
+			}
+		}
+		else if (array instanceof short[]){
+			short[] values = (short[])array;
+			short[] tmp = scratch.getShorts(length);
+			System.arraycopy(values, from, tmp, 0, length);
+
+			for (int i = 0; i < length; i++){
+				values[from + i] = tmp[(int)keys[i]];
+			}
+		}
+		else if (array instanceof int[]){
+			int[] values = (int[])array;
+			int[] tmp = scratch.getInts(length);
+			System.arraycopy(values, from, tmp, 0, length);
+
+			for (int i = 0; i < length; i++){
+				values[from + i] = tmp[(int)keys[i]];
+			}
+		}
+		else if (array instanceof float[]){
+			float[] values = (float[])array;
+			float[] tmp = scratch.getFloats(length);
+			System.arraycopy(values, from, tmp, 0, length);
+
+			for (int i = 0; i < length; i++){
+				values[from + i] = tmp[(int)keys[i]];
+			}
+		}
+		else if (array instanceof double[]){
+			double[] values = (double[])array;
+			double[] tmp = scratch.getDoubles(length);
+			System.arraycopy(values, from, tmp, 0, length);
+
+			for (int i = 0; i < length; i++){
+				values[from + i] = tmp[(int)keys[i]];
+			}
+		}
+		else{
+			throw new IllegalArgumentException("Unsupported payload type " + array.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Scratch buffers that are reused by every sort performed on the same thread
+	 */
+	private static class Scratch{
+
+		private long[] keys = new long[0];
+		private byte[] bytes = new byte[0];
+		private short[] shorts = new short[0];
+		private int[] ints = new int[0];
+		private float[] floats = new float[0];
+		private double[] doubles = new double[0];
+
+		long[] getKeys(int length){
+			if (keys.length < length){
+				keys = new long[length];
+			}
+
+			return keys;
+		}
+
+		byte[] getBytes(int length){
+			if (bytes.length < length){
+				bytes = new byte[length];
+			}
+
+			return bytes;
+		}
+
+		short[] getShorts(int length){
+			if (shorts.length < length){
+				shorts = new short[length];
+			}
+
+			return shorts;
+		}
+
+		int[] getInts(int length){
+			if (ints.length < length){
+				ints = new int[length];
+			}
+
+			return ints;
+		}
+
+		float[] getFloats(int length){
+			if (floats.length < length){
+				floats = new float[length];
+			}
+
+			return floats;
+		}
+
+		double[] getDoubles(int length){
+			if (doubles.length < length){
+				doubles = new double[length];
+			}
+
+			return doubles;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package edu.mta.ok.nworkshop.utils;
+
+/**
+ * Keeps the N best (item, score) pairs out of a stream of pairs using a bounded primitive min-heap.
+ *
+ * A pair is better than another pair if its score is higher, or if the scores are equal and its item is smaller.
+ * This matches the order in which the KNN predictors pick their neighbors (the first movie with the highest score wins),
+ * as long as the items are added as positions or ids in ascending order.
+ *
+ * The selector doesn't allocate any memory after it is created, so a single instance can be reused for many selections
+ * by calling {@link #clear()}. Instances aren't thread safe.
+ */
+public class TopNSelector {
+
+	private final int[] items;
+	private final double[] scores;
+	private int size;
+
+	/**
+	 * @param capacity the number of pairs the selector keeps
+	 */
+	public TopNSelector(int capacity){
+		items = new int[capacity];
+		scores = new double[capacity];
+	}
+
+	/**
+	 * Removes all the pairs from the selector
+	 */
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * @return the number of pairs the selector keeps
+	 */
+	public int getCapacity(){
+		return items.length;
+	}
+
+	/**
+	 * @return the number of pairs held in the selector
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Adds a pair to the selector. The pair is dropped in case the selector is full and the pair is worse than
+	 * all the pairs it holds.
+	 *
+	 * @param item the item
+	 * @param score the score of the item
+	 */
+	public void add(int item, double score){
+		if (size < items.length){
+			items[size] = item;
+			scores[size] = score;
+			siftUp(size++);
+		}
+		else if (size > 0 && isWorse(items[0], scores[0], item, score)){
+			items[0] = item;
+			scores[0] = score;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Sorts the held pairs from the best to the worst. After calling this method the pairs can be read using
+	 * {@link #getItem(int)} and {@link #getScore(int)}, and no pairs should be added until {@link #clear()} is called.
+	 *
+	 * @return the number of pairs held in the selector
+	 */
+	public int sort(){
+		// Heap sort - repeatedly move the worst pair to the end of the heap
+		for (int end = size - 1; end > 0; end--){
+			swap(0, end);
+			siftDown(0, end);
+		}
+
+		return size;
+	}
+
+	/**
+	 * @param index the index of a pair in the sorted pairs (see {@link #sort()})
+	 * @return the item of the pair
+	 */
+	public int getItem(int index){
+		return items[index];
+	}
+
+	/**
+	 * @param index the index of a pair in the sorted pairs (see {@link #sort()})
+	 * @return the score of the pair
+	 */
+	public double getScore(int index){
+		return scores[index];
+	}
+
+	/**
+	 * @return true if the first pair is worse than the second pair
+	 */
+	private static boolean isWorse(int item1, double score1, int item2, double score2){
+		return score1 < score2 || (score1 == score2 && item1 > item2);
+	}
+
+	private void siftUp(int index){
+		while (index > 0){
+			int parent = (index - 1) >>> 1;
+
+			if (!isWorse(items[index], scores[index], items[parent], scores[parent])){
+				break;
+			}
+
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index, int end){
+		while (true){
+			int child = 2 * index + 1;
+
+			if (child >= end){
+				break;
+			}
+
+			if (child + 1 < end && isWorse(items[child + 1], scores[child + 1], items[child], scores[child])){
+				child++;
+			}
+
+			if (!isWorse(items[child], scores[child], items[index], scores[index])){
+				break;
+			}
+
+			swap(index, child);
+			index = child;
+		}
+	}
+
+	private void swap(int i, int j){
+		int item = items[i];
+		items[i] = items[j];
+		items[j] = item;
+
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+}
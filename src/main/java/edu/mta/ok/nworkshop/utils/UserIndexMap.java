@@ -0,0 +1,260 @@
+package edu.mta.ok.nworkshop.utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A primitive mapping between the Netflix user ids and their sequential index in the models.
+ *
+ * The mapping is held in a direct address table over the user ids range (the biggest Netflix user id is 2649429),
+ * so converting an id into an index is a single array access with no boxing or hashing. The table takes about 10 MB.
+ *
+ * The mapping is saved in a small binary file holding a header (magic, version and the number of users) followed by
+ * the user ids ordered by their index, all written in little endian byte order like the other binary model files.
+ * For backward compatibility, files saved by the first version of the format (in big endian byte order) and files
+ * that hold a serialized HashMap<Integer, Integer> can be loaded as well. Any other file is rejected when it's loaded.
+ */
+public class UserIndexMap {
+
+	/**
+	 * The value written at the beginning of every user index map file ("NUIM")
+	 */
+	public static final int MAGIC = 0x4E55494D;
+
+	/**
+	 * The current version of the file format
+	 */
+	public static final int VERSION = 2;
+
+	// The version of the files saved in big endian byte order
+	private static final int BIG_ENDIAN_VERSION = 1;
+
+	private static final int HEADER_SIZE = 12;
+
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/**
+	 * The value returned by {@link #get(int)} for ids that aren't mapped
+	 */
+	public static final int NO_INDEX = -1;
+
+	private int[] indices;
+	private int[] userIds;
+
+	/**
+	 * Create a new mapping in which every user id is mapped to its position in the given array.
+	 *
+	 * @param userIds an array of user ids ordered by their index in the models
+	 */
+	public UserIndexMap(int[] userIds){
+		int maxId = 0;
+
+		for (int userId : userIds){
+			if (userId < 0){
+				throw new IllegalArgumentException("Invalid user id " + userId);
+			}
+
+			maxId = Math.max(maxId, userId);
+		}
+
+		this.userIds = userIds;
+		this.indices = new int[maxId + 1];
+		Arrays.fill(this.indices, NO_INDEX);
+
+		for (int i = 0; i < userIds.length; i++){
+			this.indices[userIds[i]] = i;
+		}
+	}
+
+	/**
+	 * @param userId a Netflix user id
+	 * @return the index of the given user in the models, or NO_INDEX in case the user id isn't mapped
+	 */
+	public int get(int userId){
+		if (userId < 0 || userId >= indices.length){
+			return NO_INDEX;
+		}
+
+		return indices[userId];
+	}
+
+	/**
+	 * @param userIndex an index of a user in the models
+	 * @return the Netflix user id of the user placed in the given index
+	 */
+	public int getUserId(int userIndex){
+		return userIds[userIndex];
+	}
+
+	/**
+	 * @return the user ids ordered by their index in the models
+	 */
+	public int[] getUserIds(){
+		return userIds;
+	}
+
+	/**
+	 * @return the number of mapped users
+	 */
+	public int size(){
+		return userIds.length;
+	}
+
+	/**
+	 * Saves the mapping into a binary file
+	 *
+	 * @param fileName the name of the file the mapping will be saved in
+	 * @return true if the mapping had been saved successfully or false otherwise
+	 */
+	public boolean save(String fileName){
+		RandomAccessFile file = null;
+		boolean retVal = false;
+
+		try{
+			file = new RandomAccessFile(fileName, "rw");
+			file.setLength(0);
+
+			MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + 4L * userIds.length);
+			buffer.order(BYTE_ORDER);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(userIds.length);
+			buffer.asIntBuffer().put(userIds);
+
+			buffer.force();
+
+			retVal = true;
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(file);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Loads a mapping from a given file. The file can either be a binary user index map file or a file holding
+	 * a serialized HashMap<Integer, Integer>.
+	 *
+	 * @param fileName the name of the file the mapping will be loaded from
+	 * @return the loaded mapping, or null in case of an error reading the file
+	 * @throws IllegalArgumentException in case the file is neither a user index map file nor a serialized map, or in 
+	 * case its version or length don't match its header
+	 */
+	public static UserIndexMap load(String fileName){
+		UserIndexMap retVal = null;
+		ByteOrder order = readByteOrder(fileName);
+
+		if (order != null){
+			RandomAccessFile file = null;
+
+			try{
+				file = new RandomAccessFile(fileName, "r");
+				ByteBuffer buffer = file.getChannel().map(MapMode.READ_ONLY, 0, file.length()).order(order);
+
+				buffer.getInt();
+				int version = buffer.getInt();
+
+				if (version != ((order == BYTE_ORDER) ? VERSION : BIG_ENDIAN_VERSION)){
+					throw new IllegalArgumentException("Unsupported user index map version " + version + " in file " + fileName);
+				}
+
+				int usersNum = buffer.getInt();
+
+				if (usersNum < 0 || file.length() != HEADER_SIZE + 4L * usersNum){
+					throw new IllegalArgumentException("The user index map file " + fileName + " should hold " + usersNum + 
+							" users, but its length is " + file.length() + " bytes");
+				}
+
+				int[] userIds = new int[usersNum];
+				buffer.asIntBuffer().get(userIds);
+
+				retVal = new UserIndexMap(userIds);
+			}
+			catch (IOException e){
+				e.printStackTrace();
+			}
+			finally{
+				FileUtils.outputClose(file);
+			}
+		}
+		else{
+			HashMap<Integer, Integer> map = FileUtils.loadDataFromFile(fileName);
+
+			if (map != null){
+				retVal = fromMap(map);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Converts a boxed user indices map into a primitive mapping.
+	 *
+	 * @param map a map between every user id and its index in the models
+	 * @return a new primitive mapping holding the same data as the given map
+	 */
+	public static UserIndexMap fromMap(Map<Integer, Integer> map){
+		int[] userIds = new int[map.size()];
+
+		for (Map.Entry<Integer, Integer> entry : map.entrySet()){
+			userIds[entry.getValue()] = entry.getKey();
+		}
+
+		return new UserIndexMap(userIds);
+	}
+
+	/**
+	 * Reads the magic value at the beginning of a file
+	 *
+	 * @return the byte order the file was saved in, or null in case the file holds a serialized object (or can't be read)
+	 * @throws IllegalArgumentException in case the file starts with neither a user index map magic value nor a 
+	 * serialized object header
+	 */
+	private static ByteOrder readByteOrder(String fileName){
+		FileInputStream fis = null;
+		ByteOrder retVal = null;
+
+		try{
+			fis = new FileInputStream(fileName);
+			byte[] header = new byte[4];
+
+			if (fis.read(header) == header.length){
+				if (ByteBuffer.wrap(header).order(BYTE_ORDER).getInt() == MAGIC){
+					retVal = BYTE_ORDER;
+				}
+				else if (ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN).getInt() == MAGIC){
+					retVal = ByteOrder.BIG_ENDIAN;
+				}
+				else if (ByteBuffer.wrap(header).getShort() != ObjectStreamConstants.STREAM_MAGIC){
+					throw new IllegalArgumentException(fileName + " is not a user index map file");
+				}
+			}
+			else{
+				throw new IllegalArgumentException(fileName + " is too short to be a user index map file");
+			}
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			FileUtils.outputClose(fis);
+		}
+
+		return retVal;
+	}
+}